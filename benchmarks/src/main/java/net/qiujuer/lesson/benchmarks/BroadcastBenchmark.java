@@ -0,0 +1,99 @@
+package net.qiujuer.lesson.benchmarks;
+
+import net.qiujuer.lesson.sample.server.TCPServer;
+import net.qiujuer.library.clink.core.Connector;
+import net.qiujuer.library.clink.core.IoContext;
+import net.qiujuer.library.clink.impl.IoSelectorProvider;
+import net.qiujuer.library.clink.utils.CloseUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程内回环：TCPServer向N个已连接的客户端广播一条消息，直到所有客户端都收到为止
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BroadcastBenchmark {
+    @Param({"10", "100", "1000"})
+    private int clientCount;
+
+    @Param({"64", "1024"})
+    private int messageSize;
+
+    private TCPServer server;
+    private final List<Connector> clients = new ArrayList<>();
+    private String message;
+    private volatile CountDownLatch receiveLatch;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        IoContext.setup()
+                .ioProvider(new IoSelectorProvider())
+                .start();
+
+        server = new TCPServer(0);
+        if (!server.start()) {
+            throw new IllegalStateException("Start TCP server failed!");
+        }
+
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", server.getLocalPort());
+        for (int i = 0; i < clientCount; i++) {
+            SocketChannel channel = SocketChannel.open(address);
+            Connector connector = new Connector() {
+                @Override
+                protected void onReceiveNewMessage(String str) {
+                    receiveLatch.countDown();
+                }
+            };
+            connector.setup(channel);
+            clients.add(connector);
+        }
+
+        // 等待服务端登记全部连接
+        long deadline = System.currentTimeMillis() + 10000;
+        while (server.getClientCount() < clientCount) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Clients not registered: " + server.getClientCount());
+            }
+            Thread.sleep(10);
+        }
+
+        StringBuilder builder = new StringBuilder(messageSize);
+        for (int i = 0; i < messageSize; i++) {
+            builder.append((char) ('a' + i % 26));
+        }
+        message = builder.toString();
+        receiveLatch = new CountDownLatch(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        for (Connector client : clients) {
+            CloseUtils.close(client);
+        }
+        clients.clear();
+        server.stop();
+        IoContext.close();
+    }
+
+    @Benchmark
+    public void broadcast() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(clientCount);
+        receiveLatch = latch;
+        server.broadcast(message);
+        if (!latch.await(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Broadcast not delivered, remaining: " + latch.getCount());
+        }
+    }
+}
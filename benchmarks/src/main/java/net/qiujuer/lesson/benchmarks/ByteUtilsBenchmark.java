@@ -0,0 +1,53 @@
+package net.qiujuer.lesson.benchmarks;
+
+import net.qiujuer.lesson.sample.foo.constants.UDPConstants;
+import net.qiujuer.library.clink.utils.ByteUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ByteUtilsBenchmark {
+    @Param({"16", "128", "1024"})
+    private int size;
+
+    private byte[] matching;
+    private byte[] mismatching;
+    private byte[] header;
+
+    @Setup
+    public void setup() {
+        header = UDPConstants.HEADER;
+        matching = new byte[Math.max(size, header.length)];
+        new Random(7).nextBytes(matching);
+        System.arraycopy(header, 0, matching, 0, header.length);
+        mismatching = matching.clone();
+        mismatching[header.length - 1]++;
+    }
+
+    @Benchmark
+    public boolean startsWithMatch() {
+        return ByteUtils.startsWith(matching, header);
+    }
+
+    @Benchmark
+    public boolean startsWithMismatch() {
+        return ByteUtils.startsWith(mismatching, header);
+    }
+
+    @Benchmark
+    public byte[] subbytesTail() {
+        return ByteUtils.subbytes(matching, header.length);
+    }
+
+    @Benchmark
+    public byte[] subbytesRange() {
+        return ByteUtils.subbytes(matching, 0, matching.length >> 1);
+    }
+}
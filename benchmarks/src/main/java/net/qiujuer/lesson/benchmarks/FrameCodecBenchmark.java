@@ -0,0 +1,105 @@
+package net.qiujuer.lesson.benchmarks;
+
+import net.qiujuer.library.clink.frame.FrameDecoder;
+import net.qiujuer.library.clink.frame.FrameEncoder;
+import net.qiujuer.library.clink.frame.SharedFrame;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 帧编解码与原有按行读写（BufferedReader.readLine / PrintStream.println）的对比
+ * <p>
+ * 每次操作处理一批消息，读取按readSize切分模拟一次次的Socket读取
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FrameCodecBenchmark {
+    private static final int BATCH = 256;
+
+    @Param({"32", "512", "4096"})
+    private int messageSize;
+
+    @Param({"4096"})
+    private int readSize;
+
+    private String message;
+    private byte[] frameStream;
+    private byte[] lineStream;
+    private FrameDecoder decoder;
+    private final ByteArrayOutputStream sink = new ByteArrayOutputStream(64 * 1024);
+
+    @Setup
+    public void setup() throws IOException {
+        StringBuilder builder = new StringBuilder(messageSize);
+        for (int i = 0; i < messageSize; i++) {
+            builder.append((char) ('a' + i % 26));
+        }
+        message = builder.toString();
+
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        ByteArrayOutputStream lines = new ByteArrayOutputStream();
+        PrintStream printStream = new PrintStream(lines);
+        for (int i = 0; i < BATCH; i++) {
+            frames.write(FrameEncoder.encodeString(message));
+            printStream.println(message);
+        }
+        printStream.flush();
+        frameStream = frames.toByteArray();
+        lineStream = lines.toByteArray();
+        decoder = new FrameDecoder();
+    }
+
+    @Benchmark
+    public void frameEncode(Blackhole blackhole) {
+        for (int i = 0; i < BATCH; i++) {
+            blackhole.consume(FrameEncoder.encodeString(message));
+        }
+    }
+
+    @Benchmark
+    public void sharedFrameEncode(Blackhole blackhole) {
+        for (int i = 0; i < BATCH; i++) {
+            SharedFrame frame = SharedFrame.encodeString(message);
+            blackhole.consume(frame.length());
+            frame.release();
+        }
+    }
+
+    @Benchmark
+    public void frameDecode(Blackhole blackhole) throws IOException {
+        byte[] stream = frameStream;
+        FrameDecoder.FrameListener listener = (type, flags, identifier, body) ->
+                blackhole.consume(StandardCharsets.UTF_8.decode(body).toString());
+        for (int offset = 0; offset < stream.length; offset += readSize) {
+            decoder.decode(ByteBuffer.wrap(stream, offset, Math.min(readSize, stream.length - offset)), listener);
+        }
+    }
+
+    @Benchmark
+    public void lineWrite() {
+        sink.reset();
+        PrintStream printStream = new PrintStream(sink);
+        for (int i = 0; i < BATCH; i++) {
+            printStream.println(message);
+        }
+        printStream.flush();
+    }
+
+    @Benchmark
+    public void lineRead(Blackhole blackhole) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(lineStream)));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            blackhole.consume(line);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package net.qiujuer.lesson.benchmarks;
+
+import net.qiujuer.lesson.sample.foo.udp.ServerLoad;
+import net.qiujuer.lesson.sample.foo.udp.UDPPacket;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UDP搜索请求与回送的编解码
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UDPPacketBenchmark {
+    private final byte[] buffer = new byte[128];
+    private final ServerLoad load = new ServerLoad(120, 512, 3000);
+    private byte[] sn;
+    private byte[] request;
+    private int requestLength;
+    private byte[] response;
+    private int responseLength;
+
+    @Setup
+    public void setup() {
+        sn = UUID.randomUUID().toString().getBytes();
+        request = new byte[128];
+        requestLength = UDPPacket.writeSearch(ByteBuffer.wrap(request), 30202);
+        response = new byte[128];
+        responseLength = UDPPacket.writeResponse(ByteBuffer.wrap(response), 30401, load, sn);
+    }
+
+    @Benchmark
+    public int encodeSearch() {
+        return UDPPacket.writeSearch(ByteBuffer.wrap(buffer), 30202);
+    }
+
+    @Benchmark
+    public int decodeSearch() {
+        if (!UDPPacket.isValid(request, requestLength) || UDPPacket.readCmd(request) != UDPPacket.CMD_SEARCH) {
+            return -1;
+        }
+        return UDPPacket.readPort(request);
+    }
+
+    @Benchmark
+    public int encodeResponse() {
+        return UDPPacket.writeResponse(ByteBuffer.wrap(buffer), 30401, load, sn);
+    }
+
+    @Benchmark
+    public String decodeResponse() {
+        if (!UDPPacket.isValid(response, responseLength) || UDPPacket.readCmd(response) != UDPPacket.CMD_RESPONSE
+                || !UDPPacket.isValidResponse(response, responseLength)) {
+            return null;
+        }
+        UDPPacket.readPort(response);
+        UDPPacket.readLoad(response);
+        return UDPPacket.readResponseSn(response, responseLength);
+    }
+}
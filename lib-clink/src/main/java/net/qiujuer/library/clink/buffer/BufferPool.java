@@ -0,0 +1,357 @@
+package net.qiujuer.library.clink.buffer;
+
+import net.qiujuer.library.clink.log.Logger;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按规格分级的Buffer池
+ * <p>
+ * 借出时依次尝试：当前线程的本地缓存 -> 全局空闲队列 -> 新分配；
+ * 归还时优先放回当前线程的本地缓存，本地缓存满后放入全局队列，全局队列也满时直接丢弃交由GC回收。
+ * 超出最大规格的请求不做池化，每次单独分配。
+ * <p>
+ * 泄露检测：按采样对借出的Buffer进行弱引用跟踪，若在未归还的情况下被GC回收则记为泄露并打印借出位置
+ */
+public class BufferPool {
+    private static final Logger LOGGER = Logger.getLogger(BufferPool.class);
+    private static final int[] DEFAULT_SIZE_CLASSES = {256, 1024, 4 * 1024, 16 * 1024, 64 * 1024};
+    private static volatile BufferPool DEFAULT;
+
+    private final boolean direct;
+    private final int[] sizeClasses;
+    private final int maxPooledPerClass;
+    private final int maxLocalPerClass;
+    private final LeakDetection leakDetection;
+
+    private final ConcurrentLinkedQueue<PooledBuffer>[] globalQueues;
+    private final AtomicInteger[] globalSizes;
+    private final ThreadLocal<LocalCache> localCache;
+
+    private final ReferenceQueue<PooledBuffer> leakQueue = new ReferenceQueue<>();
+    private final Set<LeakTracker> trackers = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder acquireCount = new LongAdder();
+    private final LongAdder releaseCount = new LongAdder();
+    private final LongAdder localHitCount = new LongAdder();
+    private final LongAdder globalHitCount = new LongAdder();
+    private final LongAdder allocateCount = new LongAdder();
+    private final LongAdder unpooledCount = new LongAdder();
+    private final LongAdder discardCount = new LongAdder();
+    private final LongAdder leakCount = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final AtomicInteger inUseCount = new AtomicInteger(0);
+
+    public BufferPool() {
+        this(true, DEFAULT_SIZE_CLASSES, 1024, 32, LeakDetection.SIMPLE);
+    }
+
+    /**
+     * @param direct            是否分配堆外内存
+     * @param sizeClasses       升序排列的规格
+     * @param maxPooledPerClass 每个规格在全局队列中最多保留的空闲数量
+     * @param maxLocalPerClass  每个线程每个规格最多缓存的空闲数量，0表示不使用线程本地缓存
+     * @param leakDetection     泄露检测级别
+     */
+    @SuppressWarnings("unchecked")
+    public BufferPool(boolean direct, int[] sizeClasses, int maxPooledPerClass,
+                      int maxLocalPerClass, LeakDetection leakDetection) {
+        for (int i = 1; i < sizeClasses.length; i++) {
+            if (sizeClasses[i] <= sizeClasses[i - 1]) {
+                throw new IllegalArgumentException("sizeClasses must be ascending");
+            }
+        }
+        this.direct = direct;
+        this.sizeClasses = sizeClasses.clone();
+        this.maxPooledPerClass = maxPooledPerClass;
+        this.maxLocalPerClass = maxLocalPerClass;
+        this.leakDetection = leakDetection;
+
+        this.globalQueues = (ConcurrentLinkedQueue<PooledBuffer>[]) new ConcurrentLinkedQueue<?>[sizeClasses.length];
+        this.globalSizes = new AtomicInteger[sizeClasses.length];
+        for (int i = 0; i < sizeClasses.length; i++) {
+            globalQueues[i] = new ConcurrentLinkedQueue<>();
+            globalSizes[i] = new AtomicInteger(0);
+        }
+        this.localCache = maxLocalPerClass > 0
+                ? ThreadLocal.withInitial(() -> new LocalCache(this.sizeClasses.length, maxLocalPerClass))
+                : null;
+    }
+
+    /**
+     * 进程内共享的默认池，泄露检测级别可通过 -Dclink.buffer.leakDetection 指定
+     */
+    public static BufferPool getDefault() {
+        BufferPool pool = DEFAULT;
+        if (pool == null) {
+            synchronized (BufferPool.class) {
+                pool = DEFAULT;
+                if (pool == null) {
+                    LeakDetection level = LeakDetection.valueOf(
+                            System.getProperty("clink.buffer.leakDetection", LeakDetection.SIMPLE.name()));
+                    pool = new BufferPool(true, DEFAULT_SIZE_CLASSES, 1024, 32, level);
+                    DEFAULT = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * 借出一个容量不小于minCapacity的Buffer
+     */
+    public PooledBuffer acquire(int minCapacity) {
+        reportLeaks();
+        acquireCount.increment();
+
+        int index = sizeIndex(minCapacity);
+        PooledBuffer pooled;
+        if (index < 0) {
+            unpooledCount.increment();
+            pooled = new PooledBuffer(this, allocate(minCapacity), -1);
+        } else {
+            pooled = poll(index);
+            if (pooled == null) {
+                allocateCount.increment();
+                pooled = new PooledBuffer(this, allocate(sizeClasses[index]), index);
+            }
+        }
+
+        pooled.buffer().clear();
+        pooled.inUse.set(true);
+        inUseCount.incrementAndGet();
+        track(pooled);
+        return pooled;
+    }
+
+    void release(PooledBuffer pooled) {
+        if (!pooled.inUse.compareAndSet(true, false)) {
+            throw new IllegalStateException("PooledBuffer released twice");
+        }
+        inUseCount.decrementAndGet();
+        releaseCount.increment();
+        untrack(pooled);
+
+        int index = pooled.sizeIndex;
+        if (index < 0) {
+            return;
+        }
+
+        if (useLocalCache() && localCache.get().offer(index, pooled)) {
+            return;
+        }
+        if (globalSizes[index].incrementAndGet() <= maxPooledPerClass) {
+            globalQueues[index].offer(pooled);
+        } else {
+            globalSizes[index].decrementAndGet();
+            discardCount.increment();
+        }
+    }
+
+    public Stats getStats() {
+        int[] idle = new int[sizeClasses.length];
+        for (int i = 0; i < idle.length; i++) {
+            idle[i] = globalSizes[i].get();
+        }
+        return new Stats(acquireCount.sum(), releaseCount.sum(), localHitCount.sum(), globalHitCount.sum(),
+                allocateCount.sum(), unpooledCount.sum(), discardCount.sum(), leakCount.sum(),
+                inUseCount.get(), allocatedBytes.sum(), sizeClasses.clone(), idle);
+    }
+
+    private PooledBuffer poll(int index) {
+        if (useLocalCache()) {
+            PooledBuffer pooled = localCache.get().poll(index);
+            if (pooled != null) {
+                localHitCount.increment();
+                return pooled;
+            }
+        }
+        PooledBuffer pooled = globalQueues[index].poll();
+        if (pooled != null) {
+            globalSizes[index].decrementAndGet();
+            globalHitCount.increment();
+        }
+        return pooled;
+    }
+
+    /**
+     * 虚拟线程数量多且生命周期短，为其建立本地缓存只会让Buffer滞留在已结束的线程中
+     */
+    private boolean useLocalCache() {
+        return localCache != null && !Thread.currentThread().isVirtual();
+    }
+
+    private int sizeIndex(int capacity) {
+        int[] classes = sizeClasses;
+        for (int i = 0; i < classes.length; i++) {
+            if (capacity <= classes[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        allocatedBytes.add(capacity);
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private void track(PooledBuffer pooled) {
+        LeakDetection level = leakDetection;
+        if (level == LeakDetection.DISABLED) {
+            return;
+        }
+        if (level == LeakDetection.SIMPLE && ThreadLocalRandom.current().nextInt(LeakDetection.SAMPLING_INTERVAL) != 0) {
+            return;
+        }
+        LeakTracker tracker = new LeakTracker(pooled, leakQueue,
+                level == LeakDetection.PARANOID ? new Throwable("Acquired here") : null);
+        trackers.add(tracker);
+        pooled.tracker = tracker;
+    }
+
+    private void untrack(PooledBuffer pooled) {
+        LeakTracker tracker = pooled.tracker;
+        if (tracker != null) {
+            pooled.tracker = null;
+            trackers.remove(tracker);
+            tracker.clear();
+        }
+    }
+
+    private void reportLeaks() {
+        if (leakDetection == LeakDetection.DISABLED) {
+            return;
+        }
+        LeakTracker tracker;
+        while ((tracker = (LeakTracker) leakQueue.poll()) != null) {
+            if (!trackers.remove(tracker)) {
+                continue;
+            }
+            leakCount.increment();
+            inUseCount.decrementAndGet();
+            if (tracker.acquireTrace != null) {
+                LOGGER.error("BufferPool泄露：Buffer未归还即被回收，容量：{}", tracker.capacity, tracker.acquireTrace);
+            } else {
+                LOGGER.error("BufferPool泄露：Buffer未归还即被回收，容量：{}", tracker.capacity);
+            }
+        }
+    }
+
+    public enum LeakDetection {
+        // 不检测
+        DISABLED,
+        // 采样检测，不记录借出位置
+        SIMPLE,
+        // 全量检测并记录借出位置，开销较大，仅用于排查
+        PARANOID;
+
+        static final int SAMPLING_INTERVAL = 128;
+    }
+
+    static class LeakTracker extends WeakReference<PooledBuffer> {
+        private final int capacity;
+        private final Throwable acquireTrace;
+
+        LeakTracker(PooledBuffer referent, ReferenceQueue<PooledBuffer> queue, Throwable acquireTrace) {
+            super(referent, queue);
+            this.capacity = referent.capacity();
+            this.acquireTrace = acquireTrace;
+        }
+    }
+
+    /**
+     * 线程本地缓存，每个规格一个定长的栈
+     */
+    private static class LocalCache {
+        private final PooledBuffer[][] stacks;
+        private final int[] sizes;
+
+        LocalCache(int classCount, int maxPerClass) {
+            this.stacks = new PooledBuffer[classCount][maxPerClass];
+            this.sizes = new int[classCount];
+        }
+
+        PooledBuffer poll(int index) {
+            int size = sizes[index];
+            if (size == 0) {
+                return null;
+            }
+            size--;
+            PooledBuffer pooled = stacks[index][size];
+            stacks[index][size] = null;
+            sizes[index] = size;
+            return pooled;
+        }
+
+        boolean offer(int index, PooledBuffer pooled) {
+            int size = sizes[index];
+            if (size == stacks[index].length) {
+                return false;
+            }
+            stacks[index][size] = pooled;
+            sizes[index] = size + 1;
+            return true;
+        }
+    }
+
+    public static class Stats {
+        public final long acquires;
+        public final long releases;
+        public final long localHits;
+        public final long globalHits;
+        public final long allocations;
+        public final long unpooledAllocations;
+        public final long discards;
+        public final long leaks;
+        // 包含未被采样到的泄露
+        public final int inUse;
+        public final long allocatedBytes;
+        public final int[] sizeClasses;
+        public final int[] globalIdle;
+
+        Stats(long acquires, long releases, long localHits, long globalHits, long allocations,
+              long unpooledAllocations, long discards, long leaks, int inUse, long allocatedBytes,
+              int[] sizeClasses, int[] globalIdle) {
+            this.acquires = acquires;
+            this.releases = releases;
+            this.localHits = localHits;
+            this.globalHits = globalHits;
+            this.allocations = allocations;
+            this.unpooledAllocations = unpooledAllocations;
+            this.discards = discards;
+            this.leaks = leaks;
+            this.inUse = inUse;
+            this.allocatedBytes = allocatedBytes;
+            this.sizeClasses = sizeClasses;
+            this.globalIdle = globalIdle;
+        }
+
+        @Override
+        public String toString() {
+            return "BufferPool.Stats{" +
+                    "acquires=" + acquires +
+                    ", releases=" + releases +
+                    ", localHits=" + localHits +
+                    ", globalHits=" + globalHits +
+                    ", allocations=" + allocations +
+                    ", unpooled=" + unpooledAllocations +
+                    ", discards=" + discards +
+                    ", leaks=" + leaks +
+                    ", inUse=" + inUse +
+                    ", allocatedBytes=" + allocatedBytes +
+                    ", sizeClasses=" + Arrays.toString(sizeClasses) +
+                    ", globalIdle=" + Arrays.toString(globalIdle) +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package net.qiujuer.library.clink.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 从{@link BufferPool}借出的Buffer
+ * <p>
+ * 借出的Buffer在用完后必须调用{@link #release()}归还，归还后不可再使用；
+ * 句柄对象随Buffer一同被池化复用，借出与归还本身不产生新的对象
+ */
+public final class PooledBuffer {
+    private final BufferPool pool;
+    private final ByteBuffer buffer;
+    // 所属规格下标，-1表示超出池化规格的一次性Buffer
+    final int sizeIndex;
+    // 借出状态，仅在借出与归还时变更
+    final AtomicBoolean inUse = new AtomicBoolean(false);
+    BufferPool.LeakTracker tracker;
+
+    PooledBuffer(BufferPool pool, ByteBuffer buffer, int sizeIndex) {
+        this.pool = pool;
+        this.buffer = buffer;
+        this.sizeIndex = sizeIndex;
+    }
+
+    /**
+     * 借出时已清空，position为0，limit为capacity
+     */
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    public void release() {
+        pool.release(this);
+    }
+}
@@ -0,0 +1,384 @@
+package net.qiujuer.library.clink.client;
+
+import net.qiujuer.library.clink.core.Connector;
+import net.qiujuer.library.clink.frame.SharedFrame;
+import net.qiujuer.library.clink.log.Logger;
+import net.qiujuer.library.clink.timer.Timeout;
+import net.qiujuer.library.clink.utils.CloseUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 自动重连的客户端连接
+ * <p>
+ * 断开或连接失败后按指数退避重连，每次等待在上限的一半到全部之间随机，大量连接同时断开时不会在同一时刻重连；
+ * 每次连接前由{@link ServerResolver}给出地址，可在多次失败后重新发现服务器
+ * <p>
+ * 未连接期间发送的消息暂存在有界队列中，连接建立后按序先于新消息发出，超出上限时发送返回false；
+ * 断开时已交给旧连接但尚未写出的消息随旧连接丢弃。重新登录、加入房间等恢复会话的消息在{@link #onRestoreSession()}中发送，
+ * 先于暂存的消息
+ * <p>
+ * 回调与{@link Connector}一致，通过继承覆写
+ */
+public class ClientConnection implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(ClientConnection.class);
+
+    private enum State {
+        // 尚未start
+        IDLE,
+        // 等待解析地址
+        RESOLVING,
+        // 非阻塞connect进行中
+        CONNECTING,
+        CONNECTED,
+        // 退避等待中
+        WAITING,
+        CLOSED
+    }
+
+    private final ClientEngine engine;
+    private final ClientEngine.Config config;
+    private final ServerResolver resolver;
+    // 未连接期间暂存的消息
+    private final ArrayDeque<SharedFrame> pending = new ArrayDeque<>();
+    private int pendingBytes;
+    private State state = State.IDLE;
+    private int failures;
+    private InetSocketAddress address;
+    private ClientEngine.ConnectAttempt attempt;
+    private Timeout retryTimeout;
+    private Link link;
+    private long connectedNanos;
+
+    public ClientConnection(ClientEngine engine, ServerResolver resolver) {
+        this.engine = engine;
+        this.config = engine.getConfig();
+        this.resolver = resolver;
+    }
+
+    /**
+     * 开始连接，只能调用一次
+     */
+    public synchronized void start() {
+        if (state != State.IDLE) {
+            throw new IllegalStateException("ClientConnection already started");
+        }
+        engine.register(this);
+        state = State.RESOLVING;
+        engine.resolve(this::resolveAndConnect);
+    }
+
+    public synchronized boolean isConnected() {
+        return state == State.CONNECTED;
+    }
+
+    public synchronized boolean isClosed() {
+        return state == State.CLOSED;
+    }
+
+    /**
+     * 当前或最近一次连接的地址
+     */
+    public synchronized InetSocketAddress getAddress() {
+        return address;
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    public boolean send(String msg) {
+        return sendAndRelease(SharedFrame.encodeString(msg));
+    }
+
+    public boolean send(byte type, byte[] body) {
+        return sendAndRelease(SharedFrame.encode(type, body));
+    }
+
+    /**
+     * 发送一个共享帧，调用方仍需释放自己的引用
+     *
+     * @return false 已关闭，或未连接且暂存队列已满
+     */
+    public synchronized boolean send(SharedFrame frame) {
+        if (state == State.CLOSED) {
+            return false;
+        }
+        if (link != null) {
+            link.send(frame);
+            return true;
+        }
+        if (pending.size() >= config.getMaxPendingMessages()
+                || pendingBytes + frame.length() > config.getMaxPendingBytes()) {
+            return false;
+        }
+        pending.addLast(frame.retain());
+        pendingBytes += frame.length();
+        return true;
+    }
+
+    private boolean sendAndRelease(SharedFrame frame) {
+        try {
+            return send(frame);
+        } finally {
+            frame.release();
+        }
+    }
+
+    @Override
+    public void close() {
+        ClientEngine.ConnectAttempt attempt;
+        Link link;
+        synchronized (this) {
+            if (state == State.CLOSED) {
+                return;
+            }
+            state = State.CLOSED;
+            attempt = this.attempt;
+            this.attempt = null;
+            link = this.link;
+            this.link = null;
+            if (retryTimeout != null) {
+                retryTimeout.cancel();
+                retryTimeout = null;
+            }
+            releasePending();
+        }
+        if (attempt != null) {
+            CloseUtils.close(attempt.getChannel());
+            engine.abort(attempt);
+        }
+        CloseUtils.close(link);
+        engine.unregister(this);
+    }
+
+    /**
+     * 连接建立后、暂存的消息发出前回调，运行在引擎的连接线程上并持有本连接的锁；
+     * 在此调用send发送的消息直接交给新连接，服务器先恢复会话再处理暂存的消息。不要在此阻塞
+     */
+    protected void onRestoreSession() {
+
+    }
+
+    /**
+     * 连接建立回调，运行在引擎的连接线程上，此时暂存的消息已交给新连接
+     */
+    protected void onConnected(InetSocketAddress address) {
+
+    }
+
+    /**
+     * 连接断开回调，之后会自动重连；主动close时不回调
+     */
+    protected void onDisconnected(InetSocketAddress address) {
+
+    }
+
+    protected void onReceiveNewMessage(String str) {
+
+    }
+
+    /**
+     * 非文本帧的回调，Body仅在回调期间有效
+     */
+    protected void onReceiveFrame(byte type, byte flags, short identifier, ByteBuffer body) {
+
+    }
+
+    /**
+     * 运行在解析线程上
+     */
+    private void resolveAndConnect() {
+        InetSocketAddress lastAddress;
+        int failures;
+        synchronized (this) {
+            if (state != State.RESOLVING) {
+                return;
+            }
+            lastAddress = address;
+            failures = this.failures;
+        }
+
+        InetSocketAddress target;
+        try {
+            target = resolver.resolve(lastAddress, failures);
+        } catch (IOException e) {
+            LOGGER.warn("解析服务器地址失败：{}", e.getMessage());
+            target = null;
+        }
+
+        SocketChannel channel = null;
+        ClientEngine.ConnectAttempt attempt;
+        synchronized (this) {
+            if (state != State.RESOLVING) {
+                return;
+            }
+            if (target == null) {
+                this.failures++;
+                scheduleRetry();
+                return;
+            }
+            address = target;
+            try {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.connect(target);
+            } catch (IOException e) {
+                CloseUtils.close(channel);
+                LOGGER.debug("连接失败：{} {}", target, e.getMessage());
+                this.failures++;
+                scheduleRetry();
+                return;
+            }
+            attempt = new ClientEngine.ConnectAttempt(channel, this);
+            this.attempt = attempt;
+            state = State.CONNECTING;
+        }
+        engine.connect(attempt);
+    }
+
+    /**
+     * 运行在引擎的连接线程上，通道已完成connect
+     */
+    void onChannelConnected(ClientEngine.ConnectAttempt attempt) {
+        Link link = new Link();
+        synchronized (this) {
+            if (this.attempt != attempt) {
+                CloseUtils.close(attempt.getChannel());
+                return;
+            }
+            this.attempt = null;
+            try {
+                link.setup(attempt.getChannel());
+            } catch (IOException e) {
+                CloseUtils.close(link, attempt.getChannel());
+                failures++;
+                scheduleRetry();
+                return;
+            }
+            if (config.getReaderIdleSeconds() > 0 || config.getHeartbeatSeconds() > 0) {
+                link.enableIdleCheck(engine.getTimer(), config.getReaderIdleSeconds(),
+                        config.getHeartbeatSeconds(), TimeUnit.SECONDS);
+            }
+            this.link = link;
+            connectedNanos = System.nanoTime();
+            state = State.CONNECTED;
+            onRestoreSession();
+            // 暂存的消息先于之后的新消息入队；入队溢出会在当前线程上断开，此时剩余的消息留到下一次连接
+            SharedFrame frame;
+            while (this.link == link && (frame = pending.pollFirst()) != null) {
+                pendingBytes -= frame.length();
+                link.send(frame);
+                frame.release();
+            }
+            if (this.link != link) {
+                return;
+            }
+        }
+        LOGGER.debug("已连接：{}", address);
+        onConnected(address);
+    }
+
+    /**
+     * 运行在引擎的连接线程上
+     */
+    void onConnectFailed(ClientEngine.ConnectAttempt attempt, IOException e) {
+        synchronized (this) {
+            if (this.attempt != attempt) {
+                return;
+            }
+            this.attempt = null;
+            LOGGER.debug("连接失败：{} {}", address, e.getMessage());
+            failures++;
+            scheduleRetry();
+        }
+    }
+
+    private void onLinkClosed(Link link) {
+        InetSocketAddress address;
+        synchronized (this) {
+            if (this.link != link) {
+                return;
+            }
+            this.link = null;
+            address = this.address;
+            // 连接保持足够久后的断开视为新故障，从最短的退避开始
+            long connectedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectedNanos);
+            failures = connectedMillis >= config.getStableMillis() ? 0 : failures + 1;
+            scheduleRetry();
+        }
+        LOGGER.info("连接已断开，准备重连：{}", address);
+        onDisconnected(address);
+    }
+
+    /**
+     * 需持有锁调用；首次断开也至少等待一小段随机时间
+     */
+    private void scheduleRetry() {
+        if (state == State.CLOSED || engine.isClosed()) {
+            return;
+        }
+        state = State.WAITING;
+        long delay = backoffMillis(failures);
+        retryTimeout = engine.getTimer().newTimeout(timeout -> {
+            synchronized (ClientConnection.this) {
+                if (state != State.WAITING) {
+                    return;
+                }
+                retryTimeout = null;
+                state = State.RESOLVING;
+            }
+            engine.resolve(this::resolveAndConnect);
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 上限为初始值按失败次数翻倍，不超过最大值；实际等待在上限的一半到全部之间随机
+     */
+    private long backoffMillis(int failures) {
+        long ceiling = config.getInitialBackoffMillis() << Math.min(failures, 20);
+        ceiling = Math.max(1, Math.min(ceiling, config.getMaxBackoffMillis()));
+        long half = ceiling / 2;
+        return half + ThreadLocalRandom.current().nextLong(ceiling - half + 1);
+    }
+
+    private void releasePending() {
+        SharedFrame frame;
+        while ((frame = pending.pollFirst()) != null) {
+            frame.release();
+        }
+        pendingBytes = 0;
+    }
+
+    /**
+     * 一次物理连接
+     */
+    private class Link extends Connector {
+        @Override
+        public void onChannelClosed(SocketChannel channel) {
+            super.onChannelClosed(channel);
+            // 通道可能由读写异常关闭，确保连接本身的资源同样释放
+            CloseUtils.close(this);
+            onLinkClosed(this);
+        }
+
+        @Override
+        protected void onReceiveNewMessage(String str) {
+            super.onReceiveNewMessage(str);
+            ClientConnection.this.onReceiveNewMessage(str);
+        }
+
+        @Override
+        protected void onReceiveFrame(byte type, byte flags, short identifier, ByteBuffer body) {
+            super.onReceiveFrame(type, flags, identifier, body);
+            ClientConnection.this.onReceiveFrame(type, flags, identifier, body);
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package net.qiujuer.library.clink.client;
+
+import net.qiujuer.library.clink.core.ExecutionMode;
+import net.qiujuer.library.clink.core.IoContext;
+import net.qiujuer.library.clink.log.Logger;
+import net.qiujuer.library.clink.timer.HashedWheelTimer;
+import net.qiujuer.library.clink.timer.Timeout;
+import net.qiujuer.library.clink.utils.CloseUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 客户端连接引擎，承载大量{@link ClientConnection}
+ * <p>
+ * 所有连接的非阻塞connect由同一个Selector线程完成，建立后交给{@link IoContext}中的IoProvider收发，
+ * 不为每条连接创建读写线程；退避、连接超时与空闲检测共用一个时间轮，地址解析在独立线程上进行
+ * <p>
+ * 使用前需先启动IoContext；构造时即启动连接线程，该线程会访问本对象，因此不允许继承
+ */
+public final class ClientEngine implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(ClientEngine.class);
+
+    private final Config config;
+    private final HashedWheelTimer timer = new HashedWheelTimer("ClientEngine-Timer");
+    private final ExecutorService resolver = Executors.newSingleThreadExecutor(
+            ExecutionMode.PLATFORM.newThreadFactory("ClientEngine-Resolver-Thread-"));
+    private final ConnectWorker connectWorker;
+    private final Set<ClientConnection> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean isClosed = new AtomicBoolean(false);
+
+    public ClientEngine(Config config) throws IOException {
+        if (IoContext.get() == null) {
+            throw new IllegalStateException("IoContext not started");
+        }
+        this.config = config;
+        this.connectWorker = new ConnectWorker();
+        // 连接线程会访问本对象，放在构造的最后启动
+        connectWorker.setDaemon(true);
+        connectWorker.start();
+    }
+
+    public Config getConfig() {
+        return config;
+    }
+
+    HashedWheelTimer getTimer() {
+        return timer;
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    boolean isClosed() {
+        return isClosed.get();
+    }
+
+    void register(ClientConnection connection) {
+        if (isClosed.get()) {
+            throw new IllegalStateException("ClientEngine closed");
+        }
+        connections.add(connection);
+    }
+
+    void unregister(ClientConnection connection) {
+        connections.remove(connection);
+    }
+
+    /**
+     * 在解析线程上执行，引擎关闭后忽略
+     */
+    void resolve(Runnable task) {
+        try {
+            resolver.execute(task);
+        } catch (RejectedExecutionException ignored) {
+        }
+    }
+
+    /**
+     * 等待非阻塞connect完成，结果回调到attempt；超时未完成视为失败
+     */
+    void connect(ConnectAttempt attempt) {
+        attempt.timeout = timer.newTimeout(t -> connectWorker.runInSelectThread(() ->
+                        attempt.fail(new IOException("连接超时"))),
+                config.connectTimeoutMillis, TimeUnit.MILLISECONDS);
+        connectWorker.runInSelectThread(() -> connectWorker.register(attempt));
+    }
+
+    /**
+     * 放弃一次尚未完成的连接尝试
+     */
+    void abort(ConnectAttempt attempt) {
+        connectWorker.runInSelectThread(() -> attempt.fail(new IOException("连接已关闭")));
+    }
+
+    /**
+     * 关闭全部连接并停止内部线程，IoContext由调用方关闭
+     */
+    @Override
+    public void close() {
+        if (!isClosed.compareAndSet(false, true)) {
+            return;
+        }
+        for (ClientConnection connection : connections.toArray(new ClientConnection[0])) {
+            CloseUtils.close(connection);
+        }
+        connections.clear();
+        resolver.shutdownNow();
+        connectWorker.exit();
+        timer.stop();
+    }
+
+    /**
+     * 一次连接尝试，成功或失败只回调一次
+     */
+    static class ConnectAttempt {
+        private final SocketChannel channel;
+        private final ClientConnection connection;
+        private final AtomicBoolean completed = new AtomicBoolean(false);
+        private volatile Timeout timeout;
+        private SelectionKey key;
+
+        ConnectAttempt(SocketChannel channel, ClientConnection connection) {
+            this.channel = channel;
+            this.connection = connection;
+        }
+
+        SocketChannel getChannel() {
+            return channel;
+        }
+
+        private boolean complete() {
+            if (!completed.compareAndSet(false, true)) {
+                return false;
+            }
+            Timeout timeout = this.timeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            if (key != null) {
+                key.cancel();
+            }
+            return true;
+        }
+
+        void fail(IOException e) {
+            if (complete()) {
+                CloseUtils.close(channel);
+                connection.onConnectFailed(this, e);
+            }
+        }
+    }
+
+    /**
+     * 只处理OP_CONNECT，连接建立后即取消注册
+     */
+    private final class ConnectWorker extends Thread {
+        private final Queue<Runnable> taskQueue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean wakenUp = new AtomicBoolean(false);
+        private final Selector selector;
+        private final List<ConnectAttempt> connected = new ArrayList<>();
+        private volatile boolean done = false;
+
+        ConnectWorker() throws IOException {
+            super("ClientEngine-Connect-Thread");
+            this.selector = Selector.open();
+        }
+
+        void runInSelectThread(Runnable task) {
+            if (Thread.currentThread() == this) {
+                task.run();
+                return;
+            }
+            taskQueue.offer(task);
+            if (wakenUp.compareAndSet(false, true)) {
+                selector.wakeup();
+            }
+        }
+
+        void register(ConnectAttempt attempt) {
+            if (attempt.completed.get()) {
+                return;
+            }
+            if (attempt.channel.isConnected()) {
+                // 本机连接可能在connect调用时就已完成，尚未注册，直接交出
+                if (attempt.complete()) {
+                    attempt.connection.onChannelConnected(attempt);
+                }
+                return;
+            }
+            try {
+                attempt.key = attempt.channel.register(selector, SelectionKey.OP_CONNECT, attempt);
+            } catch (ClosedChannelException e) {
+                attempt.fail(e);
+            }
+        }
+
+        private void handleConnect(SelectionKey key) {
+            ConnectAttempt attempt = (ConnectAttempt) key.attachment();
+            try {
+                if (attempt.channel.finishConnect() && attempt.complete()) {
+                    connected.add(attempt);
+                }
+            } catch (IOException e) {
+                attempt.fail(e);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!done) {
+                try {
+                    Runnable task;
+                    while ((task = taskQueue.poll()) != null) {
+                        task.run();
+                    }
+                    wakenUp.set(false);
+                    if (!taskQueue.isEmpty()) {
+                        selector.selectNow();
+                    } else {
+                        selector.select();
+                    }
+
+                    Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                    while (iterator.hasNext()) {
+                        SelectionKey key = iterator.next();
+                        iterator.remove();
+                        if (key.isValid() && key.isConnectable()) {
+                            handleConnect(key);
+                        }
+                    }
+
+                    if (!connected.isEmpty()) {
+                        // 已取消的key在下一次select时才真正注销，注销后通道才能交给IoProvider切换阻塞模式
+                        selector.selectNow();
+                        for (ConnectAttempt attempt : connected) {
+                            attempt.connection.onChannelConnected(attempt);
+                        }
+                        connected.clear();
+                    }
+                } catch (Exception e) {
+                    if (!done) {
+                        LOGGER.error("ClientEngine连接处理异常", e);
+                    }
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                ((ConnectAttempt) key.attachment()).fail(new IOException("ClientEngine closed"));
+            }
+            CloseUtils.close(selector);
+        }
+
+        void exit() {
+            done = true;
+            selector.wakeup();
+        }
+    }
+
+    public static class Config {
+        private final int connectTimeoutMillis;
+        private final long initialBackoffMillis;
+        private final long maxBackoffMillis;
+        private final long stableMillis;
+        private final int maxPendingMessages;
+        private final int maxPendingBytes;
+        private final long readerIdleSeconds;
+        private final long heartbeatSeconds;
+
+        /**
+         * @param connectTimeoutMillis 单次连接的超时时间
+         * @param initialBackoffMillis 首次重连的退避上限，此后每次失败翻倍
+         * @param maxBackoffMillis     退避上限的最大值
+         * @param stableMillis         连接保持超过该时长后断开，视为新的故障，失败次数清零
+         * @param maxPendingMessages   未连接期间最多暂存的消息数
+         * @param maxPendingBytes      未连接期间最多暂存的字节数
+         * @param readerIdleSeconds    超过该时长未收到数据视为断开，0表示不检测
+         * @param heartbeatSeconds     超过该时长未发送数据时发送心跳，0表示不发送
+         */
+        public Config(int connectTimeoutMillis, long initialBackoffMillis, long maxBackoffMillis, long stableMillis,
+                      int maxPendingMessages, int maxPendingBytes, long readerIdleSeconds, long heartbeatSeconds) {
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            this.initialBackoffMillis = initialBackoffMillis;
+            this.maxBackoffMillis = maxBackoffMillis;
+            this.stableMillis = stableMillis;
+            this.maxPendingMessages = maxPendingMessages;
+            this.maxPendingBytes = maxPendingBytes;
+            this.readerIdleSeconds = readerIdleSeconds;
+            this.heartbeatSeconds = heartbeatSeconds;
+        }
+
+        /**
+         * 读取 clink.client.* 系统属性，未设置时使用默认值
+         */
+        public static Config fromSystemProperties() {
+            return new Config(
+                    Integer.getInteger("clink.client.connectTimeoutMs", 3000),
+                    Long.getLong("clink.client.initialBackoffMs", 200),
+                    Long.getLong("clink.client.maxBackoffMs", 30000),
+                    Long.getLong("clink.client.stableMs", 10000),
+                    Integer.getInteger("clink.client.maxPendingMessages", 1024),
+                    Integer.getInteger("clink.client.maxPendingBytes", 1024 * 1024),
+                    Long.getLong("clink.client.readerIdleSeconds", 0),
+                    Long.getLong("clink.client.heartbeatSeconds", 0));
+        }
+
+        public int getConnectTimeoutMillis() {
+            return connectTimeoutMillis;
+        }
+
+        public long getInitialBackoffMillis() {
+            return initialBackoffMillis;
+        }
+
+        public long getMaxBackoffMillis() {
+            return maxBackoffMillis;
+        }
+
+        public long getStableMillis() {
+            return stableMillis;
+        }
+
+        public int getMaxPendingMessages() {
+            return maxPendingMessages;
+        }
+
+        public int getMaxPendingBytes() {
+            return maxPendingBytes;
+        }
+
+        public long getReaderIdleSeconds() {
+            return readerIdleSeconds;
+        }
+
+        public long getHeartbeatSeconds() {
+            return heartbeatSeconds;
+        }
+
+        /**
+         * 替换空闲检测参数，其余不变
+         */
+        public Config withIdleCheck(long readerIdleSeconds, long heartbeatSeconds) {
+            return new Config(connectTimeoutMillis, initialBackoffMillis, maxBackoffMillis, stableMillis,
+                    maxPendingMessages, maxPendingBytes, readerIdleSeconds, heartbeatSeconds);
+        }
+
+        @Override
+        public String toString() {
+            return "Config{" +
+                    "connectTimeoutMillis=" + connectTimeoutMillis +
+                    ", initialBackoffMillis=" + initialBackoffMillis +
+                    ", maxBackoffMillis=" + maxBackoffMillis +
+                    ", stableMillis=" + stableMillis +
+                    ", maxPendingMessages=" + maxPendingMessages +
+                    ", maxPendingBytes=" + maxPendingBytes +
+                    ", readerIdleSeconds=" + readerIdleSeconds +
+                    ", heartbeatSeconds=" + heartbeatSeconds +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package net.qiujuer.library.clink.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * 为{@link ClientConnection}提供每次连接的目标地址
+ * <p>
+ * 运行在{@link ClientEngine}的解析线程上，可以阻塞（如UDP搜索），但会推迟同一引擎上其他连接的解析
+ */
+public interface ServerResolver {
+    /**
+     * @param lastAddress 上一次连接的地址，首次连接时为null
+     * @param failures    连续失败的次数，连接稳定一段时间后清零
+     * @return 本次连接的地址；为null时按退避时间稍后再次解析
+     */
+    InetSocketAddress resolve(InetSocketAddress lastAddress, int failures) throws IOException;
+
+    /**
+     * 固定地址，不重新发现
+     */
+    static ServerResolver fixed(InetSocketAddress address) {
+        return (lastAddress, failures) -> address;
+    }
+}
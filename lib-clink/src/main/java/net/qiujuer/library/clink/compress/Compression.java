@@ -0,0 +1,184 @@
+package net.qiujuer.library.clink.compress;
+
+import net.qiujuer.library.clink.buffer.BufferPool;
+import net.qiujuer.library.clink.buffer.PooledBuffer;
+import net.qiujuer.library.clink.frame.Frame;
+import net.qiujuer.library.clink.frame.FrameEncoder;
+import net.qiujuer.library.clink.frame.SharedFrame;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * 连接的压缩设置
+ * <p>
+ * 连接建立后双方各自发送{@link Frame#TYPE_COMPRESSION}帧，Body为本方支持的算法Id；
+ * 每一方从对方支持的算法中选择本方列表中靠前的一个用于发送，对方未发送或没有共同算法时不压缩。
+ * 未开启的一方不发送该帧，也不会收到压缩帧
+ * <p>
+ * 压缩帧的flags带有{@link Frame#FLAG_COMPRESSED}，Body为：
+ * <pre>
+ * 算法Id(1B) | 原文长度(4B) | 压缩数据
+ * </pre>
+ * 单个Body不小于阈值的帧压缩后保持原类型；一次写出多个帧且总长度不小于阈值时，整批压缩为一个{@link Frame#TYPE_BATCH}帧，
+ * 原文为依次相连的完整帧。压缩后不比原文小时照常发送原文
+ */
+public class Compression {
+    public static final Compression NONE = new Compression(Collections.emptyList(), Integer.MAX_VALUE, Deflater.BEST_SPEED);
+    // 压缩帧Body中算法Id与原文长度的长度
+    public static final int BODY_HEADER_LENGTH = 5;
+    // 已知的算法，按名称配置
+    private static final List<CompressionCodec.Factory> KNOWN_CODECS = List.of(DeflateCodec.FACTORY);
+
+    private final List<CompressionCodec.Factory> codecs;
+    private final int threshold;
+    private final int level;
+
+    /**
+     * @param codecs    支持的算法，按优先级排列，为空表示不开启
+     * @param threshold Body或整批帧达到该长度才压缩，小消息不增加时延
+     * @param level     压缩级别，含义由算法决定
+     */
+    public Compression(List<CompressionCodec.Factory> codecs, int threshold, int level) {
+        this.codecs = List.copyOf(codecs);
+        this.threshold = threshold;
+        this.level = level;
+    }
+
+    /**
+     * 读取 clink.compression.* 系统属性；codecs为逗号分隔的算法名，缺省为空即不开启
+     */
+    public static Compression fromSystemProperties() {
+        List<CompressionCodec.Factory> codecs = new ArrayList<>();
+        for (String name : System.getProperty("clink.compression.codecs", "").split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            CompressionCodec.Factory factory = findByName(name);
+            if (factory == null) {
+                throw new IllegalArgumentException("Unknown compression codec: " + name);
+            }
+            codecs.add(factory);
+        }
+        return new Compression(codecs,
+                Integer.getInteger("clink.compression.threshold", 1024),
+                Integer.getInteger("clink.compression.level", Deflater.BEST_SPEED));
+    }
+
+    private static CompressionCodec.Factory findByName(String name) {
+        for (CompressionCodec.Factory factory : KNOWN_CODECS) {
+            if (factory.getName().equalsIgnoreCase(name)) {
+                return factory;
+            }
+        }
+        return null;
+    }
+
+    public boolean isEnabled() {
+        return !codecs.isEmpty();
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * 协商帧的Body
+     */
+    public byte[] encodeOffer() {
+        byte[] ids = new byte[codecs.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = codecs.get(i).getId();
+        }
+        return ids;
+    }
+
+    /**
+     * 按本方优先级选择对方也支持的算法
+     *
+     * @return 没有共同算法时为null
+     */
+    public CompressionCodec.Factory choose(ByteBuffer offer) {
+        for (CompressionCodec.Factory factory : codecs) {
+            for (int i = offer.position(); i < offer.limit(); i++) {
+                if (offer.get(i) == factory.getId()) {
+                    return factory;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 本方是否支持该算法，只接受本方提供过的算法压缩的帧
+     */
+    public CompressionCodec.Factory find(byte id) {
+        for (CompressionCodec.Factory factory : codecs) {
+            if (factory.getId() == id) {
+                return factory;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 将若干完整帧压缩为一个帧
+     *
+     * @param frames 完整帧的视图，读取后position不保证保留
+     * @param type   为{@link Frame#TYPE_BATCH}时frames为多个帧，否则frames为单个帧的Body
+     * @param length frames剩余数据的总长度
+     * @return 压缩后不比原文小时为null
+     */
+    public static SharedFrame compress(CompressionCodec codec, byte codecId, ByteBuffer[] frames, int count, int length,
+                                       byte type, byte flags, short identifier) {
+        // 压缩帧整体须比原文写出的字节数小，否则不值得
+        int wireLength = type == Frame.TYPE_BATCH ? length : Frame.HEADER_LENGTH + length;
+        int maxCompressed = wireLength - Frame.HEADER_LENGTH - BODY_HEADER_LENGTH - 1;
+        if (maxCompressed <= 0) {
+            return null;
+        }
+        PooledBuffer pooled = BufferPool.getDefault().acquire(Frame.HEADER_LENGTH + BODY_HEADER_LENGTH + maxCompressed);
+        ByteBuffer buffer = pooled.buffer();
+        int bodyStart = Frame.HEADER_LENGTH + BODY_HEADER_LENGTH;
+        buffer.position(bodyStart);
+        buffer.limit(bodyStart + maxCompressed);
+        int compressed = codec.compress(frames, 0, count, buffer);
+        if (compressed < 0) {
+            pooled.release();
+            return null;
+        }
+        buffer.limit(buffer.capacity());
+        buffer.position(0);
+        FrameEncoder.writeHeader(buffer, BODY_HEADER_LENGTH + compressed, type,
+                (byte) (flags | Frame.FLAG_COMPRESSED), identifier);
+        buffer.put(codecId);
+        buffer.putInt(length);
+        buffer.position(0);
+        buffer.limit(bodyStart + compressed);
+        return SharedFrame.wrap(pooled);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder names = new StringBuilder();
+        for (CompressionCodec.Factory factory : codecs) {
+            if (names.length() > 0) {
+                names.append(',');
+            }
+            names.append(factory.getName());
+        }
+        return "Compression{" +
+                "codecs=[" + names + "]" +
+                ", threshold=" + threshold +
+                ", level=" + level +
+                '}';
+    }
+}
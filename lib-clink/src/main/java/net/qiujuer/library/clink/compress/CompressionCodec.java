@@ -0,0 +1,41 @@
+package net.qiujuer.library.clink.compress;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 帧Body的压缩算法
+ * <p>
+ * 一个实例只在一个连接的一个方向上使用，不要求线程安全；内部的压缩上下文在多次调用之间复用，不随消息分配
+ */
+public interface CompressionCodec {
+    /**
+     * 将srcs中从offset起count个Buffer的剩余数据依次拼接压缩，写入dst
+     *
+     * @return 写入的字节数；dst空间不足时返回-1，此时dst的内容无意义。调用方据此限制压缩后的最大长度
+     */
+    int compress(ByteBuffer[] srcs, int offset, int count, ByteBuffer dst);
+
+    /**
+     * 解压src中剩余的全部数据写入dst，dst的剩余空间即为原文长度
+     *
+     * @throws IOException 数据损坏或长度与声明不符
+     */
+    void decompress(ByteBuffer src, ByteBuffer dst) throws IOException;
+
+    /**
+     * 释放内部的本地资源
+     */
+    void close();
+
+    /**
+     * 算法的描述与创建，Id在连接协商时交换
+     */
+    interface Factory {
+        byte getId();
+
+        String getName();
+
+        CompressionCodec create(int level);
+    }
+}
@@ -0,0 +1,106 @@
+package net.qiujuer.library.clink.compress;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 基于JDK Deflater/Inflater的实现，不带zlib头尾；每帧独立压缩，压缩前重置上下文
+ */
+public class DeflateCodec implements CompressionCodec {
+    public static final Factory FACTORY = new Factory() {
+        @Override
+        public byte getId() {
+            return 1;
+        }
+
+        @Override
+        public String getName() {
+            return "deflate";
+        }
+
+        @Override
+        public CompressionCodec create(int level) {
+            return new DeflateCodec(level);
+        }
+    };
+
+    private final int level;
+    // 按需创建，只发送或只接收的方向不占用另一半的本地内存
+    private Deflater deflater;
+    private Inflater inflater;
+    private final byte[] probe = new byte[1];
+
+    public DeflateCodec(int level) {
+        this.level = level;
+    }
+
+    @Override
+    public int compress(ByteBuffer[] srcs, int offset, int count, ByteBuffer dst) {
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+        }
+        deflater.reset();
+        int start = dst.position();
+        for (int i = offset; i < offset + count; i++) {
+            deflater.setInput(srcs[i]);
+            while (!deflater.needsInput()) {
+                if (!dst.hasRemaining()) {
+                    return -1;
+                }
+                deflater.deflate(dst);
+            }
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            if (!dst.hasRemaining()) {
+                return -1;
+            }
+            deflater.deflate(dst);
+        }
+        return dst.position() - start;
+    }
+
+    @Override
+    public void decompress(ByteBuffer src, ByteBuffer dst) throws IOException {
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        inflater.reset();
+        inflater.setInput(src);
+        try {
+            while (!inflater.finished()) {
+                int len;
+                if (dst.hasRemaining()) {
+                    len = inflater.inflate(dst);
+                } else {
+                    // 输出已满但尚未读到结束标记，多出的数据说明长度与声明不符
+                    len = inflater.inflate(probe);
+                    if (len > 0) {
+                        break;
+                    }
+                }
+                if (len == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Deflate数据损坏：" + e.getMessage());
+        }
+        if (dst.hasRemaining() || !inflater.finished()) {
+            throw new IOException("解压后的长度与声明不符");
+        }
+    }
+
+    @Override
+    public void close() {
+        if (deflater != null) {
+            deflater.end();
+        }
+        if (inflater != null) {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package net.qiujuer.library.clink.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 并发安全的连接登记表
+ * <p>
+ * 注册与注销均为O(1)，按连接Id查找为O(1)；遍历使用快照，快照在无变更时被复用，
+ * 有变更后由下一次遍历重建，遍历过程不会阻塞连接的加入与退出
+ *
+ * @param <T> 连接类型
+ */
+public class ConnectionRegistry<T> {
+    private final ConcurrentHashMap<Long, T> connections = new ConcurrentHashMap<>();
+    private final AtomicLong modCount = new AtomicLong(0);
+    private volatile Snapshot<T> snapshot = new Snapshot<>(0, Collections.emptyList());
+
+    /**
+     * @return false 该Id已被注册
+     */
+    public boolean register(long id, T connection) {
+        if (connections.putIfAbsent(id, connection) != null) {
+            return false;
+        }
+        modCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @return 被移除的连接，不存在时返回null
+     */
+    public T unregister(long id) {
+        T connection = connections.remove(id);
+        if (connection != null) {
+            modCount.incrementAndGet();
+        }
+        return connection;
+    }
+
+    /**
+     * 仅当Id对应的仍是该连接时才移除
+     */
+    public boolean unregister(long id, T connection) {
+        if (connections.remove(id, connection)) {
+            modCount.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    public T get(long id) {
+        return connections.get(id);
+    }
+
+    public int size() {
+        return connections.size();
+    }
+
+    public boolean isEmpty() {
+        return connections.isEmpty();
+    }
+
+    /**
+     * 得到当前所有连接的只读快照，快照不随后续的注册与注销变化
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> snapshot() {
+        Snapshot<T> current = snapshot;
+        long version = modCount.get();
+        if (current.version == version) {
+            return current.list;
+        }
+
+        List<T> list = Collections.unmodifiableList(Arrays.asList((T[]) connections.values().toArray()));
+        // 构建期间没有新的变更才缓存，否则仅本次使用
+        if (modCount.get() == version) {
+            snapshot = new Snapshot<>(version, list);
+        }
+        return list;
+    }
+
+    public void forEach(Consumer<? super T> action) {
+        for (T connection : snapshot()) {
+            action.accept(connection);
+        }
+    }
+
+    /**
+     * 清空并返回被移除的连接，只遍历一次；清空期间新注册的连接可能保留
+     */
+    public List<T> clear() {
+        List<T> list = new ArrayList<>(connections.size());
+        Iterator<Map.Entry<Long, T>> iterator = connections.entrySet().iterator();
+        while (iterator.hasNext()) {
+            list.add(iterator.next().getValue());
+            iterator.remove();
+        }
+        modCount.incrementAndGet();
+        return Collections.unmodifiableList(list);
+    }
+
+    private static class Snapshot<T> {
+        private final long version;
+        private final List<T> list;
+
+        Snapshot(long version, List<T> list) {
+            this.version = version;
+            this.list = list;
+        }
+    }
+}
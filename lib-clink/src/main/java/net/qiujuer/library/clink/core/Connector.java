@@ -0,0 +1,775 @@
+package net.qiujuer.library.clink.core;
+
+import net.qiujuer.library.clink.buffer.BufferPool;
+import net.qiujuer.library.clink.buffer.PooledBuffer;
+import net.qiujuer.library.clink.compress.Compression;
+import net.qiujuer.library.clink.compress.CompressionCodec;
+import net.qiujuer.library.clink.frame.FileHeader;
+import net.qiujuer.library.clink.frame.Frame;
+import net.qiujuer.library.clink.frame.FrameDecoder;
+import net.qiujuer.library.clink.frame.FrameEncoder;
+import net.qiujuer.library.clink.frame.SharedFrame;
+import net.qiujuer.library.clink.impl.SocketChannelAdapter;
+import net.qiujuer.library.clink.log.Logger;
+import net.qiujuer.library.clink.metrics.ConnectionMetrics;
+import net.qiujuer.library.clink.metrics.Metrics;
+import net.qiujuer.library.clink.timer.HashedWheelTimer;
+import net.qiujuer.library.clink.timer.Timeout;
+import net.qiujuer.library.clink.timer.TimerTask;
+import net.qiujuer.library.clink.utils.CloseUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一个连接的抽象，负责数据的收发调度
+ * <p>
+ * 数据以{@link Frame}为单位收发，文本消息回调{@link #onReceiveNewMessage(String)}，
+ * 其他类型的帧回调{@link #onReceiveFrame(byte, byte, short, ByteBuffer)}
+ * <p>
+ * 待发送的帧进入有界的{@link OutboundQueue}，发送时一次取出多条合并为一次聚集写
+ * <p>
+ * 文件通过{@link #sendFile(FileRegion)}发送，仅在队列中没有待发送的帧时写出一个分块，多个文件轮流发送，
+ * 大文件传输期间的聊天消息最多等待一个分块；分块数据由{@link java.nio.channels.FileChannel#transferTo}直接写入通道
+ * <p>
+ * 收发字节数、消息数与发送时延记录在{@link Metrics#getDefault()}中
+ * <p>
+ * 通过{@link #enableIdleCheck}开启空闲检测：读空闲超时回调{@link #onReaderIdle()}，写空闲回调{@link #onWriterIdle()}；
+ * 检测任务只在超时时间点触发一次，读写时仅更新时间戳
+ * <p>
+ * 开启{@link Compression}后在连接建立时协商算法，单个大帧或一次写出的整批帧超过阈值时压缩后写出，
+ * 收到的压缩帧在回调前解压；大帧的压缩结果挂在{@link SharedFrame}上，发往多个连接时只压缩一次
+ */
+public class Connector implements Closeable, SocketChannelAdapter.OnChannelStatusChangedListener {
+    private static final Logger LOGGER = Logger.getLogger(Connector.class);
+    private static final AtomicLong ID_GENERATOR = new AtomicLong(0);
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+    // 压缩节省的发送字节数
+    private static final LongAdder COMPRESSION_SAVED_COUNTER =
+            Metrics.getDefault().counter(Metrics.COMPRESSION_SAVED_BYTES);
+    private static final byte[] EMPTY_BODY = new byte[0];
+    // 单次聚集写的最大帧数与字节数
+    private static final int MAX_BATCH_COUNT = 64;
+    private static final int MAX_BATCH_BYTES = 64 * 1024;
+
+    private final long id = ID_GENERATOR.incrementAndGet();
+    private final AtomicBoolean isSending = new AtomicBoolean(false);
+    private final AtomicBoolean isClosed = new AtomicBoolean(false);
+    // 当前正在写出的一批帧，写完或关闭时释放
+    private final SharedFrame[] writingFrames = new SharedFrame[MAX_BATCH_COUNT];
+    private final ByteBuffer[] writingBuffers = new ByteBuffer[MAX_BATCH_COUNT];
+    private final long[] writingEnqueueNanos = new long[MAX_BATCH_COUNT];
+    private int writingCount = 0;
+    private long writingBytes = 0;
+    // 发送复用同一个IoArgs，仅替换其中的视图
+    private final IoArgs sendArgs = new IoArgs(EMPTY_BUFFER);
+    // 待发送的文件流，队首为下一个写出分块的流
+    private final ArrayDeque<FileRegion> fileRegions = new ArrayDeque<>();
+    // 正在写出分块的文件流，为空时表示正在写出的是帧
+    private FileRegion writingRegion;
+    private int writingRegionLength;
+    private final long[] writingRegionNanos = new long[1];
+    private final ByteBuffer chunkHeader = ByteBuffer.allocate(Frame.HEADER_LENGTH);
+    private final ByteBuffer[] chunkBuffers = {chunkHeader};
+    private int fileChunkSize = Frame.DEFAULT_FILE_CHUNK_SIZE;
+    private Compression compression;
+    // 协商后发送方向使用的算法，对方不支持时为空；与写出共用writingFrames锁
+    private CompressionCodec outboundCodec;
+    private byte outboundCodecId;
+    private final ByteBuffer[] compressSources = new ByteBuffer[MAX_BATCH_COUNT];
+    // 当前写出的压缩帧由本连接单独持有时不为空，写完或关闭时释放
+    private SharedFrame writingCompressed;
+    // 接收方向的解压实例，只在解码回调中使用
+    private CompressionCodec inboundCodec;
+    private byte inboundCodecId;
+    private OutboundQueue.Limit outboundLimit;
+    private OutboundQueue outboundQueue;
+    private SocketChannel channel;
+    private Sender sender;
+    private Receiver receiver;
+    private ConnectionMetrics metrics;
+    // 最近一次读取到数据与写出完成的时间
+    private volatile long lastReadNanos = System.nanoTime();
+    private volatile long lastWriteNanos = System.nanoTime();
+    private volatile Timeout readerIdleTimeout;
+    private volatile Timeout writerIdleTimeout;
+
+    private final FrameDecoder frameDecoder = new FrameDecoder();
+
+    public void setup(SocketChannel socketChannel) throws IOException {
+        this.channel = socketChannel;
+
+        IoContext context = IoContext.get();
+        if (outboundLimit == null) {
+            outboundLimit = context.getOutboundLimit();
+        }
+        if (compression == null) {
+            compression = context.getCompression();
+        }
+        this.outboundQueue = new OutboundQueue(outboundLimit);
+        this.metrics = Metrics.getDefault().connection(id, outboundQueue);
+
+        SocketChannelAdapter adapter = new SocketChannelAdapter(channel, context.getIoProvider(), this);
+
+        this.sender = adapter;
+        this.receiver = adapter;
+
+        if (compression.isEnabled()) {
+            // 协商帧先于任何数据入队
+            send(Frame.TYPE_COMPRESSION, compression.encodeOffer());
+        }
+        startReceive();
+    }
+
+    /**
+     * 设置当前连接待发送队列的限制，需在{@link #setup(SocketChannel)}之前调用，否则使用IoContext中的默认值
+     */
+    public void setOutboundLimit(OutboundQueue.Limit outboundLimit) {
+        this.outboundLimit = outboundLimit;
+    }
+
+    /**
+     * 设置当前连接的压缩，需在{@link #setup(SocketChannel)}之前调用，否则使用IoContext中的默认值
+     */
+    public void setCompression(Compression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * 文件分块大小，越小聊天消息的等待越短，越大系统调用越少
+     */
+    public void setFileChunkSize(int fileChunkSize) {
+        if (fileChunkSize <= 0) {
+            throw new IllegalArgumentException("fileChunkSize must be > 0");
+        }
+        this.fileChunkSize = fileChunkSize;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    public OutboundQueue getOutboundQueue() {
+        return outboundQueue;
+    }
+
+    public long getLastReadNanos() {
+        return lastReadNanos;
+    }
+
+    public long getLastWriteNanos() {
+        return lastWriteNanos;
+    }
+
+    /**
+     * 开启空闲检测，需在{@link #setup(SocketChannel)}之后调用
+     *
+     * @param readerIdleTime 超过该时长未读到数据视为对端失联，0表示不检测
+     * @param writerIdleTime 超过该时长未写出数据时回调，通常用于发送心跳，0表示不检测
+     */
+    public void enableIdleCheck(HashedWheelTimer timer, long readerIdleTime, long writerIdleTime, TimeUnit unit) {
+        if (readerIdleTime > 0) {
+            readerIdleTimeout = timer.newTimeout(new ReaderIdleTask(timer, unit.toNanos(readerIdleTime)),
+                    readerIdleTime, unit);
+        }
+        if (writerIdleTime > 0) {
+            writerIdleTimeout = timer.newTimeout(new WriterIdleTask(timer, unit.toNanos(writerIdleTime)),
+                    writerIdleTime, unit);
+        }
+    }
+
+    public void sendHeartbeat() {
+        send(Frame.TYPE_HEARTBEAT, EMPTY_BODY);
+    }
+
+    public void send(String msg) {
+        enqueue(SharedFrame.encodeString(msg));
+    }
+
+    public void send(byte type, byte[] body) {
+        enqueue(SharedFrame.encode(type, body));
+    }
+
+    /**
+     * 发送一个共享帧，内部会持有一次引用并在写完后释放，调用方仍需释放自己的引用
+     */
+    public void send(SharedFrame frame) {
+        enqueue(frame.retain());
+    }
+
+    /**
+     * 发送一个文件：先发送头部帧，之后在空闲时按分块写出，全部写完后发送结束帧；
+     * region由连接接管，写完或连接关闭时关闭
+     */
+    public void sendFile(FileRegion region) {
+        if (isClosed.get()) {
+            region.close();
+            return;
+        }
+        byte[] header = FileHeader.encode(region.getLength(), region.getName());
+        enqueue(SharedFrame.encode(Frame.TYPE_FILE_HEADER, Frame.FLAG_NONE, region.getIdentifier(),
+                ByteBuffer.wrap(header)));
+        synchronized (fileRegions) {
+            fileRegions.addLast(region);
+        }
+        // 加入前连接可能已经关闭，此时关闭流程未能释放
+        if (isClosed.get()) {
+            closeFileRegions();
+            return;
+        }
+        requestSend();
+    }
+
+    public int getPendingFileCount() {
+        synchronized (fileRegions) {
+            return fileRegions.size();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!isClosed.compareAndSet(false, true)) {
+            return;
+        }
+        CloseUtils.close(sender, receiver);
+        frameDecoder.close();
+        if (outboundQueue != null) {
+            outboundQueue.close();
+        }
+        releaseWritingFrames();
+        closeFileRegions();
+        closeCodecs();
+        if (metrics != null) {
+            metrics.close();
+        }
+        cancelIdleCheck();
+    }
+
+    @Override
+    public void onChannelClosed(SocketChannel channel) {
+
+    }
+
+    protected void onReceiveNewMessage(String str) {
+
+    }
+
+    /**
+     * 非文本帧的回调，Body仅在回调期间有效
+     */
+    protected void onReceiveFrame(byte type, byte flags, short identifier, ByteBuffer body) {
+
+    }
+
+    /**
+     * 收到心跳帧时回调，默认不处理
+     */
+    protected void onReceiveHeartbeat() {
+
+    }
+
+    /**
+     * 读空闲超时回调，运行在定时器线程上，默认关闭连接
+     */
+    protected void onReaderIdle() {
+        LOGGER.info("连接读空闲超时，断开连接：{}", id);
+        CloseUtils.close(this);
+    }
+
+    /**
+     * 写空闲回调，运行在定时器线程上，默认发送心跳
+     */
+    protected void onWriterIdle() {
+        sendHeartbeat();
+    }
+
+    /**
+     * 待发送队列溢出且策略为断开时回调，默认直接关闭连接
+     */
+    protected void onOutboundOverflow() {
+        LOGGER.warn("发送队列溢出，断开连接：{}", id);
+        CloseUtils.close(this);
+    }
+
+    private void enqueue(SharedFrame frame) {
+        if (!outboundQueue.offer(frame)) {
+            if (!isClosed.get()) {
+                onOutboundOverflow();
+            }
+            return;
+        }
+        requestSend();
+    }
+
+    private void startReceive() {
+        if (receiver != null) {
+            try {
+                receiver.receiveAsync(receiveListener);
+            } catch (IOException e) {
+                LOGGER.warn("开始接收数据异常：{}", e.getMessage());
+            }
+        }
+    }
+
+    private void requestSend() {
+        if (isClosed.get() || !isSending.compareAndSet(false, true)) {
+            return;
+        }
+
+        int count = outboundQueue.drainTo(writingFrames, writingEnqueueNanos, MAX_BATCH_COUNT, MAX_BATCH_BYTES);
+        if (count == 0) {
+            // 没有待发送的帧时才发送文件分块
+            if (sendNextChunk()) {
+                return;
+            }
+            isSending.set(false);
+            // 释放标记后可能有新数据入队，需要再次检查
+            if (!outboundQueue.isEmpty() || getPendingFileCount() > 0) {
+                requestSend();
+            }
+            return;
+        }
+
+        metrics.onDrained(count + outboundQueue.size());
+
+        int bufferCount;
+        synchronized (writingFrames) {
+            writingCount = count;
+            writingBytes = 0;
+            SharedFrame compressed = outboundCodec != null ? compress(count) : null;
+            if (compressed != null) {
+                writingBuffers[0] = compressed.view();
+                writingBytes = writingBuffers[0].remaining();
+                bufferCount = 1;
+            } else {
+                for (int i = 0; i < count; i++) {
+                    writingBuffers[i] = writingFrames[i].view();
+                    writingBytes += writingBuffers[i].remaining();
+                }
+                bufferCount = count;
+            }
+        }
+        sendArgs.buffers(writingBuffers, bufferCount);
+        try {
+            sender.sendAsync(sendArgs, sendListener);
+        } catch (IOException e) {
+            releaseWritingFrames();
+            isSending.set(false);
+            CloseUtils.close(this);
+        }
+    }
+
+    /**
+     * 需持有writingFrames锁：单个帧的Body达到阈值时压缩该帧，多个帧的总长度达到阈值时整批压缩
+     *
+     * @return 不压缩时为null
+     */
+    private SharedFrame compress(int count) {
+        int threshold = compression.getThreshold();
+        if (count == 1) {
+            SharedFrame frame = writingFrames[0];
+            if (frame.length() - Frame.HEADER_LENGTH < threshold) {
+                return null;
+            }
+            SharedFrame cached = frame.getCompressed();
+            if (cached == frame) {
+                return null;
+            }
+            if (cached != null && cached.view().get(Frame.HEADER_LENGTH) == outboundCodecId) {
+                onCompressed(frame.length(), cached);
+                return cached;
+            }
+
+            ByteBuffer view = frame.view();
+            int start = view.position();
+            byte flags = view.get(start + 5);
+            if ((flags & Frame.FLAG_COMPRESSED) != 0) {
+                return null;
+            }
+            view.position(start + Frame.HEADER_LENGTH);
+            compressSources[0] = view;
+            SharedFrame compressed = Compression.compress(outboundCodec, outboundCodecId, compressSources, 1,
+                    view.remaining(), view.get(start + 4), flags, view.getShort(start + 6));
+            compressSources[0] = null;
+            if (cached == null && frame.setCompressed(compressed != null ? compressed : frame)) {
+                // 由帧持有，随帧释放
+                if (compressed != null) {
+                    onCompressed(frame.length(), compressed);
+                }
+                return compressed;
+            }
+            // 已由其他连接以别的算法压缩，本连接单独持有这一份
+            writingCompressed = compressed;
+            if (compressed != null) {
+                onCompressed(frame.length(), compressed);
+            }
+            return compressed;
+        }
+
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            compressSources[i] = writingFrames[i].view();
+            length += compressSources[i].remaining();
+        }
+        SharedFrame compressed = null;
+        if (length >= threshold && length <= Frame.DEFAULT_MAX_BODY_LENGTH) {
+            compressed = Compression.compress(outboundCodec, outboundCodecId, compressSources, count, length,
+                    Frame.TYPE_BATCH, Frame.FLAG_NONE, (short) 0);
+        }
+        Arrays.fill(compressSources, 0, count, null);
+        if (compressed != null) {
+            writingCompressed = compressed;
+            onCompressed(length, compressed);
+        }
+        return compressed;
+    }
+
+    private void onCompressed(int originalLength, SharedFrame compressed) {
+        COMPRESSION_SAVED_COUNTER.add(originalLength - compressed.length());
+    }
+
+    /**
+     * 收到对方支持的算法，选定发送方向的算法；本方未开启时忽略
+     */
+    private void onCompressionOffer(ByteBuffer body) {
+        if (!compression.isEnabled()) {
+            return;
+        }
+        CompressionCodec.Factory factory = compression.choose(body);
+        if (factory == null) {
+            return;
+        }
+        synchronized (writingFrames) {
+            if (isClosed.get() || outboundCodec != null) {
+                return;
+            }
+            outboundCodec = factory.create(compression.getLevel());
+            outboundCodecId = factory.getId();
+        }
+        LOGGER.debug("连接{}发送方向启用压缩：{}", id, factory.getName());
+    }
+
+    /**
+     * 解压后回调，整批压缩的帧逐个回调
+     */
+    private void onCompressedFrame(byte type, byte flags, short identifier, ByteBuffer body) throws IOException {
+        if (body.remaining() < Compression.BODY_HEADER_LENGTH) {
+            throw new IOException("压缩帧长度错误：" + body.remaining());
+        }
+        int start = body.position();
+        byte codecId = body.get(start);
+        int length = body.getInt(start + 1);
+        if (length < 0 || length > Frame.DEFAULT_MAX_BODY_LENGTH) {
+            throw new IOException("压缩帧原文长度超出范围：" + length);
+        }
+        if (inboundCodec == null || inboundCodecId != codecId) {
+            CompressionCodec.Factory factory = compression.find(codecId);
+            if (factory == null) {
+                throw new IOException("收到未协商的压缩算法：" + codecId);
+            }
+            if (inboundCodec != null) {
+                inboundCodec.close();
+            }
+            inboundCodec = factory.create(compression.getLevel());
+            inboundCodecId = codecId;
+        }
+
+        PooledBuffer pooled = BufferPool.getDefault().acquire(length);
+        try {
+            ByteBuffer dst = pooled.buffer();
+            dst.limit(length);
+            body.position(start + Compression.BODY_HEADER_LENGTH);
+            inboundCodec.decompress(body, dst);
+            dst.flip();
+            if (type == Frame.TYPE_BATCH) {
+                onBatch(dst);
+            } else {
+                onFrame(type, (byte) (flags & ~Frame.FLAG_COMPRESSED), identifier, dst.asReadOnlyBuffer());
+            }
+        } finally {
+            pooled.release();
+        }
+    }
+
+    private void onBatch(ByteBuffer frames) throws IOException {
+        while (frames.hasRemaining()) {
+            if (frames.remaining() < Frame.HEADER_LENGTH) {
+                throw new IOException("批量帧数据不完整");
+            }
+            int length = frames.getInt();
+            byte type = frames.get();
+            byte flags = frames.get();
+            short identifier = frames.getShort();
+            if (length < 0 || length > frames.remaining()
+                    || type == Frame.TYPE_BATCH || (flags & Frame.FLAG_COMPRESSED) != 0) {
+                throw new IOException("批量帧中的帧格式错误");
+            }
+            int limit = frames.limit();
+            int end = frames.position() + length;
+            frames.limit(end);
+            ByteBuffer body = frames.slice().asReadOnlyBuffer();
+            frames.limit(limit);
+            frames.position(end);
+            onFrame(type, flags, identifier, body);
+        }
+    }
+
+    private void closeCodecs() {
+        synchronized (writingFrames) {
+            if (outboundCodec != null) {
+                outboundCodec.close();
+                outboundCodec = null;
+            }
+        }
+        // 解码回调持有解码器的锁
+        synchronized (frameDecoder) {
+            if (inboundCodec != null) {
+                inboundCodec.close();
+                inboundCodec = null;
+            }
+        }
+    }
+
+    /**
+     * 写出队首文件流的下一个分块：帧头位于堆内存，数据由transferTo写出
+     *
+     * @return false 没有可发送的分块
+     */
+    private boolean sendNextChunk() {
+        FileRegion region;
+        synchronized (fileRegions) {
+            region = fileRegions.peekFirst();
+        }
+        if (region == null) {
+            return false;
+        }
+        if (region.getRemaining() == 0) {
+            // 空文件，直接结束
+            completeFileRegion(region);
+            return false;
+        }
+
+        int length = (int) Math.min(fileChunkSize, region.getRemaining());
+        chunkHeader.clear();
+        FrameEncoder.writeHeader(chunkHeader, length, Frame.TYPE_FILE_CHUNK, Frame.FLAG_NONE, region.getIdentifier());
+        chunkHeader.flip();
+        writingRegion = region;
+        writingRegionLength = length;
+        writingRegionNanos[0] = System.nanoTime();
+
+        sendArgs.buffers(chunkBuffers, 1);
+        sendArgs.fileRegion(region.getChannel(), region.getPosition(), length);
+        try {
+            sender.sendAsync(sendArgs, sendListener);
+        } catch (IOException e) {
+            writingRegion = null;
+            isSending.set(false);
+            CloseUtils.close(this);
+        }
+        return true;
+    }
+
+    /**
+     * 分块写完后推进位置，并把该流移到队尾，多个文件轮流发送
+     */
+    private void onChunkFlushed(FileRegion region, int length) {
+        region.advance(length);
+        if (region.getRemaining() == 0) {
+            completeFileRegion(region);
+            return;
+        }
+        synchronized (fileRegions) {
+            if (fileRegions.peekFirst() == region) {
+                fileRegions.pollFirst();
+                fileRegions.addLast(region);
+            }
+        }
+    }
+
+    private void completeFileRegion(FileRegion region) {
+        synchronized (fileRegions) {
+            fileRegions.remove(region);
+        }
+        region.close();
+        enqueue(SharedFrame.encode(Frame.TYPE_FILE_END, Frame.FLAG_NONE, region.getIdentifier(), EMPTY_BUFFER));
+    }
+
+    private void closeFileRegions() {
+        FileRegion[] regions;
+        synchronized (fileRegions) {
+            regions = fileRegions.toArray(new FileRegion[0]);
+            fileRegions.clear();
+        }
+        for (FileRegion region : regions) {
+            region.close();
+        }
+    }
+
+    private void cancelIdleCheck() {
+        Timeout timeout = readerIdleTimeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        timeout = writerIdleTimeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    private void releaseWritingFrames() {
+        synchronized (writingFrames) {
+            for (int i = 0; i < writingCount; i++) {
+                writingFrames[i].release();
+            }
+            Arrays.fill(writingFrames, 0, writingCount, null);
+            Arrays.fill(writingBuffers, 0, writingCount, null);
+            writingCount = 0;
+            writingBytes = 0;
+            if (writingCompressed != null) {
+                writingCompressed.release();
+                writingCompressed = null;
+            }
+        }
+    }
+
+    private final IoArgs.IoArgsEventListener sendListener = new IoArgs.IoArgsEventListener() {
+        @Override
+        public void onStarted(IoArgs args) {
+
+        }
+
+        @Override
+        public void onCompleted(IoArgs args) {
+            args.buffer(EMPTY_BUFFER);
+            lastWriteNanos = System.nanoTime();
+            FileRegion region = writingRegion;
+            if (region != null) {
+                writingRegion = null;
+                metrics.onFlushed(1, Frame.HEADER_LENGTH + writingRegionLength, writingRegionNanos);
+                onChunkFlushed(region, writingRegionLength);
+            } else {
+                synchronized (writingFrames) {
+                    metrics.onFlushed(writingCount, writingBytes, writingEnqueueNanos);
+                }
+                releaseWritingFrames();
+            }
+            isSending.set(false);
+            requestSend();
+        }
+    };
+
+    private final IoArgs.IoArgsEventListener receiveListener = new IoArgs.IoArgsEventListener() {
+        @Override
+        public void onStarted(IoArgs args) {
+
+        }
+
+        @Override
+        public void onCompleted(IoArgs args) {
+            lastReadNanos = System.nanoTime();
+            metrics.onBytesReceived(args.buffer().remaining());
+            try {
+                frameDecoder.decode(args.buffer(), frameListener);
+            } catch (IOException e) {
+                // 帧格式错误，无法继续解析，直接断开
+                LOGGER.warn("数据帧解析异常：{}", e.getMessage());
+                CloseUtils.close(Connector.this);
+            }
+        }
+    };
+
+    private final FrameDecoder.FrameListener frameListener = this::onFrame;
+
+    private void onFrame(byte type, byte flags, short identifier, ByteBuffer body) {
+        if (isClosed.get()) {
+            return;
+        }
+        if ((flags & Frame.FLAG_COMPRESSED) != 0) {
+            try {
+                onCompressedFrame(type, flags, identifier, body);
+            } catch (IOException e) {
+                LOGGER.warn("压缩帧解析异常：{}", e.getMessage());
+                CloseUtils.close(this);
+            }
+            return;
+        }
+        if (type == Frame.TYPE_COMPRESSION) {
+            onCompressionOffer(body);
+            return;
+        }
+        metrics.onMessageReceived();
+        if (type == Frame.TYPE_HEARTBEAT) {
+            onReceiveHeartbeat();
+        } else if (type == Frame.TYPE_STRING) {
+            onReceiveNewMessage(StandardCharsets.UTF_8.decode(body).toString());
+        } else {
+            onReceiveFrame(type, flags, identifier, body);
+        }
+    }
+
+    /**
+     * 到期时若期间有过读取，则按剩余时间重新调度，否则视为读空闲
+     */
+    private class ReaderIdleTask implements TimerTask {
+        private final HashedWheelTimer timer;
+        private final long idleNanos;
+
+        ReaderIdleTask(HashedWheelTimer timer, long idleNanos) {
+            this.timer = timer;
+            this.idleNanos = idleNanos;
+        }
+
+        @Override
+        public void run(Timeout timeout) {
+            if (isClosed.get()) {
+                return;
+            }
+            long remaining = idleNanos - (System.nanoTime() - lastReadNanos);
+            if (remaining <= 0) {
+                onReaderIdle();
+                remaining = idleNanos;
+            }
+            if (!isClosed.get()) {
+                readerIdleTimeout = timer.newTimeout(this, remaining, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    private class WriterIdleTask implements TimerTask {
+        private final HashedWheelTimer timer;
+        private final long idleNanos;
+
+        WriterIdleTask(HashedWheelTimer timer, long idleNanos) {
+            this.timer = timer;
+            this.idleNanos = idleNanos;
+        }
+
+        @Override
+        public void run(Timeout timeout) {
+            if (isClosed.get()) {
+                return;
+            }
+            long remaining = idleNanos - (System.nanoTime() - lastWriteNanos);
+            if (remaining <= 0) {
+                onWriterIdle();
+                remaining = idleNanos;
+            }
+            if (!isClosed.get()) {
+                writerIdleTimeout = timer.newTimeout(this, remaining, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package net.qiujuer.library.clink.core;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 线程的执行模式
+ */
+public enum ExecutionMode {
+    // 平台线程，与操作系统线程一一对应
+    PLATFORM,
+    // 虚拟线程，阻塞时让出载体线程，适合大量阻塞式连接
+    VIRTUAL;
+
+    public ThreadFactory newThreadFactory(String namePrefix) {
+        if (this == VIRTUAL) {
+            return Thread.ofVirtual().name(namePrefix, 1).factory();
+        }
+        return Thread.ofPlatform().name(namePrefix, 1).factory();
+    }
+
+    /**
+     * 每个任务独立线程的执行器；平台线程模式下空闲线程会被复用
+     */
+    public ExecutorService newExecutor(String namePrefix) {
+        ThreadFactory factory = newThreadFactory(namePrefix);
+        if (this == VIRTUAL) {
+            return Executors.newThreadPerTaskExecutor(factory);
+        }
+        return Executors.newCachedThreadPool(factory);
+    }
+
+    public Thread start(String name, Runnable runnable) {
+        if (this == VIRTUAL) {
+            return Thread.ofVirtual().name(name).start(runnable);
+        }
+        return Thread.ofPlatform().name(name).start(runnable);
+    }
+}
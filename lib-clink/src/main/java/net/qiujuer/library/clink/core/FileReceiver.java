@@ -0,0 +1,194 @@
+package net.qiujuer.library.clink.core;
+
+import net.qiujuer.library.clink.frame.FileHeader;
+import net.qiujuer.library.clink.frame.Frame;
+import net.qiujuer.library.clink.utils.CloseUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 接收文件流，按identifier将分块写入各自的临时文件，一个连接对应一个实例
+ * <p>
+ * 分块的Body直接写入FileChannel，不额外拷贝；出错的流被丢弃，其后续分块被忽略
+ */
+public class FileReceiver implements Closeable {
+    private final Path tempDir;
+    private final long maxFileLength;
+    private final int maxStreams;
+    private final Map<Short, Stream> streams = new HashMap<>();
+    private boolean closed = false;
+
+    /**
+     * @param tempDir    临时文件目录，需已存在
+     * @param maxStreams 同时接收的最大流数量
+     */
+    public FileReceiver(Path tempDir, long maxFileLength, int maxStreams) {
+        this.tempDir = tempDir;
+        this.maxFileLength = maxFileLength;
+        this.maxStreams = maxStreams;
+    }
+
+    public static boolean isFileFrame(byte type) {
+        return type == Frame.TYPE_FILE_HEADER || type == Frame.TYPE_FILE_CHUNK || type == Frame.TYPE_FILE_END;
+    }
+
+    /**
+     * 处理一个文件相关的帧，Body仅需在调用期间有效
+     *
+     * @return 接收完成的文件，由调用方负责移走或删除；未完成时返回null
+     * @throws IOException 流不合法或写入失败，该流已被丢弃
+     */
+    public synchronized ReceivedFile onFrame(byte type, short identifier, ByteBuffer body) throws IOException {
+        if (closed) {
+            return null;
+        }
+        if (type == Frame.TYPE_FILE_HEADER) {
+            begin(identifier, body);
+            return null;
+        }
+
+        Stream stream = streams.get(identifier);
+        if (stream == null) {
+            // 头部被拒绝或已出错的流
+            return null;
+        }
+        try {
+            if (type == Frame.TYPE_FILE_CHUNK) {
+                stream.write(body);
+                return null;
+            } else if (type == Frame.TYPE_FILE_END) {
+                streams.remove(identifier);
+                return stream.finish();
+            }
+        } catch (IOException e) {
+            streams.remove(identifier);
+            stream.discard();
+            throw e;
+        }
+        return null;
+    }
+
+    /**
+     * 关闭并删除所有未完成的临时文件
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (Stream stream : streams.values()) {
+            stream.discard();
+        }
+        streams.clear();
+    }
+
+    private void begin(short identifier, ByteBuffer body) throws IOException {
+        if (body.remaining() < 8) {
+            throw new IOException("Invalid file header");
+        }
+        // 过长的文件名保存后无法再编码发出
+        if (body.remaining() - 8 > FileHeader.MAX_NAME_LENGTH) {
+            throw new IOException("File name too long, max " + FileHeader.MAX_NAME_LENGTH + " bytes");
+        }
+        long length = FileHeader.readLength(body);
+        String name = FileHeader.sanitizeName(FileHeader.readName(body));
+        if (length < 0 || length > maxFileLength) {
+            throw new IOException("File too large: " + name + " (" + length + " > " + maxFileLength + ")");
+        }
+        Stream previous = streams.remove(identifier);
+        if (previous != null) {
+            // 同一Id重新开始，丢弃未完成的旧流
+            previous.discard();
+        }
+        if (streams.size() >= maxStreams) {
+            throw new IOException("Too many concurrent files, max " + maxStreams);
+        }
+        Path path = Files.createTempFile(tempDir, "recv-", ".part");
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        streams.put(identifier, new Stream(identifier, name, length, path, channel));
+    }
+
+    private static class Stream {
+        private final short identifier;
+        private final String name;
+        private final long length;
+        private final Path path;
+        private final FileChannel channel;
+        private long received = 0;
+
+        Stream(short identifier, String name, long length, Path path, FileChannel channel) {
+            this.identifier = identifier;
+            this.name = name;
+            this.length = length;
+            this.path = path;
+            this.channel = channel;
+        }
+
+        void write(ByteBuffer body) throws IOException {
+            if (received + body.remaining() > length) {
+                throw new IOException("File exceeds declared length: " + name);
+            }
+            while (body.hasRemaining()) {
+                received += channel.write(body);
+            }
+        }
+
+        ReceivedFile finish() throws IOException {
+            if (received != length) {
+                throw new IOException("File incomplete: " + name + " (" + received + "/" + length + ")");
+            }
+            channel.close();
+            return new ReceivedFile(identifier, name, length, path);
+        }
+
+        void discard() {
+            CloseUtils.close(channel);
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    public static class ReceivedFile {
+        private final short identifier;
+        private final String name;
+        private final long length;
+        private final Path path;
+
+        ReceivedFile(short identifier, String name, long length, Path path) {
+            this.identifier = identifier;
+            this.name = name;
+            this.length = length;
+            this.path = path;
+        }
+
+        public short getIdentifier() {
+            return identifier;
+        }
+
+        /**
+         * 对端给出的文件名，已去掉路径部分
+         */
+        public String getName() {
+            return name;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * 临时文件的位置
+         */
+        public Path getPath() {
+            return path;
+        }
+    }
+}
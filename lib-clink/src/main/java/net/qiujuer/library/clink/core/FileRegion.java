@@ -0,0 +1,64 @@
+package net.qiujuer.library.clink.core;
+
+import net.qiujuer.library.clink.utils.CloseUtils;
+
+import java.io.Closeable;
+import java.nio.channels.FileChannel;
+
+/**
+ * 一个待发送的文件流，由{@link Connector#sendFile(FileRegion)}接管，写完或连接关闭时关闭文件通道
+ */
+public class FileRegion implements Closeable {
+    private final short identifier;
+    private final String name;
+    private final FileChannel channel;
+    private final long length;
+    private long position;
+    private long remaining;
+
+    /**
+     * @param identifier 流Id，同一连接上同时发送的流之间不能重复
+     */
+    public FileRegion(short identifier, String name, FileChannel channel, long position, long length) {
+        this.identifier = identifier;
+        this.name = name;
+        this.channel = channel;
+        this.length = length;
+        this.position = position;
+        this.remaining = length;
+    }
+
+    public short getIdentifier() {
+        return identifier;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    FileChannel getChannel() {
+        return channel;
+    }
+
+    long getPosition() {
+        return position;
+    }
+
+    long getRemaining() {
+        return remaining;
+    }
+
+    void advance(long count) {
+        position += count;
+        remaining -= count;
+    }
+
+    @Override
+    public void close() {
+        CloseUtils.close(channel);
+    }
+}
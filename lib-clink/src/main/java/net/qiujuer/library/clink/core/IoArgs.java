@@ -0,0 +1,131 @@
+package net.qiujuer.library.clink.core;
+
+import java.io.IOException;
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * 一次IO操作的数据载体
+ * <p>
+ * 读取时使用单个Buffer；写出时可以是单个Buffer，也可以是一组Buffer进行聚集写；
+ * 聚集写之后还可以追加一段文件区域，通过{@link FileChannel#transferTo}直接由内核写入通道，数据不经过堆内存
+ */
+public class IoArgs {
+    private ByteBuffer buffer;
+    private ByteBuffer[] buffers;
+    private int buffersOffset;
+    private int buffersEnd;
+    // 追加在Buffer之后写出的文件区域
+    private FileChannel fileChannel;
+    private long filePosition;
+    private long fileRemaining;
+
+    public IoArgs() {
+        this(256);
+    }
+
+    public IoArgs(int capacity) {
+        this.buffer = ByteBuffer.allocate(capacity);
+    }
+
+    public IoArgs(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * 从通道中读取数据，读取前会清空Buffer
+     */
+    public int readFrom(SocketChannel channel) throws IOException {
+        buffer.clear();
+        int len = channel.read(buffer);
+        buffer.flip();
+        return len;
+    }
+
+    /**
+     * 将剩余数据写入通道，非阻塞模式下可能只写入部分数据
+     */
+    public long writeTo(SocketChannel channel) throws IOException {
+        if (buffers == null) {
+            return channel.write(buffer);
+        }
+
+        long len = 0;
+        if (buffersOffset < buffersEnd) {
+            len = channel.write(buffers, buffersOffset, buffersEnd - buffersOffset);
+            // 跳过已完整写出的部分，下次从未写完的Buffer继续
+            while (buffersOffset < buffersEnd && !buffers[buffersOffset].hasRemaining()) {
+                buffersOffset++;
+            }
+        }
+        // Buffer全部写完后才开始写文件区域
+        if (buffersOffset == buffersEnd && fileRemaining > 0) {
+            long transferred = fileChannel.transferTo(filePosition, fileRemaining, channel);
+            if (transferred == 0 && filePosition >= fileChannel.size()) {
+                // 发送期间文件被截断，剩余部分永远无法写出
+                throw new EOFException("File truncated at " + filePosition);
+            }
+            filePosition += transferred;
+            fileRemaining -= transferred;
+            len += transferred;
+        }
+        return len;
+    }
+
+    public boolean hasRemaining() {
+        if (buffers == null) {
+            return buffer.hasRemaining();
+        }
+        return buffersOffset < buffersEnd || fileRemaining > 0;
+    }
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * 替换承载的Buffer，用于复用同一个IoArgs
+     */
+    public void buffer(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.buffers = null;
+        clearFileRegion();
+    }
+
+    /**
+     * 设置一组用于聚集写出的Buffer，数组在写完之前不可修改
+     */
+    public void buffers(ByteBuffer[] buffers, int count) {
+        this.buffers = buffers;
+        this.buffersOffset = 0;
+        this.buffersEnd = count;
+        clearFileRegion();
+    }
+
+    /**
+     * 在{@link #buffers(ByteBuffer[], int)}之后调用，追加一段在Buffer写完后写出的文件区域；
+     * 使用绝对位置读取，不改变也不依赖FileChannel自身的位置
+     */
+    public void fileRegion(FileChannel channel, long position, long count) {
+        if (buffers == null) {
+            throw new IllegalStateException("File region must follow buffers");
+        }
+        this.fileChannel = channel;
+        this.filePosition = position;
+        this.fileRemaining = count;
+    }
+
+    private void clearFileRegion() {
+        this.fileChannel = null;
+        this.filePosition = 0;
+        this.fileRemaining = 0;
+    }
+
+    public interface IoArgsEventListener {
+        void onStarted(IoArgs args);
+
+        void onCompleted(IoArgs args);
+    }
+}
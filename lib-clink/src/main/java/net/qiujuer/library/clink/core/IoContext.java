@@ -0,0 +1,84 @@
+package net.qiujuer.library.clink.core;
+
+import net.qiujuer.library.clink.compress.Compression;
+
+import java.io.IOException;
+
+public class IoContext {
+    private static IoContext INSTANCE;
+    private final IoProvider ioProvider;
+    private final OutboundQueue.Limit outboundLimit;
+    private final Compression compression;
+
+    private IoContext(IoProvider ioProvider, OutboundQueue.Limit outboundLimit, Compression compression) {
+        this.ioProvider = ioProvider;
+        this.outboundLimit = outboundLimit;
+        this.compression = compression;
+    }
+
+    public IoProvider getIoProvider() {
+        return ioProvider;
+    }
+
+    public OutboundQueue.Limit getOutboundLimit() {
+        return outboundLimit;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public static IoContext get() {
+        return INSTANCE;
+    }
+
+    public static StartedBoot setup() {
+        return new StartedBoot();
+    }
+
+    public static void close() throws IOException {
+        if (INSTANCE != null) {
+            INSTANCE.callClose();
+            INSTANCE = null;
+        }
+    }
+
+    private void callClose() throws IOException {
+        ioProvider.close();
+    }
+
+    public static class StartedBoot {
+        private IoProvider ioProvider;
+        private OutboundQueue.Limit outboundLimit = OutboundQueue.Limit.DEFAULT;
+        private Compression compression = Compression.NONE;
+
+        private StartedBoot() {
+        }
+
+        public StartedBoot ioProvider(IoProvider ioProvider) {
+            this.ioProvider = ioProvider;
+            return this;
+        }
+
+        /**
+         * 每个连接待发送队列的默认限制
+         */
+        public StartedBoot outboundLimit(OutboundQueue.Limit outboundLimit) {
+            this.outboundLimit = outboundLimit;
+            return this;
+        }
+
+        /**
+         * 每个连接的默认压缩设置，缺省不开启
+         */
+        public StartedBoot compression(Compression compression) {
+            this.compression = compression;
+            return this;
+        }
+
+        public IoContext start() {
+            INSTANCE = new IoContext(ioProvider, outboundLimit, compression);
+            return INSTANCE;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package net.qiujuer.library.clink.core;
+
+import java.io.Closeable;
+import java.nio.channels.SocketChannel;
+
+/**
+ * IO调度者，负责监听通道的可读/可写状态，并在就绪时回调
+ * <p>
+ * 注册为一次性注册：就绪回调触发后需要重新注册才能再次收到通知
+ */
+public interface IoProvider extends Closeable {
+    /**
+     * 通道是否需要工作在阻塞模式下，阻塞模式下的回调可以直接在通道上阻塞读写
+     */
+    default boolean isBlocking() {
+        return false;
+    }
+
+    boolean registerInput(SocketChannel channel, HandleInputCallback callback);
+
+    boolean registerOutput(SocketChannel channel, HandleOutputCallback callback);
+
+    void unRegisterInput(SocketChannel channel);
+
+    void unRegisterOutput(SocketChannel channel);
+
+    abstract class HandleInputCallback implements Runnable {
+        @Override
+        public final void run() {
+            canProviderInput();
+        }
+
+        protected abstract void canProviderInput();
+    }
+
+    abstract class HandleOutputCallback implements Runnable {
+        @Override
+        public final void run() {
+            canProviderOutput();
+        }
+
+        protected abstract void canProviderOutput();
+    }
+}
@@ -0,0 +1,280 @@
+package net.qiujuer.library.clink.core;
+
+import net.qiujuer.library.clink.frame.Frame;
+import net.qiujuer.library.clink.frame.SharedFrame;
+
+/**
+ * 单个连接的待发送队列，按消息数量与字节数双重限制
+ * <p>
+ * 多个线程可同时入队，仅由该连接的发送流程出队；超出限制时按{@link OverflowPolicy}处理，
+ * 被丢弃的帧会立即释放引用；{@link Frame#isControl(byte)}的控制帧不受限制，也不会被淘汰。
+ * 心跳同样不受限制，但同一时刻最多排队一个，对端只发心跳而不读取时队列不会增长
+ */
+public class OutboundQueue {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Limit limit;
+    // 环形数组，同时记录每一帧的入队时间，用于统计入队到写出的时延
+    private SharedFrame[] frames;
+    private long[] enqueueNanos;
+    private int head = 0;
+    private int size = 0;
+    private long queuedBytes = 0;
+    private long droppedCount = 0;
+    private boolean heartbeatQueued = false;
+    private boolean closed = false;
+
+    public OutboundQueue(Limit limit) {
+        this.limit = limit;
+        int capacity = Math.min(INITIAL_CAPACITY, limit.maxMessages);
+        this.frames = new SharedFrame[capacity];
+        this.enqueueNanos = new long[capacity];
+    }
+
+    /**
+     * 入队，frame的引用由队列接管，无论成功与否调用方都无需再释放
+     *
+     * @return false 超出限制且策略为{@link OverflowPolicy#DISCONNECT}，或队列已关闭
+     */
+    public boolean offer(SharedFrame frame) {
+        int length = frame.length();
+        long now = System.nanoTime();
+        SharedFrame dropped = null;
+        boolean accept = true;
+        synchronized (this) {
+            if (closed) {
+                dropped = frame;
+                accept = false;
+            } else if (frame.type() == Frame.TYPE_HEARTBEAT) {
+                // 已有心跳待发送时合并
+                if (heartbeatQueued) {
+                    dropped = frame;
+                } else {
+                    heartbeatQueued = true;
+                    offerLast(frame, now);
+                }
+            } else if (Frame.isControl(frame.type())) {
+                offerLast(frame, now);
+            } else if (size >= limit.maxMessages || queuedBytes + length > limit.maxBytes) {
+                switch (limit.policy) {
+                    case DROP_NEWEST:
+                        dropped = frame;
+                        droppedCount++;
+                        break;
+                    case DROP_OLDEST:
+                        // 单条即超过字节上限时无法通过淘汰腾出空间
+                        if (length > limit.maxBytes) {
+                            dropped = frame;
+                            droppedCount++;
+                            break;
+                        }
+                        while (size >= limit.maxMessages || queuedBytes + length > limit.maxBytes) {
+                            SharedFrame oldest = removeOldestDroppable();
+                            if (oldest == null) {
+                                break;
+                            }
+                            droppedCount++;
+                            oldest.release();
+                        }
+                        // 剩余的都是控制帧，无法腾出空间
+                        if (size >= limit.maxMessages || queuedBytes + length > limit.maxBytes) {
+                            dropped = frame;
+                            droppedCount++;
+                        } else {
+                            offerLast(frame, now);
+                        }
+                        break;
+                    case DISCONNECT:
+                    default:
+                        dropped = frame;
+                        droppedCount++;
+                        accept = false;
+                        break;
+                }
+            } else {
+                offerLast(frame, now);
+            }
+        }
+
+        if (dropped != null) {
+            dropped.release();
+        }
+        return accept;
+    }
+
+    /**
+     * 取出至多maxCount条、累计不超过maxBytes的帧用于一次聚集写出，至少取出一条
+     *
+     * @return 取出的数量
+     */
+    public int drainTo(SharedFrame[] frames, int maxCount, int maxBytes) {
+        return drainTo(frames, null, maxCount, maxBytes);
+    }
+
+    /**
+     * 同{@link #drainTo(SharedFrame[], int, int)}，并在enqueueNanos不为空时带出每一帧的入队时间
+     */
+    public synchronized int drainTo(SharedFrame[] frames, long[] enqueueNanos, int maxCount, int maxBytes) {
+        int count = 0;
+        int bytes = 0;
+        while (count < maxCount && size > 0) {
+            SharedFrame frame = this.frames[head];
+            int length = frame.length();
+            if (count > 0 && bytes + length > maxBytes) {
+                break;
+            }
+            if (enqueueNanos != null) {
+                enqueueNanos[count] = this.enqueueNanos[head];
+            }
+            pollFirst();
+            bytes += length;
+            frames[count++] = frame;
+        }
+        return count;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * 关闭后不再接收新的帧，并释放所有未发送的帧
+     */
+    public void close() {
+        SharedFrame[] pending;
+        synchronized (this) {
+            closed = true;
+            pending = new SharedFrame[size];
+            for (int i = 0; i < pending.length; i++) {
+                pending[i] = pollFirst();
+            }
+        }
+        for (SharedFrame frame : pending) {
+            frame.release();
+        }
+    }
+
+    private void offerLast(SharedFrame frame, long nanos) {
+        if (size == frames.length) {
+            grow();
+        }
+        int tail = (head + size) % frames.length;
+        frames[tail] = frame;
+        enqueueNanos[tail] = nanos;
+        size++;
+        queuedBytes += frame.length();
+    }
+
+    private SharedFrame pollFirst() {
+        SharedFrame frame = frames[head];
+        frames[head] = null;
+        head = (head + 1) % frames.length;
+        size--;
+        queuedBytes -= frame.length();
+        if (frame.type() == Frame.TYPE_HEARTBEAT) {
+            heartbeatQueued = false;
+        }
+        return frame;
+    }
+
+    /**
+     * 移除最早入队的非控制帧，其前面的控制帧依次后移一位，保持原有顺序
+     *
+     * @return 队列中只有控制帧时为null
+     */
+    private SharedFrame removeOldestDroppable() {
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) % frames.length;
+            SharedFrame frame = frames[index];
+            if (Frame.isControl(frame.type())) {
+                continue;
+            }
+            for (int j = i; j > 0; j--) {
+                int to = (head + j) % frames.length;
+                int from = (head + j - 1) % frames.length;
+                frames[to] = frames[from];
+                enqueueNanos[to] = enqueueNanos[from];
+            }
+            frames[head] = frame;
+            return pollFirst();
+        }
+        return null;
+    }
+
+    private void grow() {
+        // 容量翻倍，但不超过消息数上限；控制帧不受上限约束，此时至少多出一个位置
+        int capacity = (int) Math.max(Math.min((long) frames.length * 2, limit.maxMessages), size + 1);
+        SharedFrame[] newFrames = new SharedFrame[capacity];
+        long[] newNanos = new long[capacity];
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) % frames.length;
+            newFrames[i] = frames[index];
+            newNanos[i] = enqueueNanos[index];
+        }
+        frames = newFrames;
+        enqueueNanos = newNanos;
+        head = 0;
+    }
+
+    /**
+     * 队列超出限制时的处理策略
+     */
+    public enum OverflowPolicy {
+        // 丢弃最早入队的消息
+        DROP_OLDEST,
+        // 丢弃当前要入队的消息
+        DROP_NEWEST,
+        // 断开连接
+        DISCONNECT
+    }
+
+    public static class Limit {
+        public static final Limit DEFAULT = new Limit(1024, 1024 * 1024, OverflowPolicy.DROP_OLDEST);
+
+        private final int maxMessages;
+        private final long maxBytes;
+        private final OverflowPolicy policy;
+
+        public Limit(int maxMessages, long maxBytes, OverflowPolicy policy) {
+            if (maxMessages <= 0 || maxBytes <= 0) {
+                throw new IllegalArgumentException("maxMessages and maxBytes must be > 0");
+            }
+            this.maxMessages = maxMessages;
+            this.maxBytes = maxBytes;
+            this.policy = policy;
+        }
+
+        public int getMaxMessages() {
+            return maxMessages;
+        }
+
+        public long getMaxBytes() {
+            return maxBytes;
+        }
+
+        public OverflowPolicy getPolicy() {
+            return policy;
+        }
+
+        @Override
+        public String toString() {
+            return "Limit{" +
+                    "maxMessages=" + maxMessages +
+                    ", maxBytes=" + maxBytes +
+                    ", policy=" + policy +
+                    '}';
+        }
+    }
+}
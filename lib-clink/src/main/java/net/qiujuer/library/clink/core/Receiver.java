@@ -0,0 +1,11 @@
+package net.qiujuer.library.clink.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+public interface Receiver extends Closeable {
+    /**
+     * 开始持续接收，每次读取到数据回调一次onCompleted，回调中的数据仅在回调期间有效
+     */
+    boolean receiveAsync(IoArgs.IoArgsEventListener listener) throws IOException;
+}
@@ -0,0 +1,8 @@
+package net.qiujuer.library.clink.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+public interface Sender extends Closeable {
+    boolean sendAsync(IoArgs args, IoArgs.IoArgsEventListener listener) throws IOException;
+}
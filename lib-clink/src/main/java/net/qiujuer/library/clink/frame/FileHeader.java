@@ -0,0 +1,63 @@
+package net.qiujuer.library.clink.frame;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 文件流头部帧的Body
+ * <pre>
+ * +---------------+---------------------+
+ * | length (8B)   | name (UTF-8)        |
+ * +---------------+---------------------+
+ * </pre>
+ */
+public class FileHeader {
+    public static final int MAX_NAME_LENGTH = 255;
+
+    private FileHeader() {
+    }
+
+    public static byte[] encode(long length, String name) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("File name too long: " + name);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(8 + nameBytes.length);
+        buffer.putLong(length);
+        buffer.put(nameBytes);
+        return buffer.array();
+    }
+
+    /**
+     * 不改变body的读位置
+     */
+    public static long readLength(ByteBuffer body) {
+        return body.getLong(body.position());
+    }
+
+    public static String readName(ByteBuffer body) {
+        ByteBuffer name = body.duplicate();
+        name.position(name.position() + 8);
+        return StandardCharsets.UTF_8.decode(name).toString();
+    }
+
+    /**
+     * 去掉路径部分，防止对端通过文件名写到目录之外
+     */
+    public static String sanitizeName(String name) {
+        String result = name.replace('\\', '/');
+        result = result.substring(result.lastIndexOf('/') + 1).trim();
+        StringBuilder builder = new StringBuilder(result.length());
+        for (int i = 0; i < result.length(); i++) {
+            char c = result.charAt(i);
+            if (!Character.isISOControl(c)) {
+                builder.append(c);
+            }
+        }
+        result = builder.toString();
+        if (result.isEmpty() || ".".equals(result) || "..".equals(result)) {
+            return "unnamed";
+        }
+        return result;
+    }
+}
@@ -0,0 +1,56 @@
+package net.qiujuer.library.clink.frame;
+
+/**
+ * 帧格式定义
+ * <pre>
+ * +--------------+---------+---------+--------------+------------------+
+ * | length (4B)  | type(1B)|flags(1B)| identifier(2B)| body (length B) |
+ * +--------------+---------+---------+--------------+------------------+
+ * </pre>
+ * length为Body长度，不包含头部；identifier用于区分同一连接上交错发送的多个数据流，0表示无
+ */
+public class Frame {
+    // 帧头长度
+    public static final int HEADER_LENGTH = 8;
+    // 默认允许的最大Body长度
+    public static final int DEFAULT_MAX_BODY_LENGTH = 1024 * 1024;
+
+    // 文本消息，UTF-8编码
+    public static final byte TYPE_STRING = 1;
+    // 二进制消息
+    public static final byte TYPE_BYTES = 2;
+    // 回显请求，对端原样返回Body，用于测量往返时延
+    public static final byte TYPE_ECHO = 3;
+    // 心跳，Body为空，仅用于维持连接活跃
+    public static final byte TYPE_HEARTBEAT = 4;
+    // 文件流开始，identifier为流Id，Body见{@link FileHeader}
+    public static final byte TYPE_FILE_HEADER = 5;
+    // 文件数据分块，按identifier归属到对应的流
+    public static final byte TYPE_FILE_CHUNK = 6;
+    // 文件流结束，Body为空
+    public static final byte TYPE_FILE_END = 7;
+    // 压缩协商，Body为支持的算法Id，由连接内部处理，见net.qiujuer.library.clink.compress.Compression
+    public static final byte TYPE_COMPRESSION = 8;
+    // 整批压缩的多个帧，解压后依次处理，只与FLAG_COMPRESSED同时出现
+    public static final byte TYPE_BATCH = 9;
+    // 应用层自定义的类型从该值开始，库内不会占用
+    public static final byte TYPE_CUSTOM = 16;
+
+    // 文件分块的默认大小，分块之间可以插入其他帧，大文件不会长时间占用连接
+    public static final int DEFAULT_FILE_CHUNK_SIZE = 16 * 1024;
+
+    public static final byte FLAG_NONE = 0;
+    // Body经过压缩，由连接内部解压后清除该位再回调；最高位由库保留，应用层的flags不应使用
+    public static final byte FLAG_COMPRESSED = (byte) 0x80;
+
+    private Frame() {
+    }
+
+    /**
+     * 库内部的控制帧：文件流的开始与结束、压缩协商。发送队列不会丢弃这类帧，
+     * 丢失后对端的状态将无法恢复；心跳可由下一次心跳代替，不在此列
+     */
+    public static boolean isControl(byte type) {
+        return type == TYPE_FILE_HEADER || type == TYPE_FILE_END || type == TYPE_COMPRESSION;
+    }
+}
@@ -0,0 +1,159 @@
+package net.qiujuer.library.clink.frame;
+
+import net.qiujuer.library.clink.buffer.BufferPool;
+import net.qiujuer.library.clink.buffer.PooledBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 流式帧解码，可重复喂入任意切分的数据
+ * <p>
+ * 若一个帧完整地落在本次输入中，回调的Body直接是输入Buffer的只读视图，不发生拷贝；
+ * 否则从{@link BufferPool}借用缓冲区累积，帧完成后归还。累积缓冲先按较小的容量借用，随数据到达成倍扩容，
+ * 只发送帧头的对端无法按声明的长度占用内存。回调中的Body仅在回调期间有效
+ */
+public class FrameDecoder {
+    private static final ByteBuffer EMPTY_BODY = ByteBuffer.allocate(0).asReadOnlyBuffer();
+    // 累积Body时首次借用的容量
+    private static final int INITIAL_BODY_CAPACITY = 16 * 1024;
+    private final int maxBodyLength;
+    private final byte[] header = new byte[Frame.HEADER_LENGTH];
+    private int headerPosition = 0;
+
+    private final BufferPool bufferPool;
+    // 跨越多次输入的Body暂存，仅在累积期间持有
+    private PooledBuffer body;
+    private int bodyPosition = 0;
+    private int bodyLength = -1;
+    private byte type;
+    private byte flags;
+    private short identifier;
+
+    public FrameDecoder() {
+        this(Frame.DEFAULT_MAX_BODY_LENGTH);
+    }
+
+    public FrameDecoder(int maxBodyLength) {
+        this(maxBodyLength, BufferPool.getDefault());
+    }
+
+    public FrameDecoder(int maxBodyLength, BufferPool bufferPool) {
+        this.maxBodyLength = maxBodyLength;
+        this.bufferPool = bufferPool;
+    }
+
+    public synchronized void decode(ByteBuffer src, FrameListener listener) throws IOException {
+        while (src.hasRemaining()) {
+            if (bodyLength < 0) {
+                if (headerPosition == 0 && src.remaining() >= Frame.HEADER_LENGTH) {
+                    // 头部完整，直接从输入中读取
+                    readHeader(src.getInt(), src.get(), src.get(), src.getShort());
+                } else {
+                    int len = Math.min(Frame.HEADER_LENGTH - headerPosition, src.remaining());
+                    src.get(header, headerPosition, len);
+                    headerPosition += len;
+                    if (headerPosition < Frame.HEADER_LENGTH) {
+                        return;
+                    }
+                    headerPosition = 0;
+                    readHeader(((header[0] & 0xff) << 24) | ((header[1] & 0xff) << 16)
+                                    | ((header[2] & 0xff) << 8) | (header[3] & 0xff),
+                            header[4], header[5],
+                            (short) (((header[6] & 0xff) << 8) | (header[7] & 0xff)));
+                }
+
+                if (bodyLength == 0) {
+                    // 空帧，头部即完整
+                    complete(EMPTY_BODY, listener);
+                    continue;
+                }
+            }
+
+            if (bodyPosition == 0 && src.remaining() >= bodyLength) {
+                // Body完整，直接交出输入的视图
+                int limit = src.limit();
+                int end = src.position() + bodyLength;
+                src.limit(end);
+                ByteBuffer view = src.slice().asReadOnlyBuffer();
+                src.limit(limit);
+                src.position(end);
+                complete(view, listener);
+                continue;
+            }
+
+            int len = Math.min(bodyLength - bodyPosition, src.remaining());
+            if (body == null) {
+                body = bufferPool.acquire(Math.min(bodyLength, Math.max(INITIAL_BODY_CAPACITY, len)));
+            }
+            ByteBuffer buffer = body.buffer();
+            if (len > buffer.remaining()) {
+                buffer = growBody(bodyPosition + len);
+            }
+            int limit = src.limit();
+            src.limit(src.position() + len);
+            buffer.put(src);
+            src.limit(limit);
+            bodyPosition += len;
+            if (bodyPosition == bodyLength) {
+                buffer.flip();
+                PooledBuffer pooled = body;
+                body = null;
+                try {
+                    complete(buffer.asReadOnlyBuffer(), listener);
+                } finally {
+                    pooled.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * 容量至少翻倍且不小于minCapacity，不超过Body长度；已累积的数据拷贝到新缓冲
+     */
+    private ByteBuffer growBody(int minCapacity) {
+        int capacity = (int) Math.min(bodyLength, Math.max((long) body.buffer().capacity() * 2, minCapacity));
+        PooledBuffer grown = bufferPool.acquire(capacity);
+        ByteBuffer buffer = grown.buffer();
+        ByteBuffer old = body.buffer();
+        old.flip();
+        buffer.put(old);
+        body.release();
+        body = grown;
+        return buffer;
+    }
+
+    private void readHeader(int length, byte type, byte flags, short identifier) throws IOException {
+        if (length < 0 || length > maxBodyLength) {
+            throw new IOException("Frame body length out of range: " + length);
+        }
+        this.bodyLength = length;
+        this.type = type;
+        this.flags = flags;
+        this.identifier = identifier;
+        this.bodyPosition = 0;
+    }
+
+    private void complete(ByteBuffer view, FrameListener listener) {
+        bodyLength = -1;
+        bodyPosition = 0;
+        listener.onFrame(type, flags, identifier, view);
+    }
+
+    /**
+     * 归还尚未完成的Body缓冲，连接关闭时调用
+     */
+    public synchronized void close() {
+        if (body != null) {
+            body.release();
+            body = null;
+        }
+        bodyLength = -1;
+        bodyPosition = 0;
+        headerPosition = 0;
+    }
+
+    public interface FrameListener {
+        void onFrame(byte type, byte flags, short identifier, ByteBuffer body);
+    }
+}
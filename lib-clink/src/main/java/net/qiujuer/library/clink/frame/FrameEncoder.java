@@ -0,0 +1,71 @@
+package net.qiujuer.library.clink.frame;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 帧编码，头部与Body写入同一块连续内存，一次系统调用即可发送
+ */
+public class FrameEncoder {
+    private FrameEncoder() {
+    }
+
+    public static void writeHeader(ByteBuffer dst, int length, byte type, byte flags, short identifier) {
+        dst.putInt(length);
+        dst.put(type);
+        dst.put(flags);
+        dst.putShort(identifier);
+    }
+
+    public static void writeHeader(byte[] dst, int offset, int length, byte type, byte flags, short identifier) {
+        dst[offset] = (byte) (length >>> 24);
+        dst[offset + 1] = (byte) (length >>> 16);
+        dst[offset + 2] = (byte) (length >>> 8);
+        dst[offset + 3] = (byte) length;
+        dst[offset + 4] = type;
+        dst[offset + 5] = flags;
+        dst[offset + 6] = (byte) (identifier >>> 8);
+        dst[offset + 7] = (byte) identifier;
+    }
+
+    /**
+     * 编码为一个完整的帧，返回的数组可直接写出
+     */
+    public static byte[] encode(byte type, byte flags, short identifier, byte[] body, int offset, int length) {
+        byte[] frame = new byte[Frame.HEADER_LENGTH + length];
+        writeHeader(frame, 0, length, type, flags, identifier);
+        System.arraycopy(body, offset, frame, Frame.HEADER_LENGTH, length);
+        return frame;
+    }
+
+    public static byte[] encode(byte type, byte[] body) {
+        return encode(type, Frame.FLAG_NONE, (short) 0, body, 0, body.length);
+    }
+
+    public static byte[] encodeString(String str) {
+        return encode(Frame.TYPE_STRING, str.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static void write(OutputStream outputStream, byte type, byte[] body) throws IOException {
+        outputStream.write(encode(type, body));
+        outputStream.flush();
+    }
+
+    /**
+     * 头部与Body分开写入，Body不再拷贝一次，适合文件分块等较大的数据
+     */
+    public static void write(OutputStream outputStream, byte type, short identifier,
+                             byte[] body, int offset, int length) throws IOException {
+        byte[] header = new byte[Frame.HEADER_LENGTH];
+        writeHeader(header, 0, length, type, Frame.FLAG_NONE, identifier);
+        outputStream.write(header);
+        outputStream.write(body, offset, length);
+        outputStream.flush();
+    }
+
+    public static void writeString(OutputStream outputStream, String str) throws IOException {
+        write(outputStream, Frame.TYPE_STRING, str.getBytes(StandardCharsets.UTF_8));
+    }
+}
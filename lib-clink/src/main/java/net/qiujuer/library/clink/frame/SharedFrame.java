@@ -0,0 +1,145 @@
+package net.qiujuer.library.clink.frame;
+
+import net.qiujuer.library.clink.buffer.BufferPool;
+import net.qiujuer.library.clink.buffer.PooledBuffer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * 编码完成、只读且带引用计数的帧
+ * <p>
+ * 同一条消息发往多个连接时只需编码一次，每个连接通过{@link #view()}得到独立的读位置；
+ * 每个持有者在用完后调用{@link #release()}，计数归零后数据不再可用；
+ * 通过{@link #encode}构建的帧数据位于{@link BufferPool}借出的堆外内存中，计数归零时归还
+ * <p>
+ * 开启压缩的连接发送该帧时，压缩结果通过{@link #setCompressed}挂在帧上，同一条消息发往多个连接时只压缩一次
+ */
+public final class SharedFrame {
+    private static final AtomicReferenceFieldUpdater<SharedFrame, SharedFrame> COMPRESSED =
+            AtomicReferenceFieldUpdater.newUpdater(SharedFrame.class, SharedFrame.class, "compressed");
+
+    private final ByteBuffer buffer;
+    private final PooledBuffer pooled;
+    private final AtomicInteger refCnt = new AtomicInteger(1);
+    // 压缩后的副本，为自身时表示压缩后不更小，随本帧一同释放
+    private volatile SharedFrame compressed;
+
+    private SharedFrame(ByteBuffer buffer, PooledBuffer pooled) {
+        this.buffer = buffer.asReadOnlyBuffer();
+        this.pooled = pooled;
+    }
+
+    /**
+     * 包装一个完整的帧数据，调用方不应再修改该数组
+     */
+    public static SharedFrame wrap(byte[] frame) {
+        return new SharedFrame(ByteBuffer.wrap(frame), null);
+    }
+
+    /**
+     * 包装一段完整的帧数据，例如映射文件中的区域，不发生拷贝；数据的生命周期由调用方保证
+     */
+    public static SharedFrame wrap(ByteBuffer frame) {
+        return new SharedFrame(frame.slice(), null);
+    }
+
+    /**
+     * 接管一个借出的Buffer，position到limit之间为完整的帧，计数归零时归还
+     */
+    public static SharedFrame wrap(PooledBuffer pooled) {
+        return new SharedFrame(pooled.buffer(), pooled);
+    }
+
+    public static SharedFrame encode(byte type, byte flags, short identifier, ByteBuffer body) {
+        PooledBuffer pooled = BufferPool.getDefault().acquire(Frame.HEADER_LENGTH + body.remaining());
+        ByteBuffer buffer = pooled.buffer();
+        FrameEncoder.writeHeader(buffer, body.remaining(), type, flags, identifier);
+        buffer.put(body);
+        buffer.flip();
+        return new SharedFrame(buffer, pooled);
+    }
+
+    public static SharedFrame encode(byte type, byte[] body) {
+        return encode(type, Frame.FLAG_NONE, (short) 0, ByteBuffer.wrap(body));
+    }
+
+    public static SharedFrame encodeString(String str) {
+        return encode(Frame.TYPE_STRING, str.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 整个帧的长度，包含帧头
+     */
+    public int length() {
+        return buffer.remaining();
+    }
+
+    public byte type() {
+        return buffer.get(buffer.position() + 4);
+    }
+
+    /**
+     * 得到一个独立读位置的只读视图
+     */
+    public ByteBuffer view() {
+        if (refCnt.get() <= 0) {
+            throw new IllegalStateException("SharedFrame already released");
+        }
+        return buffer.duplicate();
+    }
+
+    public SharedFrame retain() {
+        for (; ; ) {
+            int cnt = refCnt.get();
+            if (cnt <= 0) {
+                throw new IllegalStateException("SharedFrame already released");
+            }
+            if (refCnt.compareAndSet(cnt, cnt + 1)) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * @return true 当前调用使引用计数归零
+     */
+    public boolean release() {
+        int cnt = refCnt.decrementAndGet();
+        if (cnt < 0) {
+            throw new IllegalStateException("SharedFrame released too many times");
+        }
+        if (cnt == 0) {
+            SharedFrame compressed = this.compressed;
+            if (compressed != null && compressed != this) {
+                compressed.release();
+            }
+            if (pooled != null) {
+                pooled.release();
+            }
+        }
+        return cnt == 0;
+    }
+
+    /**
+     * @return 尚未压缩过时为null；为自身时表示压缩后不更小，应直接发送原文
+     */
+    public SharedFrame getCompressed() {
+        return compressed;
+    }
+
+    /**
+     * 挂上压缩后的副本（或自身表示不压缩），由本帧接管其引用；仅第一次设置生效
+     *
+     * @return false 已被其他连接设置，compressed仍由调用方负责释放
+     */
+    public boolean setCompressed(SharedFrame compressed) {
+        return COMPRESSED.compareAndSet(this, null, compressed);
+    }
+
+    public int refCnt() {
+        return refCnt.get();
+    }
+}
@@ -0,0 +1,134 @@
+package net.qiujuer.library.clink.impl;
+
+import net.qiujuer.library.clink.core.ExecutionMode;
+import net.qiujuer.library.clink.core.IoProvider;
+
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 阻塞式的IO调度实现，通道工作在阻塞模式下
+ * <p>
+ * 每个连接的读与写各占用一个线程：读线程在连接存活期间持续阻塞在读取上，
+ * 写线程在有数据待发送时启动、发送完毕后退出。配合{@link ExecutionMode#VIRTUAL}时线程开销极小，
+ * 可以保留简单的阻塞式写法承载大量连接
+ */
+public class BlockingIoProvider implements IoProvider {
+    private final AtomicBoolean isClosed = new AtomicBoolean(false);
+    private final ConcurrentHashMap<SocketChannel, ChannelTasks> channelTasks = new ConcurrentHashMap<>();
+    private final ExecutorService readExecutor;
+    private final ExecutorService writeExecutor;
+
+    public BlockingIoProvider(ExecutionMode mode) {
+        this.readExecutor = mode.newExecutor("IoProvider-Read-Thread-");
+        this.writeExecutor = mode.newExecutor("IoProvider-Write-Thread-");
+    }
+
+    @Override
+    public boolean isBlocking() {
+        return true;
+    }
+
+    @Override
+    public boolean registerInput(SocketChannel channel, HandleInputCallback callback) {
+        if (isClosed.get() || !channel.isOpen()) {
+            return false;
+        }
+        tasksOf(channel).input.request(callback, readExecutor);
+        return true;
+    }
+
+    @Override
+    public boolean registerOutput(SocketChannel channel, HandleOutputCallback callback) {
+        if (isClosed.get() || !channel.isOpen()) {
+            return false;
+        }
+        tasksOf(channel).output.request(callback, writeExecutor);
+        return true;
+    }
+
+    @Override
+    public void unRegisterInput(SocketChannel channel) {
+        ChannelTasks tasks = channelTasks.get(channel);
+        if (tasks != null) {
+            tasks.input.cancel();
+            removeIfIdle(channel, tasks);
+        }
+    }
+
+    @Override
+    public void unRegisterOutput(SocketChannel channel) {
+        ChannelTasks tasks = channelTasks.get(channel);
+        if (tasks != null) {
+            tasks.output.cancel();
+            removeIfIdle(channel, tasks);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (isClosed.compareAndSet(false, true)) {
+            readExecutor.shutdownNow();
+            writeExecutor.shutdownNow();
+            channelTasks.clear();
+        }
+    }
+
+    private ChannelTasks tasksOf(SocketChannel channel) {
+        return channelTasks.computeIfAbsent(channel, c -> new ChannelTasks());
+    }
+
+    private void removeIfIdle(SocketChannel channel, ChannelTasks tasks) {
+        if (tasks.input.callback == null && tasks.output.callback == null) {
+            channelTasks.remove(channel, tasks);
+        }
+    }
+
+    private static class ChannelTasks {
+        private final Task input = new Task();
+        private final Task output = new Task();
+    }
+
+    /**
+     * 同一方向上的回调串行执行；回调执行期间的再次注册不会新起线程，而是由当前线程继续执行
+     */
+    private static class Task implements Runnable {
+        private final AtomicBoolean pending = new AtomicBoolean(false);
+        private final AtomicBoolean running = new AtomicBoolean(false);
+        private volatile Runnable callback;
+
+        void request(Runnable callback, ExecutorService executor) {
+            this.callback = callback;
+            pending.set(true);
+            if (running.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (Exception e) {
+                    // 调度器已关闭
+                    running.set(false);
+                }
+            }
+        }
+
+        void cancel() {
+            callback = null;
+            pending.set(false);
+        }
+
+        @Override
+        public void run() {
+            do {
+                while (pending.getAndSet(false)) {
+                    Runnable callback = this.callback;
+                    if (callback != null) {
+                        callback.run();
+                    }
+                }
+                running.set(false);
+                // 释放标记后可能有新的请求到达
+            } while (pending.get() && running.compareAndSet(false, true));
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package net.qiujuer.library.clink.impl;
+
+import net.qiujuer.library.clink.core.IoProvider;
+import net.qiujuer.library.clink.log.Logger;
+import net.qiujuer.library.clink.utils.CloseUtils;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于Selector的IO调度实现
+ * <p>
+ * 内部持有多个SelectorWorker，每个Worker独占一个Selector与一个线程（默认与CPU核数一致），
+ * 通道首次注册时按照{@link Strategy}分配到某个Worker上，此后该通道的所有读写事件均在该Worker上处理；
+ * 通道的注册与注销均投递到对应Worker线程中执行，避免与select()争抢锁
+ * <p>
+ * 构造时即启动Worker，Worker会访问本对象，因此不允许继承，所有字段在启动前均已赋值
+ */
+public final class IoSelectorProvider implements IoProvider {
+    private static final Logger LOGGER = Logger.getLogger(IoSelectorProvider.class);
+    private final AtomicBoolean isClosed = new AtomicBoolean(false);
+    private final ConcurrentHashMap<SocketChannel, ChannelBinding> bindings = new ConcurrentHashMap<>();
+    private final SelectorWorker[] workers;
+    private final Strategy strategy;
+    private final AtomicInteger nextIndex = new AtomicInteger(0);
+
+    public IoSelectorProvider() throws IOException {
+        this(Runtime.getRuntime().availableProcessors(), Strategy.ROUND_ROBIN);
+    }
+
+    public IoSelectorProvider(int workerSize, Strategy strategy) throws IOException {
+        if (workerSize <= 0) {
+            throw new IllegalArgumentException("workerSize must be > 0");
+        }
+        this.strategy = strategy;
+        this.workers = new SelectorWorker[workerSize];
+        try {
+            for (int i = 0; i < workerSize; i++) {
+                workers[i] = new SelectorWorker(i);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        // 放在构造的最后，Worker线程看到的是完整的对象
+        for (SelectorWorker worker : workers) {
+            worker.start();
+        }
+    }
+
+    @Override
+    public boolean registerInput(SocketChannel channel, HandleInputCallback callback) {
+        return registerInterest(channel, SelectionKey.OP_READ, callback);
+    }
+
+    @Override
+    public boolean registerOutput(SocketChannel channel, HandleOutputCallback callback) {
+        return registerInterest(channel, SelectionKey.OP_WRITE, callback);
+    }
+
+    @Override
+    public void unRegisterInput(SocketChannel channel) {
+        unRegisterInterest(channel, SelectionKey.OP_READ);
+    }
+
+    @Override
+    public void unRegisterOutput(SocketChannel channel) {
+        unRegisterInterest(channel, SelectionKey.OP_WRITE);
+    }
+
+    @Override
+    public void close() {
+        if (isClosed.compareAndSet(false, true)) {
+            for (SelectorWorker worker : workers) {
+                if (worker != null) {
+                    worker.exit();
+                }
+            }
+            bindings.clear();
+        }
+    }
+
+    public int getWorkerSize() {
+        return workers.length;
+    }
+
+    /**
+     * 每个Worker当前承载的连接数量，下标即Worker序号
+     */
+    public int[] getWorkerConnectionCounts() {
+        int[] counts = new int[workers.length];
+        for (int i = 0; i < workers.length; i++) {
+            counts[i] = workers[i].connectionCount.get();
+        }
+        return counts;
+    }
+
+    private boolean registerInterest(SocketChannel channel, int op, Runnable callback) {
+        if (isClosed.get() || !channel.isOpen()) {
+            return false;
+        }
+
+        ChannelBinding binding = bindings.computeIfAbsent(channel, this::bind);
+        binding.set(op, callback);
+        binding.worker.runInSelectThread(() -> binding.worker.addInterest(binding, op));
+        return true;
+    }
+
+    private void unRegisterInterest(SocketChannel channel, int op) {
+        ChannelBinding binding = bindings.get(channel);
+        if (binding == null) {
+            return;
+        }
+
+        binding.set(op, null);
+        if (binding.isEmpty()) {
+            release(binding);
+        }
+        binding.worker.runInSelectThread(() -> binding.worker.removeInterest(binding, op));
+    }
+
+    private ChannelBinding bind(SocketChannel channel) {
+        SelectorWorker worker = choose();
+        worker.connectionCount.incrementAndGet();
+        return new ChannelBinding(channel, worker);
+    }
+
+    private void release(ChannelBinding binding) {
+        if (bindings.remove(binding.channel, binding)) {
+            binding.worker.connectionCount.decrementAndGet();
+        }
+    }
+
+    private SelectorWorker choose() {
+        SelectorWorker[] workers = this.workers;
+        if (workers.length == 1) {
+            return workers[0];
+        }
+
+        if (strategy == Strategy.LEAST_LOADED) {
+            // 从轮询位置开始查找，连接数相同时依旧保持轮询的分布
+            int start = Math.abs(nextIndex.getAndIncrement() % workers.length);
+            SelectorWorker target = workers[start];
+            for (int i = 1; i < workers.length; i++) {
+                SelectorWorker worker = workers[(start + i) % workers.length];
+                if (worker.connectionCount.get() < target.connectionCount.get()) {
+                    target = worker;
+                }
+            }
+            return target;
+        }
+        return workers[Math.abs(nextIndex.getAndIncrement() % workers.length)];
+    }
+
+    /**
+     * 新连接分配到Worker的策略
+     */
+    public enum Strategy {
+        ROUND_ROBIN,
+        LEAST_LOADED
+    }
+
+    private class SelectorWorker extends Thread {
+        private final AtomicBoolean wakenUp = new AtomicBoolean(false);
+        private final Queue<Runnable> taskQueue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger connectionCount = new AtomicInteger(0);
+        private final Selector selector;
+        private volatile boolean done = false;
+
+        SelectorWorker(int index) throws IOException {
+            super("IoProvider-Worker-Thread-" + index);
+            this.selector = Selector.open();
+            setPriority(Thread.MAX_PRIORITY);
+        }
+
+        void runInSelectThread(Runnable task) {
+            if (Thread.currentThread() == this) {
+                // 回调中的再次注册直接执行，无需唤醒
+                task.run();
+                return;
+            }
+
+            taskQueue.offer(task);
+            if (wakenUp.compareAndSet(false, true)) {
+                selector.wakeup();
+            }
+        }
+
+        void addInterest(ChannelBinding binding, int op) {
+            SocketChannel channel = binding.channel;
+            try {
+                SelectionKey key = channel.keyFor(selector);
+                if (key == null) {
+                    key = channel.register(selector, 0, binding);
+                } else if (!key.isValid()) {
+                    return;
+                }
+                // 回调可能已在等待期间被注销
+                if (binding.get(op) != null) {
+                    key.interestOps(key.interestOps() | op);
+                }
+            } catch (ClosedChannelException | CancelledKeyException e) {
+                // 通道已关闭，由通道持有者负责后续的关闭流程
+                release(binding);
+            }
+        }
+
+        void removeInterest(ChannelBinding binding, int op) {
+            SelectionKey key = binding.channel.keyFor(selector);
+            if (key == null || !key.isValid()) {
+                return;
+            }
+            try {
+                key.interestOps(key.interestOps() & ~op);
+                if (binding.isEmpty()) {
+                    key.cancel();
+                }
+            } catch (CancelledKeyException ignored) {
+            }
+        }
+
+        private void runAllTasks() {
+            Runnable task;
+            while ((task = taskQueue.poll()) != null) {
+                task.run();
+            }
+        }
+
+        private void handleSelection(SelectionKey key) {
+            ChannelBinding binding = (ChannelBinding) key.attachment();
+            int readyOps = key.readyOps();
+            // 取消已就绪的关注，待回调处理完成后再次注册
+            key.interestOps(key.interestOps() & ~readyOps);
+
+            if ((readyOps & SelectionKey.OP_READ) != 0) {
+                Runnable callback = binding.inputCallback;
+                if (callback != null) {
+                    callback.run();
+                }
+            }
+            if ((readyOps & SelectionKey.OP_WRITE) != 0) {
+                Runnable callback = binding.outputCallback;
+                if (callback != null) {
+                    callback.run();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!done) {
+                try {
+                    runAllTasks();
+                    wakenUp.set(false);
+                    if (!taskQueue.isEmpty()) {
+                        selector.selectNow();
+                    } else if (selector.select() == 0) {
+                        continue;
+                    }
+
+                    Set<SelectionKey> selectionKeys = selector.selectedKeys();
+                    Iterator<SelectionKey> iterator = selectionKeys.iterator();
+                    while (iterator.hasNext()) {
+                        SelectionKey selectionKey = iterator.next();
+                        iterator.remove();
+                        if (!selectionKey.isValid()) {
+                            continue;
+                        }
+                        try {
+                            handleSelection(selectionKey);
+                        } catch (CancelledKeyException ignored) {
+                        } catch (RuntimeException e) {
+                            // 只关闭出错的通道，同一批就绪的其他通道照常处理
+                            LOGGER.error("通道处理异常，关闭通道", e);
+                            selectionKey.cancel();
+                            CloseUtils.close(selectionKey.channel());
+                        }
+                    }
+                } catch (Exception e) {
+                    if (!done) {
+                        LOGGER.error("Selector处理异常", e);
+                    }
+                }
+            }
+            CloseUtils.close(selector);
+        }
+
+        void exit() {
+            done = true;
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * 通道与Worker的绑定关系，同时挂载在SelectionKey上保存读写回调
+     */
+    private static class ChannelBinding {
+        private final SocketChannel channel;
+        private final SelectorWorker worker;
+        private volatile Runnable inputCallback;
+        private volatile Runnable outputCallback;
+
+        ChannelBinding(SocketChannel channel, SelectorWorker worker) {
+            this.channel = channel;
+            this.worker = worker;
+        }
+
+        void set(int op, Runnable callback) {
+            if (op == SelectionKey.OP_READ) {
+                inputCallback = callback;
+            } else {
+                outputCallback = callback;
+            }
+        }
+
+        Runnable get(int op) {
+            return op == SelectionKey.OP_READ ? inputCallback : outputCallback;
+        }
+
+        boolean isEmpty() {
+            return inputCallback == null && outputCallback == null;
+        }
+    }
+}
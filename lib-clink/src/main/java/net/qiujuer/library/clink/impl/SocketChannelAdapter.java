@@ -0,0 +1,156 @@
+package net.qiujuer.library.clink.impl;
+
+import net.qiujuer.library.clink.buffer.BufferPool;
+import net.qiujuer.library.clink.buffer.PooledBuffer;
+import net.qiujuer.library.clink.core.IoArgs;
+import net.qiujuer.library.clink.core.IoProvider;
+import net.qiujuer.library.clink.core.Receiver;
+import net.qiujuer.library.clink.core.Sender;
+import net.qiujuer.library.clink.log.Logger;
+import net.qiujuer.library.clink.utils.CloseUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 将SocketChannel适配为异步的发送者与接收者
+ * <p>
+ * 读写完成的回调抛出运行时异常时记录并关闭连接，避免连接因未再次注册而不再读写
+ */
+public class SocketChannelAdapter implements Sender, Receiver {
+    private static final Logger LOGGER = Logger.getLogger(SocketChannelAdapter.class);
+    // 单次读取借用的Buffer大小
+    private static final int RECEIVE_BUFFER_SIZE = 4 * 1024;
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
+    private final AtomicBoolean isClosed = new AtomicBoolean(false);
+    private final SocketChannel channel;
+    private final IoProvider ioProvider;
+    private final OnChannelStatusChangedListener listener;
+
+    private final BufferPool bufferPool = BufferPool.getDefault();
+    private final IoArgs receiveArgs = new IoArgs(EMPTY_BUFFER);
+    private IoArgs.IoArgsEventListener receiveIoEventListener;
+    private IoArgs sendArgs;
+    private IoArgs.IoArgsEventListener sendIoEventListener;
+
+    public SocketChannelAdapter(SocketChannel channel, IoProvider ioProvider,
+                                OnChannelStatusChangedListener listener) throws IOException {
+        this.channel = channel;
+        this.ioProvider = ioProvider;
+        this.listener = listener;
+
+        channel.configureBlocking(ioProvider.isBlocking());
+    }
+
+    @Override
+    public boolean receiveAsync(IoArgs.IoArgsEventListener listener) throws IOException {
+        if (isClosed.get()) {
+            throw new IOException("Current channel is closed!");
+        }
+
+        receiveIoEventListener = listener;
+        return ioProvider.registerInput(channel, inputCallback);
+    }
+
+    @Override
+    public boolean sendAsync(IoArgs args, IoArgs.IoArgsEventListener listener) throws IOException {
+        if (isClosed.get()) {
+            throw new IOException("Current channel is closed!");
+        }
+
+        sendArgs = args;
+        sendIoEventListener = listener;
+        return ioProvider.registerOutput(channel, outputCallback);
+    }
+
+    @Override
+    public void close() {
+        if (isClosed.compareAndSet(false, true)) {
+            // 解除注册回调
+            ioProvider.unRegisterInput(channel);
+            ioProvider.unRegisterOutput(channel);
+            // 关闭
+            CloseUtils.close(channel);
+            // 回调当前Channel已关闭
+            listener.onChannelClosed(channel);
+        }
+    }
+
+    private final IoProvider.HandleInputCallback inputCallback = new IoProvider.HandleInputCallback() {
+        @Override
+        protected void canProviderInput() {
+            if (isClosed.get()) {
+                return;
+            }
+
+            IoArgs args = receiveArgs;
+            IoArgs.IoArgsEventListener listener = SocketChannelAdapter.this.receiveIoEventListener;
+            listener.onStarted(args);
+
+            // 仅在读取期间借用Buffer，空闲连接不占用任何读缓冲
+            PooledBuffer pooled = bufferPool.acquire(RECEIVE_BUFFER_SIZE);
+            args.buffer(pooled.buffer());
+            try {
+                // 具体的读取操作
+                int len = args.readFrom(channel);
+                if (len > 0) {
+                    // 读取完成回调
+                    listener.onCompleted(args);
+                } else if (len < 0) {
+                    throw new IOException("Cannot read any data!");
+                }
+            } catch (IOException ignored) {
+                CloseUtils.close(SocketChannelAdapter.this);
+                return;
+            } catch (RuntimeException e) {
+                LOGGER.error("处理读取数据异常，关闭连接", e);
+                CloseUtils.close(SocketChannelAdapter.this);
+                return;
+            } finally {
+                args.buffer(EMPTY_BUFFER);
+                pooled.release();
+            }
+
+            // 继续等待下一次可读
+            if (!isClosed.get()) {
+                ioProvider.registerInput(channel, this);
+            }
+        }
+    };
+
+    private final IoProvider.HandleOutputCallback outputCallback = new IoProvider.HandleOutputCallback() {
+        @Override
+        protected void canProviderOutput() {
+            if (isClosed.get()) {
+                return;
+            }
+
+            IoArgs args = sendArgs;
+            IoArgs.IoArgsEventListener listener = sendIoEventListener;
+            listener.onStarted(args);
+
+            try {
+                // 具体的写入操作，未写完时等待下一次可写
+                args.writeTo(channel);
+                if (args.hasRemaining()) {
+                    ioProvider.registerOutput(channel, this);
+                } else {
+                    // 写入完成回调
+                    listener.onCompleted(args);
+                }
+            } catch (IOException ignored) {
+                CloseUtils.close(SocketChannelAdapter.this);
+            } catch (RuntimeException e) {
+                LOGGER.error("处理写出完成异常，关闭连接", e);
+                CloseUtils.close(SocketChannelAdapter.this);
+            }
+        }
+    };
+
+    public interface OnChannelStatusChangedListener {
+        void onChannelClosed(SocketChannel channel);
+    }
+}
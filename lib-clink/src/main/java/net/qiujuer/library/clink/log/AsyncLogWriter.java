@@ -0,0 +1,221 @@
+package net.qiujuer.library.clink.log;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 后台日志输出线程
+ * <p>
+ * 日志事件经由固定容量的无锁环形队列（多生产者单消费者）交给本线程，
+ * 消息格式化与输出都在本线程完成，调用线程只填充事件中的引用；队列满时丢弃并计数，不阻塞调用方
+ */
+class AsyncLogWriter extends Thread {
+    private static final DateTimeFormatter TIME_FORMATTER =
+            DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+    // 队列为空时的最长等待，写入方会在新事件到达时唤醒
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final PrintStream out;
+    private final int mask;
+    private final Event[] events;
+    // 每个槽位的序号：等于写入位置时可写，等于写入位置+1时可读
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final StringBuilder builder = new StringBuilder(256);
+    private long head = 0;
+    private long reportedDropped = 0;
+    private volatile boolean waiting = false;
+    private volatile boolean done = false;
+
+    AsyncLogWriter(int capacity, PrintStream out) {
+        super("Clink-AsyncLogWriter");
+        setDaemon(true);
+        // 容量向上取整到2的幂，便于取模
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.out = out;
+        this.mask = size - 1;
+        this.events = new Event[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            events[i] = new Event();
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * 由任意线程调用，参数的toString在后台线程中执行
+     */
+    void publish(LogLevel level, String loggerName, String pattern, int argCount,
+                 Object arg0, Object arg1, Object[] args, Throwable throwable) {
+        long position;
+        while (true) {
+            position = tail.get();
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (difference < 0) {
+                // 后台线程跟不上，丢弃本条
+                dropped.incrementAndGet();
+                return;
+            }
+        }
+
+        int index = (int) (position & mask);
+        Event event = events[index];
+        event.timeMillis = System.currentTimeMillis();
+        event.level = level;
+        event.loggerName = loggerName;
+        event.threadName = Thread.currentThread().getName();
+        event.pattern = pattern;
+        event.argCount = argCount;
+        event.arg0 = arg0;
+        event.arg1 = arg1;
+        event.args = args;
+        event.throwable = throwable;
+        sequences.lazySet(index, position + 1);
+
+        if (waiting) {
+            LockSupport.unpark(this);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            int count = drain();
+            if (count > 0) {
+                continue;
+            }
+            if (done) {
+                break;
+            }
+            waiting = true;
+            // 设置标记后再检查一次，避免错过刚发布的事件
+            if (!isReadable()) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            waiting = false;
+        }
+        drain();
+    }
+
+    /**
+     * 停止并输出队列中剩余的日志
+     */
+    void shutdown() {
+        done = true;
+        LockSupport.unpark(this);
+        try {
+            join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private boolean isReadable() {
+        return sequences.get((int) (head & mask)) == head + 1;
+    }
+
+    private int drain() {
+        int count = 0;
+        while (isReadable()) {
+            int index = (int) (head & mask);
+            Event event = events[index];
+            format(event);
+            event.clear();
+            sequences.lazySet(index, head + mask + 1);
+            head++;
+            count++;
+        }
+
+        long droppedCount = dropped.get();
+        if (droppedCount != reportedDropped) {
+            out.println("日志队列已满，已丢弃：" + (droppedCount - reportedDropped));
+            reportedDropped = droppedCount;
+        }
+        if (count > 0) {
+            out.flush();
+        }
+        return count;
+    }
+
+    private void format(Event event) {
+        StringBuilder builder = this.builder;
+        builder.setLength(0);
+        TIME_FORMATTER.formatTo(Instant.ofEpochMilli(event.timeMillis), builder);
+        builder.append(' ').append(event.level)
+                .append(" [").append(event.threadName).append("] ")
+                .append(event.loggerName).append(" - ");
+        appendMessage(builder, event);
+        out.println(builder);
+
+        if (event.throwable != null) {
+            StringWriter writer = new StringWriter();
+            event.throwable.printStackTrace(new PrintWriter(writer));
+            out.print(writer);
+        }
+    }
+
+    /**
+     * 将pattern中的{}依次替换为参数
+     */
+    private static void appendMessage(StringBuilder builder, Event event) {
+        String pattern = event.pattern;
+        int argIndex = 0;
+        int start = 0;
+        int index;
+        while ((index = pattern.indexOf("{}", start)) >= 0) {
+            if (argIndex >= event.argCount) {
+                break;
+            }
+            builder.append(pattern, start, index).append(argAt(event, argIndex++));
+            start = index + 2;
+        }
+        builder.append(pattern, start, pattern.length());
+    }
+
+    private static Object argAt(Event event, int index) {
+        if (event.args != null) {
+            return event.args[index];
+        }
+        return index == 0 ? event.arg0 : event.arg1;
+    }
+
+    /**
+     * 环形队列中的槽位，复用以避免每条日志分配对象
+     */
+    private static class Event {
+        long timeMillis;
+        LogLevel level;
+        String loggerName;
+        String threadName;
+        String pattern;
+        int argCount;
+        Object arg0;
+        Object arg1;
+        Object[] args;
+        Throwable throwable;
+
+        void clear() {
+            level = null;
+            loggerName = null;
+            threadName = null;
+            pattern = null;
+            arg0 = null;
+            arg1 = null;
+            args = null;
+            throwable = null;
+        }
+    }
+}
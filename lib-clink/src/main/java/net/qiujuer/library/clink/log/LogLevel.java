@@ -0,0 +1,13 @@
+package net.qiujuer.library.clink.log;
+
+/**
+ * 日志级别，低于当前阈值的日志在调用处直接返回
+ */
+public enum LogLevel {
+    DEBUG,
+    INFO,
+    WARN,
+    ERROR,
+    // 关闭所有日志
+    OFF
+}
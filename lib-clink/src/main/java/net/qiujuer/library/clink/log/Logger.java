@@ -0,0 +1,167 @@
+package net.qiujuer.library.clink.log;
+
+/**
+ * 异步日志入口
+ * <p>
+ * 使用{}占位符，格式化延迟到后台线程进行，调用处不做字符串拼接；
+ * 低于当前级别的日志在判断级别后立即返回。参数在输出前可能被修改，需传入不可变对象或其快照
+ * <p>
+ * 级别由 -Dclink.log.level 指定，默认INFO；队列容量由 -Dclink.log.bufferSize 指定
+ */
+public final class Logger {
+    private static volatile LogLevel level = parseLevel(System.getProperty("clink.log.level"));
+    private static final AsyncLogWriter WRITER = new AsyncLogWriter(
+            Integer.getInteger("clink.log.bufferSize", 8192), System.out);
+
+    static {
+        WRITER.start();
+        // 退出时输出队列中剩余的日志
+        Runtime.getRuntime().addShutdownHook(new Thread(WRITER::shutdown, "Clink-AsyncLogWriter-Shutdown"));
+    }
+
+    private final String name;
+
+    private Logger(String name) {
+        this.name = name;
+    }
+
+    public static Logger getLogger(Class<?> clazz) {
+        return new Logger(clazz.getSimpleName());
+    }
+
+    public static Logger getLogger(String name) {
+        return new Logger(name);
+    }
+
+    public static LogLevel getLevel() {
+        return level;
+    }
+
+    public static void setLevel(LogLevel level) {
+        Logger.level = level;
+    }
+
+    public boolean isEnabled(LogLevel target) {
+        return target.compareTo(level) >= 0;
+    }
+
+    public boolean isDebugEnabled() {
+        return isEnabled(LogLevel.DEBUG);
+    }
+
+    public void debug(String pattern) {
+        log(LogLevel.DEBUG, pattern);
+    }
+
+    public void debug(String pattern, Object arg) {
+        log(LogLevel.DEBUG, pattern, arg);
+    }
+
+    public void debug(String pattern, Object arg0, Object arg1) {
+        log(LogLevel.DEBUG, pattern, arg0, arg1);
+    }
+
+    public void debug(String pattern, Object... args) {
+        log(LogLevel.DEBUG, pattern, args);
+    }
+
+    public void info(String pattern) {
+        log(LogLevel.INFO, pattern);
+    }
+
+    public void info(String pattern, Object arg) {
+        log(LogLevel.INFO, pattern, arg);
+    }
+
+    public void info(String pattern, Object arg0, Object arg1) {
+        log(LogLevel.INFO, pattern, arg0, arg1);
+    }
+
+    public void info(String pattern, Object... args) {
+        log(LogLevel.INFO, pattern, args);
+    }
+
+    public void warn(String pattern) {
+        log(LogLevel.WARN, pattern);
+    }
+
+    public void warn(String pattern, Object arg) {
+        log(LogLevel.WARN, pattern, arg);
+    }
+
+    public void warn(String pattern, Object arg0, Object arg1) {
+        log(LogLevel.WARN, pattern, arg0, arg1);
+    }
+
+    public void warn(String pattern, Object... args) {
+        log(LogLevel.WARN, pattern, args);
+    }
+
+    public void error(String pattern) {
+        log(LogLevel.ERROR, pattern);
+    }
+
+    public void error(String pattern, Object arg) {
+        log(LogLevel.ERROR, pattern, arg);
+    }
+
+    public void error(String pattern, Object arg0, Object arg1) {
+        log(LogLevel.ERROR, pattern, arg0, arg1);
+    }
+
+    public void error(String pattern, Object... args) {
+        log(LogLevel.ERROR, pattern, args);
+    }
+
+    private void log(LogLevel target, String pattern) {
+        if (isEnabled(target)) {
+            WRITER.publish(target, name, pattern, 0, null, null, null, null);
+        }
+    }
+
+    /**
+     * 与常见的日志门面一致，最后一个参数为Throwable且没有对应占位符时输出其堆栈
+     */
+    private void log(LogLevel target, String pattern, Object arg) {
+        if (isEnabled(target)) {
+            if (arg instanceof Throwable && !pattern.contains("{}")) {
+                WRITER.publish(target, name, pattern, 0, null, null, null, (Throwable) arg);
+            } else {
+                WRITER.publish(target, name, pattern, 1, arg, null, null, null);
+            }
+        }
+    }
+
+    private void log(LogLevel target, String pattern, Object arg0, Object arg1) {
+        if (isEnabled(target)) {
+            if (arg1 instanceof Throwable) {
+                WRITER.publish(target, name, pattern, 1, arg0, null, null, (Throwable) arg1);
+            } else {
+                WRITER.publish(target, name, pattern, 2, arg0, arg1, null, null);
+            }
+        }
+    }
+
+    private void log(LogLevel target, String pattern, Object[] args) {
+        if (isEnabled(target)) {
+            Throwable throwable = null;
+            int argCount = args.length;
+            if (argCount > 0 && args[argCount - 1] instanceof Throwable) {
+                throwable = (Throwable) args[argCount - 1];
+                argCount--;
+            }
+            WRITER.publish(target, name, pattern, argCount, null, null, args, throwable);
+        }
+    }
+
+    private static LogLevel parseLevel(String value) {
+        if (value == null) {
+            return LogLevel.INFO;
+        }
+        try {
+            return LogLevel.valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return LogLevel.INFO;
+        }
+    }
+}
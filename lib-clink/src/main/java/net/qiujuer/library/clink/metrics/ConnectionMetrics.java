@@ -0,0 +1,105 @@
+package net.qiujuer.library.clink.metrics;
+
+import net.qiujuer.library.clink.core.OutboundQueue;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个连接的收发统计，同时累加到所属{@link Metrics}的总量中
+ */
+public class ConnectionMetrics {
+    private final Metrics metrics;
+    private final long id;
+    private final OutboundQueue outboundQueue;
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong messagesIn = new AtomicLong();
+    private final AtomicLong messagesOut = new AtomicLong();
+    // 缓存总量指标，避免每次记录都查表
+    private final LongAdder totalBytesIn;
+    private final LongAdder totalBytesOut;
+    private final LongAdder totalMessagesIn;
+    private final LongAdder totalMessagesOut;
+    private final Histogram outboundDepth;
+    private final Histogram flushMicros;
+
+    ConnectionMetrics(Metrics metrics, long id, OutboundQueue outboundQueue) {
+        this.metrics = metrics;
+        this.id = id;
+        this.outboundQueue = outboundQueue;
+        this.totalBytesIn = metrics.counter(Metrics.BYTES_IN);
+        this.totalBytesOut = metrics.counter(Metrics.BYTES_OUT);
+        this.totalMessagesIn = metrics.counter(Metrics.MESSAGES_IN);
+        this.totalMessagesOut = metrics.counter(Metrics.MESSAGES_OUT);
+        this.outboundDepth = metrics.histogram(Metrics.OUTBOUND_DEPTH);
+        this.flushMicros = metrics.histogram(Metrics.OUTBOUND_FLUSH_MICROS);
+    }
+
+    public void onBytesReceived(int bytes) {
+        bytesIn.addAndGet(bytes);
+        totalBytesIn.add(bytes);
+    }
+
+    public void onMessageReceived() {
+        messagesIn.incrementAndGet();
+        totalMessagesIn.increment();
+    }
+
+    /**
+     * 一批帧取出准备写出时调用
+     *
+     * @param depth 取出前队列中的帧数
+     */
+    public void onDrained(int depth) {
+        outboundDepth.record(depth);
+    }
+
+    /**
+     * 一批帧写出完成时调用
+     *
+     * @param enqueueNanos 每一帧的入队时间
+     */
+    public void onFlushed(int count, long bytes, long[] enqueueNanos) {
+        bytesOut.addAndGet(bytes);
+        messagesOut.addAndGet(count);
+        totalBytesOut.add(bytes);
+        totalMessagesOut.add(count);
+        long now = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            flushMicros.record((now - enqueueNanos[i]) / 1000);
+        }
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    public long getMessagesIn() {
+        return messagesIn.get();
+    }
+
+    public long getMessagesOut() {
+        return messagesOut.get();
+    }
+
+    public int getQueueDepth() {
+        return outboundQueue == null ? 0 : outboundQueue.size();
+    }
+
+    public long getDroppedCount() {
+        return outboundQueue == null ? 0 : outboundQueue.getDroppedCount();
+    }
+
+    public void close() {
+        metrics.unregister(this);
+    }
+}
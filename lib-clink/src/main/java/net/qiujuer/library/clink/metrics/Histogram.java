@@ -0,0 +1,176 @@
+package net.qiujuer.library.clink.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 线程安全的对数-线性分桶直方图（HDR风格）
+ * <p>
+ * 小于128的值精确记录；更大的值按2的幂分段，每段再线性切分为64个桶，相对误差不超过1/64。
+ * 记录仅是一次原子自增，不产生对象；超出上限的值计入最高的桶
+ */
+public class Histogram {
+    private static final int LINEAR_BUCKETS = 128;
+    private static final int SUB_BUCKETS = 64;
+    private static final int SUB_BUCKET_BITS = 6;
+
+    private final long highestTrackableValue;
+    private final AtomicLongArray counts;
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalSum = new LongAdder();
+    private final AtomicLong minValue = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong maxValue = new AtomicLong(0);
+
+    /**
+     * @param highestTrackableValue 可精确分桶的最大值，例如以微秒记录时的一小时
+     */
+    public Histogram(long highestTrackableValue) {
+        if (highestTrackableValue < LINEAR_BUCKETS) {
+            highestTrackableValue = LINEAR_BUCKETS;
+        }
+        this.highestTrackableValue = highestTrackableValue;
+        this.counts = new AtomicLongArray(indexOf(highestTrackableValue) + 1);
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(indexOf(Math.min(value, highestTrackableValue)));
+        totalCount.increment();
+        totalSum.add(value);
+        updateMin(value);
+        updateMax(value);
+    }
+
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[counts.length()];
+        long total = 0;
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+        long min = minValue.get();
+        return new Snapshot(copy, total, totalSum.sum(), min == Long.MAX_VALUE ? 0 : min, maxValue.get());
+    }
+
+    /**
+     * 清空已记录的数据，与并发的记录之间不保证原子性
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        totalCount.reset();
+        totalSum.reset();
+        minValue.set(Long.MAX_VALUE);
+        maxValue.set(0);
+    }
+
+    private void updateMin(long value) {
+        long current;
+        while (value < (current = minValue.get())) {
+            if (minValue.compareAndSet(current, value)) {
+                return;
+            }
+        }
+    }
+
+    private void updateMax(long value) {
+        long current;
+        while (value > (current = maxValue.get())) {
+            if (maxValue.compareAndSet(current, value)) {
+                return;
+            }
+        }
+    }
+
+    static int indexOf(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        // 保留最高的7位，其中最高位恒为1，剩余6位作为段内下标
+        int shift = msb - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) - SUB_BUCKETS;
+        return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * 桶内的最大值
+     */
+    static long highestValueAt(int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        int offset = index - LINEAR_BUCKETS;
+        int shift = offset / SUB_BUCKETS + 1;
+        long sub = offset % SUB_BUCKETS + SUB_BUCKETS;
+        return (sub << shift) + (1L << shift) - 1;
+    }
+
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long min;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long sum, long min, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.min = min;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMin() {
+            return min;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @param quantile 0~1，例如0.999
+         */
+        public long getValueAtQuantile(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return Math.min(highestValueAt(i), max);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count +
+                    " min=" + min +
+                    " p50=" + getValueAtQuantile(0.5) +
+                    " p99=" + getValueAtQuantile(0.99) +
+                    " p999=" + getValueAtQuantile(0.999) +
+                    " max=" + max;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package net.qiujuer.library.clink.metrics;
+
+import net.qiujuer.library.clink.core.OutboundQueue;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 指标注册表，按名称管理计数器、直方图与瞬时值，并跟踪每个连接的收发统计
+ * <p>
+ * 记录路径只涉及原子自增，读取由{@link #snapshot()}完成，再交由{@link MetricsReporter}输出
+ */
+public class Metrics {
+    // 所有连接累计收发的字节数与消息数
+    public static final String BYTES_IN = "clink.bytes.in";
+    public static final String BYTES_OUT = "clink.bytes.out";
+    public static final String MESSAGES_IN = "clink.messages.in";
+    public static final String MESSAGES_OUT = "clink.messages.out";
+    // 每次写出前待发送队列的深度
+    public static final String OUTBOUND_DEPTH = "clink.outbound.depth";
+    // 帧从入队到写出完成的时延，单位微秒
+    public static final String OUTBOUND_FLUSH_MICROS = "clink.outbound.flushMicros";
+    // 压缩后比原文少写出的字节数
+    public static final String COMPRESSION_SAVED_BYTES = "clink.compression.savedBytes";
+
+    // 直方图默认可记录到一分钟（微秒）
+    private static final long DEFAULT_HIGHEST_VALUE = TimeUnit.MINUTES.toMicros(1);
+    private static final Metrics DEFAULT = new Metrics();
+
+    private final long startNanos = System.nanoTime();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final Map<Long, ConnectionMetrics> connections = new ConcurrentHashMap<>();
+
+    public static Metrics getDefault() {
+        return DEFAULT;
+    }
+
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    public Histogram histogram(String name) {
+        return histogram(name, DEFAULT_HIGHEST_VALUE);
+    }
+
+    public Histogram histogram(String name, long highestTrackableValue) {
+        return histograms.computeIfAbsent(name, key -> new Histogram(highestTrackableValue));
+    }
+
+    /**
+     * 注册一个瞬时值，在生成快照时读取
+     */
+    public void gauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    /**
+     * 为一个连接创建统计，连接关闭时需调用{@link ConnectionMetrics#close()}
+     */
+    public ConnectionMetrics connection(long id, OutboundQueue outboundQueue) {
+        ConnectionMetrics metrics = new ConnectionMetrics(this, id, outboundQueue);
+        connections.put(id, metrics);
+        return metrics;
+    }
+
+    void unregister(ConnectionMetrics metrics) {
+        connections.remove(metrics.getId(), metrics);
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * 所有连接待发送队列中的消息总数，开销与连接数相关
+     */
+    public long getOutboundQueued() {
+        long total = 0;
+        for (ConnectionMetrics metrics : connections.values()) {
+            total += metrics.getQueueDepth();
+        }
+        return total;
+    }
+
+    public MetricsSnapshot snapshot() {
+        return new MetricsSnapshot(System.nanoTime() - startNanos, counters, histograms, gauges,
+                connections.values());
+    }
+}
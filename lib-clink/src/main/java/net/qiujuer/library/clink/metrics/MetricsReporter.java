@@ -0,0 +1,10 @@
+package net.qiujuer.library.clink.metrics;
+
+import java.io.Closeable;
+
+/**
+ * 指标输出方式，例如定时打印或对外提供查询
+ */
+public interface MetricsReporter extends Closeable {
+    void start();
+}
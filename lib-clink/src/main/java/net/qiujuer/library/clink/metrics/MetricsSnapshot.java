@@ -0,0 +1,158 @@
+package net.qiujuer.library.clink.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 某一时刻的指标快照，与上一份快照比较即可得到速率
+ */
+public class MetricsSnapshot {
+    // 输出时列出的流量最大的连接数
+    private static final int TOP_CONNECTIONS = 10;
+
+    private final long uptimeNanos;
+    private final Map<String, Long> counters = new TreeMap<>();
+    private final Map<String, Histogram.Snapshot> histograms = new TreeMap<>();
+    private final Map<String, Long> gauges = new TreeMap<>();
+    private final int connectionCount;
+    private final long totalQueueDepth;
+    private final long maxQueueDepth;
+    private final List<Connection> topConnections;
+
+    MetricsSnapshot(long uptimeNanos, Map<String, LongAdder> counters, Map<String, Histogram> histograms,
+                    Map<String, LongSupplier> gauges, Collection<ConnectionMetrics> connections) {
+        this.uptimeNanos = uptimeNanos;
+        counters.forEach((name, adder) -> this.counters.put(name, adder.sum()));
+        histograms.forEach((name, histogram) -> this.histograms.put(name, histogram.snapshot()));
+        gauges.forEach((name, supplier) -> this.gauges.put(name, supplier.getAsLong()));
+
+        List<Connection> list = new ArrayList<>(connections.size());
+        long total = 0;
+        long max = 0;
+        for (ConnectionMetrics metrics : connections) {
+            Connection connection = new Connection(metrics);
+            total += connection.queueDepth;
+            max = Math.max(max, connection.queueDepth);
+            list.add(connection);
+        }
+        list.sort((o1, o2) -> Long.compare(o2.bytesIn + o2.bytesOut, o1.bytesIn + o1.bytesOut));
+        this.connectionCount = list.size();
+        this.totalQueueDepth = total;
+        this.maxQueueDepth = max;
+        this.topConnections = Collections.unmodifiableList(
+                new ArrayList<>(list.subList(0, Math.min(TOP_CONNECTIONS, list.size()))));
+    }
+
+    public long getUptimeNanos() {
+        return uptimeNanos;
+    }
+
+    public long getCounter(String name) {
+        Long value = counters.get(name);
+        return value == null ? 0 : value;
+    }
+
+    public Histogram.Snapshot getHistogram(String name) {
+        return histograms.get(name);
+    }
+
+    public Long getGauge(String name) {
+        return gauges.get(name);
+    }
+
+    public int getConnectionCount() {
+        return connectionCount;
+    }
+
+    public List<Connection> getTopConnections() {
+        return topConnections;
+    }
+
+    /**
+     * 相对于上一份快照的每秒速率，没有上一份时按启动以来的平均值计算
+     */
+    public double rate(String name, MetricsSnapshot previous) {
+        long elapsed = previous == null ? uptimeNanos : uptimeNanos - previous.uptimeNanos;
+        if (elapsed <= 0) {
+            return 0;
+        }
+        long delta = getCounter(name) - (previous == null ? 0 : previous.getCounter(name));
+        return delta * 1e9 / elapsed;
+    }
+
+    /**
+     * 转换为逐行的文本格式，便于控制台查看或被脚本解析
+     */
+    public String format(MetricsSnapshot previous) {
+        StringBuilder builder = new StringBuilder(1024);
+        builder.append(String.format(Locale.ROOT, "uptime %.1fs%n", uptimeNanos / 1e9));
+        for (Map.Entry<String, Long> entry : counters.entrySet()) {
+            builder.append(String.format(Locale.ROOT, "counter %s total=%d rate=%.1f/s%n",
+                    entry.getKey(), entry.getValue(), rate(entry.getKey(), previous)));
+        }
+        for (Map.Entry<String, Long> entry : gauges.entrySet()) {
+            builder.append("gauge ").append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        builder.append("gauge clink.connections ").append(connectionCount).append('\n');
+        builder.append("gauge clink.outbound.queued ").append(totalQueueDepth).append('\n');
+        builder.append("gauge clink.outbound.maxQueued ").append(maxQueueDepth).append('\n');
+        for (Map.Entry<String, Histogram.Snapshot> entry : histograms.entrySet()) {
+            Histogram.Snapshot snapshot = entry.getValue();
+            builder.append(String.format(Locale.ROOT,
+                    "histogram %s count=%d min=%d mean=%.1f p50=%d p99=%d p999=%d max=%d%n",
+                    entry.getKey(), snapshot.getCount(), snapshot.getMin(), snapshot.getMean(),
+                    snapshot.getValueAtQuantile(0.5), snapshot.getValueAtQuantile(0.99),
+                    snapshot.getValueAtQuantile(0.999), snapshot.getMax()));
+        }
+        for (Connection connection : topConnections) {
+            builder.append("connection ").append(connection).append('\n');
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        return format(null);
+    }
+
+    /**
+     * 单个连接在快照时刻的统计
+     */
+    public static class Connection {
+        public final long id;
+        public final long bytesIn;
+        public final long bytesOut;
+        public final long messagesIn;
+        public final long messagesOut;
+        public final int queueDepth;
+        public final long dropped;
+
+        Connection(ConnectionMetrics metrics) {
+            this.id = metrics.getId();
+            this.bytesIn = metrics.getBytesIn();
+            this.bytesOut = metrics.getBytesOut();
+            this.messagesIn = metrics.getMessagesIn();
+            this.messagesOut = metrics.getMessagesOut();
+            this.queueDepth = metrics.getQueueDepth();
+            this.dropped = metrics.getDroppedCount();
+        }
+
+        @Override
+        public String toString() {
+            return "id=" + id +
+                    " bytesIn=" + bytesIn +
+                    " bytesOut=" + bytesOut +
+                    " messagesIn=" + messagesIn +
+                    " messagesOut=" + messagesOut +
+                    " queued=" + queueDepth +
+                    " dropped=" + dropped;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package net.qiujuer.library.clink.metrics;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按固定间隔生成快照并输出，速率按两次快照之间的差值计算
+ * <p>
+ * 输出线程在{@link #start()}时创建
+ */
+public class PeriodicReporter implements MetricsReporter {
+    private final Metrics metrics;
+    private final long intervalMillis;
+    private final PrintStream out;
+    private volatile boolean done = false;
+    private volatile Thread thread;
+
+    public PeriodicReporter(Metrics metrics, long interval, TimeUnit unit, PrintStream out) {
+        this.metrics = metrics;
+        this.intervalMillis = unit.toMillis(interval);
+        this.out = out;
+    }
+
+    @Override
+    public synchronized void start() {
+        Thread thread = new Thread(this::run, "Metrics-PeriodicReporter");
+        thread.setDaemon(true);
+        this.thread = thread;
+        thread.start();
+    }
+
+    private void run() {
+        MetricsSnapshot previous = metrics.snapshot();
+        while (!done) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                break;
+            }
+            MetricsSnapshot current = metrics.snapshot();
+            out.print(current.format(previous));
+            previous = current;
+        }
+    }
+
+    @Override
+    public void close() {
+        done = true;
+        Thread thread = this.thread;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package net.qiujuer.library.clink.metrics;
+
+import net.qiujuer.library.clink.log.Logger;
+import net.qiujuer.library.clink.utils.CloseUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 在本机回环地址上提供文本格式的指标查询，兼容HTTP请求，可直接用curl访问
+ * <p>
+ * 速率按相邻两次查询之间的差值计算；监听与处理线程在{@link #start()}时创建
+ */
+public class TextEndpointReporter implements MetricsReporter {
+    private static final Logger LOGGER = Logger.getLogger(TextEndpointReporter.class);
+    // 读取请求头的超时，避免异常客户端占住线程
+    private static final int READ_TIMEOUT_MILLIS = 1000;
+
+    private final Metrics metrics;
+    private final int port;
+    private volatile boolean done = false;
+    private ServerSocket server;
+    private MetricsSnapshot previous;
+
+    public TextEndpointReporter(Metrics metrics, int port) {
+        this.metrics = metrics;
+        this.port = port;
+    }
+
+    @Override
+    public synchronized void start() {
+        try {
+            server = new ServerSocket(port, 8, InetAddress.getLoopbackAddress());
+        } catch (IOException e) {
+            LOGGER.error("指标查询服务启动失败：{}", e.getMessage());
+            return;
+        }
+        LOGGER.info("指标查询服务：{}", server.getLocalSocketAddress());
+        Thread thread = new Thread(this::run, "Metrics-TextEndpoint");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getLocalPort() {
+        return server == null ? -1 : server.getLocalPort();
+    }
+
+    private void run() {
+        while (!done) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                break;
+            }
+            try {
+                respond(socket);
+            } catch (IOException ignored) {
+            } finally {
+                CloseUtils.close(socket);
+            }
+        }
+    }
+
+    private void respond(Socket socket) throws IOException {
+        socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+        // 读完请求头再回复，否则关闭时未读数据会导致连接被重置
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                StandardCharsets.US_ASCII));
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            // 忽略请求内容
+        }
+
+        MetricsSnapshot current = metrics.snapshot();
+        byte[] body = current.format(previous).getBytes(StandardCharsets.UTF_8);
+        previous = current;
+
+        String header = "HTTP/1.0 200 OK\r\n" +
+                "Content-Type: text/plain; charset=utf-8\r\n" +
+                "Content-Length: " + body.length + "\r\n" +
+                "\r\n";
+        OutputStream outputStream = socket.getOutputStream();
+        outputStream.write(header.getBytes(StandardCharsets.US_ASCII));
+        outputStream.write(body);
+        outputStream.flush();
+    }
+
+    @Override
+    public void close() {
+        done = true;
+        CloseUtils.close(server);
+    }
+}
@@ -0,0 +1,310 @@
+package net.qiujuer.library.clink.store;
+
+import net.qiujuer.library.clink.frame.SharedFrame;
+import net.qiujuer.library.clink.log.Logger;
+import net.qiujuer.library.clink.metrics.Histogram;
+import net.qiujuer.library.clink.metrics.Metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 合并提交的日志写入线程
+ * <p>
+ * 任意线程调用{@link #append}只把记录放入待写列表并得到序号，不等待磁盘；本线程一次取走整个列表写入各个
+ * {@link MessageLog}，按{@link Durability}决定何时将映射区域刷到磁盘，一次刷盘覆盖这一批的所有记录。
+ * 需要确认落盘的调用方通过{@link #awaitDurable}等待，该请求在任何模式下都会触发一次刷盘
+ * <p>
+ * 待写记录超过上限时append直接丢弃并计数，磁盘跟不上时不会阻塞调用方；{@link #awaitDurable}是唯一会等待的调用。
+ * 写入线程由{@link #start()}创建
+ */
+public class GroupCommitWriter {
+    private static final Logger LOGGER = Logger.getLogger(GroupCommitWriter.class);
+
+    private final String name;
+    private final Durability durability;
+    private final long intervalNanos;
+    private final int maxPending;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition durable = lock.newCondition();
+    // 生产者写入pending，本线程与其交换后写出，两个列表交替使用
+    private ArrayList<Entry> pending = new ArrayList<>();
+    private ArrayList<Entry> writing = new ArrayList<>();
+    private long sequence = 0;
+    private volatile long durableSequence = 0;
+    // 已写入日志映射区域的最大序号，不一定已刷盘
+    private volatile long writtenSequence = 0;
+    // 调用方要求落盘的最大序号
+    private volatile long syncRequest = 0;
+    // 已写入映射区域但尚未刷盘的日志，仅本线程访问
+    private final Set<MessageLog> dirty = new HashSet<>();
+    private long lastFlushNanos = System.nanoTime();
+    private volatile boolean done = false;
+    private volatile Thread thread;
+
+    private final LongAdder appendCounter;
+    private final LongAdder syncCounter;
+    private final LongAdder droppedCounter;
+    private final LongAdder errorCounter;
+    private final Histogram batchSize;
+    private final Histogram syncMicros;
+
+    /**
+     * @param interval   {@link Durability#INTERVAL}模式下的刷盘间隔
+     * @param maxPending 待写记录的上限
+     */
+    public GroupCommitWriter(String name, Durability durability, long interval, TimeUnit unit, int maxPending) {
+        this.name = name;
+        this.durability = durability;
+        this.intervalNanos = unit.toNanos(interval);
+        this.maxPending = maxPending;
+
+        Metrics metrics = Metrics.getDefault();
+        this.appendCounter = metrics.counter("store.commit.appends");
+        this.syncCounter = metrics.counter("store.commit.syncs");
+        this.droppedCounter = metrics.counter("store.commit.dropped");
+        this.errorCounter = metrics.counter("store.commit.errors");
+        this.batchSize = metrics.histogram("store.commit.batchSize");
+        this.syncMicros = metrics.histogram("store.commit.syncMicros");
+    }
+
+    /**
+     * 启动写入线程，需在第一次{@link #append}之前调用
+     */
+    public synchronized void start() {
+        Thread thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        this.thread = thread;
+        thread.start();
+    }
+
+    /**
+     * 提交一条记录，frame在写入后释放，调用方仍需释放自己的引用
+     *
+     * @return 该记录的序号，用于{@link #awaitDurable}；已停止或待写记录已满被丢弃时返回-1
+     */
+    public long append(MessageLog log, long timestamp, SharedFrame frame) {
+        lock.lock();
+        try {
+            if (done) {
+                return -1;
+            }
+            if (pending.size() >= maxPending) {
+                droppedCounter.increment();
+                return -1;
+            }
+            pending.add(new Entry(log, timestamp, frame.retain()));
+            // 本线程只在列表为空时等待
+            if (pending.size() == 1) {
+                notEmpty.signal();
+            }
+            return ++sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 等待序号不大于sequence的记录全部刷到磁盘
+     *
+     * @return false 超时或已停止
+     */
+    public boolean awaitDurable(long sequence, long timeout, TimeUnit unit) {
+        if (durableSequence >= sequence) {
+            return true;
+        }
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            if (syncRequest < sequence) {
+                syncRequest = sequence;
+                notEmpty.signal();
+            }
+            while (durableSequence < sequence) {
+                if (nanos <= 0 || (done && !isRunning())) {
+                    return false;
+                }
+                nanos = durable.awaitNanos(nanos);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDurableSequence() {
+        return durableSequence;
+    }
+
+    /**
+     * 序号不大于该值的记录已交给{@link MessageLog}，写线程不会再访问对应的日志
+     */
+    public long getWrittenSequence() {
+        return writtenSequence;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    private void run() {
+        while (true) {
+            long batchEnd;
+            boolean exit;
+            lock.lock();
+            try {
+                awaitWork();
+                exit = done && pending.isEmpty();
+                ArrayList<Entry> batch = pending;
+                pending = writing;
+                writing = batch;
+                batchEnd = sequence;
+            } finally {
+                lock.unlock();
+            }
+
+            write(writing);
+            writtenSequence = batchEnd;
+            long now = System.nanoTime();
+            if (exit || shouldFlush(now)) {
+                flush(batchEnd, now);
+            }
+            if (exit) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 停止接收新记录，写完并刷盘剩余的记录后退出
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            done = true;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        Thread thread = this.thread;
+        if (thread == null) {
+            return;
+        }
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private boolean isRunning() {
+        Thread thread = this.thread;
+        return thread != null && thread.isAlive();
+    }
+
+    private void awaitWork() {
+        while (pending.isEmpty() && !done && syncRequest <= durableSequence) {
+            if (durability == Durability.INTERVAL && !dirty.isEmpty()) {
+                // 有未刷盘的数据，最多等到下一个刷盘时间点
+                long wait = lastFlushNanos + intervalNanos - System.nanoTime();
+                if (wait <= 0) {
+                    return;
+                }
+                try {
+                    notEmpty.awaitNanos(wait);
+                } catch (InterruptedException ignored) {
+                }
+            } else {
+                notEmpty.awaitUninterruptibly();
+            }
+        }
+    }
+
+    private void write(ArrayList<Entry> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        batchSize.record(batch.size());
+        for (Entry entry : batch) {
+            try {
+                entry.log.append(entry.timestamp, entry.frame.view());
+                dirty.add(entry.log);
+            } catch (IOException e) {
+                errorCounter.increment();
+                LOGGER.warn("写入日志失败：{}", e.getMessage());
+            } finally {
+                entry.frame.release();
+            }
+        }
+        appendCounter.add(batch.size());
+        batch.clear();
+    }
+
+    private boolean shouldFlush(long now) {
+        if (syncRequest > durableSequence) {
+            return true;
+        }
+        switch (durability) {
+            case PER_BATCH:
+                return true;
+            case INTERVAL:
+                return now - lastFlushNanos >= intervalNanos;
+            case OS:
+            default:
+                // 由操作系统决定何时写回
+                return false;
+        }
+    }
+
+    private void flush(long batchEnd, long now) {
+        if (!dirty.isEmpty()) {
+            for (MessageLog log : dirty) {
+                log.flush();
+            }
+            dirty.clear();
+            syncCounter.increment();
+            syncMicros.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - now));
+        }
+        lastFlushNanos = now;
+        lock.lock();
+        try {
+            durableSequence = batchEnd;
+            durable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 刷盘时机
+     */
+    public enum Durability {
+        // 每写完一批刷盘一次
+        PER_BATCH,
+        // 按固定间隔刷盘，期间宕机最多丢失一个间隔的数据
+        INTERVAL,
+        // 不主动刷盘，由操作系统写回
+        OS
+    }
+
+    private static class Entry {
+        private final MessageLog log;
+        private final long timestamp;
+        private final SharedFrame frame;
+
+        Entry(MessageLog log, long timestamp, SharedFrame frame) {
+            this.log = log;
+            this.timestamp = timestamp;
+            this.frame = frame;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package net.qiujuer.library.clink.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 日志的一个分段，数据文件与索引文件均以固定大小映射到内存
+ * <pre>
+ * 记录：| length (4B) | offset (8B) | timestamp (8B) | payload (length B) |
+ * 索引：| relativeOffset (4B) | position (4B) |
+ * </pre>
+ * 每写入indexIntervalBytes字节的数据记录一条稀疏索引；数据文件预分配，length为0处即为末尾。
+ * 仅有一个写线程，读线程只读取writePosition之前的数据
+ */
+class LogSegment {
+    static final int RECORD_HEADER_LENGTH = 20;
+    private static final int INDEX_ENTRY_LENGTH = 8;
+
+    private final long baseOffset;
+    private final Path logPath;
+    private final Path indexPath;
+    private final MappedByteBuffer log;
+    private final MappedByteBuffer index;
+    private final int indexIntervalBytes;
+    private final int maxIndexEntries;
+    // 写线程独占的视图
+    private final ByteBuffer writer;
+
+    private volatile int writePosition = 0;
+    private volatile int indexEntries = 0;
+    private volatile long nextOffset;
+    private volatile long firstTimestamp = -1;
+    private volatile long lastTimestamp = -1;
+    private int bytesSinceIndex = 0;
+
+    private LogSegment(Path dir, long baseOffset, int segmentBytes, int indexIntervalBytes) throws IOException {
+        this.baseOffset = baseOffset;
+        this.nextOffset = baseOffset;
+        this.logPath = dir.resolve(fileName(baseOffset, ".log"));
+        this.indexPath = dir.resolve(fileName(baseOffset, ".index"));
+        this.indexIntervalBytes = indexIntervalBytes;
+        this.maxIndexEntries = segmentBytes / Math.max(indexIntervalBytes, RECORD_HEADER_LENGTH) + 1;
+        this.log = map(logPath, segmentBytes);
+        this.index = map(indexPath, maxIndexEntries * INDEX_ENTRY_LENGTH);
+        this.writer = log.duplicate();
+    }
+
+    static LogSegment create(Path dir, long baseOffset, int segmentBytes, int indexIntervalBytes) throws IOException {
+        return new LogSegment(dir, baseOffset, segmentBytes, indexIntervalBytes);
+    }
+
+    /**
+     * 打开已存在的分段，从最后一条索引处向后扫描，恢复写位置与未写入索引的记录
+     */
+    static LogSegment open(Path dir, long baseOffset, int segmentBytes, int indexIntervalBytes) throws IOException {
+        LogSegment segment = new LogSegment(dir, baseOffset, segmentBytes, indexIntervalBytes);
+        segment.recover();
+        return segment;
+    }
+
+    static String fileName(long baseOffset, String suffix) {
+        return String.format("%020d%s", baseOffset, suffix);
+    }
+
+    private static MappedByteBuffer map(Path path, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // 映射建立后不依赖通道，关闭通道不影响读写
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private void recover() {
+        // 第一条索引固定为(0, 0)，之后的索引位置均大于0
+        int entries = 0;
+        while (entries < maxIndexEntries) {
+            int position = index.getInt(entries * INDEX_ENTRY_LENGTH + 4);
+            if (entries > 0 && position == 0) {
+                break;
+            }
+            entries++;
+        }
+        int position = 0;
+        long offset = baseOffset;
+        if (entries > 0) {
+            int last = (entries - 1) * INDEX_ENTRY_LENGTH;
+            offset = baseOffset + index.getInt(last);
+            position = index.getInt(last + 4);
+        }
+        indexEntries = entries;
+
+        // 起点的记录已有索引
+        boolean indexed = entries > 0;
+        while (position + RECORD_HEADER_LENGTH <= log.capacity()) {
+            int length = log.getInt(position);
+            if (length <= 0 || position + RECORD_HEADER_LENGTH + length > log.capacity()
+                    || log.getLong(position + 4) != offset) {
+                break;
+            }
+            long timestamp = log.getLong(position + 12);
+            if (!indexed) {
+                maybeIndex(offset, position);
+            }
+            indexed = false;
+            bytesSinceIndex += RECORD_HEADER_LENGTH + length;
+            position += RECORD_HEADER_LENGTH + length;
+            offset++;
+            lastTimestamp = timestamp;
+        }
+
+        // 去掉指向末尾之后的索引，通常是写入记录前进程异常退出
+        int valid = indexEntries;
+        while (valid > 0 && index.getInt((valid - 1) * INDEX_ENTRY_LENGTH + 4) >= position && position > 0) {
+            valid--;
+        }
+        if (position == 0) {
+            valid = 0;
+        }
+        for (int i = valid; i < indexEntries; i++) {
+            index.putLong(i * INDEX_ENTRY_LENGTH, 0);
+        }
+        indexEntries = valid;
+        writePosition = position;
+        nextOffset = offset;
+        if (position > 0) {
+            firstTimestamp = log.getLong(12);
+        }
+    }
+
+    /**
+     * 追加一条记录，空间不足时返回false
+     */
+    boolean append(long offset, long timestamp, ByteBuffer payload) {
+        int length = payload.remaining();
+        int position = writePosition;
+        if (position + RECORD_HEADER_LENGTH + length > log.capacity()) {
+            return false;
+        }
+        maybeIndex(offset, position);
+
+        writer.position(position + 4);
+        writer.putLong(offset);
+        writer.putLong(timestamp);
+        writer.put(payload.duplicate());
+        // 最后写入长度，扫描时长度不为0即表示记录完整
+        writer.putInt(position, length);
+
+        bytesSinceIndex += RECORD_HEADER_LENGTH + length;
+        if (firstTimestamp < 0) {
+            firstTimestamp = timestamp;
+        }
+        lastTimestamp = timestamp;
+        nextOffset = offset + 1;
+        // 最后发布写位置，读线程据此判断可读范围
+        writePosition = position + RECORD_HEADER_LENGTH + length;
+        return true;
+    }
+
+    private void maybeIndex(long offset, int position) {
+        if (indexEntries > 0 && bytesSinceIndex < indexIntervalBytes) {
+            return;
+        }
+        if (indexEntries >= maxIndexEntries) {
+            return;
+        }
+        int entry = indexEntries * INDEX_ENTRY_LENGTH;
+        index.putInt(entry, (int) (offset - baseOffset));
+        index.putInt(entry + 4, position);
+        indexEntries++;
+        bytesSinceIndex = 0;
+    }
+
+    /**
+     * 从不小于fromOffset的第一条记录开始读取，payload为映射区域的只读切片，不拷贝到堆内存
+     *
+     * @return 读取的记录数
+     */
+    int read(long fromOffset, int maxCount, MessageLog.RecordConsumer consumer) {
+        int limit = writePosition;
+        ByteBuffer view = log.duplicate();
+        int position = lookup(fromOffset);
+        int count = 0;
+        while (position < limit && count < maxCount) {
+            int length = view.getInt(position);
+            long offset = view.getLong(position + 4);
+            if (offset >= fromOffset) {
+                long timestamp = view.getLong(position + 12);
+                view.limit(position + RECORD_HEADER_LENGTH + length);
+                view.position(position + RECORD_HEADER_LENGTH);
+                consumer.onRecord(offset, timestamp, view.slice().asReadOnlyBuffer());
+                view.clear();
+                count++;
+            }
+            position += RECORD_HEADER_LENGTH + length;
+        }
+        return count;
+    }
+
+    /**
+     * 二分查找不大于offset的最后一条索引，返回其位置
+     */
+    private int lookup(long offset) {
+        int low = 0;
+        int high = indexEntries - 1;
+        int position = 0;
+        long relative = offset - baseOffset;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int entry = mid * INDEX_ENTRY_LENGTH;
+            if (index.getInt(entry) <= relative) {
+                position = index.getInt(entry + 4);
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return position;
+    }
+
+    void flush() {
+        log.force();
+        index.force();
+    }
+
+    void delete() throws IOException {
+        // 映射在被回收前仍然有效，正在进行的读取不受影响
+        Files.deleteIfExists(logPath);
+        Files.deleteIfExists(indexPath);
+    }
+
+    boolean isEmpty() {
+        return writePosition == 0;
+    }
+
+    long getBaseOffset() {
+        return baseOffset;
+    }
+
+    long getNextOffset() {
+        return nextOffset;
+    }
+
+    long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    int getSize() {
+        return writePosition;
+    }
+}
@@ -0,0 +1,261 @@
+package net.qiujuer.library.clink.store;
+
+import net.qiujuer.library.clink.log.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * 只追加的分段消息日志
+ * <p>
+ * 每条记录分配一个连续递增的offset；数据写入内存映射的分段文件，分段写满或超过滚动时间后新建分段，
+ * 最后一条记录早于保留时间的分段被删除。读取直接返回映射区域的切片，历史数据不会被载入堆内存
+ * <p>
+ * 追加串行执行，读取可与追加并发
+ */
+public class MessageLog implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(MessageLog.class);
+    private static final String LOG_SUFFIX = ".log";
+
+    private final Path dir;
+    private final Config config;
+    private final ConcurrentSkipListMap<Long, LogSegment> segments = new ConcurrentSkipListMap<>();
+    private volatile LogSegment active;
+
+    private MessageLog(Path dir, Config config) {
+        this.dir = dir;
+        this.config = config;
+    }
+
+    /**
+     * 打开目录下已有的分段，目录不存在时创建
+     */
+    public static MessageLog open(Path dir, Config config) throws IOException {
+        Files.createDirectories(dir);
+        MessageLog messageLog = new MessageLog(dir, config);
+        messageLog.load();
+        return messageLog;
+    }
+
+    private void load() throws IOException {
+        List<Long> baseOffsets = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + LOG_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    baseOffsets.add(Long.parseLong(name.substring(0, name.length() - LOG_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    LOGGER.warn("忽略无法识别的日志文件：{}", path);
+                }
+            }
+        }
+        for (long baseOffset : baseOffsets) {
+            segments.put(baseOffset, LogSegment.open(dir, baseOffset, config.segmentBytes, config.indexIntervalBytes));
+        }
+        if (segments.isEmpty()) {
+            LogSegment segment = LogSegment.create(dir, 0, config.segmentBytes, config.indexIntervalBytes);
+            segments.put(0L, segment);
+        }
+        active = segments.lastEntry().getValue();
+    }
+
+    /**
+     * 追加一条记录，payload的读位置不变
+     *
+     * @return 该记录的offset
+     */
+    public synchronized long append(long timestamp, ByteBuffer payload) throws IOException {
+        if (LogSegment.RECORD_HEADER_LENGTH + payload.remaining() > config.segmentBytes) {
+            throw new IOException("Record too large: " + payload.remaining());
+        }
+        LogSegment segment = active;
+        if (!segment.isEmpty() && timestamp - segment.getFirstTimestamp() >= config.rollMillis) {
+            segment = roll(timestamp);
+        }
+        long offset = segment.getNextOffset();
+        if (!segment.append(offset, timestamp, payload)) {
+            // 当前分段已满
+            segment = roll(timestamp);
+            segment.append(offset, timestamp, payload);
+        }
+        return offset;
+    }
+
+    /**
+     * 读取offset不小于fromOffset的至多maxCount条记录，早于保留范围的offset从最早的记录开始
+     *
+     * @return 读取的记录数
+     */
+    public int read(long fromOffset, int maxCount, RecordConsumer consumer) {
+        Map.Entry<Long, LogSegment> entry = segments.floorEntry(fromOffset);
+        Long key = entry == null ? segments.firstKey() : entry.getKey();
+        int count = 0;
+        for (LogSegment segment : segments.tailMap(key).values()) {
+            if (count >= maxCount) {
+                break;
+            }
+            count += segment.read(fromOffset, maxCount - count, consumer);
+        }
+        return count;
+    }
+
+    /**
+     * 读取最近的count条记录
+     */
+    public int readLast(int count, RecordConsumer consumer) {
+        long from = Math.max(getStartOffset(), getNextOffset() - count);
+        return read(from, count, consumer);
+    }
+
+    /**
+     * 最早一条仍保留的记录的offset
+     */
+    public long getStartOffset() {
+        return segments.firstKey();
+    }
+
+    /**
+     * 下一条记录将分配的offset
+     */
+    public long getNextOffset() {
+        return active.getNextOffset();
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * 删除最后一条记录早于保留时间的分段，当前写入的分段不会被删除
+     *
+     * @return 删除的分段数
+     */
+    public synchronized int applyRetention(long now) {
+        int deleted = 0;
+        for (LogSegment segment : segments.values()) {
+            if (segment == active || now - segment.getLastTimestamp() < config.retentionMillis) {
+                break;
+            }
+            segments.remove(segment.getBaseOffset());
+            try {
+                segment.delete();
+            } catch (IOException e) {
+                LOGGER.warn("删除日志分段失败：{} {}", segment.getBaseOffset(), e.getMessage());
+            }
+            deleted++;
+        }
+        return deleted;
+    }
+
+    /**
+     * 没有任何记录，或所有记录（包括当前分段中的）都早于保留时间
+     */
+    public boolean isExpired(long now) {
+        LogSegment segment = active;
+        if (segment.isEmpty()) {
+            return segments.size() == 1;
+        }
+        return now - segment.getLastTimestamp() >= config.retentionMillis;
+    }
+
+    /**
+     * 删除所有分段文件与目录，之后不能再追加；已映射的数据在对象回收前仍可读取
+     */
+    public synchronized void delete() throws IOException {
+        for (LogSegment segment : segments.values()) {
+            segment.delete();
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    /**
+     * 将映射区域中的修改写入磁盘，之前的分段在滚动时已经刷盘，这里只处理当前分段
+     */
+    public void flush() {
+        active.flush();
+    }
+
+    @Override
+    public void close() {
+        // 映射随对象回收释放，这里只保证数据落盘
+        active.flush();
+    }
+
+    private LogSegment roll(long timestamp) throws IOException {
+        LogSegment previous = active;
+        previous.flush();
+        LogSegment segment = LogSegment.create(dir, previous.getNextOffset(),
+                config.segmentBytes, config.indexIntervalBytes);
+        segments.put(segment.getBaseOffset(), segment);
+        active = segment;
+        applyRetention(timestamp);
+        return segment;
+    }
+
+    public interface RecordConsumer {
+        /**
+         * payload为映射区域的只读切片，在对应分段被删除后仍可读取
+         */
+        void onRecord(long offset, long timestamp, ByteBuffer payload);
+    }
+
+    public static class Config {
+        public static final Config DEFAULT = new Config(8 * 1024 * 1024, 4096,
+                60 * 60 * 1000L, 7 * 24 * 60 * 60 * 1000L);
+
+        private final int segmentBytes;
+        private final int indexIntervalBytes;
+        private final long rollMillis;
+        private final long retentionMillis;
+
+        /**
+         * @param segmentBytes       单个分段的大小，创建时即映射该大小
+         * @param indexIntervalBytes 每写入多少字节记录一条索引
+         * @param rollMillis         分段中第一条记录超过该时长后新建分段
+         * @param retentionMillis    分段中最后一条记录超过该时长后删除该分段
+         */
+        public Config(int segmentBytes, int indexIntervalBytes, long rollMillis, long retentionMillis) {
+            if (segmentBytes <= LogSegment.RECORD_HEADER_LENGTH || indexIntervalBytes <= 0) {
+                throw new IllegalArgumentException("Invalid segmentBytes or indexIntervalBytes");
+            }
+            this.segmentBytes = segmentBytes;
+            this.indexIntervalBytes = indexIntervalBytes;
+            this.rollMillis = rollMillis;
+            this.retentionMillis = retentionMillis;
+        }
+
+        public int getSegmentBytes() {
+            return segmentBytes;
+        }
+
+        public int getIndexIntervalBytes() {
+            return indexIntervalBytes;
+        }
+
+        public long getRollMillis() {
+            return rollMillis;
+        }
+
+        public long getRetentionMillis() {
+            return retentionMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "Config{" +
+                    "segmentBytes=" + segmentBytes +
+                    ", indexIntervalBytes=" + indexIntervalBytes +
+                    ", rollMillis=" + rollMillis +
+                    ", retentionMillis=" + retentionMillis +
+                    '}';
+        }
+    }
+}
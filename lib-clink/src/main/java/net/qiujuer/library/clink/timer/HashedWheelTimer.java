@@ -0,0 +1,289 @@
+package net.qiujuer.library.clink.timer;
+
+import net.qiujuer.library.clink.log.Logger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 哈希时间轮定时器，适合大量精度要求不高的超时任务（如连接空闲检测）
+ * <p>
+ * 时间轮由2的幂个槽位组成，每个槽位是一个双向链表；新增与取消都只是入队O(1)，
+ * 由单个工作线程每个tick将新任务放入对应槽位、摘除已取消的任务并执行当前槽位中到期的任务。
+ * 超出一圈的任务记录剩余圈数，每经过一次减一，因此每个tick的开销只与当前槽位中的任务数相关
+ */
+public class HashedWheelTimer {
+    private static final Logger LOGGER = Logger.getLogger(HashedWheelTimer.class);
+    // 每个tick最多从待加入队列中转移的任务数，避免新增过多时工作线程长时间停留
+    private static final int MAX_TRANSFER_PER_TICK = 100000;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Queue<HashedTimeout> pendingTimeouts = new ConcurrentLinkedQueue<>();
+    private final Queue<HashedTimeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingCount = new AtomicLong();
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private final Worker worker;
+    private volatile long startNanos;
+
+    public HashedWheelTimer(String name) {
+        this(name, 100, TimeUnit.MILLISECONDS, 512);
+    }
+
+    /**
+     * @param tickDuration  每个槽位代表的时长，即定时精度
+     * @param ticksPerWheel 槽位数，向上取整为2的幂
+     */
+    public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        if (tickDuration <= 0 || ticksPerWheel <= 0) {
+            throw new IllegalArgumentException("tickDuration and ticksPerWheel must be > 0");
+        }
+        this.tickNanos = Math.max(unit.toNanos(tickDuration), TimeUnit.MILLISECONDS.toNanos(1));
+        int size = 1;
+        while (size < ticksPerWheel) {
+            size <<= 1;
+        }
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.worker = new Worker(name);
+    }
+
+    /**
+     * 新增一个超时任务，可在任意线程调用；首次调用时启动工作线程
+     */
+    public Timeout newTimeout(TimerTask task, long delay, TimeUnit unit) {
+        if (worker.done) {
+            throw new IllegalStateException("timer stopped");
+        }
+        start();
+        long deadline = System.nanoTime() + unit.toNanos(delay) - startNanos;
+        HashedTimeout timeout = new HashedTimeout(task, deadline);
+        pendingCount.incrementAndGet();
+        pendingTimeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * 尚未执行也未取消的任务数
+     */
+    public long getPendingTimeouts() {
+        return pendingCount.get();
+    }
+
+    public void stop() {
+        worker.exit();
+    }
+
+    private void start() {
+        if (started.compareAndSet(false, true)) {
+            // 以0表示尚未启动
+            long now = System.nanoTime();
+            startNanos = now == 0 ? 1 : now;
+            worker.start();
+        } else {
+            // 等待启动时间初始化完成
+            while (startNanos == 0) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    private class Worker extends Thread {
+        private volatile boolean done = false;
+        private long tick = 0;
+
+        Worker(String name) {
+            super(name);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!done) {
+                if (!waitForNextTick()) {
+                    break;
+                }
+                processCancelled();
+                transferToBuckets();
+                wheel[(int) (tick & mask)].expire();
+                tick++;
+            }
+        }
+
+        /**
+         * @return false 定时器已停止
+         */
+        private boolean waitForNextTick() {
+            long deadline = tickNanos * (tick + 1);
+            while (true) {
+                long current = System.nanoTime() - startNanos;
+                long sleepMillis = (deadline - current + 999999) / 1000000;
+                if (sleepMillis <= 0) {
+                    return true;
+                }
+                try {
+                    Thread.sleep(sleepMillis);
+                } catch (InterruptedException e) {
+                    if (done) {
+                        return false;
+                    }
+                }
+            }
+        }
+
+        private void transferToBuckets() {
+            for (int i = 0; i < MAX_TRANSFER_PER_TICK; i++) {
+                HashedTimeout timeout = pendingTimeouts.poll();
+                if (timeout == null) {
+                    break;
+                }
+                if (timeout.state.get() == HashedTimeout.ST_CANCELLED) {
+                    continue;
+                }
+                long calculated = timeout.deadline / tickNanos;
+                timeout.remainingRounds = (calculated - tick) / wheel.length;
+                // 已经过期的任务放入当前槽位，本tick即执行
+                long ticks = Math.max(calculated, tick);
+                wheel[(int) (ticks & mask)].add(timeout);
+            }
+        }
+
+        private void processCancelled() {
+            HashedTimeout timeout;
+            while ((timeout = cancelledTimeouts.poll()) != null) {
+                if (timeout.bucket != null) {
+                    timeout.bucket.remove(timeout);
+                }
+            }
+        }
+
+        void exit() {
+            done = true;
+            interrupt();
+        }
+    }
+
+    private final class HashedTimeout implements Timeout {
+        private static final int ST_INIT = 0;
+        private static final int ST_CANCELLED = 1;
+        private static final int ST_EXPIRED = 2;
+
+        private final TimerTask task;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(ST_INIT);
+        // 以下字段仅由工作线程访问
+        private long remainingRounds;
+        private HashedTimeout prev;
+        private HashedTimeout next;
+        private Bucket bucket;
+
+        HashedTimeout(TimerTask task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public TimerTask task() {
+            return task;
+        }
+
+        @Override
+        public boolean isExpired() {
+            return state.get() == ST_EXPIRED;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return state.get() == ST_CANCELLED;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!state.compareAndSet(ST_INIT, ST_CANCELLED)) {
+                return false;
+            }
+            pendingCount.decrementAndGet();
+            // 交由工作线程从槽位中摘除
+            cancelledTimeouts.add(this);
+            return true;
+        }
+
+        void expire() {
+            if (!state.compareAndSet(ST_INIT, ST_EXPIRED)) {
+                return;
+            }
+            pendingCount.decrementAndGet();
+            try {
+                task.run(this);
+            } catch (Throwable t) {
+                LOGGER.warn("定时任务执行异常", t);
+            }
+        }
+    }
+
+    /**
+     * 槽位，仅由工作线程访问
+     */
+    private static final class Bucket {
+        private HashedTimeout head;
+        private HashedTimeout tail;
+
+        void add(HashedTimeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void expire() {
+            HashedTimeout timeout = head;
+            while (timeout != null) {
+                HashedTimeout next = timeout.next;
+                if (timeout.remainingRounds <= 0) {
+                    // 放入槽位时已按截止时间计算圈数，此时必然到期
+                    remove(timeout);
+                    timeout.expire();
+                } else if (timeout.isCancelled()) {
+                    remove(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        void remove(HashedTimeout timeout) {
+            if (timeout.bucket != this) {
+                return;
+            }
+            HashedTimeout next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (next != null) {
+                next.prev = timeout.prev;
+            }
+            if (timeout == head) {
+                head = next;
+            }
+            if (timeout == tail) {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package net.qiujuer.library.clink.timer;
+
+/**
+ * {@link HashedWheelTimer#newTimeout}返回的句柄
+ */
+public interface Timeout {
+    TimerTask task();
+
+    boolean isExpired();
+
+    boolean isCancelled();
+
+    /**
+     * 取消尚未执行的任务，O(1)
+     *
+     * @return false 任务已执行或已取消
+     */
+    boolean cancel();
+}
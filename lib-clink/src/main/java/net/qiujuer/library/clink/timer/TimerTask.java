@@ -0,0 +1,8 @@
+package net.qiujuer.library.clink.timer;
+
+/**
+ * 定时任务，在{@link HashedWheelTimer}的工作线程上执行，应尽快返回
+ */
+public interface TimerTask {
+    void run(Timeout timeout);
+}
@@ -1,18 +1,25 @@
 package net.qiujuer.library.clink.utils;
 
+import net.qiujuer.library.clink.log.Logger;
+
 import java.io.Closeable;
 import java.io.IOException;
 
 public class CloseUtils {
+    private static final Logger LOGGER = Logger.getLogger(CloseUtils.class);
+
     public static void close(Closeable... closeables) {
         if (closeables == null) {
             return;
         }
         for (Closeable closeable : closeables) {
+            if (closeable == null) {
+                continue;
+            }
             try {
                 closeable.close();
             } catch (IOException e) {
-                e.printStackTrace();
+                LOGGER.warn("关闭异常", e);
             }
         }
     }
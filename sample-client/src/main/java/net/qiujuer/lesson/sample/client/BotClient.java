@@ -0,0 +1,130 @@
+package net.qiujuer.lesson.sample.client;
+
+import net.qiujuer.lesson.sample.foo.constants.TCPConstants;
+import net.qiujuer.library.clink.client.ClientConnection;
+import net.qiujuer.library.clink.client.ClientEngine;
+import net.qiujuer.library.clink.client.ServerResolver;
+import net.qiujuer.library.clink.compress.Compression;
+import net.qiujuer.library.clink.core.IoContext;
+import net.qiujuer.library.clink.impl.IoSelectorProvider;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 机器人客户端，在一个{@link ClientEngine}上保持多条自动重连的连接
+ * <p>
+ * 每条连接建立后加入同一个房间（重连后先重新加入，再发出断开期间暂存的消息）；键盘输入的每一行由第一条连接发出，
+ * "/status"输出连接状态，"00bye00"退出
+ * <p>
+ * 参数：--host --port（缺省时UDP搜索，并在服务器失联时重新搜索）--connections --room --workers（IO线程数）
+ */
+public class BotClient {
+    private static final LongAdder RECEIVED = new LongAdder();
+
+    public static void main(String[] args) throws Exception {
+        String host = null;
+        int port = TCPConstants.PORT_SERVER;
+        int count = 100;
+        String room = "bots";
+        int workers = 1;
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (!arg.startsWith("--") || index < 0) {
+                continue;
+            }
+            String value = arg.substring(index + 1);
+            switch (arg.substring(2, index)) {
+                case "host":
+                    host = value;
+                    break;
+                case "port":
+                    port = Integer.parseInt(value);
+                    break;
+                case "connections":
+                    count = Integer.parseInt(value);
+                    break;
+                case "room":
+                    room = value;
+                    break;
+                case "workers":
+                    workers = Integer.parseInt(value);
+                    break;
+                default:
+                    System.out.println("未知参数：" + arg);
+            }
+        }
+
+        ServerResolver resolver = host != null
+                ? ServerResolver.fixed(new InetSocketAddress(host, port))
+                : new DiscoveryResolver();
+
+        IoContext.setup()
+                .ioProvider(new IoSelectorProvider(workers, IoSelectorProvider.Strategy.ROUND_ROBIN))
+                .compression(Compression.fromSystemProperties())
+                .start();
+        // 空闲时发送心跳，服务器长时间无响应视为断开并重连
+        ClientEngine.Config config = ClientEngine.Config.fromSystemProperties()
+                .withIdleCheck(TCPConstants.IDLE_TIMEOUT_SECONDS, TCPConstants.HEARTBEAT_INTERVAL_SECONDS);
+        ClientEngine engine = new ClientEngine(config);
+        List<Bot> bots = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                Bot bot = new Bot(engine, resolver, room);
+                bots.add(bot);
+                bot.start();
+            }
+            System.out.println("机器人已启动：" + count + " " + config);
+
+            BufferedReader input = new BufferedReader(new InputStreamReader(System.in));
+            String line;
+            while ((line = input.readLine()) != null && !"00bye00".equalsIgnoreCase(line)) {
+                if ("/status".equals(line)) {
+                    printStatus(bots);
+                } else if (!bots.get(0).send(line)) {
+                    System.out.println("暂存队列已满，消息未发送");
+                }
+            }
+        } finally {
+            engine.close();
+            IoContext.close();
+        }
+    }
+
+    private static void printStatus(List<Bot> bots) {
+        int connected = 0;
+        int pending = 0;
+        for (Bot bot : bots) {
+            if (bot.isConnected()) {
+                connected++;
+            }
+            pending += bot.getPendingCount();
+        }
+        System.out.println("已连接：" + connected + "/" + bots.size() + " 暂存消息：" + pending
+                + " 收到消息：" + RECEIVED.sum());
+    }
+
+    private static class Bot extends ClientConnection {
+        private final String room;
+
+        Bot(ClientEngine engine, ServerResolver resolver, String room) {
+            super(engine, resolver);
+            this.room = room;
+        }
+
+        @Override
+        protected void onRestoreSession() {
+            send("/join " + room);
+        }
+
+        @Override
+        protected void onReceiveNewMessage(String str) {
+            super.onReceiveNewMessage(str);
+            RECEIVED.increment();
+        }
+    }
+}
@@ -2,12 +2,21 @@ package net.qiujuer.lesson.sample.client;
 
 
 import net.qiujuer.lesson.sample.client.bean.ServerInfo;
+import net.qiujuer.library.clink.core.ExecutionMode;
 
 import java.io.IOException;
 
 public class Client {
 
     public static void main(String[] args) {
+        // --mode=virtual 时读取线程运行在虚拟线程上
+        ExecutionMode mode = ExecutionMode.PLATFORM;
+        for (String arg : args) {
+            if (arg.startsWith("--mode=")) {
+                mode = ExecutionMode.valueOf(arg.substring("--mode=".length()).toUpperCase());
+            }
+        }
+
         // 启动UDP搜索服务，发送广播消息
         ServerInfo info = UDPSearcher.searchServer(10000);
         System.out.println("Server:" + info);
@@ -15,7 +24,7 @@ public class Client {
         if (info != null) {
             try {
                 // 连接TCP服务
-                TCPClient.linkWith(info);
+                TCPClient.linkWith(info, mode);
             } catch (IOException e) {
                 e.printStackTrace();
             }
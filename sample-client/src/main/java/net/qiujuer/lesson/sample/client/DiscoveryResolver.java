@@ -0,0 +1,54 @@
+package net.qiujuer.lesson.sample.client;
+
+import net.qiujuer.lesson.sample.client.bean.ServerInfo;
+import net.qiujuer.library.clink.client.ServerResolver;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 通过UDP搜索为自动重连的连接提供地址
+ * <p>
+ * 连续失败次数未达到阈值时沿用上一次的地址；达到后从搜索缓存中移除该地址并重新搜索。
+ * 同一引擎上的连接共用搜索缓存，大量连接同时断开时只有第一条真正访问网络；
+ * 一次搜索没有结果后的一个超时时间内不再搜索，避免解析线程被逐条连接的搜索占满
+ */
+public class DiscoveryResolver implements ServerResolver {
+    private final int searchTimeoutMillis;
+    private final int rediscoverAfter;
+    private volatile long emptyUntilNanos = System.nanoTime();
+
+    public DiscoveryResolver() {
+        this(Integer.getInteger("clink.client.searchTimeoutMs", 3000),
+                Integer.getInteger("clink.client.rediscoverAfter", 2));
+    }
+
+    /**
+     * @param searchTimeoutMillis 单次搜索的超时时间
+     * @param rediscoverAfter     连续失败多少次后重新搜索
+     */
+    public DiscoveryResolver(int searchTimeoutMillis, int rediscoverAfter) {
+        this.searchTimeoutMillis = searchTimeoutMillis;
+        this.rediscoverAfter = rediscoverAfter;
+    }
+
+    @Override
+    public InetSocketAddress resolve(InetSocketAddress lastAddress, int failures) {
+        if (lastAddress != null) {
+            if (failures < rediscoverAfter) {
+                return lastAddress;
+            }
+            UDPSearcher.evict(lastAddress.getHostString(), lastAddress.getPort());
+        }
+        if (System.nanoTime() - emptyUntilNanos < 0 && UDPSearcher.getCachedServers().isEmpty()) {
+            return null;
+        }
+
+        ServerInfo info = UDPSearcher.searchServer(searchTimeoutMillis);
+        if (info == null) {
+            emptyUntilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(searchTimeoutMillis);
+            return null;
+        }
+        return new InetSocketAddress(info.getAddress(), info.getPort());
+    }
+}
@@ -0,0 +1,475 @@
+package net.qiujuer.lesson.sample.client;
+
+import net.qiujuer.lesson.sample.client.bean.ServerInfo;
+import net.qiujuer.lesson.sample.foo.constants.TCPConstants;
+import net.qiujuer.library.clink.compress.Compression;
+import net.qiujuer.library.clink.core.Connector;
+import net.qiujuer.library.clink.core.IoContext;
+import net.qiujuer.library.clink.frame.Frame;
+import net.qiujuer.library.clink.frame.SharedFrame;
+import net.qiujuer.library.clink.impl.IoSelectorProvider;
+import net.qiujuer.library.clink.metrics.Histogram;
+import net.qiujuer.library.clink.timer.HashedWheelTimer;
+import net.qiujuer.library.clink.utils.CloseUtils;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 本地压测客户端，模拟大量聊天用户
+ * <p>
+ * 基于lib-clink的Connector建立N条非阻塞连接，按给定速率和大小发送消息，结束后输出JSON报告：
+ * <ul>
+ * <li>chat（默认）：连接依次加入若干房间并发送聊天消息，消息经过服务器的分发流水线扇出给同房间的其他成员，
+ * 文本中带有发送时的nanoTime，据此统计每次投递的时延</li>
+ * <li>echo：发送{@link Frame#TYPE_ECHO}帧，服务器在IO线程上原样回显，Body前8字节为发送时的nanoTime，统计往返时延</li>
+ * </ul>
+ * 参数：--host --port（缺省时UDP搜索）--mode（chat/echo）--rooms（chat模式的房间数）--connections
+ * --rate（每连接每秒消息数）--size（消息字节数）--warmup --duration（秒）--connectThreads
+ * --report（报告路径，缺省输出到控制台）
+ */
+public class LoadGenerator {
+    // 发送调度的节拍
+    private static final long TICK_MILLIS = 10;
+    // 时延以微秒记录，最大统计到一分钟
+    private static final long MAX_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(1);
+    // 标记测量阶段内发出的消息，服务器回显时原样带回
+    private static final byte FLAG_MEASURE = 1;
+    // 服务器对 /join 的回复
+    private static final String JOINED_PREFIX = "已加入房间：";
+    private static final String ROOM_PREFIX = "load-";
+
+    private final Config config;
+    private final List<LoadConnection> connections = new ArrayList<>();
+    private final Histogram latencyMicros = new Histogram(MAX_LATENCY_MICROS);
+    private final Histogram connectMicros = new Histogram(MAX_LATENCY_MICROS);
+    private final LongAdder sent = new LongAdder();
+    // 应收到的数量：echo模式与发送数相同，chat模式为每条消息的房间其他成员数之和
+    private final LongAdder expected = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder lateReceived = new LongAdder();
+    private final AtomicLong connectFailed = new AtomicLong();
+    private final LongAdder joined = new LongAdder();
+    // 聊天消息的前缀，区分房间历史中其他运行留下的消息
+    private final String runTag = "#" + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".";
+    // 发送速率较低时由心跳维持连接，避免被服务器判定为空闲
+    private final HashedWheelTimer heartbeatTimer = new HashedWheelTimer("LoadGenerator-Heartbeat-Timer");
+    // 仅统计测量阶段内发出的消息，热身阶段的消息不计入
+    private volatile boolean measuring = false;
+
+    private LoadGenerator(Config config) {
+        this.config = config;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config config = Config.parse(args);
+        if (config.host == null) {
+            ServerInfo info = UDPSearcher.searchServer(10000);
+            if (info == null) {
+                System.out.println("未找到服务器");
+                return;
+            }
+            config.host = info.getAddress();
+            config.port = info.getPort();
+        }
+
+        IoContext.setup()
+                .ioProvider(new IoSelectorProvider())
+                .compression(Compression.fromSystemProperties())
+                .start();
+        try {
+            new LoadGenerator(config).run();
+        } finally {
+            IoContext.close();
+        }
+    }
+
+    private void run() throws Exception {
+        System.out.println("压测开始：" + config);
+
+        long connectStart = System.nanoTime();
+        connectAll();
+        long connectElapsed = System.nanoTime() - connectStart;
+        System.out.println("连接建立完成：" + connections.size() + " 失败：" + connectFailed.get());
+        if (connections.isEmpty()) {
+            return;
+        }
+        if (config.mode == Mode.CHAT) {
+            awaitJoined();
+        }
+
+        Pacer pacer = new Pacer();
+        pacer.start();
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(config.warmupSeconds));
+        measuring = true;
+        long measureStart = System.nanoTime();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(config.durationSeconds));
+        long measureElapsed = System.nanoTime() - measureStart;
+        measuring = false;
+        pacer.exit();
+
+        // 给在途的消息留出时间
+        long deadline = System.currentTimeMillis() + 2000;
+        while (received.sum() < expected.sum() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+
+        int alive = 0;
+        for (LoadConnection connection : connections) {
+            if (!connection.isClosed()) {
+                alive++;
+            }
+            CloseUtils.close(connection);
+        }
+        heartbeatTimer.stop();
+
+        String report = buildReport(connectElapsed, measureElapsed, alive);
+        if (config.reportPath == null) {
+            System.out.println(report);
+        } else {
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(config.reportPath), StandardCharsets.UTF_8)) {
+                writer.write(report);
+            }
+            System.out.println("报告已写入：" + config.reportPath);
+        }
+    }
+
+    private void connectAll() throws InterruptedException {
+        InetSocketAddress address = new InetSocketAddress(config.host, config.port);
+        ExecutorService executor = Executors.newFixedThreadPool(config.connectThreads);
+        for (int i = 0; i < config.connections; i++) {
+            int room = i % config.rooms;
+            executor.execute(() -> {
+                long start = System.nanoTime();
+                SocketChannel channel = null;
+                try {
+                    channel = SocketChannel.open(address);
+                    LoadConnection connection = new LoadConnection(room);
+                    connection.setup(channel);
+                    connection.enableIdleCheck(heartbeatTimer, 0, TCPConstants.HEARTBEAT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+                    connectMicros.record((System.nanoTime() - start) / 1000);
+                    if (config.mode == Mode.CHAT) {
+                        connection.send("/join " + ROOM_PREFIX + room);
+                    }
+                    synchronized (connections) {
+                        connections.add(connection);
+                    }
+                } catch (IOException e) {
+                    connectFailed.incrementAndGet();
+                    CloseUtils.close(channel);
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 等待所有连接加入房间，并据此得到每条消息应投递的人数
+     */
+    private void awaitJoined() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (joined.sum() < connections.size() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        int[] members = new int[config.rooms];
+        for (LoadConnection connection : connections) {
+            members[connection.room]++;
+        }
+        for (LoadConnection connection : connections) {
+            connection.peers = members[connection.room] - 1;
+        }
+        System.out.println("加入房间完成：" + joined.sum());
+    }
+
+    private String buildReport(long connectElapsedNanos, long measureElapsedNanos, int alive) {
+        Histogram.Snapshot latency = latencyMicros.snapshot();
+        Histogram.Snapshot connect = connectMicros.snapshot();
+        double measureSeconds = measureElapsedNanos / 1e9;
+
+        StringBuilder builder = new StringBuilder(1024);
+        builder.append("{\n");
+        builder.append("  \"config\": {")
+                .append("\"host\": \"").append(config.host).append("\", ")
+                .append("\"port\": ").append(config.port).append(", ")
+                .append("\"mode\": \"").append(config.mode.name().toLowerCase(Locale.ROOT)).append("\", ")
+                .append("\"rooms\": ").append(config.rooms).append(", ")
+                .append("\"connections\": ").append(config.connections).append(", ")
+                .append("\"ratePerConnection\": ").append(format(config.rate)).append(", ")
+                .append("\"messageSize\": ").append(config.size).append(", ")
+                .append("\"warmupSeconds\": ").append(config.warmupSeconds).append(", ")
+                .append("\"durationSeconds\": ").append(config.durationSeconds).append("},\n");
+        builder.append("  \"connections\": {")
+                .append("\"established\": ").append(connections.size()).append(", ")
+                .append("\"failed\": ").append(connectFailed.get()).append(", ")
+                .append("\"aliveAtEnd\": ").append(alive).append(", ")
+                .append("\"totalSetupMillis\": ").append(format(connectElapsedNanos / 1e6)).append(", ")
+                .append("\"setupMicros\": ");
+        appendSnapshot(builder, connect);
+        builder.append("},\n");
+        builder.append("  \"messages\": {")
+                .append("\"sent\": ").append(sent.sum()).append(", ")
+                .append("\"expected\": ").append(expected.sum()).append(", ")
+                .append("\"received\": ").append(received.sum()).append(", ")
+                .append("\"lost\": ").append(Math.max(0, expected.sum() - received.sum())).append(", ")
+                .append("\"receivedAfterWindow\": ").append(lateReceived.sum()).append(", ")
+                .append("\"sentPerSecond\": ").append(format(sent.sum() / measureSeconds)).append(", ")
+                .append("\"receivedPerSecond\": ").append(format(received.sum() / measureSeconds)).append("},\n");
+        builder.append("  \"latencyMicros\": ");
+        appendSnapshot(builder, latency);
+        builder.append("\n}\n");
+        return builder.toString();
+    }
+
+    private static void appendSnapshot(StringBuilder builder, Histogram.Snapshot snapshot) {
+        builder.append("{")
+                .append("\"count\": ").append(snapshot.getCount()).append(", ")
+                .append("\"min\": ").append(snapshot.getMin()).append(", ")
+                .append("\"mean\": ").append(format(snapshot.getMean())).append(", ")
+                .append("\"p50\": ").append(snapshot.getValueAtQuantile(0.5)).append(", ")
+                .append("\"p90\": ").append(snapshot.getValueAtQuantile(0.9)).append(", ")
+                .append("\"p99\": ").append(snapshot.getValueAtQuantile(0.99)).append(", ")
+                .append("\"p999\": ").append(snapshot.getValueAtQuantile(0.999)).append(", ")
+                .append("\"max\": ").append(snapshot.getMax())
+                .append("}");
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+
+    private void onDelivered(long sendNanos) {
+        latencyMicros.record((System.nanoTime() - sendNanos) / 1000);
+        received.increment();
+        if (!measuring) {
+            lateReceived.increment();
+        }
+    }
+
+    /**
+     * 单条压测连接，收到回显或房间消息时根据其中的时间戳计算时延
+     */
+    private class LoadConnection extends Connector {
+        private final int room;
+        // 房间内的其他成员数，加入完成后设置
+        private volatile int peers;
+        private volatile boolean closed = false;
+        // 按速率累积的发送额度，仅由发送线程访问；初始值随机，避免所有连接在同一节拍集中发送
+        private double credit = ThreadLocalRandom.current().nextDouble();
+
+        LoadConnection(int room) {
+            this.room = room;
+        }
+
+        @Override
+        public void onChannelClosed(SocketChannel channel) {
+            super.onChannelClosed(channel);
+            closed = true;
+        }
+
+        @Override
+        protected void onReceiveFrame(byte type, byte flags, short identifier, ByteBuffer body) {
+            super.onReceiveFrame(type, flags, identifier, body);
+            if (type != Frame.TYPE_ECHO || body.remaining() < 8) {
+                return;
+            }
+            if (flags == FLAG_MEASURE) {
+                onDelivered(body.getLong(body.position()));
+            }
+        }
+
+        @Override
+        protected void onReceiveNewMessage(String str) {
+            super.onReceiveNewMessage(str);
+            if (str.startsWith(JOINED_PREFIX)) {
+                joined.increment();
+                return;
+            }
+            // 房间消息为 [房间]发送者：#运行标识.nanoTime.m 填充
+            int index = str.indexOf(runTag);
+            if (index < 0) {
+                return;
+            }
+            int start = index + runTag.length();
+            int end = str.indexOf('.', start);
+            if (end > start && str.startsWith(".m", end)) {
+                onDelivered(Long.parseLong(str, start, end, 10));
+            }
+        }
+
+        boolean isClosed() {
+            return closed;
+        }
+    }
+
+    /**
+     * 按节拍为每条连接累积额度并发送，避免每条连接各占一个定时器
+     */
+    private class Pacer extends Thread {
+        private volatile boolean done = false;
+        private final ByteBuffer body;
+        private final StringBuilder text = new StringBuilder();
+
+        Pacer() {
+            super("LoadGenerator-Pacer");
+            setDaemon(true);
+            body = ByteBuffer.allocate(Math.max(8, config.size));
+        }
+
+        @Override
+        public void run() {
+            double perTick = config.rate * TICK_MILLIS / 1000.0;
+            long next = System.nanoTime();
+            while (!done) {
+                for (LoadConnection connection : connections) {
+                    if (connection.isClosed()) {
+                        continue;
+                    }
+                    connection.credit += perTick;
+                    while (connection.credit >= 1) {
+                        connection.credit -= 1;
+                        sendOne(connection);
+                    }
+                }
+
+                next += TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+                long sleep = next - System.nanoTime();
+                if (sleep > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(sleep);
+                    } catch (InterruptedException ignored) {
+                        break;
+                    }
+                } else {
+                    // 落后太多时不再追赶，避免突发
+                    next = System.nanoTime();
+                }
+            }
+        }
+
+        private void sendOne(LoadConnection connection) {
+            boolean measure = measuring;
+            if (config.mode == Mode.ECHO) {
+                body.clear();
+                body.putLong(0, System.nanoTime());
+                SharedFrame frame = SharedFrame.encode(Frame.TYPE_ECHO,
+                        measure ? FLAG_MEASURE : Frame.FLAG_NONE, (short) 0, body);
+                connection.send(frame);
+                frame.release();
+            } else {
+                text.setLength(0);
+                text.append(runTag).append(System.nanoTime()).append(measure ? ".m " : ".w ");
+                while (text.length() < config.size) {
+                    text.append('x');
+                }
+                connection.send(text.toString());
+            }
+            if (measure) {
+                sent.increment();
+                expected.add(config.mode == Mode.ECHO ? 1 : connection.peers);
+            }
+        }
+
+        void exit() {
+            done = true;
+            try {
+                join(1000);
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
+
+    private enum Mode {
+        // 加入房间并发送聊天消息，经过完整的分发流程
+        CHAT,
+        // 仅由服务器IO线程回显
+        ECHO
+    }
+
+    private static class Config {
+        String host;
+        int port;
+        Mode mode = Mode.CHAT;
+        int rooms = 10;
+        int connections = 1000;
+        double rate = 1;
+        int size = 64;
+        int warmupSeconds = 3;
+        int durationSeconds = 10;
+        int connectThreads = 16;
+        String reportPath;
+
+        static Config parse(String[] args) {
+            Config config = new Config();
+            for (String arg : args) {
+                int index = arg.indexOf('=');
+                if (!arg.startsWith("--") || index < 0) {
+                    continue;
+                }
+                String key = arg.substring(2, index);
+                String value = arg.substring(index + 1);
+                switch (key) {
+                    case "host":
+                        config.host = value;
+                        break;
+                    case "port":
+                        config.port = Integer.parseInt(value);
+                        break;
+                    case "mode":
+                        config.mode = Mode.valueOf(value.toUpperCase(Locale.ROOT));
+                        break;
+                    case "rooms":
+                        config.rooms = Math.max(1, Integer.parseInt(value));
+                        break;
+                    case "connections":
+                        config.connections = Integer.parseInt(value);
+                        break;
+                    case "rate":
+                        config.rate = Double.parseDouble(value);
+                        break;
+                    case "size":
+                        config.size = Integer.parseInt(value);
+                        break;
+                    case "warmup":
+                        config.warmupSeconds = Integer.parseInt(value);
+                        break;
+                    case "duration":
+                        config.durationSeconds = Integer.parseInt(value);
+                        break;
+                    case "connectThreads":
+                        config.connectThreads = Integer.parseInt(value);
+                        break;
+                    case "report":
+                        config.reportPath = value;
+                        break;
+                    default:
+                        System.out.println("未知参数：" + arg);
+                }
+            }
+            return config;
+        }
+
+        @Override
+        public String toString() {
+            return "host=" + host + " port=" + port + " mode=" + mode.name().toLowerCase(Locale.ROOT) +
+                    " rooms=" + rooms + " connections=" + connections +
+                    " rate=" + rate + " size=" + size + " warmup=" + warmupSeconds + "s duration=" + durationSeconds + "s";
+        }
+    }
+}
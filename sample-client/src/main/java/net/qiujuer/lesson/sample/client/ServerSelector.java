@@ -0,0 +1,96 @@
+package net.qiujuer.lesson.sample.client;
+
+import net.qiujuer.lesson.sample.client.bean.ServerInfo;
+import net.qiujuer.lesson.sample.foo.udp.ServerLoad;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 按搜索回送中的负载选择服务器
+ */
+public class ServerSelector {
+    // 每多少条待发送消息、每秒多少条收发消息相当于一个连接的负载
+    private static final double QUEUED_PER_CONNECTION = 64;
+    private static final double RATE_PER_CONNECTION = 1000;
+
+    public enum Strategy {
+        // 最先回送的服务器
+        FIRST,
+        // 负载评分最低的服务器，评分相同时取时延较低的
+        LEAST_LOADED,
+        // 按评分的倒数加权随机；负载每秒才采样一次，同时启动的大量客户端不会全部落到同一台服务器上
+        WEIGHTED_RANDOM
+    }
+
+    private ServerSelector() {
+    }
+
+    /**
+     * @return servers为空时为null
+     */
+    public static ServerInfo select(List<ServerInfo> servers, Strategy strategy) {
+        if (servers.isEmpty()) {
+            return null;
+        }
+        switch (strategy) {
+            case LEAST_LOADED:
+                return leastLoaded(servers);
+            case WEIGHTED_RANDOM:
+                return weightedRandom(servers);
+            case FIRST:
+            default:
+                return first(servers);
+        }
+    }
+
+    /**
+     * 负载评分，以连接数为主，待发送积压与收发速率折算为连接数
+     */
+    public static double score(ServerLoad load) {
+        return load.getConnections()
+                + load.getOutboundQueued() / QUEUED_PER_CONNECTION
+                + load.getMessagesPerSecond() / RATE_PER_CONNECTION;
+    }
+
+    private static ServerInfo first(List<ServerInfo> servers) {
+        ServerInfo selected = servers.get(0);
+        for (ServerInfo info : servers) {
+            if (info.getLatencyNanos() < selected.getLatencyNanos()) {
+                selected = info;
+            }
+        }
+        return selected;
+    }
+
+    private static ServerInfo leastLoaded(List<ServerInfo> servers) {
+        ServerInfo selected = servers.get(0);
+        double selectedScore = score(selected.getLoad());
+        for (ServerInfo info : servers) {
+            double score = score(info.getLoad());
+            if (score < selectedScore
+                    || (score == selectedScore && info.getLatencyNanos() < selected.getLatencyNanos())) {
+                selected = info;
+                selectedScore = score;
+            }
+        }
+        return selected;
+    }
+
+    private static ServerInfo weightedRandom(List<ServerInfo> servers) {
+        double[] weights = new double[servers.size()];
+        double total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = 1 / (1 + score(servers.get(i).getLoad()));
+            total += weights[i];
+        }
+        double random = ThreadLocalRandom.current().nextDouble(total);
+        for (int i = 0; i < weights.length; i++) {
+            random -= weights[i];
+            if (random < 0) {
+                return servers.get(i);
+            }
+        }
+        return servers.get(servers.size() - 1);
+    }
+}
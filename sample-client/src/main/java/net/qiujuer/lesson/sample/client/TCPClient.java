@@ -2,6 +2,16 @@ package net.qiujuer.lesson.sample.client;
 
 
 import net.qiujuer.lesson.sample.client.bean.ServerInfo;
+import net.qiujuer.lesson.sample.foo.constants.TCPConstants;
+import net.qiujuer.library.clink.core.ExecutionMode;
+import net.qiujuer.library.clink.core.FileReceiver;
+import net.qiujuer.library.clink.frame.FileHeader;
+import net.qiujuer.library.clink.frame.Frame;
+import net.qiujuer.library.clink.frame.FrameDecoder;
+import net.qiujuer.library.clink.frame.FrameEncoder;
+import net.qiujuer.library.clink.timer.HashedWheelTimer;
+import net.qiujuer.library.clink.timer.Timeout;
+import net.qiujuer.library.clink.timer.TimerTask;
 import net.qiujuer.library.clink.utils.CloseUtils;
 
 import java.io.*;
@@ -9,11 +19,35 @@ import java.net.Inet4Address;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class TCPClient {
+    // 上传文件的指令，/send 文件路径
+    private static final String CMD_SEND = "/send";
+    private static final byte[] EMPTY_BODY = new byte[0];
+    private static final AtomicInteger FILE_STREAM_ID = new AtomicInteger();
+    // 心跳定时器，精度要求不高
+    private static final HashedWheelTimer TIMER = new HashedWheelTimer("TCPClient-Heartbeat-Timer",
+            1, TimeUnit.SECONDS, 64);
+
     public static void linkWith(ServerInfo info) throws IOException {
+        linkWith(info, ExecutionMode.PLATFORM);
+    }
+
+    /**
+     * @param mode 读取线程的执行模式
+     */
+    public static void linkWith(ServerInfo info, ExecutionMode mode) throws IOException {
         Socket socket = new Socket();
-        // 超时时间
+        // 读取超时，超时后检查是否长时间未收到数据
         socket.setSoTimeout(3000);
 
         // 连接本地，端口2000；超时时间3000ms
@@ -23,17 +57,28 @@ public class TCPClient {
         System.out.println("客户端信息：" + socket.getLocalAddress() + " P:" + socket.getLocalPort());
         System.out.println("服务器信息：" + socket.getInetAddress() + " P:" + socket.getPort());
 
+        Timeout heartbeat = null;
         try {
             ReadHandler readHandler = new ReadHandler(socket.getInputStream());
-            readHandler.start();
+            mode.start("TCPClient-Read-Thread", readHandler);
+
+            // 得到Socket输出流，按帧写出；心跳与键盘输入共用，写出时需加锁
+            OutputStream outputStream = new BufferedOutputStream(socket.getOutputStream());
+            HeartbeatTask heartbeatTask = new HeartbeatTask(outputStream);
+            heartbeat = TIMER.newTimeout(heartbeatTask, TCPConstants.HEARTBEAT_INTERVAL_SECONDS, TimeUnit.SECONDS);
 
             // 发送接收数据
-            write(socket);
+            write(outputStream, heartbeatTask);
 
             // 退出操作
+            heartbeatTask.exit();
             readHandler.exit();
         } catch (Exception e) {
             System.out.println("异常关闭");
+        } finally {
+            if (heartbeat != null) {
+                heartbeat.cancel();
+            }
         }
 
         // 释放资源
@@ -41,20 +86,31 @@ public class TCPClient {
         System.out.println("客户端已退出～");
     }
 
-    private static void write(Socket client) throws IOException {
+    private static void write(OutputStream outputStream, HeartbeatTask heartbeatTask) throws IOException {
         // 构建键盘输入流
         InputStream in = System.in;
         BufferedReader input = new BufferedReader(new InputStreamReader(in));
 
-        // 得到Socket输出流，并转换为打印流
-        OutputStream outputStream = client.getOutputStream();
-        PrintStream socketPrintStream = new PrintStream(outputStream);
-
         do {
             // 键盘读取一行
             String str = input.readLine();
+            if (str == null) {
+                break;
+            }
+            if (str.startsWith(CMD_SEND + " ")) {
+                // 上传在独立线程上进行，不影响继续输入
+                Path path = Paths.get(str.substring(CMD_SEND.length()).trim());
+                Thread thread = new Thread(new UploadTask(outputStream, heartbeatTask, path),
+                        "TCPClient-Upload-Thread");
+                thread.setDaemon(true);
+                thread.start();
+                continue;
+            }
             // 发送到服务器
-            socketPrintStream.println(str);
+            synchronized (outputStream) {
+                FrameEncoder.writeString(outputStream, str);
+            }
+            heartbeatTask.onWritten();
 
             if ("00bye00".equalsIgnoreCase(str)) {
                 break;
@@ -62,12 +118,113 @@ public class TCPClient {
         } while (true);
 
         // 资源释放
-        socketPrintStream.close();
+        synchronized (outputStream) {
+            outputStream.close();
+        }
     }
 
-    static class ReadHandler extends Thread {
-        private boolean done = false;
+    /**
+     * 按分块上传一个文件，每个分块单独加锁写出，期间输入的消息可以插在分块之间发出
+     */
+    static class UploadTask implements Runnable {
+        private final OutputStream outputStream;
+        private final HeartbeatTask heartbeatTask;
+        private final Path path;
+
+        UploadTask(OutputStream outputStream, HeartbeatTask heartbeatTask, Path path) {
+            this.outputStream = outputStream;
+            this.heartbeatTask = heartbeatTask;
+            this.path = path;
+        }
+
+        @Override
+        public void run() {
+            short identifier = (short) (FILE_STREAM_ID.getAndIncrement() % Short.MAX_VALUE + 1);
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long length = channel.size();
+                byte[] header = FileHeader.encode(length, path.getFileName().toString());
+                synchronized (outputStream) {
+                    FrameEncoder.write(outputStream, Frame.TYPE_FILE_HEADER, identifier, header, 0, header.length);
+                }
+
+                byte[] chunk = new byte[Frame.DEFAULT_FILE_CHUNK_SIZE];
+                ByteBuffer buffer = ByteBuffer.wrap(chunk);
+                long sent = 0;
+                while (sent < length) {
+                    buffer.clear();
+                    int len = channel.read(buffer);
+                    if (len < 0) {
+                        throw new EOFException("文件在上传过程中被截断");
+                    }
+                    synchronized (outputStream) {
+                        FrameEncoder.write(outputStream, Frame.TYPE_FILE_CHUNK, identifier, chunk, 0, len);
+                    }
+                    heartbeatTask.onWritten();
+                    sent += len;
+                }
+
+                synchronized (outputStream) {
+                    FrameEncoder.write(outputStream, Frame.TYPE_FILE_END, identifier, EMPTY_BODY, 0, 0);
+                }
+                System.out.println("文件已发送：" + path + "，" + length + "字节");
+            } catch (IOException e) {
+                System.out.println("文件发送失败：" + path + "，" + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 一个心跳周期内没有发送过数据时发送心跳，保持服务器端连接活跃
+     */
+    static class HeartbeatTask implements TimerTask {
+        private final OutputStream outputStream;
+        private volatile long lastWriteNanos = System.nanoTime();
+        private volatile boolean done = false;
+
+        HeartbeatTask(OutputStream outputStream) {
+            this.outputStream = outputStream;
+        }
+
+        void onWritten() {
+            lastWriteNanos = System.nanoTime();
+        }
+
+        @Override
+        public void run(Timeout timeout) {
+            if (done) {
+                return;
+            }
+            long interval = TimeUnit.SECONDS.toNanos(TCPConstants.HEARTBEAT_INTERVAL_SECONDS);
+            long remaining = interval - (System.nanoTime() - lastWriteNanos);
+            if (remaining <= 0) {
+                try {
+                    synchronized (outputStream) {
+                        FrameEncoder.write(outputStream, Frame.TYPE_HEARTBEAT, EMPTY_BODY);
+                    }
+                    onWritten();
+                } catch (IOException e) {
+                    // 连接已断开，不再发送
+                    return;
+                }
+                remaining = interval;
+            }
+            TIMER.newTimeout(this, remaining, TimeUnit.NANOSECONDS);
+        }
+
+        void exit() {
+            done = true;
+        }
+    }
+
+    static class ReadHandler implements Runnable, FrameDecoder.FrameListener {
+        // 同时下载的文件数
+        private static final int MAX_DOWNLOAD_STREAMS = 8;
+        private volatile boolean done = false;
         private final InputStream inputStream;
+        private long lastReadNanos = System.nanoTime();
+        // 下载目录，首次收到文件时创建
+        private final Path downloadDir = Paths.get(System.getProperty("clink.download.dir", "downloads"));
+        private FileReceiver fileReceiver;
 
         ReadHandler(InputStream inputStream) {
             this.inputStream = inputStream;
@@ -76,23 +233,30 @@ public class TCPClient {
         @Override
         public void run() {
             try {
-                // 得到输入流，用于接收数据
-                BufferedReader socketInput = new BufferedReader(new InputStreamReader(inputStream));
+                // 得到输入流，用于接收数据，按帧解析
+                byte[] buffer = new byte[4096];
+                FrameDecoder decoder = new FrameDecoder();
 
                 do {
-                    String str;
+                    int len;
                     try {
-                        // 客户端拿到一条数据
-                        str = socketInput.readLine();
+                        // 客户端拿到一批数据
+                        len = inputStream.read(buffer);
                     } catch (SocketTimeoutException e) {
+                        // 服务器会回应心跳，长时间收不到任何数据说明连接已失效
+                        long idle = System.nanoTime() - lastReadNanos;
+                        if (idle > TimeUnit.SECONDS.toNanos(TCPConstants.IDLE_TIMEOUT_SECONDS)) {
+                            System.out.println("服务器无响应，连接已断开！");
+                            break;
+                        }
                         continue;
                     }
-                    if (str == null) {
+                    if (len < 0) {
                         System.out.println("连接已关闭，无法读取数据！");
                         break;
                     }
-                    // 打印到屏幕
-                    System.out.println(str);
+                    lastReadNanos = System.nanoTime();
+                    decoder.decode(ByteBuffer.wrap(buffer, 0, len), this);
                 } while (!done);
             } catch (Exception e) {
                 if (!done) {
@@ -100,8 +264,49 @@ public class TCPClient {
                 }
             } finally {
                 // 连接关闭
-                CloseUtils.close(inputStream);
+                CloseUtils.close(inputStream, fileReceiver);
+            }
+        }
+
+        @Override
+        public void onFrame(byte type, byte flags, short identifier, ByteBuffer body) {
+            if (type == Frame.TYPE_STRING) {
+                // 打印到屏幕
+                System.out.println(StandardCharsets.UTF_8.decode(body).toString());
+            } else if (FileReceiver.isFileFrame(type)) {
+                onFileFrame(type, identifier, body);
+            }
+        }
+
+        private void onFileFrame(byte type, short identifier, ByteBuffer body) {
+            try {
+                if (fileReceiver == null) {
+                    Files.createDirectories(downloadDir);
+                    fileReceiver = new FileReceiver(downloadDir, Long.MAX_VALUE, MAX_DOWNLOAD_STREAMS);
+                }
+                FileReceiver.ReceivedFile file = fileReceiver.onFrame(type, identifier, body);
+                if (file != null) {
+                    Path target = uniquePath(file.getName());
+                    Files.move(file.getPath(), target);
+                    System.out.println("文件已下载：" + target + "，" + file.getLength() + "字节");
+                }
+            } catch (IOException e) {
+                System.out.println("文件下载失败：" + e.getMessage());
+            }
+        }
+
+        /**
+         * 同名文件已存在时在文件名后追加序号
+         */
+        private Path uniquePath(String name) {
+            Path path = downloadDir.resolve(name);
+            int dot = name.lastIndexOf('.');
+            String base = dot > 0 ? name.substring(0, dot) : name;
+            String ext = dot > 0 ? name.substring(dot) : "";
+            for (int i = 1; Files.exists(path); i++) {
+                path = downloadDir.resolve(base + "(" + i + ")" + ext);
             }
+            return path;
         }
 
         void exit() {
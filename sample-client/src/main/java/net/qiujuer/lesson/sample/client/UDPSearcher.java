@@ -3,165 +3,413 @@ package net.qiujuer.lesson.sample.client;
 
 import net.qiujuer.lesson.sample.client.bean.ServerInfo;
 import net.qiujuer.lesson.sample.foo.constants.UDPConstants;
-import net.qiujuer.library.clink.utils.ByteUtils;
+import net.qiujuer.lesson.sample.foo.udp.ServerLoad;
+import net.qiujuer.lesson.sample.foo.udp.UDPPacket;
+import net.qiujuer.library.clink.utils.CloseUtils;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * 通过UDP广播搜索服务器
+ * <p>
+ * 所有搜索共用一个系统分配回送端口的非阻塞通道与一个线程，并发的搜索不再各自占用Socket与线程，
+ * 同一主机上的多个客户端可以同时搜索；回送到达即通知，并带上自发送起的响应时延与服务器负载；
+ * 结果按sn缓存，在有效期内重复查找不再访问网络
+ * <p>
+ * {@link #searchServer(int)}按{@link ServerSelector}的策略在找到的服务器中选择，新连接分散到负载较低的服务器上
+ */
 public class UDPSearcher {
-    private static final int LISTEN_PORT = UDPConstants.PORT_CLIENT_RESPONSE;
+    // 搜索结果的缓存时间
+    private static final long CACHE_TTL_NANOS = TimeUnit.SECONDS.toNanos(
+            Long.getLong("clink.discovery.cacheTtlSeconds", 30));
+    private static final ConcurrentHashMap<String, CachedServer> CACHE = new ConcurrentHashMap<>();
+    // 选择策略，以及收到首个回送后继续等待其他服务器回送的时间
+    private static final ServerSelector.Strategy STRATEGY = ServerSelector.Strategy.valueOf(
+            System.getProperty("clink.discovery.strategy", ServerSelector.Strategy.WEIGHTED_RANDOM.name()));
+    private static final long COLLECT_MILLIS = Long.getLong("clink.discovery.collectMs", 300);
 
+    /**
+     * 查找一个服务器：缓存中有时直接在缓存中选择，否则发起搜索，收到首个回送后再等待一小段时间，在已回送的服务器中选择
+     *
+     * @return 超时未找到时为null
+     */
     public static ServerInfo searchServer(int timeout) {
-        System.out.println("UDPSearcher Started.");
+        List<ServerInfo> cached = getCachedServers();
+        if (!cached.isEmpty()) {
+            System.out.println("UDPSearcher use cached server.");
+            return ServerSelector.select(cached, STRATEGY);
+        }
 
-        // 成功收到回送的栅栏
+        System.out.println("UDPSearcher Started.");
+        // 收到首个回送或搜索结束的栅栏
         CountDownLatch receiveLatch = new CountDownLatch(1);
-        Listener listener = null;
+        Search search = search(timeout, TimeUnit.MILLISECONDS, new SearchListener() {
+            @Override
+            public void onServerFound(ServerInfo info) {
+                receiveLatch.countDown();
+            }
+
+            @Override
+            public void onSearchFinished(List<ServerInfo> servers) {
+                receiveLatch.countDown();
+            }
+        });
         try {
-            // 监听UDP反馈
-            listener = listen(receiveLatch);
-            // 发送广播消息
-            sendBroadcast();
-            receiveLatch.await(timeout, TimeUnit.MILLISECONDS);
-        } catch (Exception e) {
-            e.printStackTrace();
+            receiveLatch.await();
+            if (STRATEGY != ServerSelector.Strategy.FIRST) {
+                search.await(COLLECT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        search.cancel();
         // 完成
         System.out.println("UDPSearcher Finished.");
-        if (listener == null) {
-            return null;
+        return ServerSelector.select(search.getServers(), STRATEGY);
+    }
+
+    /**
+     * 发起一次异步搜索，每收到一个服务器的回送即回调，到达超时或取消后回调结束
+     */
+    public static Search search(long timeout, TimeUnit unit, SearchListener listener) {
+        Search search = new Search(unit.toNanos(timeout), listener);
+        try {
+            Dispatcher.get().submit(search);
+        } catch (IOException e) {
+            System.out.println("UDPSearcher error: " + e.getMessage());
+            search.finish();
         }
-        List<ServerInfo> devices = listener.getServerAndClose();
-        if (devices.size() > 0) {
-            return devices.get(0);
+        return search;
+    }
+
+    /**
+     * 缓存中仍有效的服务器，按时延从低到高排列
+     */
+    public static List<ServerInfo> getCachedServers() {
+        long now = System.nanoTime();
+        List<ServerInfo> servers = new ArrayList<>();
+        for (CachedServer cached : CACHE.values()) {
+            if (now - cached.expireNanos >= 0) {
+                CACHE.remove(cached.info.getSn(), cached);
+            } else {
+                servers.add(cached.info);
+            }
         }
-        return null;
+        servers.sort(Comparator.comparingLong(ServerInfo::getLatencyNanos));
+        return servers;
     }
 
-    private static Listener listen(CountDownLatch receiveLatch) throws InterruptedException {
-        System.out.println("UDPSearcher start listen.");
-        CountDownLatch startDownLatch = new CountDownLatch(1);
-        Listener listener = new Listener(LISTEN_PORT, startDownLatch, receiveLatch);
-        listener.start();
-        startDownLatch.await();
-        return listener;
+    public static void clearCache() {
+        CACHE.clear();
     }
 
-    private static void sendBroadcast() throws IOException {
-        System.out.println("UDPSearcher sendBroadcast started.");
-
-        // 作为搜索方，让系统自动分配端口
-        DatagramSocket ds = new DatagramSocket();
-
-        // 构建一份请求数据
-        ByteBuffer byteBuffer = ByteBuffer.allocate(128);
-        // 头部
-        byteBuffer.put(UDPConstants.HEADER);
-        // CMD命名
-        byteBuffer.putShort((short) 1);
-        // 回送端口信息
-        byteBuffer.putInt(LISTEN_PORT);
-        // 直接构建packet
-        DatagramPacket requestPacket = new DatagramPacket(byteBuffer.array(),
-                byteBuffer.position() + 1);
-        // 广播地址
-        requestPacket.setAddress(InetAddress.getByName("255.255.255.255"));
-        // 设置服务器端口
-        requestPacket.setPort(UDPConstants.PORT_SERVER);
-
-        // 发送
-        ds.send(requestPacket);
-        ds.close();
+    /**
+     * 移除缓存中指定地址的服务器，连接失败后不再从缓存中选中它
+     */
+    public static void evict(String address, int port) {
+        CACHE.values().removeIf(cached -> cached.info.getPort() == port
+                && cached.info.getAddress().equals(address));
+    }
 
-        // 完成
-        System.out.println("UDPSearcher sendBroadcast finished.");
+    public interface SearchListener {
+        // 收到一个服务器的回送，同一次搜索中每个sn只通知一次，运行在共用的搜索线程上，应尽快返回
+        void onServerFound(ServerInfo info);
+
+        // 搜索结束，servers为本次找到的全部服务器
+        default void onSearchFinished(List<ServerInfo> servers) {
+        }
+    }
+
+    private static class CachedServer {
+        final ServerInfo info;
+        final long expireNanos;
+
+        CachedServer(ServerInfo info, long expireNanos) {
+            this.info = info;
+            this.expireNanos = expireNanos;
+        }
+    }
+
+    public static class Search {
+        private final long timeoutNanos;
+        private final SearchListener listener;
+        private final List<ServerInfo> servers = new CopyOnWriteArrayList<>();
+        private final CountDownLatch finishLatch = new CountDownLatch(1);
+        private final AtomicBoolean finished = new AtomicBoolean(false);
+        private volatile boolean done = false;
+        private volatile Dispatcher dispatcher;
+        // 以下仅在搜索线程上访问
+        private final Set<String> found = new HashSet<>();
+        private long startNanos;
+        private long deadlineNanos;
+
+        private Search(long timeoutNanos, SearchListener listener) {
+            this.timeoutNanos = timeoutNanos;
+            this.listener = listener;
+        }
+
+        /**
+         * 已找到的服务器
+         */
+        public List<ServerInfo> getServers() {
+            return Collections.unmodifiableList(servers);
+        }
+
+        /**
+         * 等待搜索结束
+         */
+        public List<ServerInfo> await() throws InterruptedException {
+            finishLatch.await();
+            return getServers();
+        }
+
+        /**
+         * 最多等待timeout，返回此时已找到的服务器
+         */
+        public List<ServerInfo> await(long timeout, TimeUnit unit) throws InterruptedException {
+            finishLatch.await(timeout, unit);
+            return getServers();
+        }
+
+        public void cancel() {
+            done = true;
+            Dispatcher dispatcher = this.dispatcher;
+            if (dispatcher != null) {
+                dispatcher.wakeup();
+            }
+        }
+
+        private void begin(long now) {
+            startNanos = now;
+            deadlineNanos = now + timeoutNanos;
+        }
+
+        private void onResponse(String address, int serverPort, String sn, ServerLoad load, long now) {
+            if (!found.add(sn)) {
+                return;
+            }
+            ServerInfo info = new ServerInfo(serverPort, address, sn, now - startNanos, load);
+            servers.add(info);
+            CACHE.put(sn, new CachedServer(info, System.nanoTime() + CACHE_TTL_NANOS));
+            try {
+                listener.onServerFound(info);
+            } catch (RuntimeException e) {
+                // 不影响共用线程上的其他搜索
+                System.out.println("UDPSearcher listener error: " + e);
+            }
+        }
+
+        private void finish() {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                listener.onSearchFinished(getServers());
+            } catch (RuntimeException e) {
+                System.out.println("UDPSearcher listener error: " + e);
+            } finally {
+                finishLatch.countDown();
+            }
+        }
     }
 
-    private static class Listener extends Thread {
-        private final int listenPort;
-        private final CountDownLatch startDownLatch;
-        private final CountDownLatch receiveDownLatch;
-        private final List<ServerInfo> serverInfoList = new ArrayList<>();
-        private final byte[] buffer = new byte[128];
-        private final int minLen = UDPConstants.HEADER.length + 2 + 4;
-        private boolean done = false;
-        private DatagramSocket ds = null;
+    /**
+     * 所有搜索共用的非阻塞通道与线程，首次搜索时创建，此后常驻；通道出错时线程退出，下一次搜索重新创建
+     * <p>
+     * 回送不区分属于哪一次搜索，分发给所有进行中的搜索，各自按sn去重并以自己的发送时间计算时延；
+     * select的超时为最近一次搜索的截止时间，没有搜索时一直阻塞
+     */
+    private static final class Dispatcher extends Thread {
+        private static Dispatcher instance;
+
+        private final Selector selector;
+        private final DatagramChannel channel;
+        private final int localPort;
+        private final InetSocketAddress broadcast = new InetSocketAddress("255.255.255.255", UDPConstants.PORT_SERVER);
+        private final Queue<Search> newSearches = new ConcurrentLinkedQueue<>();
+        // 进行中的搜索，仅本线程访问
+        private final List<Search> searches = new ArrayList<>();
+        private final ByteBuffer buffer = ByteBuffer.allocate(128);
+        private volatile boolean closed = false;
+
+        static synchronized Dispatcher get() throws IOException {
+            if (instance == null) {
+                Dispatcher dispatcher = new Dispatcher();
+                dispatcher.setDaemon(true);
+                dispatcher.start();
+                instance = dispatcher;
+            }
+            return instance;
+        }
+
+        private Dispatcher() throws IOException {
+            super("UDPSearcher-Thread");
+            Selector selector = Selector.open();
+            DatagramChannel channel = null;
+            try {
+                // 作为搜索方，让系统自动分配端口，回送也发往该端口
+                channel = DatagramChannel.open();
+                channel.setOption(StandardSocketOptions.SO_BROADCAST, true);
+                channel.bind(null);
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ);
+                this.localPort = ((InetSocketAddress) channel.getLocalAddress()).getPort();
+            } catch (IOException e) {
+                CloseUtils.close(channel, selector);
+                throw e;
+            }
+            this.selector = selector;
+            this.channel = channel;
+        }
 
-        private Listener(int listenPort, CountDownLatch startDownLatch, CountDownLatch receiveDownLatch) {
-            super();
-            this.listenPort = listenPort;
-            this.startDownLatch = startDownLatch;
-            this.receiveDownLatch = receiveDownLatch;
+        void submit(Search search) {
+            search.dispatcher = this;
+            newSearches.offer(search);
+            if (closed) {
+                // 线程已退出，不会再取出
+                finishNewSearches();
+            } else {
+                selector.wakeup();
+            }
+        }
+
+        void wakeup() {
+            selector.wakeup();
         }
 
         @Override
         public void run() {
-            // 通知已启动
-            startDownLatch.countDown();
             try {
-                // 监听回送端口
-                ds = new DatagramSocket(listenPort);
-                // 构建接收实体
-                DatagramPacket receivePack = new DatagramPacket(buffer, buffer.length);
-
-                while (!done) {
-                    // 接收
-                    ds.receive(receivePack);
-
-                    // 打印接收到的信息与发送者的信息
-                    // 发送者的IP地址
-                    String ip = receivePack.getAddress().getHostAddress();
-                    int port = receivePack.getPort();
-                    int dataLen = receivePack.getLength();
-                    byte[] data = receivePack.getData();
-                    boolean isValid = dataLen >= minLen && ByteUtils.startsWith(data, UDPConstants.HEADER);
-
-                    System.out.println("UDPSearcher receive form ip:" + ip + "\tport:" + port + "\tdataValid:" + isValid);
-
-                    if (!isValid) {
-                        // 无效继续
-                        continue;
+                while (true) {
+                    startNewSearches();
+                    long wait = expire(System.nanoTime());
+                    if (wait < 0) {
+                        selector.select();
+                    } else {
+                        // 0表示不超时，至少等待1毫秒
+                        selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
                     }
-
-                    ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, UDPConstants.HEADER.length, dataLen);
-                    final short cmd = byteBuffer.getShort();
-                    final int serverPort = byteBuffer.getInt();
-                    if (cmd != 2 || serverPort <= 0) {
-                        System.out.println("UDPSearcher receive cmd:" + cmd + "\tserverPort:" + serverPort);
-                        continue;
+                    selector.selectedKeys().clear();
+                    receive();
+                }
+            } catch (IOException e) {
+                System.out.println("UDPSearcher error: " + e.getMessage());
+            } finally {
+                closed = true;
+                synchronized (Dispatcher.class) {
+                    if (instance == this) {
+                        instance = null;
                     }
+                }
+                CloseUtils.close(channel, selector);
+                for (Search search : searches) {
+                    search.finish();
+                }
+                searches.clear();
+                finishNewSearches();
+            }
+        }
 
-                    String sn = new String(buffer, minLen, dataLen - minLen);
-                    ServerInfo info = new ServerInfo(serverPort, ip, sn);
-                    serverInfoList.add(info);
-                    // 成功接收到一份
-                    receiveDownLatch.countDown();
+        private void startNewSearches() {
+            Search search;
+            while ((search = newSearches.poll()) != null) {
+                if (search.done) {
+                    search.finish();
+                    continue;
+                }
+                // 构建一份请求数据：头部、CMD命令、回送端口信息
+                buffer.clear();
+                UDPPacket.writeSearch(buffer, localPort);
+                buffer.flip();
+                search.begin(System.nanoTime());
+                try {
+                    channel.send(buffer, broadcast);
+                    searches.add(search);
+                } catch (IOException e) {
+                    // 只结束本次搜索，通道本身的错误由接收时发现
+                    System.out.println("UDPSearcher error: " + e.getMessage());
+                    search.finish();
                 }
-            } catch (Exception ignored) {
-            } finally {
-                close();
             }
-            System.out.println("UDPSearcher listener finished.");
         }
 
-        private void close() {
-            if (ds != null) {
-                ds.close();
-                ds = null;
+        private void finishNewSearches() {
+            Search search;
+            while ((search = newSearches.poll()) != null) {
+                search.finish();
             }
         }
 
-        List<ServerInfo> getServerAndClose() {
-            done = true;
-            close();
-            return serverInfoList;
+        /**
+         * 结束已取消或超时的搜索
+         *
+         * @return 距最近一次截止的时间，没有进行中的搜索时为-1
+         */
+        private long expire(long now) {
+            long wait = -1;
+            Iterator<Search> iterator = searches.iterator();
+            while (iterator.hasNext()) {
+                Search search = iterator.next();
+                long remaining = search.deadlineNanos - now;
+                if (search.done || remaining <= 0) {
+                    iterator.remove();
+                    search.finish();
+                } else if (wait < 0 || remaining < wait) {
+                    wait = remaining;
+                }
+            }
+            return wait;
+        }
+
+        private void receive() throws IOException {
+            while (true) {
+                buffer.clear();
+                SocketAddress source = channel.receive(buffer);
+                if (source == null) {
+                    return;
+                }
+                long now = System.nanoTime();
+
+                int dataLen = buffer.position();
+                byte[] data = buffer.array();
+                if (searches.isEmpty() || !UDPPacket.isValid(data, dataLen)) {
+                    // 无效或已没有等待的搜索，继续
+                    continue;
+                }
+                final short cmd = UDPPacket.readCmd(data);
+                final int serverPort = UDPPacket.readPort(data);
+                if (cmd != UDPPacket.CMD_RESPONSE || serverPort <= 0 || !UDPPacket.isValidResponse(data, dataLen)) {
+                    continue;
+                }
+
+                String sn = UDPPacket.readResponseSn(data, dataLen);
+                ServerLoad load = UDPPacket.readLoad(data);
+                String address = ((InetSocketAddress) source).getAddress().getHostAddress();
+                for (Search search : searches) {
+                    search.onResponse(address, serverPort, sn, load, now);
+                }
+            }
         }
     }
 }
@@ -1,14 +1,26 @@
 package net.qiujuer.lesson.sample.client.bean;
 
+import net.qiujuer.lesson.sample.foo.udp.ServerLoad;
+
 public class ServerInfo {
     private String sn;
     private int port;
     private String address;
+    // 自发出搜索到收到回送的时延
+    private long latencyNanos;
+    // 回送时服务器的负载
+    private ServerLoad load;
 
     public ServerInfo(int port, String ip, String sn) {
+        this(port, ip, sn, 0, ServerLoad.EMPTY);
+    }
+
+    public ServerInfo(int port, String ip, String sn, long latencyNanos, ServerLoad load) {
         this.port = port;
         this.address = ip;
         this.sn = sn;
+        this.latencyNanos = latencyNanos;
+        this.load = load;
     }
 
     public String getSn() {
@@ -35,12 +47,30 @@ public class ServerInfo {
         this.address = address;
     }
 
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    public void setLatencyNanos(long latencyNanos) {
+        this.latencyNanos = latencyNanos;
+    }
+
+    public ServerLoad getLoad() {
+        return load;
+    }
+
+    public void setLoad(ServerLoad load) {
+        this.load = load;
+    }
+
     @Override
     public String toString() {
         return "ServerInfo{" +
                 "sn='" + sn + '\'' +
                 ", port=" + port +
                 ", address='" + address + '\'' +
+                ", latencyMicros=" + latencyNanos / 1000 +
+                ", load=" + load +
                 '}';
     }
 }
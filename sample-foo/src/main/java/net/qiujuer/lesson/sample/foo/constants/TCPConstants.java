@@ -3,4 +3,8 @@ package net.qiujuer.lesson.sample.foo.constants;
 public class TCPConstants {
     // 服务器固化UDP接收端口
     public static int PORT_SERVER = 30401;
+    // 客户端空闲时发送心跳的间隔
+    public static int HEARTBEAT_INTERVAL_SECONDS = 10;
+    // 超过该时长未收到任何数据即视为对端失联
+    public static int IDLE_TIMEOUT_SECONDS = 30;
 }
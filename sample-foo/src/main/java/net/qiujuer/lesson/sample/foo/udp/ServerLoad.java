@@ -0,0 +1,56 @@
+package net.qiujuer.lesson.sample.foo.udp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 服务器在搜索回送中携带的负载
+ * <pre>
+ * 连接数(4B) | 待发送消息数(4B) | 每秒收发消息数(4B)
+ * </pre>
+ */
+public class ServerLoad {
+    public static final int LENGTH = 12;
+    public static final ServerLoad EMPTY = new ServerLoad(0, 0, 0);
+
+    private final int connections;
+    private final int outboundQueued;
+    private final int messagesPerSecond;
+
+    public ServerLoad(int connections, int outboundQueued, int messagesPerSecond) {
+        this.connections = connections;
+        this.outboundQueued = outboundQueued;
+        this.messagesPerSecond = messagesPerSecond;
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    public int getOutboundQueued() {
+        return outboundQueued;
+    }
+
+    public int getMessagesPerSecond() {
+        return messagesPerSecond;
+    }
+
+    public void write(ByteBuffer dst) {
+        dst.putInt(connections);
+        dst.putInt(outboundQueued);
+        dst.putInt(messagesPerSecond);
+    }
+
+    public static ServerLoad read(byte[] data, int offset) {
+        ByteBuffer buffer = ByteBuffer.wrap(data, offset, LENGTH);
+        return new ServerLoad(buffer.getInt(), buffer.getInt(), buffer.getInt());
+    }
+
+    @Override
+    public String toString() {
+        return "ServerLoad{" +
+                "connections=" + connections +
+                ", outboundQueued=" + outboundQueued +
+                ", messagesPerSecond=" + messagesPerSecond +
+                '}';
+    }
+}
@@ -0,0 +1,149 @@
+package net.qiujuer.lesson.sample.foo.udp;
+
+import net.qiujuer.lesson.sample.foo.constants.UDPConstants;
+import net.qiujuer.library.clink.utils.ByteUtils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * UDP搜索协议的编解码
+ * <pre>
+ * 搜索请求：HEADER | cmd(2B)=1 | 回送端口(4B)
+ * 搜索回送：HEADER | cmd(2B)=2 | 服务端口(4B) | 负载(12B) | sn，负载见{@link ServerLoad}
+ * 节点通告：HEADER | cmd(2B)=3 | 集群端口(4B) | sn，集群节点之间互相发现
+ * </pre>
+ */
+public class UDPPacket {
+    public static final short CMD_SEARCH = 1;
+    public static final short CMD_RESPONSE = 2;
+    public static final short CMD_NODE_ANNOUNCE = 3;
+    // 头部 + cmd + 端口
+    public static final int MIN_LENGTH = UDPConstants.HEADER.length + 2 + 4;
+
+    private UDPPacket() {
+    }
+
+    /**
+     * 写入一份搜索请求
+     *
+     * @return 请求数据的长度
+     */
+    public static int writeSearch(ByteBuffer dst, int responsePort) {
+        int start = dst.position();
+        dst.put(UDPConstants.HEADER);
+        dst.putShort(CMD_SEARCH);
+        dst.putInt(responsePort);
+        return dst.position() - start;
+    }
+
+    /**
+     * 写入一份搜索回送
+     *
+     * @return 回送数据的长度
+     */
+    public static int writeResponse(ByteBuffer dst, int serverPort, ServerLoad load, byte[] sn) {
+        int start = dst.position();
+        dst.put(UDPConstants.HEADER);
+        dst.putShort(CMD_RESPONSE);
+        dst.putInt(serverPort);
+        load.write(dst);
+        dst.put(sn);
+        return dst.position() - start;
+    }
+
+    /**
+     * 写入一份节点通告
+     *
+     * @return 通告数据的长度
+     */
+    public static int writeAnnounce(ByteBuffer dst, int clusterPort, byte[] sn) {
+        int start = dst.position();
+        dst.put(UDPConstants.HEADER);
+        dst.putShort(CMD_NODE_ANNOUNCE);
+        dst.putInt(clusterPort);
+        dst.put(sn);
+        return dst.position() - start;
+    }
+
+    /**
+     * 长度足够且以公用头部开始
+     */
+    public static boolean isValid(byte[] data, int length) {
+        return length >= MIN_LENGTH && ByteUtils.startsWith(data, UDPConstants.HEADER);
+    }
+
+    public static short readCmd(byte[] data) {
+        int index = UDPConstants.HEADER.length;
+        return (short) ((data[index] << 8) | (data[index + 1] & 0xff));
+    }
+
+    /**
+     * 读取请求中的回送端口，回送中的服务端口，或通告中的集群端口
+     */
+    public static int readPort(byte[] data) {
+        int index = UDPConstants.HEADER.length + 2;
+        return ((data[index] << 24) |
+                ((data[index + 1] & 0xff) << 16) |
+                ((data[index + 2] & 0xff) << 8) |
+                (data[index + 3] & 0xff));
+    }
+
+    /**
+     * 读取节点通告中的sn
+     */
+    public static String readSn(byte[] data, int length) {
+        return new String(data, MIN_LENGTH, length - MIN_LENGTH);
+    }
+
+    /**
+     * 与{@link #isValid(byte[], int)}相同，检查src中position到limit之间的数据，不改变position
+     */
+    public static boolean isValid(ByteBuffer src) {
+        if (src.remaining() < MIN_LENGTH) {
+            return false;
+        }
+        int start = src.position();
+        for (int i = 0; i < UDPConstants.HEADER.length; i++) {
+            if (src.get(start + i) != UDPConstants.HEADER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static short readCmd(ByteBuffer src) {
+        return src.getShort(src.position() + UDPConstants.HEADER.length);
+    }
+
+    public static int readPort(ByteBuffer src) {
+        return src.getInt(src.position() + UDPConstants.HEADER.length + 2);
+    }
+
+    /**
+     * 读取节点通告中的sn，不改变position
+     */
+    public static String readSn(ByteBuffer src) {
+        byte[] sn = new byte[src.remaining() - MIN_LENGTH];
+        src.get(src.position() + MIN_LENGTH, sn);
+        return new String(sn);
+    }
+
+    /**
+     * 搜索回送的长度足够容纳负载
+     */
+    public static boolean isValidResponse(byte[] data, int length) {
+        return length >= MIN_LENGTH + ServerLoad.LENGTH;
+    }
+
+    public static ServerLoad readLoad(byte[] data) {
+        return ServerLoad.read(data, MIN_LENGTH);
+    }
+
+    /**
+     * 读取搜索回送中的sn
+     */
+    public static String readResponseSn(byte[] data, int length) {
+        int offset = MIN_LENGTH + ServerLoad.LENGTH;
+        return new String(data, offset, length - offset);
+    }
+}
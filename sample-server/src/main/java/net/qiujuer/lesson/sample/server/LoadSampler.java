@@ -0,0 +1,53 @@
+package net.qiujuer.lesson.sample.server;
+
+import net.qiujuer.lesson.sample.foo.udp.ServerLoad;
+import net.qiujuer.library.clink.metrics.Metrics;
+import net.qiujuer.library.clink.timer.HashedWheelTimer;
+import net.qiujuer.library.clink.timer.Timeout;
+import net.qiujuer.library.clink.timer.TimerTask;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 定时采样本机负载，UDP搜索回送直接使用最近一次的结果，不在回送时遍历连接
+ */
+class LoadSampler implements TimerTask {
+    private static final long PERIOD_SECONDS = 1;
+
+    private final TCPServer tcpServer;
+    private final HashedWheelTimer timer;
+    private final LongAdder messagesIn = Metrics.getDefault().counter(Metrics.MESSAGES_IN);
+    private final LongAdder messagesOut = Metrics.getDefault().counter(Metrics.MESSAGES_OUT);
+    private volatile ServerLoad current = ServerLoad.EMPTY;
+    private long lastMessages;
+    private long lastNanos;
+
+    LoadSampler(TCPServer tcpServer) {
+        this.tcpServer = tcpServer;
+        this.timer = tcpServer.getTimer();
+    }
+
+    void start() {
+        lastMessages = messagesIn.sum() + messagesOut.sum();
+        lastNanos = System.nanoTime();
+        timer.newTimeout(this, PERIOD_SECONDS, TimeUnit.SECONDS);
+    }
+
+    ServerLoad current() {
+        return current;
+    }
+
+    @Override
+    public void run(Timeout timeout) {
+        long now = System.nanoTime();
+        long messages = messagesIn.sum() + messagesOut.sum();
+        long rate = (messages - lastMessages) * TimeUnit.SECONDS.toNanos(1) / Math.max(1, now - lastNanos);
+        lastMessages = messages;
+        lastNanos = now;
+        current = new ServerLoad(tcpServer.getClientCount(),
+                (int) Math.min(Integer.MAX_VALUE, Metrics.getDefault().getOutboundQueued()),
+                (int) Math.min(Integer.MAX_VALUE, rate));
+        timer.newTimeout(this, PERIOD_SECONDS, TimeUnit.SECONDS);
+    }
+}
@@ -1,34 +1,212 @@
 package net.qiujuer.lesson.sample.server;
 
 import net.qiujuer.lesson.sample.foo.constants.TCPConstants;
+import net.qiujuer.lesson.sample.server.cluster.ClusterManager;
+import net.qiujuer.lesson.sample.server.dispatch.DispatchPipeline;
+import net.qiujuer.lesson.sample.server.file.FileStore;
+import net.qiujuer.lesson.sample.server.history.HistoryManager;
+import net.qiujuer.lesson.sample.server.user.UserManager;
+import net.qiujuer.library.clink.buffer.BufferPool;
+import net.qiujuer.library.clink.compress.Compression;
+import net.qiujuer.library.clink.core.ExecutionMode;
+import net.qiujuer.library.clink.core.IoContext;
+import net.qiujuer.library.clink.core.IoProvider;
+import net.qiujuer.library.clink.core.OutboundQueue;
+import net.qiujuer.library.clink.impl.BlockingIoProvider;
+import net.qiujuer.library.clink.impl.IoSelectorProvider;
+import net.qiujuer.library.clink.metrics.Metrics;
+import net.qiujuer.library.clink.metrics.MetricsReporter;
+import net.qiujuer.library.clink.metrics.PeriodicReporter;
+import net.qiujuer.library.clink.metrics.TextEndpointReporter;
+import net.qiujuer.library.clink.store.GroupCommitWriter;
+import net.qiujuer.library.clink.store.MessageLog;
+import net.qiujuer.library.clink.utils.CloseUtils;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class Server {
 
     public static void main(String[] args) throws IOException {
-        // 启动一个TCP监听服务
-        TCPServer tcpServer = new TCPServer(TCPConstants.PORT_SERVER);
+        // 执行模式：nio（默认）为Selector调度；platform/virtual为每个连接独立的阻塞读写线程
+        String mode = "nio";
+        for (String arg : args) {
+            if (arg.startsWith("--mode=")) {
+                mode = arg.substring("--mode=".length()).toLowerCase();
+            }
+        }
+
+        IoProvider ioProvider;
+        ExecutionMode blockingMode = null;
+        if ("nio".equals(mode)) {
+            // 启动IO调度，所有连接的读写共享少量线程；Worker数量默认与CPU核数一致
+            int workers = Integer.getInteger("clink.workers", Runtime.getRuntime().availableProcessors());
+            IoSelectorProvider.Strategy strategy = IoSelectorProvider.Strategy.valueOf(
+                    System.getProperty("clink.strategy", IoSelectorProvider.Strategy.ROUND_ROBIN.name()));
+            ioProvider = new IoSelectorProvider(workers, strategy);
+        } else {
+            blockingMode = ExecutionMode.valueOf(mode.toUpperCase());
+            ioProvider = new BlockingIoProvider(blockingMode);
+        }
+        System.out.println("执行模式：" + mode);
+        // 每个连接待发送队列的上限，慢速客户端超出后按策略处理
+        OutboundQueue.Limit outboundLimit = new OutboundQueue.Limit(
+                Integer.getInteger("clink.outbound.maxMessages", OutboundQueue.Limit.DEFAULT.getMaxMessages()),
+                Long.getLong("clink.outbound.maxBytes", OutboundQueue.Limit.DEFAULT.getMaxBytes()),
+                OutboundQueue.OverflowPolicy.valueOf(System.getProperty("clink.outbound.policy",
+                        OutboundQueue.Limit.DEFAULT.getPolicy().name())));
+        // 与客户端协商的压缩，clink.compression.codecs为空时不开启
+        Compression compression = Compression.fromSystemProperties();
+        System.out.println("压缩：" + compression);
+        IoContext.setup()
+                .ioProvider(ioProvider)
+                .outboundLimit(outboundLimit)
+                .compression(compression)
+                .start();
+
+        // 启动一个TCP监听服务，同一主机上运行多个节点时通过clink.port区分
+        int port = Integer.getInteger("clink.port", TCPConstants.PORT_SERVER);
+        // 消息分发流水线各阶段的线程数与队列长度
+        DispatchPipeline.Config dispatchConfig = DispatchPipeline.Config.fromSystemProperties();
+        System.out.println("分发流水线：" + dispatchConfig);
+        TCPServer tcpServer = new TCPServer(port, blockingMode, dispatchConfig);
+        // 超时未收到任何数据（包括心跳）的连接将被断开，0表示不检测
+        tcpServer.setIdleTimeout(Integer.getInteger("clink.idle.timeout", TCPConstants.IDLE_TIMEOUT_SECONDS));
+        // 文件存储目录，设置为空字符串时关闭文件传输
+        String fileDir = System.getProperty("clink.file.dir", defaultDir("clink-files", port));
+        if (!fileDir.isEmpty()) {
+            FileStore fileStore = new FileStore(Paths.get(fileDir),
+                    Long.getLong("clink.file.maxSize", 64 * 1024 * 1024),
+                    Integer.getInteger("clink.file.maxFiles", 100));
+            fileStore.open();
+            tcpServer.setFileStore(fileStore);
+            System.out.println("文件存储目录：" + fileDir);
+        }
+        // 房间消息的保存目录，设置为空字符串时不保存
+        String historyDir = System.getProperty("clink.history.dir", defaultDir("clink-history", port));
+        if (!historyDir.isEmpty()) {
+            MessageLog.Config logConfig = new MessageLog.Config(
+                    Integer.getInteger("clink.history.segmentBytes", MessageLog.Config.DEFAULT.getSegmentBytes()),
+                    Integer.getInteger("clink.history.indexIntervalBytes",
+                            MessageLog.Config.DEFAULT.getIndexIntervalBytes()),
+                    TimeUnit.MINUTES.toMillis(Long.getLong("clink.history.rollMinutes",
+                            TimeUnit.MILLISECONDS.toMinutes(MessageLog.Config.DEFAULT.getRollMillis()))),
+                    TimeUnit.HOURS.toMillis(Long.getLong("clink.history.retentionHours",
+                            TimeUnit.MILLISECONDS.toHours(MessageLog.Config.DEFAULT.getRetentionMillis()))));
+            // 刷盘时机：PER_BATCH每批刷盘，INTERVAL按间隔刷盘，OS由操作系统写回
+            GroupCommitWriter.Durability durability = GroupCommitWriter.Durability.valueOf(
+                    System.getProperty("clink.history.durability", GroupCommitWriter.Durability.INTERVAL.name()));
+            GroupCommitWriter writer = new GroupCommitWriter("TCPServer-History-Writer", durability,
+                    Long.getLong("clink.history.flushIntervalMs", 1000), TimeUnit.MILLISECONDS,
+                    Integer.getInteger("clink.history.maxPending", 64 * 1024));
+            tcpServer.setHistoryManager(new HistoryManager(Paths.get(historyDir), logConfig,
+                    Integer.getInteger("clink.history.replayOnJoin", 20), writer));
+            System.out.println("消息保存目录：" + historyDir + "，" + logConfig + "，刷盘：" + durability);
+        }
+        // 离线收件箱超出内存部分的保存目录
+        UserManager.Config inboxConfig = UserManager.Config.fromSystemProperties();
+        UserManager userManager = new UserManager(Paths.get(System.getProperty("clink.inbox.dir",
+                defaultDir("clink-inbox", port))), inboxConfig, tcpServer.getTimer());
+        userManager.open();
+        tcpServer.setUserManager(userManager);
+        System.out.println("离线收件箱：" + inboxConfig);
+        // 设置了clink.cluster.port时作为集群节点运行
+        ClusterManager.Config clusterConfig = ClusterManager.Config.fromSystemProperties();
+        ClusterManager clusterManager = null;
+        if (clusterConfig.isEnabled()) {
+            clusterManager = new ClusterManager(clusterConfig, tcpServer.getRoomManager(), tcpServer.getTimer());
+            tcpServer.setClusterManager(clusterManager);
+            System.out.println("集群节点：" + clusterManager.getNodeId() + "，" + clusterConfig);
+        }
         boolean isSucceed = tcpServer.start();
         if (!isSucceed) {
             System.out.println("Start TCP server failed!");
             return;
         }
 
-        //  启动一个UDP服务，用户监听广播消息
-        UDPProvider.start(TCPConstants.PORT_SERVER);
+        //  启动一个UDP服务，用户监听广播消息，回送中携带本机负载
+        LoadSampler loadSampler = new LoadSampler(tcpServer);
+        loadSampler.start();
+        UDPProvider.start(port, clusterManager, loadSampler);
+
+        List<MetricsReporter> reporters = startMetrics(tcpServer);
 
         BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(System.in));
         String str;
         do {
             str = bufferedReader.readLine();
+            if (str == null) {
+                break;
+            }
+            if ("00stats00".equalsIgnoreCase(str)) {
+                // 打印每个Worker上承载的连接数
+                if (ioProvider instanceof IoSelectorProvider) {
+                    System.out.println("Worker连接数：" + Arrays.toString(
+                            ((IoSelectorProvider) ioProvider).getWorkerConnectionCounts()));
+                }
+                System.out.println("连接数：" + tcpServer.getClientCount());
+                System.out.println("房间数：" + tcpServer.getRoomManager().getRoomCount());
+                if (tcpServer.getFileStore() != null) {
+                    System.out.println("文件数：" + tcpServer.getFileStore().getFileCount());
+                }
+                System.out.println("用户数：" + tcpServer.getUserManager().getUserCount());
+                if (tcpServer.getHistoryManager() != null) {
+                    System.out.println("消息日志数：" + tcpServer.getHistoryManager().getLogCount());
+                }
+                if (clusterManager != null) {
+                    System.out.println("集群节点数：" + (clusterManager.getPeerCount() + 1));
+                }
+                System.out.println(BufferPool.getDefault().getStats());
+                System.out.print(Metrics.getDefault().snapshot());
+                continue;
+            }
             // 向所有的TCP连接发送消息
             tcpServer.broadcast(str);
         } while (!"00bye00".equalsIgnoreCase(str));
 
         UDPProvider.stop();
         tcpServer.stop();
+        CloseUtils.close(reporters.toArray(new MetricsReporter[0]));
+
+        IoContext.close();
+    }
+
+    /**
+     * 临时目录下的默认目录，非默认端口时加上端口后缀，同一主机上的多个节点互不影响
+     */
+    private static String defaultDir(String name, int port) {
+        if (port != TCPConstants.PORT_SERVER) {
+            name = name + "-" + port;
+        }
+        return Paths.get(System.getProperty("java.io.tmpdir"), name).toString();
+    }
+
+    /**
+     * clink.metrics.interval 大于0时按该秒数定时打印指标；clink.metrics.port 大于0时在本机提供文本查询
+     */
+    private static List<MetricsReporter> startMetrics(TCPServer tcpServer) {
+        Metrics metrics = Metrics.getDefault();
+        metrics.gauge("server.clients", tcpServer::getClientCount);
+        metrics.gauge("clink.buffer.inUse", () -> BufferPool.getDefault().getStats().inUse);
+
+        List<MetricsReporter> reporters = new ArrayList<>();
+        int interval = Integer.getInteger("clink.metrics.interval", 0);
+        if (interval > 0) {
+            reporters.add(new PeriodicReporter(metrics, interval, TimeUnit.SECONDS, System.out));
+        }
+        int port = Integer.getInteger("clink.metrics.port", 0);
+        if (port > 0) {
+            reporters.add(new TextEndpointReporter(metrics, port));
+        }
+        for (MetricsReporter reporter : reporters) {
+            reporter.start();
+        }
+        return reporters;
     }
 }
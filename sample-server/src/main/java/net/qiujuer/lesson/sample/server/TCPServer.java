@@ -1,30 +1,173 @@
 package net.qiujuer.lesson.sample.server;
 
-import java.util.Arrays;
+import net.qiujuer.lesson.sample.server.cluster.ClusterManager;
+import net.qiujuer.lesson.sample.server.dispatch.DispatchPipeline;
+import net.qiujuer.lesson.sample.server.file.FileStore;
 import net.qiujuer.lesson.sample.server.handle.ClientHandler;
+import net.qiujuer.lesson.sample.server.history.HistoryManager;
+import net.qiujuer.lesson.sample.server.room.RoomManager;
+import net.qiujuer.lesson.sample.server.user.UserManager;
+import net.qiujuer.library.clink.core.ConnectionRegistry;
+import net.qiujuer.library.clink.core.ExecutionMode;
+import net.qiujuer.library.clink.core.FileReceiver;
+import net.qiujuer.library.clink.frame.SharedFrame;
+import net.qiujuer.library.clink.log.Logger;
+import net.qiujuer.library.clink.metrics.Metrics;
+import net.qiujuer.library.clink.timer.HashedWheelTimer;
+import net.qiujuer.library.clink.utils.CloseUtils;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.ArrayList;
-import java.util.List;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 public class TCPServer {
+    private static final Logger LOGGER = Logger.getLogger(TCPServer.class);
+    // 重连风暴时内核中等待accept的连接上限
+    private static final int ACCEPT_BACKLOG = 1024;
+    // 累计接收的连接数，按快照差值即为接入速率
+    public static final String METRIC_ACCEPTS = "server.accepts";
     private final int port;
+    // 不为空时使用阻塞式accept，并在该模式的线程上运行
+    private final ExecutionMode blockingMode;
     private ClientListener mListener;
-    private List<ClientHandler> clientHandlerList = new ArrayList<>();
+    private final ConnectionRegistry<ClientHandler> clientHandlers = new ConnectionRegistry<>();
+    private final RoomManager roomManager = new RoomManager();
+    private final DispatchPipeline dispatchPipeline;
+    // 所有连接的空闲检测共用一个时间轮
+    private final HashedWheelTimer idleTimer = new HashedWheelTimer("TCPServer-IdleTimer");
+    private long idleTimeoutSeconds = 0;
+    // 为空表示不支持文件传输
+    private FileStore fileStore;
+    // 为空表示不保存消息
+    private HistoryManager historyManager;
+    // 为空表示不支持登录与私信
+    private UserManager userManager;
+    // 为空表示单机运行
+    private ClusterManager clusterManager;
+    private final LongAdder acceptCounter = Metrics.getDefault().counter(METRIC_ACCEPTS);
+    private Selector selector;
+    private ServerSocketChannel server;
 
     public TCPServer(int port) {
+        this(port, null, DispatchPipeline.Config.fromSystemProperties());
+    }
+
+    public TCPServer(int port, ExecutionMode blockingMode, DispatchPipeline.Config dispatchConfig) {
         this.port = port;
+        this.blockingMode = blockingMode;
+        this.dispatchPipeline = new DispatchPipeline(roomManager, dispatchConfig);
+    }
+
+    /**
+     * 连接空闲超时时间，0表示不检测，需在{@link #start()}之前设置
+     */
+    public void setIdleTimeout(long seconds) {
+        this.idleTimeoutSeconds = seconds;
+    }
+
+    /**
+     * 开启文件上传与下载，需在{@link #start()}之前设置
+     */
+    public void setFileStore(FileStore fileStore) {
+        this.fileStore = fileStore;
+        dispatchPipeline.addCommandHandler(fileStore);
+    }
+
+    public FileStore getFileStore() {
+        return fileStore;
+    }
+
+    /**
+     * 开启房间消息的持久化与历史查询，需在{@link #start()}之前设置
+     */
+    public void setHistoryManager(HistoryManager historyManager) {
+        this.historyManager = historyManager;
+        dispatchPipeline.addCommandHandler(historyManager);
+        dispatchPipeline.setHistoryManager(historyManager);
+        roomManager.setRoomListener(historyManager);
+        // 过期分段的清理与空闲检测共用时间轮
+        historyManager.scheduleRetention(idleTimer, 1, TimeUnit.MINUTES);
+    }
+
+    public HistoryManager getHistoryManager() {
+        return historyManager;
+    }
+
+    /**
+     * 开启登录、私信与离线消息，需在{@link #start()}之前设置
+     */
+    public void setUserManager(UserManager userManager) {
+        this.userManager = userManager;
+        dispatchPipeline.addCommandHandler(userManager);
+    }
+
+    public UserManager getUserManager() {
+        return userManager;
+    }
+
+    /**
+     * 以集群节点运行，与其他节点互通房间消息，需在{@link #start()}之前设置
+     */
+    public void setClusterManager(ClusterManager clusterManager) {
+        this.clusterManager = clusterManager;
+        dispatchPipeline.addCommandHandler(clusterManager);
+        dispatchPipeline.setClusterManager(clusterManager);
+        clusterManager.setDispatchPipeline(dispatchPipeline);
+        roomManager.setMembershipListener(clusterManager);
+    }
+
+    public ClusterManager getClusterManager() {
+        return clusterManager;
+    }
+
+    /**
+     * 服务器内部共用的时间轮
+     */
+    public HashedWheelTimer getTimer() {
+        return idleTimer;
     }
 
     public boolean start() {
         try {
-            ClientListener listener = new ClientListener(port);
+            ServerSocketChannel server = ServerSocketChannel.open();
+            // 绑定本地端口，加大积压队列以应对集中重连
+            server.socket().bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+            if (blockingMode == null) {
+                selector = Selector.open();
+                // 设置为非阻塞
+                server.configureBlocking(false);
+                // 注册客户端连接到达监听
+                server.register(selector, SelectionKey.OP_ACCEPT);
+            }
+
+            this.server = server;
+            if (historyManager != null) {
+                historyManager.start();
+            }
+            dispatchPipeline.start();
+            if (clusterManager != null) {
+                clusterManager.start();
+            }
+
+            LOGGER.info("服务器信息：{}", server.getLocalAddress());
+
+            // 启动客户端监听
+            ClientListener listener = new ClientListener();
             mListener = listener;
-            listener.start();
+            if (blockingMode == null) {
+                new Thread(listener, "TCPServer-Acceptor-Thread").start();
+            } else {
+                blockingMode.start("TCPServer-Acceptor-Thread", listener);
+            }
         } catch (IOException e) {
-            e.printStackTrace();
+            LOGGER.error("服务器启动失败", e);
             return false;
         }
         return true;
@@ -34,59 +177,186 @@ public class TCPServer {
         if (mListener != null) {
             mListener.exit();
         }
-        for (ClientHandler clientHandler : clientHandlerList) {
+
+        CloseUtils.close(server);
+        CloseUtils.close(selector);
+        // 先断开节点链路，之后本地成员的退出不再同步
+        CloseUtils.close(clusterManager);
+
+        for (ClientHandler clientHandler : clientHandlers.clear()) {
             clientHandler.exit();
         }
-        clientHandlerList.clear();
+        dispatchPipeline.stop();
+        idleTimer.stop();
+        if (historyManager != null) {
+            historyManager.close();
+        }
+        if (userManager != null) {
+            userManager.close();
+        }
+        roomManager.clear();
+    }
+
+    /**
+     * 实际监听的端口，以0启动时由系统分配
+     */
+    public int getLocalPort() {
+        return server == null ? -1 : server.socket().getLocalPort();
+    }
+
+    public ClientHandler getClient(long id) {
+        return clientHandlers.get(id);
+    }
+
+    public int getClientCount() {
+        return clientHandlers.size();
+    }
+
+    public RoomManager getRoomManager() {
+        return roomManager;
     }
 
     public void broadcast(String str) {
-        for (ClientHandler clientHandler : clientHandlerList) {
-            clientHandler.send(str);
+        // 只编码一次，所有连接共享同一份只读数据
+        SharedFrame frame = SharedFrame.encodeString(str);
+        try {
+            for (ClientHandler clientHandler : clientHandlers.snapshot()) {
+                clientHandler.send(frame);
+            }
+        } finally {
+            frame.release();
         }
     }
 
-    private class ClientListener extends Thread {
-        private ServerSocket server;
-        private boolean done = false;
+    private final ClientHandler.ClientHandlerCallback clientHandlerCallback = new ClientHandler.ClientHandlerCallback() {
+        @Override
+        public void onSelfClosed(ClientHandler handler) {
+            clientHandlers.unregister(handler.getId(), handler);
+            roomManager.leaveAll(handler);
+            if (userManager != null) {
+                userManager.onClosed(handler);
+            }
+        }
+
+        @Override
+        public void onNewMessageArrived(ClientHandler handler, String msg) {
+            // 交给分发流水线，IO线程不参与路由与扇出
+            dispatchPipeline.submit(handler, msg);
+        }
 
-        private ClientListener(int port) throws IOException {
-            server = new ServerSocket(port);
-            System.out.println("服务器信息：" + server.getInetAddress() + " P:" + server.getLocalPort());
+        @Override
+        public void onNewFileArrived(ClientHandler handler, FileReceiver.ReceivedFile file) {
+            FileStore.StoredFile stored;
+            try {
+                stored = fileStore.store(handler, file);
+            } catch (IOException e) {
+                LOGGER.warn("保存文件失败：{} {}", file.getName(), e.getMessage());
+                handler.send("文件保存失败：" + file.getName());
+                try {
+                    Files.deleteIfExists(file.getPath());
+                } catch (IOException ignored) {
+                }
+                return;
+            }
+            handler.send("文件已上传：" + stored.getName() + "，Id：" + stored.getId());
+            // 以发送者的名义通知当前房间，与普通消息走同一条路径
+            dispatchPipeline.submit(handler, "分享了文件 " + stored.getName() + "（" + stored.getLength()
+                    + "字节），输入 " + FileStore.CMD_GET + " " + stored.getId() + " 下载");
         }
+    };
+
+    private class ClientListener implements Runnable {
+        private volatile boolean done = false;
 
         @Override
         public void run() {
-            System.out.println("服务器准备就绪～");
-            // 等待客户端连接
+            LOGGER.info("服务器准备就绪～");
+            if (blockingMode != null) {
+                acceptBlocking();
+            } else {
+                acceptBySelector();
+            }
+            LOGGER.info("服务器已关闭！");
+        }
+
+        private void acceptBlocking() {
+            ServerSocketChannel server = TCPServer.this.server;
             do {
-                // 得到客户端
-                Socket client;
                 try {
-                    client = server.accept();
+                    accept(server.accept());
                 } catch (IOException e) {
-                    continue;
+                    if (!done) {
+                        LOGGER.error("接收连接异常", e);
+                    }
                 }
+            } while (!done && server.isOpen());
+        }
+
+        private void acceptBySelector() {
+            Selector selector = TCPServer.this.selector;
+            // 等待客户端连接
+            do {
+                // 得到客户端
                 try {
-                    // 客户端构建异步线程
-                    ClientHandler clientHandler = new ClientHandler(client, handler -> clientHandlerList.remove(handler));
-                    // 读取数据并打印
-                    clientHandler.readToPrint();
-                    clientHandlerList.add(clientHandler);
+                    if (selector.select() == 0) {
+                        if (done) {
+                            break;
+                        }
+                        continue;
+                    }
+
+                    Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                    while (iterator.hasNext()) {
+                        if (done) {
+                            break;
+                        }
+
+                        SelectionKey key = iterator.next();
+                        iterator.remove();
+
+                        // 检查当前Key的状态是否是我们关注的客户端到达状态
+                        if (key.isAcceptable()) {
+                            ServerSocketChannel serverSocketChannel = (ServerSocketChannel) key.channel();
+                            // 一次就绪尽可能多地拿到已到达的连接，减少select次数
+                            SocketChannel socketChannel;
+                            while ((socketChannel = serverSocketChannel.accept()) != null) {
+                                accept(socketChannel);
+                            }
+                        }
+                    }
                 } catch (IOException e) {
-                    e.printStackTrace();
-                    System.out.println("客户端连接异常：" + e.getMessage());
+                    LOGGER.error("接收连接异常", e);
                 }
             } while (!done);
-            System.out.println("服务器已关闭！");
         }
 
-        void exit() {
-            done = true;
+        private void accept(SocketChannel socketChannel) {
+            acceptCounter.increment();
             try {
-                server.close();
+                // 当前线程只负责接收连接，读写交由IoProvider中的Worker调度
+                ClientHandler clientHandler = new ClientHandler(socketChannel, clientHandlerCallback);
+                if (idleTimeoutSeconds > 0) {
+                    clientHandler.enableIdleCheck(idleTimer, idleTimeoutSeconds, TimeUnit.SECONDS);
+                }
+                if (fileStore != null) {
+                    clientHandler.enableFileReceive(fileStore.getTempDir(), fileStore.getMaxFileLength());
+                }
+                clientHandlers.register(clientHandler.getId(), clientHandler);
+                // 注册前连接可能已经断开，此时关闭回调未能移除
+                if (clientHandler.isClosed()) {
+                    clientHandlers.unregister(clientHandler.getId(), clientHandler);
+                }
             } catch (IOException e) {
-                e.printStackTrace();
+                LOGGER.error("客户端连接异常：{}", e.getMessage(), e);
+                CloseUtils.close(socketChannel);
+            }
+        }
+
+        void exit() {
+            done = true;
+            // 唤醒当前的阻塞，阻塞式accept由关闭ServerSocketChannel唤醒
+            if (selector != null) {
+                selector.wakeup();
             }
         }
     }
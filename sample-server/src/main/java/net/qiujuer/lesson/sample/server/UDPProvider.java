@@ -1,20 +1,58 @@
 package net.qiujuer.lesson.sample.server;
 
 import net.qiujuer.lesson.sample.foo.constants.UDPConstants;
-import net.qiujuer.library.clink.utils.ByteUtils;
+import net.qiujuer.lesson.sample.foo.udp.ServerLoad;
+import net.qiujuer.lesson.sample.foo.udp.UDPPacket;
+import net.qiujuer.lesson.sample.server.cluster.ClusterManager;
+import net.qiujuer.library.clink.log.Logger;
+import net.qiujuer.library.clink.metrics.Metrics;
+import net.qiujuer.library.clink.utils.CloseUtils;
 
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * 响应UDP搜索
+ * <p>
+ * 非阻塞的DatagramChannel，每次唤醒尽量读空接收队列后统一处理；回送数据预先写好，负载变化时才重新生成；
+ * 同一来源地址的请求按令牌桶限速，广播风暴时超出的请求直接丢弃
+ */
 class UDPProvider {
+    private static final Logger LOGGER = Logger.getLogger(UDPProvider.class);
+    // 累计收到的搜索请求数，包括无效的数据包
+    static final String METRIC_DISCOVERY_REQUESTS = "server.discovery.requests";
+    static final String METRIC_DISCOVERY_RESPONSES = "server.discovery.responses";
+    // 因来源限速未处理的请求数
+    static final String METRIC_DISCOVERY_LIMITED = "server.discovery.limited";
+    // 发送缓冲区已满未能回送的请求数
+    static final String METRIC_DISCOVERY_DROPPED = "server.discovery.dropped";
     private static Provider PROVIDER_INSTANCE;
 
     static void start(int port) {
+        start(port, null, null);
+    }
+
+    /**
+     * @param cluster     不为空时以节点Id作为sn，并将收到的节点通告交给它
+     * @param loadSampler 不为空时在回送中携带最近一次采样的负载
+     */
+    static void start(int port, ClusterManager cluster, LoadSampler loadSampler) {
         stop();
-        String sn = UUID.randomUUID().toString();
-        Provider provider = new Provider(sn, port);
+        String sn = cluster != null ? cluster.getNodeId() : UUID.randomUUID().toString();
+        Provider provider = new Provider(sn, port, cluster, loadSampler, Config.fromSystemProperties());
         provider.start();
         PROVIDER_INSTANCE = provider;
     }
@@ -26,104 +64,274 @@ class UDPProvider {
         }
     }
 
+    static class Config {
+        private final double sourceRate;
+        private final int sourceBurst;
+        private final int maxSources;
+        private final int batchSize;
+        private final int receiveBufferSize;
+
+        /**
+         * @param sourceRate        单个来源地址每秒处理的请求数
+         * @param sourceBurst       单个来源地址允许的突发请求数
+         * @param maxSources        记录的来源地址上限，超出后新来源的请求在清理前一律限速
+         * @param batchSize         一次唤醒最多处理的请求数，处理完回到select检查退出
+         * @param receiveBufferSize 接收缓冲区，大量客户端同时搜索时请求在内核中排队
+         */
+        Config(double sourceRate, int sourceBurst, int maxSources, int batchSize, int receiveBufferSize) {
+            this.sourceRate = sourceRate;
+            this.sourceBurst = sourceBurst;
+            this.maxSources = maxSources;
+            this.batchSize = batchSize;
+            this.receiveBufferSize = receiveBufferSize;
+        }
+
+        /**
+         * 读取 clink.discovery.* 系统属性，未设置时使用默认值
+         */
+        static Config fromSystemProperties() {
+            return new Config(
+                    Double.parseDouble(System.getProperty("clink.discovery.sourceRate", "10")),
+                    Integer.getInteger("clink.discovery.sourceBurst", 20),
+                    Integer.getInteger("clink.discovery.maxSources", 16384),
+                    Integer.getInteger("clink.discovery.batchSize", 256),
+                    Integer.getInteger("clink.discovery.receiveBufferSize", 1024 * 1024));
+        }
+
+        @Override
+        public String toString() {
+            return "Config{" +
+                    "sourceRate=" + sourceRate +
+                    ", sourceBurst=" + sourceBurst +
+                    ", maxSources=" + maxSources +
+                    ", batchSize=" + batchSize +
+                    ", receiveBufferSize=" + receiveBufferSize +
+                    '}';
+        }
+    }
+
     private static class Provider extends Thread {
         private final byte[] sn;
         private final int port;
-        private boolean done = false;
-        private DatagramSocket ds = null;
-        // 存储消息的Buffer
-        final byte[] buffer = new byte[128];
+        private final ClusterManager cluster;
+        private final LoadSampler loadSampler;
+        private final Config config;
+        private final SourceLimiter limiter;
+        private volatile boolean done = false;
+        private Selector selector;
+        private DatagramChannel channel;
+        // 请求最长为头部 + cmd + 端口 + sn，超出部分被截断
+        private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(128);
+        // 回送模板，只在负载变化时重写，发送时只重置position
+        private final ByteBuffer responseTemplate = ByteBuffer.allocateDirect(128);
+        private ServerLoad templateLoad;
+        private final LongAdder requestCounter = Metrics.getDefault().counter(METRIC_DISCOVERY_REQUESTS);
+        private final LongAdder responseCounter = Metrics.getDefault().counter(METRIC_DISCOVERY_RESPONSES);
+        private final LongAdder limitedCounter = Metrics.getDefault().counter(METRIC_DISCOVERY_LIMITED);
+        private final LongAdder droppedCounter = Metrics.getDefault().counter(METRIC_DISCOVERY_DROPPED);
 
-        Provider(String sn, int port) {
-            super();
+        Provider(String sn, int port, ClusterManager cluster, LoadSampler loadSampler, Config config) {
+            super("UDPProvider-Thread");
             this.sn = sn.getBytes();
             this.port = port;
+            this.cluster = cluster;
+            this.loadSampler = loadSampler;
+            this.config = config;
+            this.limiter = new SourceLimiter(config);
         }
 
         @Override
         public void run() {
-            super.run();
-
-            System.out.println("UDPProvider Started.");
+            LOGGER.info("UDPProvider Started. {}", config);
 
             try {
-                // 监听20000 端口
-                ds = new DatagramSocket(UDPConstants.PORT_SERVER);
-                // 接收消息的Packet
-                DatagramPacket receivePack = new DatagramPacket(buffer, buffer.length);
-
+                open();
                 while (!done) {
+                    selector.select();
+                    selector.selectedKeys().clear();
+                    if (done) {
+                        break;
+                    }
+                    processBatch();
+                }
+            } catch (Exception e) {
+                if (!done) {
+                    LOGGER.error("UDPProvider error", e);
+                }
+            } finally {
+                close();
+            }
+
+            // 完成
+            LOGGER.info("UDPProvider Finished.");
+        }
 
-                    // 接收
-                    ds.receive(receivePack);
+        private synchronized void open() throws IOException {
+            if (done) {
+                throw new IOException("UDPProvider exited");
+            }
+            selector = Selector.open();
+            channel = DatagramChannel.open();
+            // 监听固定端口，同一主机上的多个节点共用该端口，广播会投递给每一个
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, config.receiveBufferSize);
+            channel.bind(new InetSocketAddress(UDPConstants.PORT_SERVER));
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+        }
 
-                    // 打印接收到的信息与发送者的信息
-                    // 发送者的IP地址
-                    String clientIp = receivePack.getAddress().getHostAddress();
-                    int clientPort = receivePack.getPort();
-                    int clientDataLen = receivePack.getLength();
-                    byte[] clientData = receivePack.getData();
-                    boolean isValid = clientDataLen >= (UDPConstants.HEADER.length + 2 + 4)
-                            && ByteUtils.startsWith(clientData, UDPConstants.HEADER);
+        /**
+         * 读取并处理接收队列中的请求，直到读空或达到批量上限
+         */
+        private void processBatch() throws IOException {
+            long now = System.nanoTime();
+            refreshTemplate();
+            limiter.sweep(now);
+            for (int i = 0; i < config.batchSize; i++) {
+                receiveBuffer.clear();
+                InetSocketAddress source = (InetSocketAddress) channel.receive(receiveBuffer);
+                if (source == null) {
+                    return;
+                }
+                requestCounter.increment();
+                receiveBuffer.flip();
+                if (!limiter.tryAcquire(source.getAddress(), now)) {
+                    limitedCounter.increment();
+                    continue;
+                }
+                onPacket(source);
+            }
+            // 达到批量上限时队列中可能还有数据，下一次select会立即返回
+        }
 
-                    System.out.println("UDPProvider receive form ip:" + clientIp
-                            + "\tport:" + clientPort + "\tdataValid:" + isValid);
+        private void onPacket(InetSocketAddress source) throws IOException {
+            if (!UDPPacket.isValid(receiveBuffer)) {
+                // 无效继续
+                return;
+            }
 
-                    if (!isValid) {
-                        // 无效继续
-                        continue;
-                    }
+            // 解析命令与回送端口
+            short cmd = UDPPacket.readCmd(receiveBuffer);
+            int responsePort = UDPPacket.readPort(receiveBuffer);
 
-                    // 解析命令与回送端口
-                    int index = UDPConstants.HEADER.length;
-                    short cmd = (short) ((clientData[index++] << 8) | (clientData[index++] & 0xff));
-                    int responsePort = (((clientData[index++]) << 24) |
-                            ((clientData[index++] & 0xff) << 16) |
-                            ((clientData[index++] & 0xff) << 8) |
-                            ((clientData[index] & 0xff)));
-
-                    // 判断合法性
-                    if (cmd == 1 && responsePort > 0) {
-                        // 构建一份回送数据
-                        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
-                        byteBuffer.put(UDPConstants.HEADER);
-                        byteBuffer.putShort((short) 2);
-                        byteBuffer.putInt(port);
-                        byteBuffer.put(sn);
-                        int len = byteBuffer.position();
-                        // 直接根据发送者构建一份回送信息
-                        DatagramPacket responsePacket = new DatagramPacket(buffer,
-                                len,
-                                receivePack.getAddress(),
-                                responsePort);
-                        ds.send(responsePacket);
-                        System.out.println("UDPProvider response to:" + clientIp + "\tport:" + responsePort + "\tdataLen:" + len);
+            // 判断合法性
+            if (cmd == UDPPacket.CMD_SEARCH && responsePort > 0) {
+                responseTemplate.rewind();
+                // 非阻塞发送，发送缓冲区满时返回0，与UDP丢包一样直接放弃
+                try {
+                    if (channel.send(responseTemplate, new InetSocketAddress(source.getAddress(), responsePort)) > 0) {
+                        responseCounter.increment();
                     } else {
-                        System.out.println("UDPProvider receive cmd nonsupport; cmd:" + cmd + "\tport:" + port);
+                        droppedCounter.increment();
                     }
+                } catch (ClosedChannelException e) {
+                    throw e;
+                } catch (IOException e) {
+                    // 单个来源地址无法发送（如广播地址）时只放弃该请求，不影响后续的搜索
+                    droppedCounter.increment();
+                    LOGGER.debug("UDPProvider send failed; to:{}\t{}", source, e.getMessage());
                 }
-            } catch (Exception ignored) {
-            } finally {
-                close();
+            } else if (cmd == UDPPacket.CMD_NODE_ANNOUNCE && responsePort > 0 && cluster != null) {
+                // 节点通告中的端口为对方的集群端口
+                cluster.onNodeAnnounced(source.getAddress(), responsePort, UDPPacket.readSn(receiveBuffer));
+            } else if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("UDPProvider receive cmd nonsupport; cmd:{}\tfrom:{}", cmd, source);
             }
-
-            // 完成
-            System.out.println("UDPProvider Finished.");
         }
 
-        private void close() {
-            if (ds != null) {
-                ds.close();
-                ds = null;
+        /**
+         * 负载每秒采样一次，采样结果对象变化时才重写模板
+         */
+        private void refreshTemplate() {
+            ServerLoad load = loadSampler != null ? loadSampler.current() : ServerLoad.EMPTY;
+            if (load == templateLoad) {
+                return;
             }
+            templateLoad = load;
+            responseTemplate.clear();
+            UDPPacket.writeResponse(responseTemplate, port, load, sn);
+            responseTemplate.flip();
+        }
+
+        private synchronized void close() {
+            CloseUtils.close(channel, selector);
+            channel = null;
+            selector = null;
         }
 
         /**
          * 提供结束
          */
-        void exit() {
+        synchronized void exit() {
             done = true;
-            close();
+            if (selector != null) {
+                selector.wakeup();
+            }
+        }
+    }
+
+    /**
+     * 按来源地址的令牌桶，只在Provider线程中访问
+     */
+    private static class SourceLimiter {
+        // 清理间隔
+        private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+        private final double tokensPerNano;
+        private final int burst;
+        private final int maxSources;
+        // 空闲多久后令牌桶必然已满，可以移除
+        private final long refillNanos;
+        private final Map<InetAddress, Bucket> buckets = new HashMap<>();
+        private long lastSweepNanos = System.nanoTime();
+
+        SourceLimiter(Config config) {
+            this.tokensPerNano = config.sourceRate / TimeUnit.SECONDS.toNanos(1);
+            this.burst = config.sourceBurst;
+            this.maxSources = config.maxSources;
+            this.refillNanos = (long) Math.ceil(burst / tokensPerNano);
+        }
+
+        boolean tryAcquire(InetAddress address, long now) {
+            Bucket bucket = buckets.get(address);
+            if (bucket == null) {
+                if (buckets.size() >= maxSources) {
+                    return false;
+                }
+                bucket = new Bucket(burst, now);
+                buckets.put(address, bucket);
+            } else {
+                bucket.tokens = Math.min(burst, bucket.tokens + (now - bucket.lastNanos) * tokensPerNano);
+                bucket.lastNanos = now;
+            }
+            if (bucket.tokens < 1) {
+                return false;
+            }
+            bucket.tokens--;
+            return true;
+        }
+
+        void sweep(long now) {
+            if (now - lastSweepNanos < SWEEP_INTERVAL_NANOS) {
+                return;
+            }
+            lastSweepNanos = now;
+            Iterator<Bucket> iterator = buckets.values().iterator();
+            while (iterator.hasNext()) {
+                if (now - iterator.next().lastNanos >= refillNanos) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        private static class Bucket {
+            double tokens;
+            long lastNanos;
+
+            Bucket(double tokens, long lastNanos) {
+                this.tokens = tokens;
+                this.lastNanos = lastNanos;
+            }
         }
     }
 }
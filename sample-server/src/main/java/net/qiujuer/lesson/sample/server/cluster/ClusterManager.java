@@ -0,0 +1,601 @@
+package net.qiujuer.lesson.sample.server.cluster;
+
+import net.qiujuer.lesson.sample.foo.constants.UDPConstants;
+import net.qiujuer.lesson.sample.foo.udp.UDPPacket;
+import net.qiujuer.lesson.sample.server.dispatch.CommandHandler;
+import net.qiujuer.lesson.sample.server.dispatch.DispatchPipeline;
+import net.qiujuer.lesson.sample.server.handle.ClientHandler;
+import net.qiujuer.lesson.sample.server.room.Room;
+import net.qiujuer.lesson.sample.server.room.RoomManager;
+import net.qiujuer.library.clink.frame.Frame;
+import net.qiujuer.library.clink.frame.SharedFrame;
+import net.qiujuer.library.clink.log.Logger;
+import net.qiujuer.library.clink.metrics.Metrics;
+import net.qiujuer.library.clink.timer.HashedWheelTimer;
+import net.qiujuer.library.clink.utils.CloseUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 集群模式：多个服务器节点两两之间保持一条持久连接，客户端连接任一节点即可与所有节点上的同一房间成员聊天
+ * <p>
+ * 节点通过UDP广播通告自身的集群端口，Id较小的一方发起连接；也可以通过种子地址直接连接，两条重复的链路保留由Id较小的一方发起的那条
+ * <p>
+ * 链路建立后双方同步本节点有成员的房间，之后随房间的创建与移除增量同步；房间消息在本节点扇出后，
+ * 由单独的线程按对端聚合为批量帧发往有该房间成员的节点，对端只在本地投递与保存，不再转发
+ * <p>
+ * 登录与私信仍只在各自节点内有效
+ */
+public class ClusterManager implements RoomManager.MembershipListener, CommandHandler, Closeable {
+    private static final Logger LOGGER = Logger.getLogger(ClusterManager.class);
+    public static final String CMD_NODES = "/nodes";
+    // 单次从队列中取出的最大消息数
+    private static final int MAX_DRAIN = 1024;
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final Config config;
+    private final RoomManager roomManager;
+    private final HashedWheelTimer timer;
+    private volatile DispatchPipeline dispatchPipeline;
+    // 已握手的链路，按对端节点Id索引
+    private final ConcurrentHashMap<String, PeerLink> peers = new ConcurrentHashMap<>();
+    // 所有未关闭的链路，包括尚未握手的
+    private final Set<PeerLink> links = ConcurrentHashMap.newKeySet();
+    // 种子地址对应的节点Id，握手后记录，空字符串表示未知
+    private final ConcurrentHashMap<InetSocketAddress, String> seedNodeIds = new ConcurrentHashMap<>();
+    // 房间增减的通知与新链路的全量同步互斥，保证对端收到的顺序一致
+    private final Object membershipLock = new Object();
+    private final BlockingQueue<DialRequest> dialRequests = new LinkedBlockingQueue<>();
+    private final BlockingQueue<RelayItem> relayQueue;
+    private final LongAdder relayedCounter = Metrics.getDefault().counter("server.cluster.relayed");
+    private final LongAdder batchCounter = Metrics.getDefault().counter("server.cluster.batches");
+    private final LongAdder receivedCounter = Metrics.getDefault().counter("server.cluster.received");
+    private final LongAdder droppedCounter = Metrics.getDefault().counter("server.cluster.dropped");
+    private ServerSocketChannel server;
+    private Acceptor acceptor;
+    private Maintainer maintainer;
+    private RelayWriter relayWriter;
+    private volatile boolean closed = false;
+
+    public ClusterManager(Config config, RoomManager roomManager, HashedWheelTimer timer) {
+        this.config = config;
+        this.roomManager = roomManager;
+        this.timer = timer;
+        this.relayQueue = new ArrayBlockingQueue<>(config.queueSize);
+        for (InetSocketAddress seed : config.seeds) {
+            seedNodeIds.put(seed, "");
+        }
+    }
+
+    /**
+     * 收到的消息交给本节点流水线的扇出阶段投递与保存，不在链路的IO线程上处理；需在{@link #start()}之前设置
+     */
+    public void setDispatchPipeline(DispatchPipeline dispatchPipeline) {
+        this.dispatchPipeline = dispatchPipeline;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public int getClusterPort() {
+        return config.port;
+    }
+
+    public int getPeerCount() {
+        return peers.size();
+    }
+
+    public void start() throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(config.port));
+
+        relayWriter = new RelayWriter();
+        relayWriter.start();
+        acceptor = new Acceptor();
+        acceptor.start();
+        maintainer = new Maintainer();
+        maintainer.start();
+        LOGGER.info("集群节点已启动：{} 端口：{}", nodeId, config.port);
+    }
+
+    /**
+     * UDPProvider收到节点通告时调用
+     */
+    public void onNodeAnnounced(InetAddress address, int clusterPort, String peerId) {
+        // 由Id较小的一方发起连接，另一方等待
+        if (closed || nodeId.compareTo(peerId) >= 0 || peers.containsKey(peerId)) {
+            return;
+        }
+        dialRequests.offer(new DialRequest(new InetSocketAddress(address, clusterPort), peerId));
+    }
+
+    /**
+     * 房间消息在本节点扇出后调用，frame的引用仍由调用方释放
+     */
+    public void relay(Room room, SharedFrame frame) {
+        String name = room.getName();
+        if (!hasRemoteMembers(name)) {
+            return;
+        }
+        frame.retain();
+        if (!relayQueue.offer(new RelayItem(name, frame))) {
+            frame.release();
+            droppedCounter.increment();
+        }
+    }
+
+    private boolean hasRemoteMembers(String room) {
+        for (PeerLink link : peers.values()) {
+            if (link.hasRemoteRoom(room)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void onRoomCreated(String name) {
+        notifyMembership(ClusterProtocol.TYPE_ROOMS_ADDED, name);
+    }
+
+    @Override
+    public void onRoomRemoved(String name) {
+        notifyMembership(ClusterProtocol.TYPE_ROOMS_REMOVED, name);
+    }
+
+    private void notifyMembership(byte type, String name) {
+        List<String> names = Collections.singletonList(name);
+        synchronized (membershipLock) {
+            for (PeerLink link : peers.values()) {
+                if (link.isActive()) {
+                    link.sendRooms(type, names);
+                }
+            }
+        }
+    }
+
+    void onHello(PeerLink link) {
+        String peerId = link.getPeerId();
+        if (link.isOutbound()) {
+            // 种子重启后Id会变化
+            seedNodeIds.replace(link.getRemoteAddress(), peerId);
+        }
+        if (peerId.equals(nodeId)) {
+            // 种子中包含自身
+            LOGGER.debug("忽略连接到自身的链路：{}", link.getRemoteAddress());
+            link.close();
+            return;
+        }
+
+        PeerLink existing = peers.putIfAbsent(peerId, link);
+        if (existing != null && existing != link) {
+            // 双方同时发起连接时，两端按同一规则保留同一条
+            if (!isPreferred(link, existing) || !peers.replace(peerId, existing, link)) {
+                link.close();
+                return;
+            }
+            existing.close();
+        }
+        synchronized (membershipLock) {
+            link.activate(roomManager.getRoomNames());
+        }
+        // 加入前链路可能已经关闭，此时关闭流程未能移除
+        if (link.isClosed()) {
+            peers.remove(peerId, link);
+            return;
+        }
+        LOGGER.info("节点已连接：{}", link);
+    }
+
+    /**
+     * 已有发往该地址且尚未握手的链路
+     */
+    private boolean isConnecting(InetSocketAddress address) {
+        for (PeerLink link : links) {
+            if (link.isOutbound() && link.getPeerId() == null && link.getRemoteAddress().equals(address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isPreferred(PeerLink link, PeerLink existing) {
+        String initiator = link.isOutbound() ? nodeId : link.getPeerId();
+        String existingInitiator = existing.isOutbound() ? nodeId : existing.getPeerId();
+        return initiator.compareTo(existingInitiator) < 0;
+    }
+
+    /**
+     * 由链路的IO线程调用，解析后交给分发流水线的扇出阶段投递与保存，不阻塞；扇出队列已满时丢弃
+     */
+    void onRelay(ByteBuffer body) throws IOException {
+        ClusterProtocol.readRelay(body, (name, message) -> {
+            receivedCounter.increment();
+            Room room = roomManager.getRoom(name);
+            DispatchPipeline dispatchPipeline = this.dispatchPipeline;
+            if (room == null || dispatchPipeline == null) {
+                return;
+            }
+            SharedFrame frame = SharedFrame.encode(Frame.TYPE_STRING, Frame.FLAG_NONE, (short) 0, message);
+            try {
+                // 扇出队列已满时丢弃，计入流水线的丢弃数
+                dispatchPipeline.submitRelayed(room, frame);
+            } finally {
+                frame.release();
+            }
+        });
+    }
+
+    void onLinkClosed(PeerLink link) {
+        links.remove(link);
+        String peerId = link.getPeerId();
+        if (peerId != null && peers.remove(peerId, link)) {
+            LOGGER.info("节点已断开：{}", link);
+        }
+    }
+
+    private void register(SocketChannel channel, boolean outbound) {
+        try {
+            PeerLink link = new PeerLink(this, channel, outbound, timer);
+            links.add(link);
+            // 加入前链路可能已经关闭，或者正在关闭集群
+            if (link.isClosed() || closed) {
+                links.remove(link);
+                link.close();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("节点链路建立失败：{}", e.getMessage());
+            CloseUtils.close(channel);
+        }
+    }
+
+    @Override
+    public String[] getCommands() {
+        return new String[]{CMD_NODES};
+    }
+
+    @Override
+    public boolean handleCommand(ClientHandler handler, String cmd, String arg) {
+        if (!CMD_NODES.equals(cmd)) {
+            return false;
+        }
+        StringBuilder builder = new StringBuilder("当前节点：").append(nodeId).append("，已连接节点：").append(peers.size());
+        for (PeerLink link : peers.values()) {
+            builder.append("\n").append(link).append(" 房间数：").append(link.getRemoteRoomCount());
+        }
+        handler.send(builder.toString());
+        return true;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (acceptor != null) {
+            acceptor.exit();
+        }
+        if (maintainer != null) {
+            maintainer.exit();
+        }
+        if (relayWriter != null) {
+            relayWriter.exit();
+        }
+        CloseUtils.close(server);
+        for (PeerLink link : new ArrayList<>(links)) {
+            link.close();
+        }
+    }
+
+    private static class DialRequest {
+        final InetSocketAddress address;
+        final String peerId;
+
+        DialRequest(InetSocketAddress address, String peerId) {
+            this.address = address;
+            this.peerId = peerId;
+        }
+    }
+
+    private static class RelayItem {
+        final String room;
+        final SharedFrame frame;
+
+        RelayItem(String room, SharedFrame frame) {
+            this.room = room;
+            this.frame = frame;
+        }
+    }
+
+    /**
+     * 接收其他节点发起的连接
+     */
+    private class Acceptor extends Thread {
+        private volatile boolean done = false;
+
+        Acceptor() {
+            super("ClusterManager-Acceptor-Thread");
+        }
+
+        @Override
+        public void run() {
+            ServerSocketChannel server = ClusterManager.this.server;
+            while (!done) {
+                try {
+                    register(server.accept(), false);
+                } catch (IOException e) {
+                    if (!done) {
+                        LOGGER.error("接收节点连接异常", e);
+                    }
+                    break;
+                }
+            }
+        }
+
+        void exit() {
+            done = true;
+        }
+    }
+
+    /**
+     * 定期广播节点通告并重连种子，处理发现的节点的连接请求；连接为阻塞式，带超时
+     */
+    private class Maintainer extends Thread {
+        private final byte[] buffer = new byte[128];
+        private volatile boolean done = false;
+        private DatagramSocket ds;
+
+        Maintainer() {
+            super("ClusterManager-Maintainer-Thread");
+        }
+
+        @Override
+        public void run() {
+            long interval = TimeUnit.SECONDS.toNanos(config.announceIntervalSeconds);
+            long next = System.nanoTime();
+            while (!done) {
+                try {
+                    long now = System.nanoTime();
+                    if (now - next >= 0) {
+                        announce();
+                        dialSeeds();
+                        next = now + interval;
+                    }
+                    DialRequest request = dialRequests.poll(next - now, TimeUnit.NANOSECONDS);
+                    // 通告周期性到达，同一节点可能有多个请求
+                    if (request != null && !peers.containsKey(request.peerId) && !isConnecting(request.address)) {
+                        dial(request.address);
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            CloseUtils.close(ds);
+        }
+
+        private void announce() {
+            if (!config.discovery) {
+                return;
+            }
+            try {
+                if (ds == null) {
+                    ds = new DatagramSocket();
+                    ds.setBroadcast(true);
+                }
+                int len = UDPPacket.writeAnnounce(ByteBuffer.wrap(buffer), config.port,
+                        nodeId.getBytes(StandardCharsets.UTF_8));
+                ds.send(new DatagramPacket(buffer, len,
+                        InetAddress.getByName("255.255.255.255"), UDPConstants.PORT_SERVER));
+            } catch (IOException e) {
+                LOGGER.warn("节点通告发送失败：{}", e.getMessage());
+            }
+        }
+
+        private void dialSeeds() {
+            for (InetSocketAddress seed : config.seeds) {
+                String id = seedNodeIds.get(seed);
+                if (nodeId.equals(id) || (id != null && peers.containsKey(id)) || isConnecting(seed)) {
+                    continue;
+                }
+                dial(seed);
+            }
+        }
+
+        private void dial(InetSocketAddress address) {
+            if (done) {
+                return;
+            }
+            SocketChannel channel = null;
+            try {
+                channel = SocketChannel.open();
+                channel.socket().connect(address, config.connectTimeoutMillis);
+                register(channel, true);
+            } catch (IOException e) {
+                LOGGER.debug("连接节点失败：{} {}", address, e.getMessage());
+                CloseUtils.close(channel);
+            }
+        }
+
+        void exit() {
+            done = true;
+            interrupt();
+        }
+    }
+
+    /**
+     * 取出队列中已有的全部消息，按对端过滤后聚合为批量帧；低负载时一条一帧，高负载时自然成批
+     */
+    private class RelayWriter extends Thread {
+        private final List<RelayItem> batch = new ArrayList<>();
+        private ByteBuffer body = ByteBuffer.allocate(config.maxBatchBytes);
+        private volatile boolean done = false;
+
+        RelayWriter() {
+            super("ClusterManager-Relay-Thread");
+        }
+
+        @Override
+        public void run() {
+            while (!done) {
+                try {
+                    batch.add(relayQueue.take());
+                } catch (InterruptedException e) {
+                    break;
+                }
+                relayQueue.drainTo(batch, MAX_DRAIN - 1);
+                try {
+                    write();
+                } catch (RuntimeException e) {
+                    LOGGER.error("转发消息异常", e);
+                } finally {
+                    releaseBatch();
+                }
+            }
+            relayQueue.drainTo(batch);
+            releaseBatch();
+        }
+
+        private void write() {
+            for (PeerLink link : peers.values()) {
+                if (!link.isActive()) {
+                    continue;
+                }
+                body.clear();
+                body.putInt(0);
+                int count = 0;
+                for (RelayItem item : batch) {
+                    if (!link.hasRemoteRoom(item.room)) {
+                        continue;
+                    }
+                    byte[] room = item.room.getBytes(StandardCharsets.UTF_8);
+                    ByteBuffer message = item.frame.view();
+                    message.position(message.position() + Frame.HEADER_LENGTH);
+                    int length = ClusterProtocol.relayItemLength(room, message.remaining());
+                    if (count > 0 && body.remaining() < length) {
+                        flush(link, count);
+                        count = 0;
+                    }
+                    if (body.remaining() < length) {
+                        // 单条超过批量上限，扩容后沿用
+                        ByteBuffer bigger = ByteBuffer.allocate(body.position() + length);
+                        body.flip();
+                        body = bigger.put(body);
+                    }
+                    ClusterProtocol.writeRelayItem(body, room, message);
+                    count++;
+                }
+                if (count > 0) {
+                    flush(link, count);
+                }
+            }
+        }
+
+        private void flush(PeerLink link, int count) {
+            body.putInt(0, count);
+            body.flip();
+            SharedFrame frame = SharedFrame.encode(ClusterProtocol.TYPE_RELAY, Frame.FLAG_NONE, (short) 0, body);
+            link.send(frame);
+            frame.release();
+            relayedCounter.add(count);
+            batchCounter.increment();
+            body.clear();
+            body.putInt(0);
+        }
+
+        private void releaseBatch() {
+            for (RelayItem item : batch) {
+                item.frame.release();
+            }
+            batch.clear();
+        }
+
+        void exit() {
+            done = true;
+            interrupt();
+        }
+    }
+
+    public static class Config {
+        private final int port;
+        private final List<InetSocketAddress> seeds;
+        private final boolean discovery;
+        private final int announceIntervalSeconds;
+        private final int connectTimeoutMillis;
+        private final int maxBatchBytes;
+        private final int queueSize;
+
+        public Config(int port, List<InetSocketAddress> seeds, boolean discovery, int announceIntervalSeconds,
+                      int connectTimeoutMillis, int maxBatchBytes, int queueSize) {
+            if (announceIntervalSeconds <= 0 || maxBatchBytes <= 0 || queueSize <= 0) {
+                throw new IllegalArgumentException("announceIntervalSeconds, maxBatchBytes and queueSize must be > 0");
+            }
+            this.port = port;
+            this.seeds = seeds;
+            this.discovery = discovery;
+            this.announceIntervalSeconds = announceIntervalSeconds;
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            this.maxBatchBytes = maxBatchBytes;
+            this.queueSize = queueSize;
+        }
+
+        /**
+         * 读取 clink.cluster.* 系统属性，clink.cluster.port 未设置时不开启集群；
+         * clink.cluster.seeds 为逗号分隔的 host:port 列表，可以包含自身
+         */
+        public static Config fromSystemProperties() {
+            List<InetSocketAddress> seeds = new ArrayList<>();
+            for (String seed : System.getProperty("clink.cluster.seeds", "").split(",")) {
+                seed = seed.trim();
+                int index = seed.lastIndexOf(':');
+                if (index > 0) {
+                    seeds.add(new InetSocketAddress(seed.substring(0, index),
+                            Integer.parseInt(seed.substring(index + 1))));
+                }
+            }
+            return new Config(
+                    Integer.getInteger("clink.cluster.port", 0),
+                    seeds,
+                    Boolean.parseBoolean(System.getProperty("clink.cluster.discovery", "true")),
+                    Integer.getInteger("clink.cluster.announceSeconds", 5),
+                    Integer.getInteger("clink.cluster.connectTimeoutMs", 3000),
+                    Integer.getInteger("clink.cluster.batchBytes", 64 * 1024),
+                    Integer.getInteger("clink.cluster.queueSize", 16 * 1024));
+        }
+
+        public boolean isEnabled() {
+            return port > 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Config{" +
+                    "port=" + port +
+                    ", seeds=" + seeds +
+                    ", discovery=" + discovery +
+                    ", announceIntervalSeconds=" + announceIntervalSeconds +
+                    ", connectTimeoutMillis=" + connectTimeoutMillis +
+                    ", maxBatchBytes=" + maxBatchBytes +
+                    ", queueSize=" + queueSize +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package net.qiujuer.lesson.sample.server.cluster;
+
+import net.qiujuer.library.clink.frame.Frame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 节点间链路上的帧类型与Body编解码
+ * <pre>
+ * NODE_HELLO：集群端口(4B) | 节点Id，连接建立后双方各发送一次
+ * ROOMS_ADDED / ROOMS_REMOVED：数量(4B) | {名称长度(2B) | 房间名}，本节点有成员的房间的增减，首次为全量
+ * RELAY：数量(4B) | {名称长度(2B) | 房间名 | 长度(4B) | 消息}，一批房间消息，消息为已格式化的UTF-8文本
+ * </pre>
+ * 读取时校验所有长度字段，格式错误时抛出IOException，由链路断开连接
+ */
+final class ClusterProtocol {
+    static final byte TYPE_NODE_HELLO = Frame.TYPE_CUSTOM;
+    static final byte TYPE_ROOMS_ADDED = Frame.TYPE_CUSTOM + 1;
+    static final byte TYPE_ROOMS_REMOVED = Frame.TYPE_CUSTOM + 2;
+    static final byte TYPE_RELAY = Frame.TYPE_CUSTOM + 3;
+
+    private ClusterProtocol() {
+    }
+
+    static byte[] encodeHello(int clusterPort, String nodeId) {
+        byte[] id = nodeId.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(4 + id.length).putInt(clusterPort).put(id).array();
+    }
+
+    static int readHelloPort(ByteBuffer body) throws IOException {
+        if (body.remaining() < 4) {
+            throw new IOException("NODE_HELLO帧长度错误：" + body.remaining());
+        }
+        return body.getInt(body.position());
+    }
+
+    static String readHelloNodeId(ByteBuffer body) throws IOException {
+        if (body.remaining() < 4) {
+            throw new IOException("NODE_HELLO帧长度错误：" + body.remaining());
+        }
+        ByteBuffer id = body.duplicate();
+        id.position(id.position() + 4);
+        return StandardCharsets.UTF_8.decode(id).toString();
+    }
+
+    static byte[] encodeNames(Collection<String> names) {
+        List<byte[]> encoded = new ArrayList<>(names.size());
+        int length = 4;
+        for (String name : names) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            encoded.add(bytes);
+            length += 2 + bytes.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(encoded.size());
+        for (byte[] bytes : encoded) {
+            buffer.putShort((short) bytes.length);
+            buffer.put(bytes);
+        }
+        return buffer.array();
+    }
+
+    static List<String> readNames(ByteBuffer body) throws IOException {
+        ByteBuffer buffer = body.duplicate();
+        // 每个名称至少占用长度字段的2字节
+        int count = readCount(buffer, 2);
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            names.add(readString(buffer));
+        }
+        return names;
+    }
+
+    /**
+     * 一条消息在批量帧中占用的长度
+     */
+    static int relayItemLength(byte[] room, int messageLength) {
+        return 2 + room.length + 4 + messageLength;
+    }
+
+    static void writeRelayItem(ByteBuffer dst, byte[] room, ByteBuffer message) {
+        dst.putShort((short) room.length);
+        dst.put(room);
+        dst.putInt(message.remaining());
+        dst.put(message);
+    }
+
+    /**
+     * 逐条读取批量帧，message为Body的切片，仅在回调期间有效
+     */
+    static void readRelay(ByteBuffer body, RelayConsumer consumer) throws IOException {
+        ByteBuffer buffer = body.duplicate();
+        // 每条消息至少占用两个长度字段的6字节
+        int count = readCount(buffer, 6);
+        for (int i = 0; i < count; i++) {
+            String room = readString(buffer);
+            if (buffer.remaining() < 4) {
+                throw new IOException("RELAY帧数据不完整");
+            }
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                throw new IOException("RELAY帧消息长度错误：" + length);
+            }
+            ByteBuffer message = buffer.slice(buffer.position(), length);
+            buffer.position(buffer.position() + length);
+            consumer.accept(room, message);
+        }
+    }
+
+    private static int readCount(ByteBuffer buffer, int minItemLength) throws IOException {
+        if (buffer.remaining() < 4) {
+            throw new IOException("帧数据不完整");
+        }
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / minItemLength) {
+            throw new IOException("数量字段错误：" + count);
+        }
+        return count;
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 2) {
+            throw new IOException("名称数据不完整");
+        }
+        int length = buffer.getShort() & 0xffff;
+        if (length > buffer.remaining()) {
+            throw new IOException("名称长度错误：" + length);
+        }
+        ByteBuffer bytes = buffer.slice(buffer.position(), length);
+        buffer.position(buffer.position() + length);
+        return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+
+    interface RelayConsumer {
+        void accept(String room, ByteBuffer message);
+    }
+}
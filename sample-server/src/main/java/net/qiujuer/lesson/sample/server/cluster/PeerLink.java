@@ -0,0 +1,190 @@
+package net.qiujuer.lesson.sample.server.cluster;
+
+import net.qiujuer.lesson.sample.foo.constants.TCPConstants;
+import net.qiujuer.library.clink.core.Connector;
+import net.qiujuer.library.clink.core.OutboundQueue;
+import net.qiujuer.library.clink.frame.SharedFrame;
+import net.qiujuer.library.clink.log.Logger;
+import net.qiujuer.library.clink.timer.HashedWheelTimer;
+import net.qiujuer.library.clink.utils.CloseUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 与另一个节点之间的一条持久连接
+ * <p>
+ * 建立后双方先发送NODE_HELLO，收到对方的HELLO后才处理其他帧；记录对方有成员的房间，只向这些房间转发消息
+ */
+class PeerLink implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(PeerLink.class);
+    // 转发以批量帧发送，条数上限较小；对端处理不过来时断开，重连后重新同步成员
+    private static final OutboundQueue.Limit OUTBOUND_LIMIT =
+            new OutboundQueue.Limit(4096, 32 * 1024 * 1024, OutboundQueue.OverflowPolicy.DISCONNECT);
+
+    private final ClusterManager manager;
+    private final Connector connector;
+    private final SocketChannel channel;
+    private final InetSocketAddress remoteAddress;
+    // 由本节点发起的连接
+    private final boolean outbound;
+    private final AtomicBoolean isClosed = new AtomicBoolean(false);
+    private boolean helloSent = false;
+    // 对端有成员的房间
+    private final Set<String> remoteRooms = ConcurrentHashMap.newKeySet();
+    private volatile String peerId;
+    private volatile int peerClusterPort;
+    // 已向对端发送全量房间，之后的增减才有意义
+    private volatile boolean active;
+
+    PeerLink(ClusterManager manager, SocketChannel channel, boolean outbound, HashedWheelTimer timer)
+            throws IOException {
+        this.manager = manager;
+        this.channel = channel;
+        this.outbound = outbound;
+        this.remoteAddress = (InetSocketAddress) channel.getRemoteAddress();
+
+        connector = new Connector() {
+            @Override
+            public void onChannelClosed(SocketChannel channel) {
+                super.onChannelClosed(channel);
+                PeerLink.this.close();
+            }
+
+            @Override
+            protected void onReaderIdle() {
+                LOGGER.info("节点链路空闲超时：{} {}", peerId, remoteAddress);
+                super.onReaderIdle();
+            }
+
+            @Override
+            protected void onReceiveFrame(byte type, byte flags, short identifier, ByteBuffer body) {
+                super.onReceiveFrame(type, flags, identifier, body);
+                onReceive(type, body);
+            }
+        };
+        connector.setOutboundLimit(OUTBOUND_LIMIT);
+        connector.setup(channel);
+        sendHello();
+        // 空闲时发送心跳，超时未收到任何数据视为对端失联
+        connector.enableIdleCheck(timer, TCPConstants.IDLE_TIMEOUT_SECONDS,
+                TCPConstants.HEARTBEAT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * setup之后即开始读取，对方的HELLO可能先于构造完成到达，两处都调用以保证HELLO先于其他帧入队
+     */
+    private synchronized void sendHello() {
+        if (!helloSent) {
+            helloSent = true;
+            connector.send(ClusterProtocol.TYPE_NODE_HELLO,
+                    ClusterProtocol.encodeHello(manager.getClusterPort(), manager.getNodeId()));
+        }
+    }
+
+    String getPeerId() {
+        return peerId;
+    }
+
+    int getPeerClusterPort() {
+        return peerClusterPort;
+    }
+
+    InetSocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    boolean isOutbound() {
+        return outbound;
+    }
+
+    boolean isActive() {
+        return active;
+    }
+
+    /**
+     * 发送全量房间并开始接收增减，由ClusterManager在成员锁内调用
+     */
+    void activate(Collection<String> localRooms) {
+        sendRooms(ClusterProtocol.TYPE_ROOMS_ADDED, localRooms);
+        active = true;
+    }
+
+    boolean hasRemoteRoom(String room) {
+        return remoteRooms.contains(room);
+    }
+
+    int getRemoteRoomCount() {
+        return remoteRooms.size();
+    }
+
+    void sendRooms(byte type, Collection<String> rooms) {
+        connector.send(type, ClusterProtocol.encodeNames(rooms));
+    }
+
+    void send(SharedFrame frame) {
+        connector.send(frame);
+    }
+
+    boolean isClosed() {
+        return isClosed.get();
+    }
+
+    private void onReceive(byte type, ByteBuffer body) {
+        // 同一次读取中关闭之后的帧不再处理
+        if (isClosed.get()) {
+            return;
+        }
+        try {
+            dispatch(type, body);
+        } catch (IOException e) {
+            LOGGER.error("节点链路收到格式错误的帧，断开：{} {}", remoteAddress, e.getMessage());
+            close();
+        }
+    }
+
+    private void dispatch(byte type, ByteBuffer body) throws IOException {
+        if (type == ClusterProtocol.TYPE_NODE_HELLO) {
+            sendHello();
+            peerClusterPort = ClusterProtocol.readHelloPort(body);
+            peerId = ClusterProtocol.readHelloNodeId(body);
+            manager.onHello(this);
+            return;
+        }
+        if (peerId == null) {
+            LOGGER.warn("节点链路未握手即发送数据，断开：{}", remoteAddress);
+            close();
+            return;
+        }
+        if (type == ClusterProtocol.TYPE_ROOMS_ADDED) {
+            remoteRooms.addAll(ClusterProtocol.readNames(body));
+        } else if (type == ClusterProtocol.TYPE_ROOMS_REMOVED) {
+            remoteRooms.removeAll(ClusterProtocol.readNames(body));
+        } else if (type == ClusterProtocol.TYPE_RELAY) {
+            manager.onRelay(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!isClosed.compareAndSet(false, true)) {
+            return;
+        }
+        active = false;
+        CloseUtils.close(connector, channel);
+        manager.onLinkClosed(this);
+    }
+
+    @Override
+    public String toString() {
+        return peerId + "@" + remoteAddress.getAddress().getHostAddress() + ":" + peerClusterPort;
+    }
+}
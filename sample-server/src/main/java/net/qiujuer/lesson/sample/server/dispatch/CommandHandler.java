@@ -0,0 +1,20 @@
+package net.qiujuer.lesson.sample.server.dispatch;
+
+import net.qiujuer.lesson.sample.server.handle.ClientHandler;
+
+/**
+ * 文本指令的处理者，由DispatchPipeline在路由阶段按注册顺序依次尝试
+ */
+public interface CommandHandler {
+    /**
+     * @param cmd 指令，如 /join
+     * @param arg 指令后的参数，没有时为null
+     * @return false 不是自己支持的指令
+     */
+    boolean handleCommand(ClientHandler handler, String cmd, String arg);
+
+    /**
+     * 支持的指令，用于未知指令的提示
+     */
+    String[] getCommands();
+}
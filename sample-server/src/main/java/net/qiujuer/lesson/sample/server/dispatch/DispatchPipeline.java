@@ -0,0 +1,244 @@
+package net.qiujuer.lesson.sample.server.dispatch;
+
+import net.qiujuer.lesson.sample.server.cluster.ClusterManager;
+import net.qiujuer.lesson.sample.server.handle.ClientHandler;
+import net.qiujuer.lesson.sample.server.history.HistoryManager;
+import net.qiujuer.lesson.sample.server.room.Room;
+import net.qiujuer.lesson.sample.server.room.RoomManager;
+import net.qiujuer.library.clink.frame.SharedFrame;
+import net.qiujuer.library.clink.metrics.Metrics;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 入站消息的分阶段处理：解码（IO线程）→ 校验 → 路由 → 扇出
+ * <p>
+ * 阶段之间以有界队列交接；IO线程只做非阻塞入队，队列已满或该客户端在途消息过多时直接丢弃并计数，
+ * 单个客户端的突发不会阻塞其他连接的读取
+ * <p>
+ * 以 / 开头的消息为指令，在路由阶段交给已注册的{@link CommandHandler}处理；
+ * 设置了{@link HistoryManager}时，房间消息在扇出阶段发出后保存；设置了{@link ClusterManager}时再转发给其他节点。
+ * 其他节点转发来的消息由{@link #submitRelayed}直接进入扇出阶段，同样投递与保存，但不再转发
+ */
+public class DispatchPipeline {
+    private final RoomManager roomManager;
+    private final List<CommandHandler> commandHandlers = new CopyOnWriteArrayList<>();
+    private final Config config;
+    private volatile HistoryManager historyManager;
+    private volatile ClusterManager clusterManager;
+    private final Stage validateStage;
+    private final Stage routeStage;
+    private final Stage fanoutStage;
+    private final LongAdder droppedCounter;
+    private final LongAdder throttledCounter;
+    private final LongAdder rejectedCounter;
+
+    public DispatchPipeline(RoomManager roomManager, Config config) {
+        this.roomManager = roomManager;
+        this.config = config;
+        commandHandlers.add(roomManager);
+
+        this.validateStage = new Stage("validate", config.validateThreads, config.queueSize, this::validate);
+        this.routeStage = new Stage("route", config.routeThreads, config.queueSize, this::route);
+        this.fanoutStage = new Stage("fanout", config.fanoutThreads, config.queueSize, this::fanout);
+        validateStage.setNext(routeStage);
+        routeStage.setNext(fanoutStage);
+
+        Metrics metrics = Metrics.getDefault();
+        this.droppedCounter = metrics.counter("server.pipeline.dropped");
+        this.throttledCounter = metrics.counter("server.pipeline.throttled");
+        this.rejectedCounter = metrics.counter("server.pipeline.rejected");
+    }
+
+    /**
+     * 注册额外的指令处理者，需在{@link #start()}之前调用
+     */
+    public void addCommandHandler(CommandHandler handler) {
+        commandHandlers.add(handler);
+    }
+
+    public void setHistoryManager(HistoryManager historyManager) {
+        this.historyManager = historyManager;
+    }
+
+    public void setClusterManager(ClusterManager clusterManager) {
+        this.clusterManager = clusterManager;
+    }
+
+    public void start() {
+        validateStage.start();
+        routeStage.start();
+        fanoutStage.start();
+    }
+
+    public void stop() {
+        validateStage.stop();
+        routeStage.stop();
+        fanoutStage.stop();
+    }
+
+    /**
+     * 由IO线程调用，从不阻塞
+     *
+     * @return false 消息被丢弃
+     */
+    public boolean submit(ClientHandler sender, String msg) {
+        if (!sender.tryAcquireInbound(config.maxPendingPerClient)) {
+            throttledCounter.increment();
+            return false;
+        }
+        PipelineMessage message = new PipelineMessage(sender, msg);
+        if (!validateStage.offer(message)) {
+            droppedCounter.increment();
+            message.finish();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 其他节点转发来的房间消息，由节点链路的IO线程调用，从不阻塞；调用方仍需释放自己的引用
+     *
+     * @return false 扇出队列已满，消息被丢弃
+     */
+    public boolean submitRelayed(Room room, SharedFrame frame) {
+        PipelineMessage message = new PipelineMessage(room, frame.retain());
+        if (!fanoutStage.offer(message)) {
+            droppedCounter.increment();
+            message.finish();
+            return false;
+        }
+        return true;
+    }
+
+    private boolean validate(PipelineMessage message) {
+        String text = message.text;
+        if (text.length() > config.maxMessageLength) {
+            rejectedCounter.increment();
+            message.sender.send("消息过长，最多" + config.maxMessageLength + "个字符");
+            return false;
+        }
+        text = stripControlChars(text).trim();
+        if (text.isEmpty()) {
+            rejectedCounter.increment();
+            return false;
+        }
+        message.text = text;
+        return true;
+    }
+
+    private boolean route(PipelineMessage message) {
+        if (message.sender.isClosed()) {
+            return false;
+        }
+        if (RoomManager.isCommand(message.text)) {
+            // 指令在本阶段执行，同一客户端的指令与消息保持先后顺序
+            handleCommand(message.sender, message.text);
+            return false;
+        }
+        Room room = roomManager.resolveCurrentRoom(message.sender);
+        if (room == null) {
+            return false;
+        }
+        message.room = room;
+        message.frame = roomManager.encode(room, message.sender, message.text);
+        return true;
+    }
+
+    private boolean fanout(PipelineMessage message) {
+        roomManager.publish(message.room, message.sender, message.frame);
+        HistoryManager historyManager = this.historyManager;
+        if (historyManager != null) {
+            historyManager.append(message.room, message.frame);
+        }
+        ClusterManager clusterManager = this.clusterManager;
+        if (clusterManager != null && !message.isRelayed()) {
+            clusterManager.relay(message.room, message.frame);
+        }
+        return true;
+    }
+
+    private void handleCommand(ClientHandler sender, String text) {
+        String[] parts = text.split("\\s+", 2);
+        String cmd = parts[0];
+        String arg = parts.length > 1 ? parts[1].trim() : null;
+        for (CommandHandler handler : commandHandlers) {
+            if (handler.handleCommand(sender, cmd, arg)) {
+                return;
+            }
+        }
+
+        StringBuilder builder = new StringBuilder("未知指令：").append(cmd).append("，支持");
+        for (CommandHandler handler : commandHandlers) {
+            for (String command : handler.getCommands()) {
+                builder.append(' ').append(command);
+            }
+        }
+        sender.send(builder.toString());
+    }
+
+    private static String stripControlChars(String text) {
+        int i = 0;
+        while (i < text.length() && !Character.isISOControl(text.charAt(i))) {
+            i++;
+        }
+        if (i == text.length()) {
+            return text;
+        }
+        StringBuilder builder = new StringBuilder(text.length());
+        for (int j = 0; j < text.length(); j++) {
+            char c = text.charAt(j);
+            if (!Character.isISOControl(c)) {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    public static class Config {
+        private final int validateThreads;
+        private final int routeThreads;
+        private final int fanoutThreads;
+        private final int queueSize;
+        private final int maxPendingPerClient;
+        private final int maxMessageLength;
+
+        public Config(int validateThreads, int routeThreads, int fanoutThreads,
+                      int queueSize, int maxPendingPerClient, int maxMessageLength) {
+            this.validateThreads = validateThreads;
+            this.routeThreads = routeThreads;
+            this.fanoutThreads = fanoutThreads;
+            this.queueSize = queueSize;
+            this.maxPendingPerClient = maxPendingPerClient;
+            this.maxMessageLength = maxMessageLength;
+        }
+
+        /**
+         * 读取 clink.pipeline.* 系统属性，未设置时使用默认值
+         */
+        public static Config fromSystemProperties() {
+            int cores = Runtime.getRuntime().availableProcessors();
+            return new Config(
+                    Integer.getInteger("clink.pipeline.validateThreads", 1),
+                    Integer.getInteger("clink.pipeline.routeThreads", 1),
+                    Integer.getInteger("clink.pipeline.fanoutThreads", Math.max(1, cores / 2)),
+                    Integer.getInteger("clink.pipeline.queueSize", 4096),
+                    Integer.getInteger("clink.pipeline.maxPendingPerClient", 64),
+                    Integer.getInteger("clink.pipeline.maxMessageLength", 4096));
+        }
+
+        @Override
+        public String toString() {
+            return "Config{" +
+                    "validateThreads=" + validateThreads +
+                    ", routeThreads=" + routeThreads +
+                    ", fanoutThreads=" + fanoutThreads +
+                    ", queueSize=" + queueSize +
+                    ", maxPendingPerClient=" + maxPendingPerClient +
+                    ", maxMessageLength=" + maxMessageLength +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package net.qiujuer.lesson.sample.server.dispatch;
+
+import net.qiujuer.lesson.sample.server.handle.ClientHandler;
+import net.qiujuer.lesson.sample.server.room.Room;
+import net.qiujuer.library.clink.frame.SharedFrame;
+
+/**
+ * 在各阶段之间传递的一条入站消息，同一对象依次经过所有阶段
+ */
+class PipelineMessage {
+    // 其他节点转发来的消息为null
+    final ClientHandler sender;
+    final long receivedNanos;
+    String text;
+    // 进入当前阶段队列的时间
+    long stageNanos;
+    // 路由阶段填充
+    Room room;
+    SharedFrame frame;
+
+    PipelineMessage(ClientHandler sender, String text) {
+        this.sender = sender;
+        this.text = text;
+        this.receivedNanos = System.nanoTime();
+    }
+
+    /**
+     * 其他节点转发来的房间消息，直接进入扇出阶段；frame的引用由消息接管
+     */
+    PipelineMessage(Room room, SharedFrame frame) {
+        this.sender = null;
+        this.room = room;
+        this.frame = frame;
+        this.receivedNanos = System.nanoTime();
+    }
+
+    boolean isRelayed() {
+        return sender == null;
+    }
+
+    /**
+     * 消息处理结束或被丢弃时调用，归还发送方的在途额度并释放编码后的帧
+     */
+    void finish() {
+        if (sender != null) {
+            sender.releaseInbound();
+        }
+        if (frame != null) {
+            frame.release();
+            frame = null;
+        }
+    }
+}
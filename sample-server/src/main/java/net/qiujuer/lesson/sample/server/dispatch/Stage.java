@@ -0,0 +1,159 @@
+package net.qiujuer.lesson.sample.server.dispatch;
+
+import net.qiujuer.library.clink.log.Logger;
+import net.qiujuer.library.clink.metrics.Histogram;
+import net.qiujuer.library.clink.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * 流水线中的一个阶段，由若干条通道组成，每条通道一个线程与一个有界队列
+ * <p>
+ * 消息按发送方Id选择通道，保证同一客户端的消息在每个阶段内按序处理，其他节点转发来的消息按房间选择通道；
+ * 记录每条消息在本阶段的排队与处理时间
+ */
+class Stage {
+    private static final Logger LOGGER = Logger.getLogger(Stage.class);
+
+    interface Handler {
+        /**
+         * @return true 交给下一阶段，false 处理到此结束
+         */
+        boolean handle(PipelineMessage message);
+    }
+
+    private final String name;
+    private final Handler handler;
+    private final Lane[] lanes;
+    private final Histogram latencyMicros;
+    private final Histogram totalMicros;
+    private Stage next;
+
+    Stage(String name, int threads, int queueSize, Handler handler) {
+        this.name = name;
+        this.handler = handler;
+        this.lanes = new Lane[Math.max(1, threads)];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane("Dispatch-" + name + "-" + i, queueSize);
+        }
+        Metrics metrics = Metrics.getDefault();
+        this.latencyMicros = metrics.histogram("server.pipeline." + name + ".micros");
+        this.totalMicros = metrics.histogram("server.pipeline.totalMicros");
+        metrics.gauge("server.pipeline." + name + ".queued", this::queued);
+    }
+
+    void setNext(Stage next) {
+        this.next = next;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * 非阻塞入队，供IO线程调用
+     *
+     * @return false 队列已满
+     */
+    boolean offer(PipelineMessage message) {
+        message.stageNanos = System.nanoTime();
+        return laneOf(message).queue.offer(message);
+    }
+
+    /**
+     * 阶段之间的交接，下游满时阻塞当前阶段形成背压，不会传导到IO线程
+     */
+    void put(PipelineMessage message) throws InterruptedException {
+        message.stageNanos = System.nanoTime();
+        laneOf(message).queue.put(message);
+    }
+
+    long queued() {
+        long count = 0;
+        for (Lane lane : lanes) {
+            count += lane.queue.size();
+        }
+        return count;
+    }
+
+    void start() {
+        for (Lane lane : lanes) {
+            lane.start();
+        }
+    }
+
+    void stop() {
+        for (Lane lane : lanes) {
+            lane.exit();
+        }
+    }
+
+    private Lane laneOf(PipelineMessage message) {
+        if (message.isRelayed()) {
+            return lanes[Math.floorMod(message.room.getName().hashCode(), lanes.length)];
+        }
+        return lanes[(int) (message.sender.getId() % lanes.length)];
+    }
+
+    private void process(PipelineMessage message) throws InterruptedException {
+        boolean forward;
+        try {
+            forward = handler.handle(message);
+        } catch (Exception e) {
+            LOGGER.error("消息处理异常，阶段：{}", name, e);
+            forward = false;
+        }
+        long now = System.nanoTime();
+        latencyMicros.record((now - message.stageNanos) / 1000);
+
+        if (forward && next != null) {
+            next.put(message);
+            return;
+        }
+        if (forward) {
+            totalMicros.record((now - message.receivedNanos) / 1000);
+        }
+        message.finish();
+    }
+
+    private class Lane extends Thread {
+        private final ArrayBlockingQueue<PipelineMessage> queue;
+        private volatile boolean done = false;
+
+        Lane(String name, int queueSize) {
+            super(name);
+            setDaemon(true);
+            this.queue = new ArrayBlockingQueue<>(queueSize);
+        }
+
+        @Override
+        public void run() {
+            PipelineMessage message = null;
+            try {
+                while (!done) {
+                    message = queue.take();
+                    process(message);
+                    message = null;
+                }
+            } catch (InterruptedException ignored) {
+            }
+
+            // 退出时释放尚未处理的消息
+            if (message != null) {
+                message.finish();
+            }
+            List<PipelineMessage> remaining = new ArrayList<>();
+            queue.drainTo(remaining);
+            for (PipelineMessage pending : remaining) {
+                pending.finish();
+            }
+        }
+
+        void exit() {
+            done = true;
+            interrupt();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package net.qiujuer.lesson.sample.server.file;
+
+import net.qiujuer.lesson.sample.server.dispatch.CommandHandler;
+import net.qiujuer.lesson.sample.server.handle.ClientHandler;
+import net.qiujuer.library.clink.core.FileReceiver;
+import net.qiujuer.library.clink.log.Logger;
+import net.qiujuer.library.clink.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 客户端上传的文件，保存在磁盘上供其他客户端下载
+ * <p>
+ * /files：查看已上传的文件；/get 文件Id：下载，文件内容通过transferTo直接从磁盘写入连接
+ * <p>
+ * 文件保存在配置目录下专属的{@value #STORE_DIR_NAME}子目录中，只保存本次运行期间的上传，启动时仅清空该子目录，
+ * 配置目录中的其他内容不受影响；超过保留数量时删除最早的文件
+ */
+public class FileStore implements CommandHandler {
+    private static final Logger LOGGER = Logger.getLogger(FileStore.class);
+    public static final String CMD_FILES = "/files";
+    public static final String CMD_GET = "/get";
+    // /files 最多列出的数量
+    private static final int MAX_LIST_COUNT = 20;
+    // 由存储独占的子目录，其下files保存已上传的文件，tmp保存上传中的临时文件
+    private static final String STORE_DIR_NAME = ".clink-store";
+
+    private final Path dir;
+    private final Path tempDir;
+    private final long maxFileLength;
+    private final int maxFiles;
+    // 按上传顺序保存，便于淘汰最早的文件
+    private final LinkedHashMap<Long, StoredFile> files = new LinkedHashMap<>();
+    private long nextId = 1;
+    private final LongAdder uploadCounter = Metrics.getDefault().counter("server.file.uploads");
+    private final LongAdder uploadBytesCounter = Metrics.getDefault().counter("server.file.uploadBytes");
+    private final LongAdder downloadCounter = Metrics.getDefault().counter("server.file.downloads");
+
+    public FileStore(Path dir, long maxFileLength, int maxFiles) {
+        Path storeDir = dir.resolve(STORE_DIR_NAME);
+        this.dir = storeDir.resolve("files");
+        this.tempDir = storeDir.resolve("tmp");
+        this.maxFileLength = maxFileLength;
+        this.maxFiles = maxFiles;
+    }
+
+    public void open() throws IOException {
+        Files.createDirectories(tempDir);
+        Files.createDirectories(dir);
+        clean(tempDir);
+        clean(dir);
+    }
+
+    /**
+     * 上传中的临时文件目录
+     */
+    public Path getTempDir() {
+        return tempDir;
+    }
+
+    public long getMaxFileLength() {
+        return maxFileLength;
+    }
+
+    public synchronized int getFileCount() {
+        return files.size();
+    }
+
+    /**
+     * 将接收完成的临时文件移入存储目录
+     */
+    public StoredFile store(ClientHandler owner, FileReceiver.ReceivedFile file) throws IOException {
+        StoredFile stored;
+        List<StoredFile> evicted = new ArrayList<>();
+        synchronized (this) {
+            long id = nextId++;
+            Path path = dir.resolve(String.valueOf(id));
+            Files.move(file.getPath(), path, StandardCopyOption.REPLACE_EXISTING);
+            stored = new StoredFile(id, file.getName(), file.getLength(), path, owner.getDisplayName());
+            files.put(id, stored);
+
+            Iterator<StoredFile> iterator = files.values().iterator();
+            while (files.size() > maxFiles && iterator.hasNext()) {
+                evicted.add(iterator.next());
+                iterator.remove();
+            }
+        }
+        for (StoredFile old : evicted) {
+            // 正在下载的连接已打开文件，删除不影响其读取
+            Files.deleteIfExists(old.path);
+        }
+        uploadCounter.increment();
+        uploadBytesCounter.add(stored.length);
+        LOGGER.info("文件已上传：{} {} {}字节，来自{}", stored.id, stored.name, stored.length, stored.owner);
+        return stored;
+    }
+
+    public synchronized StoredFile get(long id) {
+        return files.get(id);
+    }
+
+    @Override
+    public String[] getCommands() {
+        return new String[]{CMD_FILES, CMD_GET};
+    }
+
+    @Override
+    public boolean handleCommand(ClientHandler handler, String cmd, String arg) {
+        if (CMD_FILES.equals(cmd)) {
+            List<StoredFile> list;
+            synchronized (this) {
+                list = new ArrayList<>(files.values());
+            }
+            if (list.isEmpty()) {
+                handler.send("暂无文件");
+                return true;
+            }
+            StringBuilder builder = new StringBuilder("文件列表：");
+            for (int i = Math.max(0, list.size() - MAX_LIST_COUNT); i < list.size(); i++) {
+                StoredFile file = list.get(i);
+                builder.append('\n').append(file.id).append("  ").append(file.name)
+                        .append("  ").append(file.length).append("字节  ").append(file.owner);
+            }
+            handler.send(builder.toString());
+        } else if (CMD_GET.equals(cmd)) {
+            StoredFile file = null;
+            try {
+                file = arg == null ? null : get(Long.parseLong(arg));
+            } catch (NumberFormatException ignored) {
+            }
+            if (file == null) {
+                handler.send("文件不存在：" + arg + "，使用 " + CMD_FILES + " 查看");
+                return true;
+            }
+            try {
+                handler.sendFile(file.name, file.path);
+                downloadCounter.increment();
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("发送文件失败：{} {}", file.id, e.getMessage());
+                handler.send("文件已失效：" + file.id);
+            }
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private static void clean(Path dir) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, Files::isRegularFile)) {
+            for (Path path : stream) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    public static class StoredFile {
+        private final long id;
+        private final String name;
+        private final long length;
+        private final Path path;
+        private final String owner;
+
+        StoredFile(long id, String name, long length, Path path, String owner) {
+            this.id = id;
+            this.name = name;
+            this.length = length;
+            this.path = path;
+            this.owner = owner;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public String getOwner() {
+            return owner;
+        }
+    }
+}
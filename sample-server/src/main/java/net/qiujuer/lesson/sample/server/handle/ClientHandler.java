@@ -1,136 +1,266 @@
 package net.qiujuer.lesson.sample.server.handle;
 
 
+import net.qiujuer.library.clink.core.Connector;
+import net.qiujuer.library.clink.core.FileReceiver;
+import net.qiujuer.library.clink.core.FileRegion;
+import net.qiujuer.library.clink.frame.Frame;
+import net.qiujuer.library.clink.frame.SharedFrame;
+import net.qiujuer.library.clink.log.Logger;
+import net.qiujuer.library.clink.metrics.Metrics;
+import net.qiujuer.library.clink.timer.HashedWheelTimer;
 import net.qiujuer.library.clink.utils.CloseUtils;
 
-import java.io.*;
-import java.net.Socket;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 public class ClientHandler {
-    private final Socket socket;
-    private final ClientReadHandler readHandler;
-    private final ClientWriteHandler writeHandler;
-    private final CloseNotify closeNotify;
+    private static final Logger LOGGER = Logger.getLogger(ClientHandler.class);
+    private static final LongAdder IDLE_EVICTED_COUNTER = Metrics.getDefault().counter("server.idle.evicted");
+    // 单个连接同时上传的文件数
+    private static final int MAX_UPLOAD_STREAMS = 4;
+    private final Connector connector;
+    private final SocketChannel socketChannel;
+    private final ClientHandlerCallback clientHandlerCallback;
+    private final String clientInfo;
+    private final AtomicBoolean isClosed = new AtomicBoolean(false);
+    // 已加入的房间，由RoomManager维护
+    private final Set<String> rooms = ConcurrentHashMap.newKeySet();
+    // 普通消息发往的房间
+    private volatile String currentRoom;
+    // 登录的用户名，未登录时为空
+    private volatile String userName;
+    // 已提交到分发流水线但尚未处理完的消息数
+    private final AtomicInteger pendingInbound = new AtomicInteger();
+    // 为空表示不接收文件
+    private volatile FileReceiver fileReceiver;
+    private final AtomicInteger fileStreamId = new AtomicInteger();
 
-    public ClientHandler(Socket socket, CloseNotify closeNotify) throws IOException {
-        this.socket = socket;
-        this.readHandler = new ClientReadHandler(socket.getInputStream());
-        this.writeHandler = new ClientWriteHandler(socket.getOutputStream());
-        this.closeNotify = closeNotify;
-        System.out.println("新客户端连接：" + socket.getInetAddress() +
-                " P:" + socket.getPort());
+    public ClientHandler(SocketChannel socketChannel, ClientHandlerCallback clientHandlerCallback) throws IOException {
+        this.socketChannel = socketChannel;
+        this.clientHandlerCallback = clientHandlerCallback;
+        this.clientInfo = socketChannel.getRemoteAddress().toString();
+
+        connector = new Connector() {
+            @Override
+            public void onChannelClosed(SocketChannel channel) {
+                super.onChannelClosed(channel);
+                exitBySelf();
+            }
+
+            @Override
+            protected void onReceiveNewMessage(String str) {
+                super.onReceiveNewMessage(str);
+                LOGGER.debug("{}：{}", clientInfo, str);
+                // 交由外部路由
+                clientHandlerCallback.onNewMessageArrived(ClientHandler.this, str);
+            }
+
+            @Override
+            protected void onReceiveHeartbeat() {
+                super.onReceiveHeartbeat();
+                // 回应心跳，客户端据此判断服务器是否存活
+                sendHeartbeat();
+            }
+
+            @Override
+            protected void onReaderIdle() {
+                LOGGER.info("客户端空闲超时：{}", clientInfo);
+                IDLE_EVICTED_COUNTER.increment();
+                super.onReaderIdle();
+            }
+
+            @Override
+            protected void onReceiveFrame(byte type, byte flags, short identifier, ByteBuffer body) {
+                super.onReceiveFrame(type, flags, identifier, body);
+                if (type == Frame.TYPE_ECHO) {
+                    // 原样回显，Body仅在回调期间有效，编码时即完成拷贝
+                    SharedFrame frame = SharedFrame.encode(type, flags, identifier, body);
+                    send(frame);
+                    frame.release();
+                } else if (FileReceiver.isFileFrame(type)) {
+                    onReceiveFileFrame(type, identifier, body);
+                }
+            }
+        };
+        connector.setup(socketChannel);
+
+        LOGGER.info("新客户端连接：{}", clientInfo);
     }
 
-    public void exit() {
-        readHandler.exit();
-        writeHandler.exit();
-        CloseUtils.close(socket);
-        System.out.println("客户端已退出：" + socket.getInetAddress() +
-                " P:" + socket.getPort());
+    /**
+     * 超过idleTimeout未收到任何数据（包括心跳）时断开
+     */
+    public void enableIdleCheck(HashedWheelTimer timer, long idleTimeout, TimeUnit unit) {
+        connector.enableIdleCheck(timer, idleTimeout, 0, unit);
     }
 
-    public void send(String str) {
-        writeHandler.send(str);
+    /**
+     * 开启文件上传，临时文件写入tempDir
+     */
+    public void enableFileReceive(Path tempDir, long maxFileLength) {
+        fileReceiver = new FileReceiver(tempDir, maxFileLength, MAX_UPLOAD_STREAMS);
+        // 开启前连接可能已经断开，此时退出流程未能关闭
+        if (isClosed.get()) {
+            fileReceiver.close();
+        }
     }
 
-    public void readToPrint() {
-        readHandler.start();
+    public long getId() {
+        return connector.getId();
     }
 
-    private void exitBySelf() {
-        exit();
-        closeNotify.onSelfClosed(this);
+    public String getClientInfo() {
+        return clientInfo;
     }
 
-    public interface CloseNotify {
-        void onSelfClosed(ClientHandler handler);
+    public String getUserName() {
+        return userName;
     }
 
-    class ClientReadHandler extends Thread {
-        private boolean done = false;
-        private final InputStream inputStream;
+    public void setUserName(String userName) {
+        this.userName = userName;
+    }
 
-        ClientReadHandler(InputStream inputStream) {
-            this.inputStream = inputStream;
-        }
+    /**
+     * 消息中显示的发送者，已登录时为用户名
+     */
+    public String getDisplayName() {
+        String name = userName;
+        return name != null ? name : clientInfo;
+    }
 
-        @Override
-        public void run() {
-            super.run();
-            try {
-                // 得到输入流，用于接收数据
-                BufferedReader socketInput = new BufferedReader(new InputStreamReader(inputStream));
-
-                do {
-                    // 客户端拿到一条数据
-                    String str = socketInput.readLine();
-                    if (str == null) {
-                        System.out.println("客户端已无法读取数据！");
-                        // 退出当前客户端
-                        ClientHandler.this.exitBySelf();
-                        break;
-                    }
-                    // 打印到屏幕
-                    System.out.println(str);
-                } while (!done);
-            } catch (Exception e) {
-                if (!done) {
-                    System.out.println("连接异常断开");
-                    ClientHandler.this.exitBySelf();
-                }
-            } finally {
-                // 连接关闭
-                CloseUtils.close(inputStream);
-            }
-        }
+    /**
+     * 待发送队列中的消息数
+     */
+    public int getPendingOutbound() {
+        return connector.getOutboundQueue().size();
+    }
 
-        void exit() {
-            done = true;
-            CloseUtils.close(inputStream);
-        }
+    public Set<String> getRooms() {
+        return rooms;
     }
 
-    class ClientWriteHandler {
-        private boolean done = false;
-        private final PrintStream printStream;
-        private final ExecutorService executorService;
+    public String getCurrentRoom() {
+        return currentRoom;
+    }
 
-        ClientWriteHandler(OutputStream outputStream) {
-            this.printStream = new PrintStream(outputStream);
-            this.executorService = Executors.newSingleThreadExecutor();
-        }
+    public void setCurrentRoom(String currentRoom) {
+        this.currentRoom = currentRoom;
+    }
 
-        void exit() {
-            done = true;
-            CloseUtils.close(printStream);
-            executorService.shutdownNow();
+    /**
+     * 占用一个在途额度，超过上限时返回false，用于限制单个客户端占用的分发队列
+     */
+    public boolean tryAcquireInbound(int max) {
+        if (pendingInbound.incrementAndGet() > max) {
+            pendingInbound.decrementAndGet();
+            return false;
         }
+        return true;
+    }
+
+    public void releaseInbound() {
+        pendingInbound.decrementAndGet();
+    }
+
+    public boolean isClosed() {
+        return isClosed.get();
+    }
 
-        void send(String str) {
-            executorService.execute(new WriteRunnable(str));
+    public void exit() {
+        doExit();
+    }
+
+    /**
+     * 由服务器断开，与客户端自行断开一样通知回调
+     */
+    public void kick() {
+        exitBySelf();
+    }
+
+    public void send(String str) {
+        connector.send(str);
+    }
+
+    public void send(SharedFrame frame) {
+        connector.send(frame);
+    }
+
+    /**
+     * 以文件流的形式发送磁盘上的文件，数据不经过堆内存
+     */
+    public void sendFile(String name, Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            connector.sendFile(new FileRegion(nextFileStreamId(), name, channel, 0, channel.size()));
+        } catch (Throwable e) {
+            // 包括文件名无法编码等运行时异常，未交给连接的通道都需关闭
+            CloseUtils.close(channel);
+            throw e;
         }
+    }
 
-        class WriteRunnable implements Runnable {
-            private final String msg;
+    private short nextFileStreamId() {
+        // 0表示无，在1~Short.MAX_VALUE间循环
+        return (short) (fileStreamId.getAndIncrement() % Short.MAX_VALUE + 1);
+    }
 
-            WriteRunnable(String msg) {
-                this.msg = msg;
+    private void onReceiveFileFrame(byte type, short identifier, ByteBuffer body) {
+        FileReceiver receiver = fileReceiver;
+        if (receiver == null) {
+            if (type == Frame.TYPE_FILE_HEADER) {
+                send("服务器未开启文件传输");
             }
+            return;
+        }
+        try {
+            FileReceiver.ReceivedFile file = receiver.onFrame(type, identifier, body);
+            if (file != null) {
+                clientHandlerCallback.onNewFileArrived(this, file);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("文件接收失败：{} {}", clientInfo, e.getMessage());
+            send("文件接收失败：" + e.getMessage());
+        }
+    }
 
-            @Override
-            public void run() {
-                if (ClientWriteHandler.this.done) {
-                    return;
-                }
+    private void exitBySelf() {
+        // 主动调用exit()时同样会触发通道关闭回调，此时无需再通知
+        if (doExit()) {
+            clientHandlerCallback.onSelfClosed(this);
+        }
+    }
 
-                try {
-                    ClientWriteHandler.this.printStream.println(msg);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
+    private boolean doExit() {
+        if (!isClosed.compareAndSet(false, true)) {
+            return false;
         }
+        CloseUtils.close(connector);
+        CloseUtils.close(socketChannel);
+        CloseUtils.close(fileReceiver);
+        LOGGER.info("客户端已退出：{}", clientInfo);
+        return true;
+    }
+
+    public interface ClientHandlerCallback {
+        // 自身关闭通知
+        void onSelfClosed(ClientHandler handler);
+
+        // 收到文本消息时通知，运行在IO线程上
+        void onNewMessageArrived(ClientHandler handler, String msg);
+
+        // 文件上传完成时通知，临时文件由接收方移走或删除，运行在IO线程上
+        void onNewFileArrived(ClientHandler handler, FileReceiver.ReceivedFile file);
     }
 }
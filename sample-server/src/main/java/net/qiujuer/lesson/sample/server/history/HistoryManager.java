@@ -0,0 +1,319 @@
+package net.qiujuer.lesson.sample.server.history;
+
+import net.qiujuer.lesson.sample.server.dispatch.CommandHandler;
+import net.qiujuer.lesson.sample.server.handle.ClientHandler;
+import net.qiujuer.lesson.sample.server.room.Room;
+import net.qiujuer.lesson.sample.server.room.RoomManager;
+import net.qiujuer.library.clink.core.ExecutionMode;
+import net.qiujuer.library.clink.frame.SharedFrame;
+import net.qiujuer.library.clink.log.Logger;
+import net.qiujuer.library.clink.metrics.Metrics;
+import net.qiujuer.library.clink.store.GroupCommitWriter;
+import net.qiujuer.library.clink.store.MessageLog;
+import net.qiujuer.library.clink.timer.HashedWheelTimer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 房间消息的持久化与历史查询，每个房间一个{@link MessageLog}
+ * <p>
+ * /history [条数]：当前房间最近的消息；/history since 位置：该位置及之后的消息；
+ * 加入房间时可附带同样的选项：/join 房间名 [条数 | since 位置]，缺省回放最近replayOnJoin条
+ * <p>
+ * 保存的是编码完成的整帧，回放时直接发送映射区域，不经过堆内存；
+ * 写入经由{@link GroupCommitWriter}合并提交，扇出线程不等待磁盘
+ * <p>
+ * 日志只在房间第一次有消息写入时创建，查询不存在的房间不会创建文件；
+ * 一个保留检查周期内没有读写的日志被关闭并移出，全部记录过期时连同目录删除，再次使用时重新打开
+ */
+public class HistoryManager implements CommandHandler, RoomManager.RoomListener, Closeable {
+    private static final Logger LOGGER = Logger.getLogger(HistoryManager.class);
+    public static final String CMD_HISTORY = "/history";
+    private static final String OPTION_SINCE = "since";
+    private static final int DEFAULT_HISTORY_COUNT = 20;
+    // 单次最多回放的条数，避免超出连接的发送队列
+    private static final int MAX_REPLAY_COUNT = 200;
+
+    private final Path dir;
+    private final MessageLog.Config config;
+    private final int replayOnJoin;
+    private final GroupCommitWriter writer;
+    // 删除过期分段与关闭日志都要访问磁盘，在独立线程上执行，时间轮只负责定时
+    private final ExecutorService retentionExecutor = Executors.newSingleThreadExecutor(
+            ExecutionMode.PLATFORM.newThreadFactory("HistoryManager-Retention-Thread-"));
+    private final ConcurrentHashMap<String, RoomLog> logs = new ConcurrentHashMap<>();
+    private final LongAdder replayCounter = Metrics.getDefault().counter("server.history.replayed");
+    private final LongAdder errorCounter = Metrics.getDefault().counter("server.history.errors");
+    private volatile boolean closed = false;
+
+    /**
+     * @param replayOnJoin 加入房间且未指定选项时回放的条数，0表示不回放
+     */
+    public HistoryManager(Path dir, MessageLog.Config config, int replayOnJoin, GroupCommitWriter writer) {
+        this.dir = dir;
+        this.config = config;
+        this.replayOnJoin = replayOnJoin;
+        this.writer = writer;
+    }
+
+    public void start() {
+        writer.start();
+    }
+
+    /**
+     * 按period定时删除过期的分段，并关闭一个周期内没有读写的日志；有消息写入的房间在分段滚动时也会检查
+     */
+    public void scheduleRetention(HashedWheelTimer timer, long period, TimeUnit unit) {
+        long idleNanos = unit.toNanos(period);
+        schedule(timer, new Runnable() {
+            @Override
+            public void run() {
+                if (closed) {
+                    return;
+                }
+                long now = System.currentTimeMillis();
+                for (RoomLog roomLog : logs.values()) {
+                    roomLog.log.applyRetention(now);
+                    evictIfIdle(roomLog, now, idleNanos);
+                }
+                schedule(timer, this, period, unit);
+            }
+        }, period, unit);
+    }
+
+    /**
+     * 到期后交给保留检查线程执行，不占用时间轮线程
+     */
+    private void schedule(HashedWheelTimer timer, Runnable task, long delay, TimeUnit unit) {
+        timer.newTimeout(timeout -> {
+            if (closed) {
+                return;
+            }
+            try {
+                retentionExecutor.execute(task);
+            } catch (RejectedExecutionException ignored) {
+                // 已关闭
+            }
+        }, delay, unit);
+    }
+
+    /**
+     * 提交一条已发往房间的消息，不等待写入
+     *
+     * @return 提交序号，可用于{@link #awaitDurable}；失败时返回-1
+     */
+    public long append(Room room, SharedFrame frame) {
+        if (closed) {
+            return -1;
+        }
+        try {
+            for (; ; ) {
+                RoomLog roomLog = open(room.getName(), true);
+                synchronized (roomLog) {
+                    // 刚被关闭移出，重新打开
+                    if (roomLog.evicted) {
+                        continue;
+                    }
+                    long sequence = writer.append(roomLog.log, System.currentTimeMillis(), frame);
+                    if (sequence > 0) {
+                        roomLog.lastSequence = sequence;
+                    }
+                    roomLog.lastUsedNanos = System.nanoTime();
+                    return sequence;
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            errorCounter.increment();
+            LOGGER.warn("保存消息失败：{} {}", room.getName(), e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * 等待提交序号不大于sequence的消息落盘
+     */
+    public boolean awaitDurable(long sequence, long timeout, TimeUnit unit) {
+        return writer.awaitDurable(sequence, timeout, unit);
+    }
+
+    public int getLogCount() {
+        return logs.size();
+    }
+
+    @Override
+    public void onJoined(Room room, ClientHandler handler, String option) {
+        if (option == null) {
+            if (replayOnJoin > 0) {
+                replay(handler, room.getName(), null, replayOnJoin, false);
+            }
+            return;
+        }
+        replay(handler, room.getName(), option);
+    }
+
+    @Override
+    public String[] getCommands() {
+        return new String[]{CMD_HISTORY};
+    }
+
+    @Override
+    public boolean handleCommand(ClientHandler handler, String cmd, String arg) {
+        if (!CMD_HISTORY.equals(cmd)) {
+            return false;
+        }
+        String room = handler.getCurrentRoom();
+        if (room == null) {
+            handler.send("未加入任何房间");
+            return true;
+        }
+        if (arg == null) {
+            replay(handler, room, null, DEFAULT_HISTORY_COUNT, true);
+        } else {
+            replay(handler, room, arg);
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        // 等待进行中的保留检查结束，避免与下面的关闭同时操作日志
+        retentionExecutor.shutdown();
+        try {
+            retentionExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ignored) {
+        }
+        // 写完并刷盘剩余的消息
+        writer.shutdown();
+        for (RoomLog roomLog : logs.values()) {
+            roomLog.log.close();
+        }
+    }
+
+    private void replay(ClientHandler handler, String room, String option) {
+        String[] parts = option.trim().split("\\s+");
+        try {
+            if (parts.length == 2 && OPTION_SINCE.equals(parts[0])) {
+                replay(handler, room, Long.parseLong(parts[1]), MAX_REPLAY_COUNT, true);
+                return;
+            } else if (parts.length == 1) {
+                replay(handler, room, null, Integer.parseInt(parts[0]), true);
+                return;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        handler.send("用法：" + CMD_HISTORY + " [条数] 或 " + CMD_HISTORY + " " + OPTION_SINCE + " 位置");
+    }
+
+    /**
+     * @param since 为null时回放最近count条
+     */
+    private void replay(ClientHandler handler, String room, Long since, int count, boolean always) {
+        RoomLog roomLog;
+        try {
+            roomLog = open(room, false);
+        } catch (IOException | UncheckedIOException e) {
+            errorCounter.increment();
+            handler.send("读取历史消息失败");
+            return;
+        }
+        if (roomLog == null) {
+            if (always) {
+                handler.send("[" + room + "]以上为历史消息0条，最新位置：0");
+            }
+            return;
+        }
+        roomLog.lastUsedNanos = System.nanoTime();
+        MessageLog log = roomLog.log;
+        count = Math.max(0, Math.min(count, MAX_REPLAY_COUNT));
+        MessageLog.RecordConsumer consumer = (offset, timestamp, payload) -> {
+            SharedFrame frame = SharedFrame.wrap(payload);
+            handler.send(frame);
+            frame.release();
+        };
+        int replayed = since == null ? log.readLast(count, consumer) : log.read(since, count, consumer);
+        replayCounter.add(replayed);
+        if (replayed > 0 || always) {
+            handler.send("[" + room + "]以上为历史消息" + replayed + "条，最新位置：" + log.getNextOffset());
+        }
+    }
+
+    /**
+     * @param create 为false时只打开磁盘上已有的日志，不存在时返回null
+     */
+    private RoomLog open(String room, boolean create) throws IOException {
+        RoomLog roomLog = logs.get(room);
+        if (roomLog != null) {
+            return roomLog;
+        }
+        Path path = dir.resolve(dirName(room));
+        if (!create && !Files.isDirectory(path)) {
+            return null;
+        }
+        return logs.computeIfAbsent(room, key -> {
+            try {
+                return new RoomLog(key, MessageLog.open(path, config));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * 空闲且写线程不再持有时关闭并移出；移出前完成删除，之后打开的是新的日志
+     */
+    private void evictIfIdle(RoomLog roomLog, long now, long idleNanos) {
+        synchronized (roomLog) {
+            if (System.nanoTime() - roomLog.lastUsedNanos < idleNanos
+                    || roomLog.lastSequence > writer.getWrittenSequence()) {
+                return;
+            }
+            roomLog.evicted = true;
+            roomLog.log.close();
+            if (roomLog.log.isExpired(now)) {
+                try {
+                    roomLog.log.delete();
+                    LOGGER.info("房间消息已全部过期，删除日志：{}", roomLog.room);
+                } catch (IOException e) {
+                    LOGGER.warn("删除日志失败：{} {}", roomLog.room, e.getMessage());
+                }
+            }
+            logs.remove(roomLog.room, roomLog);
+        }
+    }
+
+    /**
+     * 房间名编码为安全的目录名
+     */
+    private static String dirName(String room) {
+        return URLEncoder.encode(room, StandardCharsets.UTF_8)
+                .replace(".", "%2E")
+                .replace("*", "%2A");
+    }
+
+    private static class RoomLog {
+        private final String room;
+        private final MessageLog log;
+        private volatile long lastUsedNanos = System.nanoTime();
+        // 以下字段在持有本对象的锁时访问
+        private long lastSequence;
+        private boolean evicted;
+
+        RoomLog(String room, MessageLog log) {
+            this.room = room;
+            this.log = log;
+        }
+    }
+}
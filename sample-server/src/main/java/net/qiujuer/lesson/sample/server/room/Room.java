@@ -0,0 +1,56 @@
+package net.qiujuer.lesson.sample.server.room;
+
+import net.qiujuer.lesson.sample.server.handle.ClientHandler;
+import net.qiujuer.library.clink.core.ConnectionRegistry;
+import net.qiujuer.library.clink.frame.SharedFrame;
+
+import java.util.List;
+
+/**
+ * 聊天房间，持有独立的成员索引，房间内的消息只发往成员
+ */
+public class Room {
+    private final String name;
+    private final ConnectionRegistry<ClientHandler> members = new ConnectionRegistry<>();
+
+    Room(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int size() {
+        return members.size();
+    }
+
+    public boolean isEmpty() {
+        return members.isEmpty();
+    }
+
+    boolean join(ClientHandler handler) {
+        return members.register(handler.getId(), handler);
+    }
+
+    boolean leave(ClientHandler handler) {
+        return members.unregister(handler.getId(), handler);
+    }
+
+    /**
+     * 发送给除exclude外的所有成员，开销只与房间人数相关
+     *
+     * @return 实际投递的成员数
+     */
+    public int broadcast(SharedFrame frame, ClientHandler exclude) {
+        List<ClientHandler> snapshot = members.snapshot();
+        int count = 0;
+        for (ClientHandler member : snapshot) {
+            if (member != exclude) {
+                member.send(frame);
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,225 @@
+package net.qiujuer.lesson.sample.server.room;
+
+import net.qiujuer.lesson.sample.server.dispatch.CommandHandler;
+import net.qiujuer.lesson.sample.server.handle.ClientHandler;
+import net.qiujuer.library.clink.frame.SharedFrame;
+import net.qiujuer.library.clink.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 房间管理与消息路由
+ * <p>
+ * 客户端以文本指令加入或离开房间，普通消息发往当前房间，由DispatchPipeline调用：
+ * /join 房间名 [选项]：加入并切换到该房间，选项交由{@link RoomListener}处理；/leave [房间名]：离开指定房间，缺省为当前房间；/rooms：查看已加入的房间
+ * <p>
+ * 房间在首个成员加入时创建，最后一个成员离开时移除；同一房间的成员变更通过ConcurrentHashMap.compute串行化，
+ * 创建与移除在compute内通知{@link MembershipListener}，同一房间的通知与变更顺序一致
+ */
+public class RoomManager implements CommandHandler {
+    public static final String CMD_JOIN = "/join";
+    public static final String CMD_LEAVE = "/leave";
+    public static final String CMD_ROOMS = "/rooms";
+    // 单个连接最多加入的房间数
+    private static final int MAX_ROOMS_PER_CLIENT = 16;
+    private static final int MAX_ROOM_NAME_LENGTH = 32;
+
+    private final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
+    private final LongAdder messageCounter = Metrics.getDefault().counter("server.room.messages");
+    private final LongAdder deliveryCounter = Metrics.getDefault().counter("server.room.deliveries");
+    private volatile RoomListener roomListener;
+    private volatile MembershipListener membershipListener;
+
+    public void setRoomListener(RoomListener roomListener) {
+        this.roomListener = roomListener;
+    }
+
+    public void setMembershipListener(MembershipListener membershipListener) {
+        this.membershipListener = membershipListener;
+    }
+
+    public static boolean isCommand(String msg) {
+        return msg.startsWith("/");
+    }
+
+    /**
+     * 当前房间，未加入时回复提示并返回null
+     */
+    public Room resolveCurrentRoom(ClientHandler handler) {
+        String roomName = handler.getCurrentRoom();
+        Room room = roomName == null ? null : rooms.get(roomName);
+        if (room == null) {
+            handler.send("未加入任何房间，使用 " + CMD_JOIN + " 房间名 加入");
+        }
+        return room;
+    }
+
+    /**
+     * 编码一条房间消息，所有成员共享同一份数据
+     */
+    public SharedFrame encode(Room room, ClientHandler sender, String msg) {
+        return SharedFrame.encodeString("[" + room.getName() + "]" + sender.getDisplayName() + "：" + msg);
+    }
+
+    /**
+     * 向房间内除sender外的成员发送，frame的引用仍由调用方释放
+     */
+    public void publish(Room room, ClientHandler sender, SharedFrame frame) {
+        int count = room.broadcast(frame, sender);
+        messageCounter.increment();
+        deliveryCounter.add(count);
+    }
+
+    public boolean join(String name, ClientHandler handler) {
+        boolean[] joined = new boolean[1];
+        rooms.compute(name, (key, room) -> {
+            if (room == null) {
+                room = new Room(key);
+                MembershipListener listener = membershipListener;
+                if (listener != null) {
+                    listener.onRoomCreated(key);
+                }
+            }
+            joined[0] = room.join(handler);
+            return room;
+        });
+        handler.getRooms().add(name);
+        handler.setCurrentRoom(name);
+
+        // 加入过程中连接可能已经断开，此时退出流程未能移除
+        if (handler.isClosed()) {
+            leaveAll(handler);
+            return false;
+        }
+        return joined[0];
+    }
+
+    public boolean leave(String name, ClientHandler handler) {
+        boolean[] left = new boolean[1];
+        rooms.computeIfPresent(name, (key, room) -> {
+            left[0] = room.leave(handler);
+            if (!room.isEmpty()) {
+                return room;
+            }
+            MembershipListener listener = membershipListener;
+            if (listener != null) {
+                listener.onRoomRemoved(key);
+            }
+            return null;
+        });
+        handler.getRooms().remove(name);
+        if (name.equals(handler.getCurrentRoom())) {
+            // 切换到仍在的任一房间
+            handler.setCurrentRoom(handler.getRooms().stream().findFirst().orElse(null));
+        }
+        return left[0];
+    }
+
+    /**
+     * 连接退出时调用，离开所有房间
+     */
+    public void leaveAll(ClientHandler handler) {
+        for (String name : new ArrayList<>(handler.getRooms())) {
+            leave(name, handler);
+        }
+    }
+
+    public Room getRoom(String name) {
+        return rooms.get(name);
+    }
+
+    /**
+     * 当前有成员的房间名
+     */
+    public List<String> getRoomNames() {
+        return new ArrayList<>(rooms.keySet());
+    }
+
+    public int getRoomCount() {
+        return rooms.size();
+    }
+
+    public void clear() {
+        rooms.clear();
+    }
+
+    @Override
+    public String[] getCommands() {
+        return new String[]{CMD_JOIN, CMD_LEAVE, CMD_ROOMS};
+    }
+
+    @Override
+    public boolean handleCommand(ClientHandler handler, String cmd, String arg) {
+        if (CMD_JOIN.equals(cmd)) {
+            String option = null;
+            if (arg != null) {
+                String[] parts = arg.split("\\s+", 2);
+                arg = parts[0];
+                option = parts.length > 1 ? parts[1] : null;
+            }
+            if (!isValidName(arg)) {
+                handler.send("房间名不能为空、不能包含空白且不超过" + MAX_ROOM_NAME_LENGTH + "个字符");
+                return true;
+            }
+            if (!handler.getRooms().contains(arg) && handler.getRooms().size() >= MAX_ROOMS_PER_CLIENT) {
+                handler.send("最多同时加入" + MAX_ROOMS_PER_CLIENT + "个房间");
+                return true;
+            }
+            join(arg, handler);
+            Room room = rooms.get(arg);
+            handler.send("已加入房间：" + arg + "，当前人数：" + (room == null ? 0 : room.size()));
+            RoomListener listener = roomListener;
+            if (room != null && listener != null) {
+                listener.onJoined(room, handler, option);
+            }
+        } else if (CMD_LEAVE.equals(cmd)) {
+            String name = arg != null ? arg : handler.getCurrentRoom();
+            if (name == null || !leave(name, handler)) {
+                handler.send("未加入房间：" + name);
+                return true;
+            }
+            handler.send("已离开房间：" + name + "，当前房间：" + handler.getCurrentRoom());
+        } else if (CMD_ROOMS.equals(cmd)) {
+            handler.send("已加入：" + handler.getRooms() + "，当前房间：" + handler.getCurrentRoom());
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean isValidName(String name) {
+        if (name == null || name.isEmpty() || name.length() > MAX_ROOM_NAME_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.isWhitespace(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 房间事件，在路由阶段回调
+     */
+    public interface RoomListener {
+        /**
+         * 通过指令加入房间后回调
+         *
+         * @param option /join 房间名 之后的内容，没有时为null
+         */
+        void onJoined(Room room, ClientHandler handler, String option);
+    }
+
+    /**
+     * 房间创建与移除的通知，在成员变更的compute内回调，不能阻塞也不能再修改房间
+     */
+    public interface MembershipListener {
+        void onRoomCreated(String name);
+
+        void onRoomRemoved(String name);
+    }
+}
@@ -0,0 +1,252 @@
+package net.qiujuer.lesson.sample.server.user;
+
+import net.qiujuer.lesson.sample.server.handle.ClientHandler;
+import net.qiujuer.library.clink.utils.CloseUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+
+/**
+ * 一个用户的离线收件箱
+ * <p>
+ * 最早的若干条保存在内存中，超出后追加到磁盘文件，只要文件中还有未读的消息，新消息就继续写入文件以保持顺序；
+ * 文件中每条记录为 | varint长度 | UTF-8文本 |，读完后截断复用
+ * <p>
+ * 所有方法在同一把锁上串行执行
+ */
+class Inbox {
+    // 单条记录的上限，与读缓冲大小一致
+    private static final int MAX_RECORD_BYTES = 64 * 1024;
+
+    private final String userName;
+    private final Path path;
+    private final int maxMemoryMessages;
+    private final long maxDiskBytes;
+    private final ArrayDeque<String> memory = new ArrayDeque<>();
+    private FileChannel channel;
+    private long writePosition = 0;
+    private long readPosition = 0;
+    private int diskCount = 0;
+    // 仅在投递期间持有的读缓冲
+    private ByteBuffer readBuffer;
+    private long droppedCount = 0;
+    // 在线的连接，为空表示离线
+    private ClientHandler owner;
+    // 最近一次离线的时间
+    private long offlineSinceNanos;
+    private boolean draining = false;
+    // 已从用户表中移除，持有该对象的一方需重新查找
+    private boolean evicted = false;
+
+    Inbox(String userName, Path path, int maxMemoryMessages, long maxDiskBytes) {
+        this.userName = userName;
+        this.path = path;
+        this.maxMemoryMessages = maxMemoryMessages;
+        this.maxDiskBytes = maxDiskBytes;
+        this.offlineSinceNanos = System.nanoTime();
+    }
+
+    String getUserName() {
+        return userName;
+    }
+
+    ClientHandler getOwner() {
+        return owner;
+    }
+
+    void setOwner(ClientHandler owner) {
+        this.owner = owner;
+        if (owner == null) {
+            offlineSinceNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * 离线且没有待投递的消息已超过idleNanos
+     */
+    boolean isIdle(long nowNanos, long idleNanos) {
+        return owner == null && isEmpty() && nowNanos - offlineSinceNanos >= idleNanos;
+    }
+
+    boolean isEvicted() {
+        return evicted;
+    }
+
+    /**
+     * 标记为已移除并删除磁盘文件
+     */
+    void evict() {
+        evicted = true;
+        close();
+    }
+
+    boolean isDraining() {
+        return draining;
+    }
+
+    void setDraining(boolean draining) {
+        this.draining = draining;
+        if (!draining && readBuffer != null) {
+            // 已读入缓冲但未取出的部分退回文件，下次投递时重新读取
+            readPosition -= readBuffer.remaining();
+            readBuffer = null;
+        }
+    }
+
+    boolean isEmpty() {
+        return memory.isEmpty() && diskCount == 0;
+    }
+
+    int size() {
+        return memory.size() + diskCount;
+    }
+
+    /**
+     * 取出并清零期间被丢弃的消息数
+     */
+    long takeDroppedCount() {
+        long count = droppedCount;
+        droppedCount = 0;
+        return count;
+    }
+
+    /**
+     * @return 0 存入内存；1 写入磁盘；-1 超出上限被丢弃
+     */
+    int offer(String msg) throws IOException {
+        if (diskCount == 0 && memory.size() < maxMemoryMessages) {
+            memory.addLast(msg);
+            return 0;
+        }
+
+        byte[] bytes = msg.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, MAX_RECORD_BYTES - 5);
+        if (writePosition + 5 + length > maxDiskBytes) {
+            droppedCount++;
+            return -1;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(5 + length);
+        writeVarint(buffer, length);
+        buffer.put(bytes, 0, length);
+        buffer.flip();
+        FileChannel channel = channel();
+        while (buffer.hasRemaining()) {
+            writePosition += channel.write(buffer, writePosition);
+        }
+        diskCount++;
+        return 1;
+    }
+
+    /**
+     * 按顺序取出一条，内存中的消息早于磁盘中的消息
+     */
+    String poll() throws IOException {
+        String msg = memory.pollFirst();
+        if (msg != null || diskCount == 0) {
+            return msg;
+        }
+
+        ByteBuffer buffer = readBuffer;
+        if (buffer == null) {
+            buffer = readBuffer = ByteBuffer.allocate(MAX_RECORD_BYTES);
+            buffer.flip();
+        }
+        if (!hasRecord(buffer)) {
+            // 剩余部分移到开头后继续从文件读取
+            buffer.compact();
+            while (buffer.hasRemaining() && readPosition < writePosition) {
+                int len = channel.read(buffer, readPosition);
+                if (len < 0) {
+                    break;
+                }
+                readPosition += len;
+            }
+            buffer.flip();
+            if (!hasRecord(buffer)) {
+                throw new IOException("Corrupted inbox: " + path);
+            }
+        }
+        int length = readVarint(buffer);
+        String record = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+
+        if (--diskCount == 0) {
+            // 已全部读完，截断文件复用
+            channel.truncate(0);
+            writePosition = 0;
+            readPosition = 0;
+            buffer.clear().flip();
+        }
+        return record;
+    }
+
+    /**
+     * 删除磁盘文件，内存中的消息一并丢弃
+     */
+    void close() {
+        memory.clear();
+        diskCount = 0;
+        CloseUtils.close(channel);
+        channel = null;
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+        }
+    }
+
+    private FileChannel channel() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            writePosition = 0;
+            readPosition = 0;
+        }
+        return channel;
+    }
+
+    private static boolean hasRecord(ByteBuffer buffer) {
+        int position = buffer.position();
+        int length = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (!buffer.hasRemaining()) {
+                buffer.position(position);
+                return false;
+            }
+            byte b = buffer.get();
+            length |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                boolean complete = buffer.remaining() >= length;
+                buffer.position(position);
+                return complete;
+            }
+        }
+        buffer.position(position);
+        return false;
+    }
+
+    private static void writeVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7f) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package net.qiujuer.lesson.sample.server.user;
+
+import net.qiujuer.lesson.sample.server.dispatch.CommandHandler;
+import net.qiujuer.lesson.sample.server.handle.ClientHandler;
+import net.qiujuer.library.clink.core.ExecutionMode;
+import net.qiujuer.library.clink.log.Logger;
+import net.qiujuer.library.clink.metrics.Metrics;
+import net.qiujuer.library.clink.timer.HashedWheelTimer;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 用户登录与私信
+ * <p>
+ * /login 用户名：以该用户名登录，同名的旧连接被断开；/msg 用户名 内容：发送私信，对方离线时存入其收件箱
+ * <p>
+ * 用户重新登录后，收件箱中的消息分批投递：每批数量有限，且对方发送队列积压时暂停，
+ * 大量离线消息不会挤占其他连接的发送。时间轮只负责定时，读取磁盘等工作在收件箱专用的线程上执行
+ * <p>
+ * 离线且收件箱为空超过一段时间的用户会被移除，之后需重新登录才能接收私信
+ */
+public class UserManager implements CommandHandler {
+    private static final Logger LOGGER = Logger.getLogger(UserManager.class);
+    public static final String CMD_LOGIN = "/login";
+    public static final String CMD_MSG = "/msg";
+    private static final String INBOX_SUFFIX = ".inbox";
+    private static final int MAX_USER_NAME_LENGTH = 32;
+    // 检查离线用户的间隔
+    private static final long EVICT_PERIOD_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final Path inboxDir;
+    private final Config config;
+    private final HashedWheelTimer timer;
+    // 登录过的用户，登录时创建，离线且收件箱为空超过idleMillis后移除
+    private final ConcurrentHashMap<String, Inbox> inboxes = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            ExecutionMode.PLATFORM.newThreadFactory("UserManager-Inbox-Thread-"));
+    private volatile boolean closed = false;
+    private final LongAdder directCounter = Metrics.getDefault().counter("server.inbox.direct");
+    private final LongAdder queuedCounter = Metrics.getDefault().counter("server.inbox.queued");
+    private final LongAdder spilledCounter = Metrics.getDefault().counter("server.inbox.spilled");
+    private final LongAdder droppedCounter = Metrics.getDefault().counter("server.inbox.dropped");
+    private final LongAdder deliveredCounter = Metrics.getDefault().counter("server.inbox.delivered");
+
+    public UserManager(Path inboxDir, Config config, HashedWheelTimer timer) {
+        this.inboxDir = inboxDir;
+        this.config = config;
+        this.timer = timer;
+    }
+
+    /**
+     * 创建收件箱目录，并清理上次运行遗留的文件，内存中的部分已随进程丢失，遗留文件无法保证顺序
+     */
+    public void open() throws IOException {
+        Files.createDirectories(inboxDir);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(inboxDir, "*" + INBOX_SUFFIX)) {
+            for (Path path : stream) {
+                Files.deleteIfExists(path);
+            }
+        }
+        schedule(new EvictTask(), EVICT_PERIOD_MILLIS);
+    }
+
+    public int getUserCount() {
+        return inboxes.size();
+    }
+
+    /**
+     * 连接退出时调用
+     */
+    public void onClosed(ClientHandler handler) {
+        String name = handler.getUserName();
+        Inbox inbox = name == null ? null : inboxes.get(name);
+        if (inbox == null) {
+            return;
+        }
+        synchronized (inbox) {
+            // 已被同名的新连接替换时不处理
+            if (inbox.getOwner() == handler) {
+                inbox.setOwner(null);
+                inbox.setDraining(false);
+            }
+        }
+    }
+
+    public void close() {
+        closed = true;
+        executor.shutdownNow();
+        for (Inbox inbox : inboxes.values()) {
+            synchronized (inbox) {
+                inbox.close();
+            }
+        }
+    }
+
+    @Override
+    public String[] getCommands() {
+        return new String[]{CMD_LOGIN, CMD_MSG};
+    }
+
+    @Override
+    public boolean handleCommand(ClientHandler handler, String cmd, String arg) {
+        if (CMD_LOGIN.equals(cmd)) {
+            login(handler, arg);
+        } else if (CMD_MSG.equals(cmd)) {
+            String name = handler.getUserName();
+            String[] parts = arg == null ? new String[0] : arg.split("\\s+", 2);
+            if (name == null) {
+                handler.send("请先使用 " + CMD_LOGIN + " 用户名 登录");
+            } else if (parts.length < 2) {
+                handler.send("用法：" + CMD_MSG + " 用户名 内容");
+            } else {
+                sendDirect(handler, name, parts[0], parts[1]);
+            }
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private void login(ClientHandler handler, String name) {
+        if (!isValidName(name)) {
+            handler.send("用户名不能为空、不能包含空白且不超过" + MAX_USER_NAME_LENGTH + "个字符");
+            return;
+        }
+        String previousName = handler.getUserName();
+        if (name.equals(previousName)) {
+            handler.send("已登录：" + name);
+            return;
+        }
+        if (previousName != null) {
+            onClosed(handler);
+        }
+
+        Inbox inbox;
+        ClientHandler previous;
+        while (true) {
+            inbox = inboxes.computeIfAbsent(name, key ->
+                    new Inbox(key, inboxDir.resolve(fileName(key)), config.memoryMessages, config.maxDiskBytes));
+            synchronized (inbox) {
+                // 恰好被移除时重新创建
+                if (inbox.isEvicted()) {
+                    continue;
+                }
+                previous = inbox.getOwner();
+                inbox.setOwner(handler);
+                handler.setUserName(name);
+            }
+            break;
+        }
+        if (previous != null && previous != handler) {
+            LOGGER.info("用户在其他位置登录：{} {} -> {}", name, previous.getClientInfo(), handler.getClientInfo());
+            previous.kick();
+        }
+        handler.send("登录成功：" + name);
+        startDrain(inbox);
+    }
+
+    private void sendDirect(ClientHandler sender, String from, String to, String content) {
+        Inbox inbox = inboxes.get(to);
+        if (inbox == null) {
+            sender.send("用户不存在：" + to);
+            return;
+        }
+        String msg = "[私信]" + from + "：" + content;
+        boolean online;
+        synchronized (inbox) {
+            if (inbox.isEvicted()) {
+                sender.send("用户不存在：" + to);
+                return;
+            }
+            ClientHandler owner = inbox.getOwner();
+            online = owner != null && !owner.isClosed();
+            // 离线消息未投递完之前，新消息也进入收件箱排队，保证先后顺序
+            if (online && inbox.isEmpty()) {
+                owner.send(msg);
+                directCounter.increment();
+                return;
+            }
+            try {
+                int result = inbox.offer(msg);
+                if (result < 0) {
+                    droppedCounter.increment();
+                    sender.send("对方收件箱已满，消息未送达");
+                    return;
+                }
+                queuedCounter.increment();
+                if (result > 0) {
+                    spilledCounter.increment();
+                }
+            } catch (IOException e) {
+                droppedCounter.increment();
+                LOGGER.warn("写入收件箱失败：{} {}", to, e.getMessage());
+                sender.send("消息存储失败，未送达");
+                return;
+            }
+        }
+        if (online) {
+            startDrain(inbox);
+        } else {
+            sender.send(to + " 不在线，消息已存入离线收件箱");
+        }
+    }
+
+    private void startDrain(Inbox inbox) {
+        ClientHandler owner;
+        int size;
+        synchronized (inbox) {
+            owner = inbox.getOwner();
+            if (owner == null || inbox.isDraining() || inbox.isEmpty()) {
+                return;
+            }
+            inbox.setDraining(true);
+            size = inbox.size();
+        }
+        owner.send("您有" + size + "条离线消息");
+        schedule(new DrainTask(inbox), config.drainIntervalMillis);
+    }
+
+    /**
+     * 到期后交给收件箱线程执行，不占用时间轮线程
+     */
+    private void schedule(Runnable task, long delayMillis) {
+        timer.newTimeout(timeout -> {
+            if (closed) {
+                return;
+            }
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException ignored) {
+                // 已关闭
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static String fileName(String userName) {
+        return URLEncoder.encode(userName, StandardCharsets.UTF_8)
+                .replace(".", "%2E")
+                .replace("*", "%2A") + INBOX_SUFFIX;
+    }
+
+    private static boolean isValidName(String name) {
+        if (name == null || name.isEmpty() || name.length() > MAX_USER_NAME_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.isWhitespace(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 每次投递一批，直到收件箱为空或用户离线
+     */
+    private class DrainTask implements Runnable {
+        private final Inbox inbox;
+
+        DrainTask(Inbox inbox) {
+            this.inbox = inbox;
+        }
+
+        @Override
+        public void run() {
+            synchronized (inbox) {
+                ClientHandler owner = inbox.getOwner();
+                if (owner == null || owner.isClosed() || !inbox.isDraining()) {
+                    inbox.setDraining(false);
+                    return;
+                }
+                // 对方的发送队列积压时本轮不投递
+                int budget = owner.getPendingOutbound() > config.maxPendingOutbound ? 0 : config.drainBatch;
+                try {
+                    for (; budget > 0 && !inbox.isEmpty(); budget--) {
+                        owner.send(inbox.poll());
+                        deliveredCounter.increment();
+                    }
+                } catch (IOException e) {
+                    LOGGER.warn("读取收件箱失败：{} {}", inbox.getUserName(), e.getMessage());
+                    inbox.close();
+                    owner.send("部分离线消息读取失败");
+                }
+                if (inbox.isEmpty()) {
+                    inbox.setDraining(false);
+                    long dropped = inbox.takeDroppedCount();
+                    owner.send("离线消息已全部送达" + (dropped > 0 ? "，另有" + dropped + "条因收件箱已满被丢弃" : ""));
+                    return;
+                }
+            }
+            schedule(this, config.drainIntervalMillis);
+        }
+    }
+
+    /**
+     * 定期移除离线且收件箱为空的用户
+     */
+    private class EvictTask implements Runnable {
+        @Override
+        public void run() {
+            long now = System.nanoTime();
+            long idleNanos = TimeUnit.MILLISECONDS.toNanos(config.idleMillis);
+            int count = 0;
+            for (Inbox inbox : inboxes.values()) {
+                synchronized (inbox) {
+                    if (!inbox.isIdle(now, idleNanos)) {
+                        continue;
+                    }
+                    inbox.evict();
+                }
+                inboxes.remove(inbox.getUserName(), inbox);
+                count++;
+            }
+            if (count > 0) {
+                LOGGER.info("移除长时间离线的用户：{}个", count);
+            }
+            schedule(this, EVICT_PERIOD_MILLIS);
+        }
+    }
+
+    public static class Config {
+        private final int memoryMessages;
+        private final long maxDiskBytes;
+        private final int drainBatch;
+        private final long drainIntervalMillis;
+        private final int maxPendingOutbound;
+        private final long idleMillis;
+
+        /**
+         * @param memoryMessages      每个收件箱保存在内存中的消息数，超出后写入磁盘
+         * @param maxDiskBytes        每个收件箱磁盘文件的上限，超出后丢弃新消息
+         * @param drainBatch          每次投递的消息数
+         * @param drainIntervalMillis 两次投递的间隔
+         * @param maxPendingOutbound  对方发送队列超过该长度时暂停投递
+         * @param idleMillis          离线且收件箱为空超过该时长的用户被移除
+         */
+        public Config(int memoryMessages, long maxDiskBytes, int drainBatch,
+                      long drainIntervalMillis, int maxPendingOutbound, long idleMillis) {
+            this.memoryMessages = memoryMessages;
+            this.maxDiskBytes = maxDiskBytes;
+            this.drainBatch = drainBatch;
+            this.drainIntervalMillis = drainIntervalMillis;
+            this.maxPendingOutbound = maxPendingOutbound;
+            this.idleMillis = idleMillis;
+        }
+
+        /**
+         * 读取 clink.inbox.* 系统属性，未设置时使用默认值
+         */
+        public static Config fromSystemProperties() {
+            return new Config(
+                    Integer.getInteger("clink.inbox.memoryMessages", 64),
+                    Long.getLong("clink.inbox.maxDiskBytes", 1024 * 1024),
+                    Integer.getInteger("clink.inbox.drainBatch", 32),
+                    Long.getLong("clink.inbox.drainIntervalMs", 100),
+                    Integer.getInteger("clink.inbox.maxPendingOutbound", 256),
+                    TimeUnit.MINUTES.toMillis(Long.getLong("clink.inbox.idleMinutes", 60)));
+        }
+
+        @Override
+        public String toString() {
+            return "Config{" +
+                    "memoryMessages=" + memoryMessages +
+                    ", maxDiskBytes=" + maxDiskBytes +
+                    ", drainBatch=" + drainBatch +
+                    ", drainIntervalMillis=" + drainIntervalMillis +
+                    ", maxPendingOutbound=" + maxPendingOutbound +
+                    ", idleMillis=" + idleMillis +
+                    '}';
+        }
+    }
+}